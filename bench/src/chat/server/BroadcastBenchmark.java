@@ -0,0 +1,142 @@
+package chat.server;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chat.Protocol;
+import models.Message;
+import models.RandomMessages;
+
+/**
+ * Benchmark de la diffusion d'un message à N clients sans réseau
+ * ({@link InMemoryClient}) telle que réalisée par les {@link ClientHandler} :
+ * encodage du message puis dépôt dans la file d'attente de chaque client
+ * ({@link AbstractChatServer#broadcast(Message)}). La variante "delivered"
+ * inclut l'écriture des messages en attente de chaque client (travail de
+ * leurs écrivains).
+ * @author davidroussel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BroadcastBenchmark
+{
+	/**
+	 * Nombre de messages différents diffusés à tour de rôle
+	 */
+	private final static int COUNT = 1024;
+
+	/**
+	 * Nombre de clients connectés
+	 */
+	@Param({"1", "10", "100", "1000"})
+	public int clients;
+
+	/**
+	 * Protocole utilisé par les clients
+	 */
+	@Param({"serial", "binary"})
+	public String protocol;
+
+	/**
+	 * Le serveur sans réseau
+	 */
+	private InMemoryChatServer server;
+
+	/**
+	 * Les clients sans réseau
+	 */
+	private InMemoryClient[] connected;
+
+	/**
+	 * Les messages à diffuser
+	 */
+	private Message[] messages;
+
+	/**
+	 * Indice du prochain message
+	 */
+	private int index;
+
+	/**
+	 * Connexion des clients au serveur
+	 */
+	@Setup
+	public void setup()
+	{
+		server = new InMemoryChatServer();
+		Protocol clientProtocol = Protocol.fromString(protocol);
+		connected = new InMemoryClient[clients];
+		for (int i = 0; i < clients; i++)
+		{
+			connected[i] = new InMemoryClient("user" + i,
+			                                  clientProtocol,
+			                                  AbstractChatServer.DEFAULTQUEUESIZE);
+			server.addClient(connected[i]);
+		}
+		messages = RandomMessages.generate(COUNT, Math.max(clients, 1));
+		index = 0;
+	}
+
+	/**
+	 * Déconnexion des clients
+	 */
+	@TearDown
+	public void tearDown()
+	{
+		for (InMemoryClient client : connected)
+		{
+			server.removeClient(client);
+			client.cleanup();
+		}
+	}
+
+	/**
+	 * Diffusion d'un message à tous les clients puis écriture des messages
+	 * en attente de chaque client
+	 * @return le nombre d'octets écrits vers le dernier client
+	 * @throws IOException si un message ne peut être encodé
+	 */
+	@Benchmark
+	public long delivered() throws IOException
+	{
+		index = (index + 1) % COUNT;
+		server.broadcast(messages[index]);
+		long written = 0;
+		for (InMemoryClient client : connected)
+		{
+			written = client.drain();
+		}
+		return written;
+	}
+
+	/**
+	 * Diffusion d'un message à tous les clients (dépôt dans leurs files
+	 * d'attente). Les files d'attente bornées abandonnent les plus anciens
+	 * messages : le coût mesuré est celui d'un régime permanent où les
+	 * écrivains ne suivent pas.
+	 * @throws IOException si la diffusion échoue
+	 */
+	@Benchmark
+	public void enqueued() throws IOException
+	{
+		index = (index + 1) % COUNT;
+		server.broadcast(messages[index]);
+	}
+}
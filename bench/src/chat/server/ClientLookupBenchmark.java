@@ -0,0 +1,109 @@
+package chat.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chat.Protocol;
+
+/**
+ * Benchmark de la recherche d'un client par son nom
+ * ({@link AbstractChatServer#searchClientByName(String)}), utilisée à
+ * chaque kick, ainsi que de l'enregistrement d'un nouveau client (vérification
+ * de l'unicité de son nom) parmi N clients.
+ * @author davidroussel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClientLookupBenchmark
+{
+	/**
+	 * Nombre de clients connectés
+	 */
+	@Param({"10", "1000", "100000"})
+	public int clients;
+
+	/**
+	 * Le serveur sans réseau
+	 */
+	private InMemoryChatServer server;
+
+	/**
+	 * Noms des clients recherchés (existants)
+	 */
+	private String[] names;
+
+	/**
+	 * Indice du prochain nom recherché
+	 */
+	private int index;
+
+	/**
+	 * Client se connectant puis se déconnectant
+	 */
+	private InMemoryClient newcomer;
+
+	/**
+	 * Connexion des clients au serveur
+	 */
+	@Setup
+	public void setup()
+	{
+		server = new InMemoryChatServer();
+		names = new String[clients];
+		for (int i = 0; i < clients; i++)
+		{
+			names[i] = "user" + i;
+			server.addClient(new InMemoryClient(names[i], Protocol.BINARY, 1));
+		}
+		newcomer = new InMemoryClient("newcomer", Protocol.BINARY, 1);
+		index = 0;
+	}
+
+	/**
+	 * Recherche d'un client existant
+	 * @return le client trouvé
+	 */
+	@Benchmark
+	public ConnectedClient searchExisting()
+	{
+		index = (index + 1) % clients;
+		return server.searchClientByName(names[index]);
+	}
+
+	/**
+	 * Recherche d'un client inexistant
+	 * @return null
+	 */
+	@Benchmark
+	public ConnectedClient searchMissing()
+	{
+		return server.searchClientByName("nobody");
+	}
+
+	/**
+	 * Connexion puis déconnexion d'un client
+	 * @return true si le client a pu être ajouté
+	 */
+	@Benchmark
+	public boolean joinAndLeave()
+	{
+		boolean added = server.addClient(newcomer);
+		server.removeClient(newcomer);
+		return added;
+	}
+}
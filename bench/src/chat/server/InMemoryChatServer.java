@@ -0,0 +1,41 @@
+package chat.server;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serveur de chat sans réseau utilisé par les benchmarks : seuls l'ensemble
+ * des clients ({@link AbstractChatServer#addClient(ConnectedClient)}), la
+ * recherche des clients et la diffusion des messages sont utilisés.
+ * @author davidroussel
+ */
+public class InMemoryChatServer extends AbstractChatServer
+{
+	/**
+	 * Constructeur d'un serveur sans réseau (sans messages de debug)
+	 */
+	public InMemoryChatServer()
+	{
+		super(false, quietLogger());
+	}
+
+	/**
+	 * Logger parent n'affichant que les erreurs graves
+	 * @return un logger parent silencieux
+	 */
+	private static Logger quietLogger()
+	{
+		Logger logger = Logger.getLogger(InMemoryChatServer.class.getName());
+		logger.setLevel(Level.SEVERE);
+		return logger;
+	}
+
+	/**
+	 * Pas de connexions à attendre
+	 */
+	@Override
+	public void run()
+	{
+		// Rien
+	}
+}
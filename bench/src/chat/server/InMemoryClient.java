@@ -0,0 +1,154 @@
+package chat.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import chat.Protocol;
+
+/**
+ * Client sans réseau utilisé par les benchmarks : les messages diffusés sont
+ * déposés dans une file d'attente ({@link OutboundQueue}) comme pour un
+ * client réel, puis écrits (comme le ferait son {@link ClientWriter}) dans
+ * un flux qui se contente de compter les octets.
+ * @author davidroussel
+ */
+public class InMemoryClient implements ConnectedClient
+{
+	/**
+	 * Le nom du client
+	 */
+	private final String name;
+
+	/**
+	 * Le protocole utilisé par le client
+	 */
+	private final Protocol protocol;
+
+	/**
+	 * La file d'attente des messages à écrire
+	 */
+	private final OutboundQueue outbound;
+
+	/**
+	 * Auteurs déjà connus du client
+	 */
+	private final KnownAuthors knownAuthors;
+
+	/**
+	 * Le salon dont le client est membre
+	 */
+	private volatile Room room;
+
+	/**
+	 * Flux de sortie comptant les octets écrits
+	 */
+	private final CountingOutputStream out;
+
+	/**
+	 * Flux de sortie ne conservant que le nombre d'octets écrits
+	 */
+	private static class CountingOutputStream extends OutputStream
+	{
+		/**
+		 * Nombre d'octets écrits
+		 */
+		private long count = 0;
+
+		@Override
+		public void write(int b)
+		{
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+			count += len;
+		}
+	}
+
+	/**
+	 * Constructeur d'un client sans réseau
+	 * @param name le nom du client
+	 * @param protocol le protocole utilisé par le client
+	 * @param queueSize nombre maximum de messages en attente
+	 */
+	public InMemoryClient(String name, Protocol protocol, int queueSize)
+	{
+		this.name = name;
+		this.protocol = protocol;
+		outbound = new OutboundQueue(queueSize, OverflowPolicy.DROP_OLDEST);
+		knownAuthors = new KnownAuthors();
+		out = new CountingOutputStream();
+	}
+
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+
+	@Override
+	public boolean isReady()
+	{
+		return true;
+	}
+
+	@Override
+	public boolean isBanned()
+	{
+		return false;
+	}
+
+	@Override
+	public void setBanned(boolean banned)
+	{
+		// Rien
+	}
+
+	@Override
+	public Room getRoom()
+	{
+		return room;
+	}
+
+	@Override
+	public void setRoom(Room room)
+	{
+		this.room = room;
+	}
+
+	@Override
+	public void send(EncodedMessage message)
+	{
+		outbound.offer(message);
+	}
+
+	@Override
+	public int getPending()
+	{
+		return outbound.size();
+	}
+
+	/**
+	 * Ecriture des messages en attente
+	 * @return le nombre total d'octets écrits depuis la création du client
+	 * @throws IOException si un message ne peut être encodé
+	 */
+	public long drain() throws IOException
+	{
+		EncodedMessage message;
+		while ((message = outbound.poll()) != null)
+		{
+			boolean withAuthor = knownAuthors.learn(message.getAuthor());
+			message.writeTo(out, protocol, withAuthor);
+		}
+		return out.count;
+	}
+
+	@Override
+	public void cleanup()
+	{
+		outbound.close();
+	}
+}
@@ -0,0 +1,134 @@
+package chat.server;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chat.Protocol;
+import models.Message;
+import models.RandomMessages;
+
+/**
+ * Benchmark de la diffusion d'un lot de messages répartis sur plusieurs
+ * salons ({@link AbstractChatServer#broadcast(Message, Room)}) par un
+ * seul thread lecteur, sans boucles de diffusion (shards = 0 : le thread
+ * lecteur diffuse lui même chaque message) ou bien avec K boucles de
+ * diffusion ({@link BroadcastShards}) auxquelles les salons sont attribués.
+ * Chaque itération attend la fin de toutes les diffusions du lot.
+ * @author davidroussel
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardedBroadcastBenchmark
+{
+	/**
+	 * Nombre de messages d'un lot
+	 */
+	private final static int BATCH = 1024;
+
+	/**
+	 * Nombre de salons
+	 */
+	private final static int ROOMS = 64;
+
+	/**
+	 * Nombre de membres de chaque salon
+	 */
+	private final static int MEMBERS = 32;
+
+	/**
+	 * Nombre de boucles de diffusion
+	 */
+	@Param({"0", "1", "2", "4"})
+	public int shards;
+
+	/**
+	 * Le serveur sans réseau
+	 */
+	private InMemoryChatServer server;
+
+	/**
+	 * Les clients sans réseau
+	 */
+	private InMemoryClient[] connected;
+
+	/**
+	 * Les salons
+	 */
+	private Room[] rooms;
+
+	/**
+	 * Les messages à diffuser
+	 */
+	private Message[] messages;
+
+	/**
+	 * Connexion des clients au serveur et répartition dans les salons
+	 */
+	@Setup
+	public void setup()
+	{
+		server = new InMemoryChatServer();
+		server.setShards(shards);
+		connected = new InMemoryClient[ROOMS * MEMBERS];
+		rooms = new Room[ROOMS];
+		for (int i = 0; i < connected.length; i++)
+		{
+			connected[i] = new InMemoryClient("user" + i,
+			                                  Protocol.BINARY,
+			                                  AbstractChatServer.DEFAULTQUEUESIZE);
+			server.addClient(connected[i]);
+			rooms[i % ROOMS] = server.joinRoom(connected[i], "room" + (i % ROOMS));
+		}
+		messages = RandomMessages.generate(BATCH, connected.length);
+	}
+
+	/**
+	 * Déconnexion des clients et arrêt des boucles de diffusion
+	 */
+	@TearDown
+	public void tearDown()
+	{
+		for (InMemoryClient client : connected)
+		{
+			server.removeClient(client);
+			client.cleanup();
+		}
+		server.stopShards();
+	}
+
+	/**
+	 * Diffusion d'un lot de messages répartis sur tous les salons puis
+	 * attente de la fin des diffusions
+	 * @throws IOException si une diffusion échoue
+	 * @throws InterruptedException si l'attente est interrompue
+	 */
+	@Benchmark
+	public void batch() throws IOException, InterruptedException
+	{
+		for (int i = 0; i < BATCH; i++)
+		{
+			server.broadcast(messages[i], rooms[i % ROOMS]);
+		}
+		if (server.shards != null)
+		{
+			server.shards.await();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import models.Message.MessageOrder;
+
+/**
+ * Benchmark de la comparaison des messages pour chacune des combinaisons de
+ * critères d'ordre ({@link MessageOrder}) : aucun critère (ordre par défaut),
+ * un, deux ou trois critères dans tous les ordres possibles. On mesure une
+ * comparaison isolée ainsi que le tri d'un ensemble de messages (tel que
+ * réalisé à l'affichage des messages), d'une part avec l'ordre naturel des
+ * messages ({@link Message#compareTo(Message)}, critères globaux) et
+ * d'autre part avec un comparateur de {@link MessageComparators} (tel
+ * qu'utilisé par les vues).
+ * @author davidroussel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageCompareBenchmark
+{
+	/**
+	 * Nombre de messages comparés ou triés
+	 */
+	private final static int COUNT = 1024;
+
+	/**
+	 * Critères d'ordre séparés par des tirets ("none" pour l'ordre par
+	 * défaut)
+	 */
+	@Param({"none",
+	        "AUTHOR", "DATE", "CONTENT",
+	        "AUTHOR-DATE", "AUTHOR-CONTENT", "DATE-AUTHOR",
+	        "DATE-CONTENT", "CONTENT-AUTHOR", "CONTENT-DATE",
+	        "AUTHOR-DATE-CONTENT", "AUTHOR-CONTENT-DATE",
+	        "DATE-AUTHOR-CONTENT", "DATE-CONTENT-AUTHOR",
+	        "CONTENT-AUTHOR-DATE", "CONTENT-DATE-AUTHOR"})
+	public String orders;
+
+	/**
+	 * Les messages à comparer (peu d'auteurs afin que les critères suivants
+	 * soient souvent utilisés)
+	 */
+	private Message[] messages;
+
+	/**
+	 * Le comparateur correspondant aux critères d'ordre
+	 */
+	private Comparator<Message> comparator;
+
+	/**
+	 * Indice de la prochaine paire de messages à comparer
+	 */
+	private int index;
+
+	/**
+	 * Mise en place des critères d'ordre et des messages
+	 */
+	@Setup
+	public void setup()
+	{
+		Message.clearOrders();
+		List<MessageOrder> orderList = new ArrayList<MessageOrder>();
+		if (!orders.equals("none"))
+		{
+			for (String order : orders.split("-"))
+			{
+				Message.addOrder(MessageOrder.valueOf(order));
+				orderList.add(MessageOrder.valueOf(order));
+			}
+		}
+		comparator = MessageComparators.of(orderList);
+		messages = RandomMessages.generate(COUNT, 4);
+		index = 0;
+	}
+
+	/**
+	 * Retrait des critères d'ordre
+	 */
+	@TearDown
+	public void tearDown()
+	{
+		Message.clearOrders();
+	}
+
+	/**
+	 * Comparaison de deux messages
+	 * @return le résultat de la comparaison
+	 */
+	@Benchmark
+	public int compare()
+	{
+		index = (index + 1) % (COUNT - 1);
+		return messages[index].compareTo(messages[index + 1]);
+	}
+
+	/**
+	 * Tri de l'ensemble des messages
+	 * @return les messages triés
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Message[] sort()
+	{
+		Message[] sorted = Arrays.copyOf(messages, COUNT);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * Comparaison de deux messages avec le comparateur
+	 * @return le résultat de la comparaison
+	 */
+	@Benchmark
+	public int compareComparator()
+	{
+		index = (index + 1) % (COUNT - 1);
+		return comparator.compare(messages[index], messages[index + 1]);
+	}
+
+	/**
+	 * Tri de l'ensemble des messages avec le comparateur
+	 * @return les messages triés
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Message[] sortComparator()
+	{
+		Message[] sorted = Arrays.copyOf(messages, COUNT);
+		Arrays.sort(sorted, comparator);
+		return sorted;
+	}
+}
@@ -0,0 +1,115 @@
+package models;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark de la sérialisation et de la désérialisation d'un
+ * {@link Message} telles qu'elles sont réalisées entre le serveur et les
+ * clients utilisant le protocole sérialisé : chaque message est écrit
+ * précédé d'un reset (descripteur de classe compris) dans un flux objet
+ * neuf, puis relu.
+ * @author davidroussel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageSerializationBenchmark
+{
+	/**
+	 * Nombre de messages différents utilisés à tour de rôle
+	 */
+	private final static int COUNT = 1024;
+
+	/**
+	 * Les messages à sérialiser
+	 */
+	private Message[] messages;
+
+	/**
+	 * Les messages sérialisés à désérialiser
+	 */
+	private byte[][] serialized;
+
+	/**
+	 * Indice du prochain message
+	 */
+	private int index;
+
+	/**
+	 * Préparation des messages et de leur forme sérialisée
+	 * @throws IOException si la sérialisation échoue
+	 */
+	@Setup
+	public void setup() throws IOException
+	{
+		messages = RandomMessages.generate(COUNT, 16);
+		serialized = new byte[COUNT][];
+		for (int i = 0; i < COUNT; i++)
+		{
+			serialized[i] = serialize(messages[i]);
+		}
+		index = 0;
+	}
+
+	/**
+	 * Sérialisation d'un message dans un nouveau flux objet
+	 * @param message le message à sérialiser
+	 * @return les octets du flux objet
+	 * @throws IOException si la sérialisation échoue
+	 */
+	private static byte[] serialize(Message message) throws IOException
+	{
+		ByteArrayOutputStream bytesOut = new ByteArrayOutputStream(256);
+		ObjectOutputStream objectOut = new ObjectOutputStream(bytesOut);
+		objectOut.reset();
+		objectOut.writeObject(message);
+		objectOut.flush();
+		return bytesOut.toByteArray();
+	}
+
+	/**
+	 * Sérialisation d'un message
+	 * @return les octets du message sérialisé
+	 * @throws IOException si la sérialisation échoue
+	 */
+	@Benchmark
+	public byte[] serialization() throws IOException
+	{
+		index = (index + 1) % COUNT;
+		return serialize(messages[index]);
+	}
+
+	/**
+	 * Désérialisation d'un message
+	 * @return le message désérialisé
+	 * @throws IOException si la désérialisation échoue
+	 * @throws ClassNotFoundException si la classe du message est introuvable
+	 */
+	@Benchmark
+	public Message deserialization() throws IOException, ClassNotFoundException
+	{
+		index = (index + 1) % COUNT;
+		ObjectInputStream objectIn =
+			new ObjectInputStream(new ByteArrayInputStream(serialized[index]));
+		return (Message) objectIn.readObject();
+	}
+}
@@ -0,0 +1,91 @@
+package models;
+
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Génération de messages pseudo-aléatoires (mais reproductibles) pour les
+ * benchmarks : les auteurs sont choisis parmi un nombre fixé d'auteurs, les
+ * dates s'étalent sur une journée et les contenus ont une longueur proche de
+ * celle des messages d'une discussion ordinaire. Une partie des messages n'a
+ * pas d'auteur (messages de contrôle du serveur).
+ * @author davidroussel
+ */
+public class RandomMessages
+{
+	/**
+	 * Graine utilisée par défaut
+	 */
+	public final static long SEED = 1394;
+
+	/**
+	 * Proportion (en %) des messages sans auteur
+	 */
+	public final static int CONTROLRATIO = 5;
+
+	/**
+	 * Mots utilisés pour composer le contenu des messages
+	 */
+	private final static String[] WORDS = {
+		"hello", "salut", "le", "serveur", "message", "client", "bonjour",
+		"chat", "Zébulon", "Ténéphore", "ok", "merci", "à", "plus", "tard",
+		"kick", "logged", "out", "virtual", "thread", "nio", "queue"
+	};
+
+	/**
+	 * Génération de messages
+	 * @param count le nombre de messages à générer
+	 * @param authors le nombre d'auteurs différents
+	 * @param seed la graine du générateur
+	 * @return un tableau de count messages
+	 */
+	public static Message[] generate(int count, int authors, long seed)
+	{
+		Random rand = new Random(seed);
+		long origin = 1700000000000L;
+		Message[] messages = new Message[count];
+		for (int i = 0; i < count; i++)
+		{
+			Date date = new Date(origin + rand.nextInt(86400000));
+			String content = content(rand, 3 + rand.nextInt(10));
+			String author = null;
+			if (rand.nextInt(100) >= CONTROLRATIO)
+			{
+				author = "user" + rand.nextInt(authors);
+			}
+			messages[i] = new Message(date, content, author);
+		}
+		return messages;
+	}
+
+	/**
+	 * Génération de messages avec la graine par défaut
+	 * @param count le nombre de messages à générer
+	 * @param authors le nombre d'auteurs différents
+	 * @return un tableau de count messages
+	 */
+	public static Message[] generate(int count, int authors)
+	{
+		return generate(count, authors, SEED);
+	}
+
+	/**
+	 * Génération du contenu d'un message
+	 * @param rand le générateur à utiliser
+	 * @param words le nombre de mots du message
+	 * @return le contenu du message
+	 */
+	private static String content(Random rand, int words)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < words; i++)
+		{
+			if (i > 0)
+			{
+				sb.append(' ');
+			}
+			sb.append(WORDS[rand.nextInt(WORDS.length)]);
+		}
+		return sb.toString();
+	}
+}
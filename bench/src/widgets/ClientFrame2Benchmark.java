@@ -0,0 +1,108 @@
+package widgets;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import models.Message;
+import models.RandomMessages;
+
+/**
+ * Benchmark de l'insertion d'un message reçu dans le document de la fenêtre
+ * de client ({@link ClientFrame2#messageReceived(Message)}) lorsque
+ * celle-ci contient déjà un historique de messages.
+ * Chaque itération mesure l'insertion d'un lot de messages à partir d'un
+ * historique de taille fixée (la fenêtre est recréée à chaque itération).
+ * Attention : la création de la fenêtre nécessite un affichage (ce
+ * benchmark échoue avec une {@link java.awt.HeadlessException} sans
+ * affichage).
+ * @author davidroussel
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = 100)
+@Measurement(iterations = 5, batchSize = 100)
+@Fork(1)
+@State(Scope.Thread)
+public class ClientFrame2Benchmark
+{
+	/**
+	 * Nombre de messages insérés à chaque itération (batchSize)
+	 */
+	private final static int BATCH = 100;
+
+	/**
+	 * Nombre de messages déjà présents dans la fenêtre
+	 */
+	@Param({"100", "1000"})
+	public int history;
+
+	/**
+	 * La fenêtre de client (non affichée)
+	 */
+	private ClientFrame2 frame;
+
+	/**
+	 * L'historique suivi des messages à insérer
+	 */
+	private Message[] messages;
+
+	/**
+	 * Indice du prochain message à insérer
+	 */
+	private int index;
+
+	/**
+	 * Création des messages
+	 */
+	@Setup(Level.Trial)
+	public void setupMessages()
+	{
+		messages = RandomMessages.generate(history + BATCH, 8);
+	}
+
+	/**
+	 * Création de la fenêtre et insertion de l'historique
+	 */
+	@Setup(Level.Iteration)
+	public void setupFrame()
+	{
+		frame = new ClientFrame2("bench", "localhost", Boolean.TRUE, null);
+		for (index = 0; index < history; index++)
+		{
+			frame.messageReceived(messages[index]);
+		}
+	}
+
+	/**
+	 * Destruction de la fenêtre
+	 */
+	@TearDown(Level.Iteration)
+	public void tearDownFrame()
+	{
+		frame.dispose();
+		frame = null;
+	}
+
+	/**
+	 * Insertion d'un nouveau message
+	 */
+	@Benchmark
+	public void insert()
+	{
+		frame.messageReceived(messages[index]);
+		index++;
+	}
+}
@@ -5,6 +5,7 @@ import java.net.UnknownHostException;
 import java.util.Vector;
 
 import chat.Failure;
+import chat.Protocol;
 import chat.UserOutputType;
 import chat.client.ChatClient;
 import widgets.AbstractClientFrame;
@@ -53,6 +54,16 @@ public class RunChatClient extends AbstractRunChat
 	 */
 	private int guiVersion;
 
+	/**
+	 * Exécute les handlers du client dans des threads virtuels
+	 */
+	private boolean virtualThreads;
+
+	/**
+	 * Protocole demandé au serveur
+	 */
+	private Protocol protocol;
+
 	/**
 	 * Ensemble des threads des clients.
 	 * Il faudra attendre la fin de ces threads pour terminer l'exécution
@@ -104,12 +115,16 @@ public class RunChatClient extends AbstractRunChat
 		host = null;
 		name = null;
 		gui = false;
+		virtualThreads = false;
+		protocol = Protocol.SERIAL;
 
 		/*
 		 * parsing des arguments spécifique au client
 		 * -h | --host : nom ou adresse IP du serveur
 		 * -n | --name : nom d'utilisateur
 		 * -g | --gui : pour lancer le client GUI
+		 * --virtual : pour utiliser des threads virtuels
+		 * -P | --protocol : protocole demandé au serveur (binary | serial)
 		 */
 		for (int i = 0; i < args.length; i++)
 		{
@@ -139,6 +154,28 @@ public class RunChatClient extends AbstractRunChat
 					logger.warning("Setting user name to: nothing, invalid value");
 				}
 			}
+			if (args[i].equals("--protocol") || args[i].equals("-P"))
+			{
+				Protocol readProtocol = null;
+				if (i < (args.length - 1))
+				{
+					readProtocol = Protocol.fromString(args[++i]);
+				}
+				if (readProtocol != null)
+				{
+					protocol = readProtocol;
+					logger.fine("Setting protocol to " + protocol);
+				}
+				else
+				{
+					logger.warning("invalid protocol value");
+				}
+			}
+			if (args[i].equals("--virtual"))
+			{
+				virtualThreads = true;
+				logger.fine("Setting virtual threads on");
+			}
 			if (args[i].equals("--gui") || args[i].equals("-g"))
 			{
 				gui = true;
@@ -213,6 +250,16 @@ public class RunChatClient extends AbstractRunChat
 				System.exit(Failure.NO_ENV_ACCESS.toInteger());
 			}
 		}
+
+		/*
+		 * Un nom commençant comme une demande de protocole serait pris pour
+		 * une demande de protocole par le serveur
+		 */
+		if ((name != null) && !Protocol.isValidName(name))
+		{
+			logger.severe(Failure.INVALID_USER_NAME + " abort");
+			System.exit(Failure.INVALID_USER_NAME.toInteger());
+		}
 	}
 
 	/**
@@ -331,6 +378,8 @@ public class RunChatClient extends AbstractRunChat
 		                                   userOut,		// sorties utilisateur
 		                                   outType,		// Type sortie utilisateur
 		                                   commonRun,	// commonRun avec le GUI
+		                                   virtualThreads, // threads virtuels
+		                                   protocol,	// protocole demandé
 		                                   logger);		// parent logger
 		if (client.isReady())
 		{
@@ -372,6 +421,8 @@ public class RunChatClient extends AbstractRunChat
 	 * <li>--verbose : set verbose on</li>
 	 * <li>--gui <1 or 2>: use graphical interface rather than console interface
 	 * </li>
+	 * <li>--virtual : run client handlers in virtual threads</li>
+	 * <li>--protocol <binary|serial> : protocol requested to the server</li>
 	 * </ul>
 	 */
 	public static void main(String[] args)
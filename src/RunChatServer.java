@@ -1,8 +1,24 @@
+import java.io.File;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
 
 import chat.Failure;
+import chat.Protocol;
+import chat.journal.MessageHistory;
+import chat.journal.MessageJournal;
+import chat.journal.MessageRing;
+import chat.journal.SyncPolicy;
+import chat.server.AbstractChatServer;
 import chat.server.ChatServer;
+import chat.server.Federation;
+import chat.server.NioChatServer;
+import chat.server.OverflowPolicy;
+import chat.server.ServerMode;
 
 /**
  * Classe/programme qui lance un serveur de chat
@@ -22,6 +38,118 @@ public class RunChatServer extends AbstractRunChat
 	 */
 	private boolean quitOnLastclient;
 
+	/**
+	 * Mode d'exécution du serveur : un thread par client ou bien boucles
+	 * d'évènements non bloquantes
+	 */
+	private ServerMode mode;
+
+	/**
+	 * Nombre de boucles d'entrées/sorties utilisées en mode
+	 * {@link ServerMode#NIO}
+	 */
+	private int ioThreads;
+
+	/**
+	 * Nombre de boucles de diffusion auxquelles sont attribués les salons
+	 * (0 pour diffuser les messages depuis le thread qui les a lus)
+	 */
+	private int shards;
+
+	/**
+	 * Nombre maximum de messages en attente d'envoi pour chaque client
+	 */
+	private int queueSize;
+
+	/**
+	 * Politique appliquée lorsque la file d'attente d'un client est pleine
+	 */
+	private OverflowPolicy overflow;
+
+	/**
+	 * Protocole le plus évolué accepté par le serveur
+	 */
+	private Protocol protocol;
+
+	/**
+	 * Fenêtre de regroupement (en ms) des écritures vers les clients
+	 */
+	private long flushWindow;
+
+	/**
+	 * Nombre d'octets maximum d'une écriture groupée vers un client
+	 */
+	private int flushBytes;
+
+	/**
+	 * Répertoire du journal des messages (ou null pour ne pas journaliser
+	 * les messages)
+	 */
+	private String journalDirectory;
+
+	/**
+	 * Taille des segments du journal des messages
+	 */
+	private int segmentSize;
+
+	/**
+	 * Politique d'écriture sur le disque du journal des messages
+	 */
+	private SyncPolicy syncPolicy;
+
+	/**
+	 * Intervalle (en ms) entre deux écritures sur le disque du journal des
+	 * messages
+	 */
+	private long syncInterval;
+
+	/**
+	 * Nombre de messages de l'historique rejoués aux clients qui se
+	 * connectent (ou 0 pour ne pas limiter le nombre de messages)
+	 */
+	private int replayCount;
+
+	/**
+	 * Durée (en minutes) de la période de l'historique rejouée aux clients
+	 * qui se connectent (ou 0 pour ne pas limiter la période)
+	 */
+	private int replayMinutes;
+
+	/**
+	 * Nom du noeud dans la fédération de serveurs (ou null pour utiliser le
+	 * nom de la machine et le port du serveur)
+	 */
+	private String node;
+
+	/**
+	 * Port acceptant les liaisons des autres noeuds de la fédération (ou 0
+	 * pour ne pas accepter de liaisons)
+	 */
+	private int peerPort;
+
+	/**
+	 * Adresses des noeuds vers lesquels établir une liaison
+	 */
+	private List<InetSocketAddress> peers;
+
+	/**
+	 * Nombre maximum de lignes par seconde de chaque client (0 pour ne pas
+	 * limiter)
+	 */
+	private double messageRate;
+
+	/**
+	 * Nombre maximum de caractères par seconde de chaque client (0 pour ne
+	 * pas limiter)
+	 */
+	private double byteRate;
+
+	/**
+	 * Nombre maximum de lignes par seconde de l'ensemble des clients (0 pour
+	 * ne pas limiter)
+	 */
+	private double globalRate;
+
 	/**
 	 * Default time out to wait for client connection : 5 seconds
 	 */
@@ -50,6 +178,26 @@ public class RunChatServer extends AbstractRunChat
 		 */
 		timeout = DEFAULTTIMEOUT;
 		quitOnLastclient = true;
+		mode = ServerMode.THREAD;
+		ioThreads = NioChatServer.DEFAULTIOTHREADS;
+		shards = 0;
+		queueSize = AbstractChatServer.DEFAULTQUEUESIZE;
+		overflow = AbstractChatServer.DEFAULTOVERFLOW;
+		protocol = AbstractChatServer.DEFAULTPROTOCOL;
+		flushWindow = AbstractChatServer.DEFAULTFLUSHWINDOW;
+		flushBytes = AbstractChatServer.DEFAULTFLUSHBYTES;
+		journalDirectory = null;
+		segmentSize = MessageJournal.DEFAULTSEGMENTSIZE;
+		syncPolicy = MessageJournal.DEFAULTSYNCPOLICY;
+		syncInterval = MessageJournal.DEFAULTSYNCINTERVAL;
+		replayCount = 0;
+		replayMinutes = 0;
+		node = null;
+		peerPort = 0;
+		peers = new ArrayList<InetSocketAddress>();
+		messageRate = 0;
+		byteRate = 0;
+		globalRate = 0;
 
 		/*
 		 * parsing des arguments communs aux clients et serveur
@@ -61,6 +209,34 @@ public class RunChatServer extends AbstractRunChat
 		/*
 		 * parsing des arguments spécifique au  serveur
 		 * 	-t | --timeout : timeout d'attente de la server socket
+		 * 	-m | --mode : mode d'exécution du serveur (thread | virtual | nio)
+		 * 	-w | --iothreads : nombre de boucles d'entrées/sorties en mode nio
+		 * 	-k | --shards : nombre de boucles de diffusion des salons
+		 * 	-Q | --queuesize : nombre maximum de messages en attente par client
+		 * 	-o | --overflow : politique de débordement des files d'attente
+		 * 	(drop | disconnect | coalesce)
+		 * 	-P | --protocol : protocole le plus évolué accepté (binary | serial)
+		 * 	-f | --flushwindow : fenêtre de regroupement des écritures (ms)
+		 * 	-b | --flushbytes : nombre d'octets maximum d'une écriture groupée
+		 * 	-j | --journal : répertoire du journal des messages
+		 * 	-s | --segmentsize : taille des segments du journal (Mo)
+		 * 	-y | --sync : politique d'écriture du journal sur le disque
+		 * 	(none | interval | always)
+		 * 	-i | --syncinterval : intervalle entre deux écritures du journal
+		 * 	sur le disque (ms)
+		 * 	-r | --replay : nombre de messages de l'historique rejoués aux
+		 * 	clients qui se connectent
+		 * 	-R | --replayminutes : période de l'historique rejouée aux clients
+		 * 	qui se connectent (minutes)
+		 * 	-N | --node : nom du noeud dans la fédération de serveurs
+		 * 	-F | --federation : port acceptant les liaisons des autres noeuds
+		 * 	-L | --link : adresse (hôte:port) d'un noeud vers lequel établir
+		 * 	une liaison (peut être répété)
+		 * 	-l | --ratelimit : nombre maximum de lignes par seconde par client
+		 * 	-B | --bytelimit : nombre maximum de caractères par seconde par
+		 * 	client
+		 * 	-G | --globallimit : nombre maximum de lignes par seconde pour
+		 * 	l'ensemble des clients
 		 */
 		for (int i=0; i < args.length; i++)
 		{
@@ -91,6 +267,359 @@ public class RunChatServer extends AbstractRunChat
 				quitOnLastclient = false;
 				logger.info("Setting quit on last client to false");
 			}
+			if (args[i].equals("--mode") || args[i].equals("-m"))
+			{
+				ServerMode readMode = null;
+				if (i < (args.length - 1))
+				{
+					readMode = ServerMode.fromString(args[++i]);
+				}
+				if (readMode != null)
+				{
+					mode = readMode;
+					logger.info("Setting server mode to " + mode);
+				}
+				else
+				{
+					logger.warning("invalid server mode value");
+				}
+			}
+			if (args[i].equals("--iothreads") || args[i].equals("-w"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer threadsInteger = readInt(args[++i]);
+					if ((threadsInteger != null) && (threadsInteger.intValue() > 0))
+					{
+						ioThreads = threadsInteger.intValue();
+					}
+					logger.info("Setting io threads to " + ioThreads);
+				}
+				else
+				{
+					logger.warning("invalid io threads value");
+				}
+			}
+			if (args[i].equals("--shards") || args[i].equals("-k"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer shardsInteger = readInt(args[++i]);
+					if ((shardsInteger != null) && (shardsInteger.intValue() >= 0))
+					{
+						shards = shardsInteger.intValue();
+					}
+					logger.info("Setting broadcast shards to " + shards);
+				}
+				else
+				{
+					logger.warning("invalid broadcast shards value");
+				}
+			}
+			if (args[i].equals("--queuesize") || args[i].equals("-Q"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer sizeInteger = readInt(args[++i]);
+					if ((sizeInteger != null) && (sizeInteger.intValue() > 0))
+					{
+						queueSize = sizeInteger.intValue();
+					}
+					logger.info("Setting queue size to " + queueSize);
+				}
+				else
+				{
+					logger.warning("invalid queue size value");
+				}
+			}
+			if (args[i].equals("--overflow") || args[i].equals("-o"))
+			{
+				OverflowPolicy readPolicy = null;
+				if (i < (args.length - 1))
+				{
+					readPolicy = OverflowPolicy.fromString(args[++i]);
+				}
+				if (readPolicy != null)
+				{
+					overflow = readPolicy;
+					logger.info("Setting overflow policy to " + overflow);
+				}
+				else
+				{
+					logger.warning("invalid overflow policy value");
+				}
+			}
+			if (args[i].equals("--protocol") || args[i].equals("-P"))
+			{
+				Protocol readProtocol = null;
+				if (i < (args.length - 1))
+				{
+					readProtocol = Protocol.fromString(args[++i]);
+				}
+				if (readProtocol != null)
+				{
+					protocol = readProtocol;
+					logger.info("Setting protocol to " + protocol);
+				}
+				else
+				{
+					logger.warning("invalid protocol value");
+				}
+			}
+			if (args[i].equals("--flushwindow") || args[i].equals("-f"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer windowInteger = readInt(args[++i]);
+					if ((windowInteger != null) && (windowInteger.intValue() >= 0))
+					{
+						flushWindow = windowInteger.intValue();
+					}
+					logger.info("Setting flush window to " + flushWindow);
+				}
+				else
+				{
+					logger.warning("invalid flush window value");
+				}
+			}
+			if (args[i].equals("--flushbytes") || args[i].equals("-b"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer bytesInteger = readInt(args[++i]);
+					if ((bytesInteger != null) && (bytesInteger.intValue() > 0))
+					{
+						flushBytes = bytesInteger.intValue();
+					}
+					logger.info("Setting flush bytes to " + flushBytes);
+				}
+				else
+				{
+					logger.warning("invalid flush bytes value");
+				}
+			}
+			if (args[i].equals("--journal") || args[i].equals("-j"))
+			{
+				if (i < (args.length - 1))
+				{
+					journalDirectory = args[++i];
+					logger.info("Setting journal directory to "
+						+ journalDirectory);
+				}
+				else
+				{
+					logger.warning("Setting journal directory to: nothing, invalid value");
+				}
+			}
+			if (args[i].equals("--segmentsize") || args[i].equals("-s"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer sizeInteger = readInt(args[++i]);
+					if ((sizeInteger != null) && (sizeInteger.intValue() > 0)
+					    && (sizeInteger.intValue() < 2048))
+					{
+						segmentSize = sizeInteger.intValue() * 1024 * 1024;
+					}
+					logger.info("Setting journal segment size to "
+						+ segmentSize);
+				}
+				else
+				{
+					logger.warning("invalid journal segment size value");
+				}
+			}
+			if (args[i].equals("--sync") || args[i].equals("-y"))
+			{
+				SyncPolicy readPolicy = null;
+				if (i < (args.length - 1))
+				{
+					readPolicy = SyncPolicy.fromString(args[++i]);
+				}
+				if (readPolicy != null)
+				{
+					syncPolicy = readPolicy;
+					logger.info("Setting journal sync policy to " + syncPolicy);
+				}
+				else
+				{
+					logger.warning("invalid journal sync policy value");
+				}
+			}
+			if (args[i].equals("--syncinterval") || args[i].equals("-i"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer intervalInteger = readInt(args[++i]);
+					if ((intervalInteger != null) && (intervalInteger.intValue() > 0))
+					{
+						syncInterval = intervalInteger.intValue();
+					}
+					logger.info("Setting journal sync interval to "
+						+ syncInterval);
+				}
+				else
+				{
+					logger.warning("invalid journal sync interval value");
+				}
+			}
+			if (args[i].equals("--replay") || args[i].equals("-r"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer countInteger = readInt(args[++i]);
+					if ((countInteger != null) && (countInteger.intValue() >= 0))
+					{
+						replayCount = countInteger.intValue();
+					}
+					logger.info("Setting history replay count to "
+						+ replayCount);
+				}
+				else
+				{
+					logger.warning("invalid history replay count value");
+				}
+			}
+			if (args[i].equals("--replayminutes") || args[i].equals("-R"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer minutesInteger = readInt(args[++i]);
+					if ((minutesInteger != null) && (minutesInteger.intValue() >= 0))
+					{
+						replayMinutes = minutesInteger.intValue();
+					}
+					logger.info("Setting history replay period to "
+						+ replayMinutes + " minutes");
+				}
+				else
+				{
+					logger.warning("invalid history replay period value");
+				}
+			}
+			if (args[i].equals("--node") || args[i].equals("-N"))
+			{
+				if (i < (args.length - 1))
+				{
+					node = args[++i];
+					logger.info("Setting federation node name to " + node);
+				}
+				else
+				{
+					logger.warning("invalid federation node name value");
+				}
+			}
+			if (args[i].equals("--federation") || args[i].equals("-F"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer portInteger = readInt(args[++i]);
+					if ((portInteger != null) && (portInteger.intValue() > 1024))
+					{
+						peerPort = portInteger.intValue();
+					}
+					logger.info("Setting federation peer port to " + peerPort);
+				}
+				else
+				{
+					logger.warning("invalid federation peer port value");
+				}
+			}
+			if (args[i].equals("--link") || args[i].equals("-L"))
+			{
+				InetSocketAddress peer = null;
+				if (i < (args.length - 1))
+				{
+					String address = args[++i];
+					int separator = address.lastIndexOf(':');
+					Integer portInteger = (separator > 0 ?
+						readInt(address.substring(separator + 1)) : null);
+					if (portInteger != null)
+					{
+						peer = InetSocketAddress.createUnresolved(
+							address.substring(0, separator),
+							portInteger.intValue());
+					}
+				}
+				if (peer != null)
+				{
+					peers.add(peer);
+					logger.info("Adding federation link to " + peer);
+				}
+				else
+				{
+					logger.warning("invalid federation link value");
+				}
+			}
+			if (args[i].equals("--ratelimit") || args[i].equals("-l"))
+			{
+				if (i < (args.length - 1))
+				{
+					try
+					{
+						double readRate = Double.parseDouble(args[++i]);
+						if (readRate >= 0)
+						{
+							messageRate = readRate;
+						}
+					}
+					catch (NumberFormatException e)
+					{
+						logger.warning("readRate: " + args[i] + " is not a number");
+					}
+					logger.info("Setting client rate limit to " + messageRate);
+				}
+				else
+				{
+					logger.warning("invalid client rate limit value");
+				}
+			}
+			if (args[i].equals("--bytelimit") || args[i].equals("-B"))
+			{
+				if (i < (args.length - 1))
+				{
+					try
+					{
+						double readRate = Double.parseDouble(args[++i]);
+						if (readRate >= 0)
+						{
+							byteRate = readRate;
+						}
+					}
+					catch (NumberFormatException e)
+					{
+						logger.warning("readRate: " + args[i] + " is not a number");
+					}
+					logger.info("Setting client byte rate limit to " + byteRate);
+				}
+				else
+				{
+					logger.warning("invalid client byte rate limit value");
+				}
+			}
+			if (args[i].equals("--globallimit") || args[i].equals("-G"))
+			{
+				if (i < (args.length - 1))
+				{
+					try
+					{
+						double readRate = Double.parseDouble(args[++i]);
+						if (readRate >= 0)
+						{
+							globalRate = readRate;
+						}
+					}
+					catch (NumberFormatException e)
+					{
+						logger.warning("readRate: " + args[i] + " is not a number");
+					}
+					logger.info("Setting global rate limit to " + globalRate);
+				}
+				else
+				{
+					logger.warning("invalid global rate limit value");
+				}
+			}
 		}
 	}
 
@@ -104,13 +633,32 @@ public class RunChatServer extends AbstractRunChat
 		 * Create and Launch server on local ip adress with port number and verbose
 		 * status
 		 */
-		logger.info("Creating server on port " + port + " with timeout "
-				+ timeout + " ms and verbose " + (verbose ? "on" : "off"));
+		logger.info("Creating " + mode + " server on port " + port
+				+ " with timeout " + timeout + " ms and verbose "
+				+ (verbose ? "on" : "off"));
 
-		ChatServer server = null;
+		AbstractChatServer server = null;
 		try
 		{
-			server = new ChatServer(port, timeout, quitOnLastclient, logger);
+			switch (mode)
+			{
+				case NIO:
+					server = new NioChatServer(port,
+					                           timeout,
+					                           quitOnLastclient,
+					                           ioThreads,
+					                           logger);
+					break;
+				case VIRTUAL:
+				case THREAD:
+				default:
+					server = new ChatServer(port,
+					                        timeout,
+					                        quitOnLastclient,
+					                        mode == ServerMode.VIRTUAL,
+					                        logger);
+					break;
+			}
 		}
 		catch (SocketException se)
 		{
@@ -125,10 +673,83 @@ public class RunChatServer extends AbstractRunChat
 			System.exit(Failure.CREATE_SERVER_SOCKET.toInteger());
 		}
 
+		/*
+		 * Historique des messages : journal persistant s'il est demandé, ou
+		 * bien tampon en mémoire des derniers messages si seul le rejeu est
+		 * demandé
+		 */
+		MessageHistory history = null;
+		if (journalDirectory != null)
+		{
+			try
+			{
+				history = new MessageJournal(new File(journalDirectory),
+				                             segmentSize,
+				                             syncPolicy,
+				                             syncInterval,
+				                             logger);
+			}
+			catch (IOException e)
+			{
+				logger.severe(Failure.OPEN_JOURNAL + " in " + journalDirectory
+					+ ", abort ...");
+				logger.severe(e.getLocalizedMessage());
+				System.exit(Failure.OPEN_JOURNAL.toInteger());
+			}
+		}
+		else if ((replayCount > 0) || (replayMinutes > 0))
+		{
+			history = new MessageRing(Math.max(replayCount,
+			                                   MessageRing.DEFAULTCAPACITY));
+		}
+
+		Federation federation = null;
+		if ((server != null) && ((peerPort > 0) || !peers.isEmpty()))
+		{
+			if (node == null)
+			{
+				try
+				{
+					node = InetAddress.getLocalHost().getHostName() + ":" + port;
+				}
+				catch (UnknownHostException e)
+				{
+					node = "localhost:" + port;
+				}
+			}
+			try
+			{
+				federation = new Federation(server,
+				                            node,
+				                            peerPort,
+				                            peers,
+				                            logger);
+			}
+			catch (IOException e)
+			{
+				logger.severe(Failure.CREATE_PEER_SOCKET + " on port "
+					+ peerPort + ", abort ...");
+				logger.severe(e.getLocalizedMessage());
+				System.exit(Failure.CREATE_PEER_SOCKET.toInteger());
+			}
+		}
+
 		// Wait for serverThread to stop
 		Thread serverThread = null;
 		if (server != null)
 		{
+			server.setOutboundQueue(queueSize, overflow);
+			server.setProtocol(protocol);
+			server.setFlush(flushWindow, flushBytes);
+			server.setShards(shards);
+			server.setRateLimits(messageRate, byteRate, globalRate);
+			server.setHistory(history);
+			server.setReplay(replayCount, replayMinutes);
+			server.setFederation(federation);
+			if (federation != null)
+			{
+				federation.start();
+			}
 			serverThread = new Thread(server);
 			serverThread.start();
 
@@ -144,6 +765,15 @@ public class RunChatServer extends AbstractRunChat
 				logger.severe(e.getLocalizedMessage());
 			}
 		}
+
+		if (federation != null)
+		{
+			federation.close();
+		}
+		if (history != null)
+		{
+			history.close();
+		}
 	}
 
 	/**
@@ -153,6 +783,29 @@ public class RunChatServer extends AbstractRunChat
 	 * 	<li>--port <port number> : set host connection port</li>
 	 * 	<li>--verbose : set verbose on</li>
 	 * 	<li>--timeout <timeout in ms> : server socket waiting time out</li>
+	 * 	<li>--mode <thread|virtual|nio> : server execution mode</li>
+	 * 	<li>--iothreads <n> : number of io loops in nio mode</li>
+	 * 	<li>--shards <n> : number of broadcast loops rooms are pinned to</li>
+	 * 	<li>--queuesize <n> : max pending messages per client</li>
+	 * 	<li>--overflow <drop|disconnect|coalesce> : full queue policy</li>
+	 * 	<li>--protocol <binary|serial> : most compact protocol accepted</li>
+	 * 	<li>--flushwindow <ms> : time to wait for more messages before a
+	 * 	flush</li>
+	 * 	<li>--flushbytes <n> : max bytes written per flush</li>
+	 * 	<li>--journal <directory> : persistent message journal</li>
+	 * 	<li>--segmentsize <MB> : journal segment size</li>
+	 * 	<li>--sync <none|interval|always> : journal sync policy</li>
+	 * 	<li>--syncinterval <ms> : time between journal syncs</li>
+	 * 	<li>--replay <n> : number of past messages sent to joining
+	 * 	clients</li>
+	 * 	<li>--replayminutes <min> : period of past messages sent to joining
+	 * 	clients</li>
+	 * 	<li>--node <name> : node name in a federation of servers</li>
+	 * 	<li>--federation <port> : port accepting links from other nodes</li>
+	 * 	<li>--link <host:port> : other node to link to (repeatable)</li>
+	 * 	<li>--ratelimit <n> : max lines per second per client</li>
+	 * 	<li>--bytelimit <n> : max characters per second per client</li>
+	 * 	<li>--globallimit <n> : max lines per second for all clients</li>
 	 * </ul>
 	 */
 	public static void main(String[] args)
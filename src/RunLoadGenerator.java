@@ -0,0 +1,378 @@
+import java.io.IOException;
+
+import chat.Failure;
+import chat.Protocol;
+import chat.load.LoadGenerator;
+import chat.load.ServerMonitor;
+
+/**
+ * Classe/programme qui lance un générateur de charge (sans interface
+ * graphique) sur un serveur de chat
+ * @author davidroussel
+ */
+public class RunLoadGenerator extends AbstractRunChat
+{
+	/**
+	 * Hôte sur lequel se trouve le serveur de chat
+	 */
+	private String host;
+
+	/**
+	 * Préfixe du nom des clients de charge
+	 */
+	private String prefix;
+
+	/**
+	 * Nombre de clients de charge
+	 */
+	private int clients;
+
+	/**
+	 * Nombre de messages envoyés par seconde par chaque client
+	 */
+	private double rate;
+
+	/**
+	 * Taille (en caractères) du contenu des messages
+	 */
+	private int size;
+
+	/**
+	 * Durée du test en secondes
+	 */
+	private int duration;
+
+	/**
+	 * Intervalle entre deux rapports en secondes
+	 */
+	private int interval;
+
+	/**
+	 * Nombre de connexions par seconde lors de la montée en charge
+	 */
+	private int ramp;
+
+	/**
+	 * Protocole demandé au serveur
+	 */
+	private Protocol protocol;
+
+	/**
+	 * Lecture des messages dans des threads virtuels
+	 */
+	private boolean virtualThreads;
+
+	/**
+	 * Adresse "hôte:port" de l'agent JMX du serveur (ou null)
+	 */
+	private String jmx;
+
+	/**
+	 * Nombre de clients par défaut
+	 */
+	public static final int DEFAULTCLIENTS = 100;
+
+	/**
+	 * Débit par défaut de chaque client (messages par seconde)
+	 */
+	public static final double DEFAULTRATE = 1.0;
+
+	/**
+	 * Taille par défaut du contenu des messages
+	 */
+	public static final int DEFAULTSIZE = 64;
+
+	/**
+	 * Durée par défaut du test (en secondes)
+	 */
+	public static final int DEFAULTDURATION = 60;
+
+	/**
+	 * Intervalle par défaut entre deux rapports (en secondes)
+	 */
+	public static final int DEFAULTINTERVAL = 5;
+
+	/**
+	 * Constructeur d'un lanceur de générateur de charge d'après les
+	 * arguments du programme principal
+	 * @param args les arguments du programme principal
+	 */
+	protected RunLoadGenerator(String[] args)
+	{
+		super(args);
+	}
+
+	/**
+	 * Mise en place des attributs du générateur de charge en fonction des
+	 * arguments utilisés dans la ligne de commande
+	 * @param args les arguments fournis au programme principal.
+	 */
+	@Override
+	protected void setAttributes(String[] args)
+	{
+		/*
+		 * parsing des arguments communs aux clients et serveur
+		 * 	-v | --verbose
+		 * 	-p | --port : port du serveur
+		 */
+		super.setAttributes(args);
+
+		/*
+		 * On met d'abord les attributs locaux à leur valeur par défaut
+		 */
+		host = "localhost";
+		prefix = "load";
+		clients = DEFAULTCLIENTS;
+		rate = DEFAULTRATE;
+		size = DEFAULTSIZE;
+		duration = DEFAULTDURATION;
+		interval = DEFAULTINTERVAL;
+		ramp = 0;
+		protocol = Protocol.BINARY;
+		virtualThreads = false;
+		jmx = null;
+
+		/*
+		 * parsing des arguments spécifiques au générateur de charge
+		 * 	-h | --host : nom ou adresse IP du serveur
+		 * 	-n | --name : préfixe du nom des clients
+		 * 	-c | --clients : nombre de clients
+		 * 	-r | --rate : messages par seconde par client
+		 * 	-s | --size : taille du contenu des messages
+		 * 	-d | --duration : durée du test (s)
+		 * 	-i | --interval : intervalle entre deux rapports (s)
+		 * 	-R | --ramp : connexions par seconde
+		 * 	-P | --protocol : protocole demandé au serveur (binary | serial)
+		 * 	--virtual : lecture des messages dans des threads virtuels
+		 * 	-J | --jmx : adresse hôte:port de l'agent JMX du serveur
+		 */
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("--host") || args[i].equals("-h"))
+			{
+				if (i < (args.length - 1))
+				{
+					host = args[++i];
+					logger.fine("Setting host to " + host);
+				}
+				else
+				{
+					logger.warning("Setting host to: nothing, invalid value");
+				}
+			}
+			if (args[i].equals("--name") || args[i].equals("-n"))
+			{
+				if (i < (args.length - 1))
+				{
+					prefix = args[++i];
+					logger.fine("Setting name prefix to " + prefix);
+				}
+				else
+				{
+					logger.warning("Setting name prefix to: nothing, invalid value");
+				}
+			}
+			if (args[i].equals("--clients") || args[i].equals("-c"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer clientsInteger = readInt(args[++i]);
+					if ((clientsInteger != null) && (clientsInteger.intValue() > 0))
+					{
+						clients = clientsInteger.intValue();
+					}
+					logger.fine("Setting clients to " + clients);
+				}
+				else
+				{
+					logger.warning("invalid clients value");
+				}
+			}
+			if (args[i].equals("--rate") || args[i].equals("-r"))
+			{
+				if (i < (args.length - 1))
+				{
+					try
+					{
+						double readRate = Double.parseDouble(args[++i]);
+						if (readRate >= 0)
+						{
+							rate = readRate;
+						}
+					}
+					catch (NumberFormatException e)
+					{
+						logger.warning("readRate: " + args[i] + " is not a number");
+					}
+					logger.fine("Setting rate to " + rate);
+				}
+				else
+				{
+					logger.warning("invalid rate value");
+				}
+			}
+			if (args[i].equals("--size") || args[i].equals("-s"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer sizeInteger = readInt(args[++i]);
+					if ((sizeInteger != null) && (sizeInteger.intValue() > 0))
+					{
+						size = sizeInteger.intValue();
+					}
+					logger.fine("Setting message size to " + size);
+				}
+				else
+				{
+					logger.warning("invalid message size value");
+				}
+			}
+			if (args[i].equals("--duration") || args[i].equals("-d"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer durationInteger = readInt(args[++i]);
+					if ((durationInteger != null) && (durationInteger.intValue() > 0))
+					{
+						duration = durationInteger.intValue();
+					}
+					logger.fine("Setting duration to " + duration);
+				}
+				else
+				{
+					logger.warning("invalid duration value");
+				}
+			}
+			if (args[i].equals("--interval") || args[i].equals("-i"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer intervalInteger = readInt(args[++i]);
+					if ((intervalInteger != null) && (intervalInteger.intValue() > 0))
+					{
+						interval = intervalInteger.intValue();
+					}
+					logger.fine("Setting report interval to " + interval);
+				}
+				else
+				{
+					logger.warning("invalid report interval value");
+				}
+			}
+			if (args[i].equals("--ramp") || args[i].equals("-R"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer rampInteger = readInt(args[++i]);
+					if ((rampInteger != null) && (rampInteger.intValue() >= 0))
+					{
+						ramp = rampInteger.intValue();
+					}
+					logger.fine("Setting ramp to " + ramp);
+				}
+				else
+				{
+					logger.warning("invalid ramp value");
+				}
+			}
+			if (args[i].equals("--protocol") || args[i].equals("-P"))
+			{
+				Protocol readProtocol = null;
+				if (i < (args.length - 1))
+				{
+					readProtocol = Protocol.fromString(args[++i]);
+				}
+				if (readProtocol != null)
+				{
+					protocol = readProtocol;
+					logger.fine("Setting protocol to " + protocol);
+				}
+				else
+				{
+					logger.warning("invalid protocol value");
+				}
+			}
+			if (args[i].equals("--virtual"))
+			{
+				virtualThreads = true;
+				logger.fine("Setting virtual threads on");
+			}
+			if (args[i].equals("--jmx") || args[i].equals("-J"))
+			{
+				if (i < (args.length - 1))
+				{
+					jmx = args[++i];
+					logger.fine("Setting server jmx agent to " + jmx);
+				}
+				else
+				{
+					logger.warning("Setting server jmx agent to: nothing, invalid value");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lancement du générateur de charge
+	 */
+	@Override
+	protected void launch()
+	{
+		ServerMonitor monitor = null;
+		try
+		{
+			monitor = new ServerMonitor(jmx, logger);
+		}
+		catch (IOException e)
+		{
+			logger.severe(Failure.CLIENT_CONNECTION + " to jmx agent \"" + jmx
+				+ "\"");
+			logger.severe(e.getLocalizedMessage());
+			System.exit(Failure.CLIENT_CONNECTION.toInteger());
+		}
+
+		LoadGenerator generator = new LoadGenerator(host,
+		                                            port,
+		                                            prefix,
+		                                            clients,
+		                                            rate,
+		                                            size,
+		                                            duration,
+		                                            interval,
+		                                            ramp,
+		                                            protocol,
+		                                            virtualThreads,
+		                                            monitor,
+		                                            System.out,
+		                                            logger);
+		generator.run();
+	}
+
+	/**
+	 * Programme principal
+	 * @param args les arguments
+	 * <ul>
+	 * 	<li>--port <port number> : set host connection port</li>
+	 * 	<li>--verbose : set verbose on</li>
+	 * 	<li>--host <host> : server host</li>
+	 * 	<li>--name <prefix> : clients name prefix</li>
+	 * 	<li>--clients <n> : number of clients</li>
+	 * 	<li>--rate <r> : messages per second per client</li>
+	 * 	<li>--size <n> : message content size</li>
+	 * 	<li>--duration <s> : test duration</li>
+	 * 	<li>--interval <s> : time between reports</li>
+	 * 	<li>--ramp <n> : connections per second</li>
+	 * 	<li>--protocol <binary|serial> : protocol requested</li>
+	 * 	<li>--virtual : read messages in virtual threads</li>
+	 * 	<li>--jmx <host:port> : server jmx agent</li>
+	 * </ul>
+	 */
+	public static void main(String[] args)
+	{
+		RunLoadGenerator generator = new RunLoadGenerator(args);
+
+		generator.launch();
+
+		System.exit(0);
+	}
+}
@@ -0,0 +1,329 @@
+package chat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codage et décodage des trames du protocole binaire ({@link Protocol#BINARY}).
+ * Chaque trame est précédée de sa longueur codée en varint (entier non signé
+ * de longueur variable, 7 bits par octet, poids faibles en premier).
+ * <ul>
+ * <li>client vers serveur : une trame contient une ligne de texte (message
+ * ou commande) codée en UTF-8</li>
+ * <li>serveur vers client : le flux commence par {@link #MAGIC}, puis chaque
+ * trame commence par un octet de type :
+ * 	<ul>
+ * 	<li>{@link #AUTHOR} : varint identifiant, nom de l'auteur en UTF-8.
+ * 	Définit l'identifiant d'un auteur avant sa première utilisation. Un
+ * 	identifiant peut être redéfini : il désigne alors un autre auteur pour
+ * 	les messages suivants</li>
+ * 	<li>{@link #MESSAGE} : date (ms depuis l'epoch, 8 octets), varint
+ * 	identifiant de l'auteur (0 si le message n'a pas d'auteur), contenu en
+ * 	UTF-8</li>
+ * 	</ul>
+ * </li>
+ * </ul>
+ * Aucune réflexion n'est utilisée et chaque auteur n'est transmis qu'une fois
+ * par connexion.
+ * @author davidroussel
+ */
+public class BinaryCodec
+{
+	/**
+	 * Entête d'un flux serveur vers client utilisant le protocole binaire.
+	 * Se distingue de l'entête d'un flux objet (0xACED).
+	 */
+	public final static byte[] MAGIC = {'C', 'H', 'T', 'B'};
+
+	/**
+	 * Type de trame : définition d'un auteur
+	 */
+	public final static byte AUTHOR = 1;
+
+	/**
+	 * Type de trame : message
+	 */
+	public final static byte MESSAGE = 2;
+
+	/**
+	 * Taille maximum d'une trame (au delà le flux est considéré comme
+	 * corrompu)
+	 */
+	public final static int MAXFRAMESIZE = 1 << 20;
+
+	/**
+	 * Jeu de caractères des textes transmis
+	 */
+	public final static Charset UTF8 = StandardCharsets.UTF_8;
+
+	/**
+	 * Nombre d'octets nécessaires pour coder un entier en varint
+	 * @param value l'entier (positif ou nul) à coder
+	 * @return le nombre d'octets du varint
+	 */
+	public static int varintSize(int value)
+	{
+		int size = 1;
+		while ((value & ~0x7F) != 0)
+		{
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	/**
+	 * Codage d'un entier en varint dans un tableau
+	 * @param dest le tableau destination
+	 * @param offset l'indice à partir duquel écrire
+	 * @param value l'entier (positif ou nul) à coder
+	 * @return l'indice suivant le dernier octet écrit
+	 */
+	public static int putVarint(byte[] dest, int offset, int value)
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			dest[offset++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		dest[offset++] = (byte) value;
+		return offset;
+	}
+
+	/**
+	 * Lecture d'un varint dans un tableau
+	 * @param src le tableau
+	 * @param offset l'indice du premier octet du varint
+	 * @return l'entier lu (le nombre d'octets lus est donné par
+	 * {@link #varintSize(int)})
+	 * @throws StreamCorruptedException si le varint dépasse la fin du
+	 * tableau ou est trop long
+	 */
+	public static int getVarint(byte[] src, int offset)
+	    throws StreamCorruptedException
+	{
+		int value = 0;
+		for (int shift = 0; (shift < 32) && (offset < src.length); shift += 7)
+		{
+			byte b = src[offset++];
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return value;
+			}
+		}
+		throw new StreamCorruptedException("invalid varint");
+	}
+
+	/**
+	 * Lecture d'un varint
+	 * @param in le flux d'entrée
+	 * @return l'entier lu ou bien -1 si le flux se termine avant le premier
+	 * octet
+	 * @throws IOException si la lecture échoue, si le flux se termine au
+	 * milieu du varint ou si celui ci est trop long
+	 */
+	public static int readVarint(InputStream in) throws IOException
+	{
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7)
+		{
+			int b = in.read();
+			if (b < 0)
+			{
+				if (shift == 0)
+				{
+					return -1;
+				}
+				throw new EOFException("truncated varint");
+			}
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return value;
+			}
+		}
+		throw new StreamCorruptedException("varint too long");
+	}
+
+	/**
+	 * Lecture du contenu d'une trame
+	 * @param in le flux d'entrée
+	 * @return le contenu de la trame (sans sa longueur) ou bien null si le
+	 * flux est terminé
+	 * @throws IOException si la lecture échoue, si le flux se termine au
+	 * milieu de la trame ou si la trame est trop grande
+	 */
+	public static byte[] readFrame(InputStream in) throws IOException
+	{
+		int length = readVarint(in);
+		if (length < 0)
+		{
+			return null;
+		}
+		if (length > MAXFRAMESIZE)
+		{
+			throw new StreamCorruptedException("frame too large: " + length);
+		}
+		byte[] frame = new byte[length];
+		int read = 0;
+		while (read < length)
+		{
+			int n = in.read(frame, read, length - read);
+			if (n < 0)
+			{
+				throw new EOFException("truncated frame");
+			}
+			read += n;
+		}
+		return frame;
+	}
+
+	/**
+	 * Création d'une trame (longueur puis contenu)
+	 * @param type octet de type de la trame ou bien -1 pour une trame sans
+	 * type (client vers serveur)
+	 * @param prefix octets suivant le type (éventuellement vide)
+	 * @param prefixLength nombre d'octets à utiliser dans prefix
+	 * @param text texte à coder en UTF-8 à la fin de la trame
+	 * @return la trame complète
+	 */
+	private static byte[] frame(int type,
+	                            byte[] prefix,
+	                            int prefixLength,
+	                            String text)
+	{
+		byte[] textBytes = text.getBytes(UTF8);
+		int length = (type >= 0 ? 1 : 0) + prefixLength + textBytes.length;
+		byte[] frame = new byte[varintSize(length) + length];
+		int offset = putVarint(frame, 0, length);
+		if (type >= 0)
+		{
+			frame[offset++] = (byte) type;
+		}
+		System.arraycopy(prefix, 0, frame, offset, prefixLength);
+		offset += prefixLength;
+		System.arraycopy(textBytes, 0, frame, offset, textBytes.length);
+		return frame;
+	}
+
+	/**
+	 * Création d'une trame de texte (client vers serveur)
+	 * @param text la ligne de texte
+	 * @return la trame complète
+	 */
+	public static byte[] textFrame(String text)
+	{
+		return frame(-1, new byte[0], 0, text);
+	}
+
+	/**
+	 * Création d'une trame de définition d'auteur (serveur vers client)
+	 * @param id l'identifiant de l'auteur (strictement positif)
+	 * @param name le nom de l'auteur
+	 * @return la trame complète
+	 */
+	public static byte[] authorFrame(int id, String name)
+	{
+		byte[] prefix = new byte[5];
+		int length = putVarint(prefix, 0, id);
+		return frame(AUTHOR, prefix, length, name);
+	}
+
+	/**
+	 * Création d'une trame de message (serveur vers client)
+	 * @param date la date du message en ms depuis l'epoch
+	 * @param authorId l'identifiant de l'auteur (préalablement défini par
+	 * une trame {@link #AUTHOR}) ou bien 0 si le message n'a pas d'auteur
+	 * @param content le contenu du message
+	 * @return la trame complète
+	 */
+	public static byte[] messageFrame(long date, int authorId, String content)
+	{
+		byte[] prefix = new byte[13];
+		for (int i = 0; i < 8; i++)
+		{
+			prefix[i] = (byte) (date >>> (56 - (8 * i)));
+		}
+		int length = putVarint(prefix, 8, authorId);
+		return frame(MESSAGE, prefix, length, content);
+	}
+
+	/**
+	 * Lecture d'un entier long (8 octets, poids forts en premier) dans un
+	 * tableau
+	 * @param src le tableau
+	 * @param offset l'indice du premier octet
+	 * @return l'entier lu
+	 */
+	public static long getLong(byte[] src, int offset)
+	{
+		long value = 0;
+		for (int i = 0; i < 8; i++)
+		{
+			value = (value << 8) | (src[offset + i] & 0xFF);
+		}
+		return value;
+	}
+
+	/**
+	 * Ecriture d'une ligne de texte suivie d'un saut de ligne (utilisé lors
+	 * de la négociation du protocole)
+	 * @param out le flux de sortie
+	 * @param line la ligne à écrire
+	 * @param charset le jeu de caractères à utiliser
+	 * @throws IOException si l'écriture échoue
+	 */
+	public static void writeLine(OutputStream out, String line, Charset charset)
+	    throws IOException
+	{
+		out.write((line + Vocabulary.newLine).getBytes(charset));
+		out.flush();
+	}
+
+	/**
+	 * Lecture d'une ligne de texte octet par octet, sans lire au delà du
+	 * saut de ligne : les octets suivants (éventuellement binaires) restent
+	 * disponibles dans le flux. Utilisé pour la négociation du protocole.
+	 * @param in le flux d'entrée
+	 * @param charset le jeu de caractères de la ligne
+	 * @return la ligne lue (sans "\n" ni "\r\n") ou bien null si le flux est
+	 * terminé
+	 * @throws IOException si la lecture échoue ou que la ligne est trop longue
+	 */
+	public static String readLine(InputStream in, Charset charset)
+	    throws IOException
+	{
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != '\n')
+		{
+			if (b < 0)
+			{
+				if (line.size() == 0)
+				{
+					return null;
+				}
+				break;
+			}
+			if (line.size() >= MAXFRAMESIZE)
+			{
+				throw new StreamCorruptedException("line too long");
+			}
+			line.write(b);
+		}
+		byte[] bytes = line.toByteArray();
+		int length = bytes.length;
+		if ((length > 0) && (bytes[length - 1] == '\r'))
+		{
+			length--;
+		}
+		return new String(bytes, 0, length, charset);
+	}
+}
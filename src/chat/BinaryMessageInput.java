@@ -0,0 +1,121 @@
+package chat;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+
+import models.AuthorSymbols;
+import models.Message;
+
+/**
+ * Flux de messages du protocole binaire ({@link Protocol#BINARY}). Les
+ * trames de définition des auteurs sont mémorisées afin de retrouver
+ * l'auteur de chaque message à partir de son identifiant : les noms reçus
+ * sont enregistrés dans la table des symboles des auteurs
+ * ({@link AuthorSymbols}) et les messages partagent le nom et l'identifiant
+ * local de leur auteur.
+ * @author davidroussel
+ */
+public class BinaryMessageInput implements MessageInput
+{
+	/**
+	 * Le flux en provenance du serveur (dont l'entête a déjà été lu)
+	 */
+	private final InputStream in;
+
+	/**
+	 * Identifiants locaux ({@link AuthorSymbols}) des auteurs indexés par
+	 * leur identifiant dans le flux (-1 pour un auteur non défini)
+	 */
+	private int[] authors;
+
+	/**
+	 * Constructeur d'un flux de messages binaires
+	 * @param in le flux en provenance du serveur (dont l'entête
+	 * {@link BinaryCodec#MAGIC} a déjà été lu)
+	 */
+	public BinaryMessageInput(InputStream in)
+	{
+		this.in = new BufferedInputStream(in);
+		authors = new int[16];
+		Arrays.fill(authors, -1);
+		authors[0] = AuthorSymbols.NONE; // identifiant 0 : pas d'auteur
+	}
+
+	@Override
+	public Message readMessage() throws IOException
+	{
+		byte[] frame;
+		while ((frame = BinaryCodec.readFrame(in)) != null)
+		{
+			if (frame.length < 2)
+			{
+				throw new StreamCorruptedException("frame too short");
+			}
+			int offset = 1;
+			switch (frame[0])
+			{
+				case BinaryCodec.AUTHOR:
+				{
+					int id = BinaryCodec.getVarint(frame, offset);
+					offset += BinaryCodec.varintSize(id);
+					if ((id <= 0) || (id > BinaryCodec.MAXFRAMESIZE))
+					{
+						throw new StreamCorruptedException("invalid author " + id);
+					}
+					String name = new String(frame,
+					                         offset,
+					                         frame.length - offset,
+					                         BinaryCodec.UTF8);
+					if (id >= authors.length)
+					{
+						int length = authors.length;
+						authors = Arrays.copyOf(authors,
+						                        Math.max(id + 1, 2 * length));
+						Arrays.fill(authors, length, authors.length, -1);
+					}
+					authors[id] = AuthorSymbols.getInstance().idOf(name);
+					break;
+				}
+				case BinaryCodec.MESSAGE:
+				{
+					if (frame.length < 10)
+					{
+						throw new StreamCorruptedException("message frame too short");
+					}
+					long date = BinaryCodec.getLong(frame, offset);
+					offset += 8;
+					int id = BinaryCodec.getVarint(frame, offset);
+					offset += BinaryCodec.varintSize(id);
+					if ((id < 0) || (id >= authors.length) || (authors[id] < 0))
+					{
+						throw new StreamCorruptedException("unknown author " + id);
+					}
+					String content = new String(frame,
+					                            offset,
+					                            frame.length - offset,
+					                            BinaryCodec.UTF8);
+					return new Message(date, content, authors[id]);
+				}
+				default:
+					throw new StreamCorruptedException("unknown frame type "
+						+ frame[0]);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Protocol getProtocol()
+	{
+		return Protocol.BINARY;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+}
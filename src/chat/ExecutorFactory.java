@@ -0,0 +1,102 @@
+package chat;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Fabrique des {@link ExecutorService} utilisés pour exécuter les différents
+ * Runnable des clients et serveurs de chat :
+ * <ul>
+ * <li>soit un thread "classique" (de plateforme) par tâche</li>
+ * <li>soit un thread virtuel par tâche, lorsque la JVM les supporte
+ * (Java 21 et plus). Un thread virtuel bloqué sur une lecture ne coûte que
+ * quelques kilo-octets au lieu d'une pile complète de thread de plateforme.
+ * </li>
+ * </ul>
+ * Les threads virtuels sont obtenus par introspection afin que le projet
+ * puisse toujours être compilé et exécuté sur des JVM plus anciennes.
+ * @author davidroussel
+ */
+public class ExecutorFactory
+{
+	/**
+	 * Méthode {@code Executors.newVirtualThreadPerTaskExecutor()} ou bien
+	 * null si la JVM ne supporte pas les threads virtuels
+	 */
+	private static final Method virtualFactory = findVirtualFactory();
+
+	/**
+	 * Recherche de la méthode de création d'un exécuteur de threads virtuels
+	 * @return la méthode de création ou bien null si elle n'existe pas
+	 */
+	private static Method findVirtualFactory()
+	{
+		try
+		{
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		}
+		catch (NoSuchMethodException | SecurityException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Indique si la JVM courante supporte les threads virtuels
+	 * @return true si les threads virtuels sont disponibles
+	 */
+	public static boolean isVirtualThreadSupported()
+	{
+		return virtualFactory != null;
+	}
+
+	/**
+	 * Création d'un exécuteur lançant chaque tâche dans son propre thread
+	 * @param virtual utilisation de threads virtuels (si disponibles)
+	 * @param name préfixe du nom des threads de plateforme créés
+	 * @param logger logger utilisé pour signaler l'absence de threads
+	 * virtuels
+	 * @return un nouvel exécuteur lançant un thread par tâche
+	 */
+	public static ExecutorService newThreadPerTaskExecutor(boolean virtual,
+	                                                       final String name,
+	                                                       Logger logger)
+	{
+		if (virtual)
+		{
+			if (virtualFactory != null)
+			{
+				try
+				{
+					return (ExecutorService) virtualFactory.invoke(null);
+				}
+				catch (ReflectiveOperationException e)
+				{
+					logger.warning("ExecutorFactory: unable to create virtual threads executor: "
+						+ e.getLocalizedMessage());
+				}
+			}
+			else
+			{
+				logger.warning("ExecutorFactory: virtual threads not supported by "
+					+ System.getProperty("java.version")
+					+ ", using platform threads");
+			}
+		}
+
+		return Executors.newCachedThreadPool(new ThreadFactory()
+		{
+			private final AtomicInteger count = new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				return new Thread(r, name + "-" + count.getAndIncrement());
+			}
+		});
+	}
+}
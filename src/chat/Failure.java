@@ -92,6 +92,18 @@ public enum Failure
 	 * GUI Client lauch failed
 	 */
 	CLIENT_NOT_READY,
+	/**
+	 * Unable to open message journal
+	 */
+	OPEN_JOURNAL,
+	/**
+	 * Unable to create federation peer socket
+	 */
+	CREATE_PEER_SOCKET,
+	/**
+	 * User name starting like a protocol request
+	 */
+	INVALID_USER_NAME,
 	/**
 	 * Other
 	 */
@@ -147,6 +159,14 @@ public enum Failure
 				// Client (1)
 			case CLIENT_NOT_READY:
 				return new String("Main Client not ready");
+				// RunChatServer (2)
+			case OPEN_JOURNAL:
+				return new String("Unable to open message journal");
+			case CREATE_PEER_SOCKET:
+				return new String("Unable to create federation peer socket");
+				// RunChatClient (1)
+			case INVALID_USER_NAME:
+				return new String("User name can not start with \"protocol \"");
 			case OTHER:
 				return new String("Other cause");
 		}
@@ -0,0 +1,71 @@
+package chat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.PushbackInputStream;
+import java.util.Arrays;
+
+import models.Message;
+
+/**
+ * Flux de messages en provenance du serveur, quel que soit le protocole
+ * utilisé ({@link Protocol}).
+ * @author davidroussel
+ */
+public interface MessageInput
+{
+	/**
+	 * Lecture du prochain message
+	 * @return le prochain message ou bien null si le flux est terminé
+	 * @throws IOException si la lecture échoue
+	 * @throws ClassNotFoundException si l'objet lu n'est pas un message
+	 */
+	public Message readMessage() throws IOException, ClassNotFoundException;
+
+	/**
+	 * Le protocole utilisé par ce flux
+	 * @return le protocole utilisé par ce flux
+	 */
+	public Protocol getProtocol();
+
+	/**
+	 * Fermeture du flux
+	 * @throws IOException si la fermeture échoue
+	 */
+	public void close() throws IOException;
+
+	/**
+	 * Ouverture d'un flux de messages : l'entête envoyé par le serveur
+	 * détermine le protocole utilisé ({@link BinaryCodec#MAGIC} pour le
+	 * protocole binaire, sinon un flux objet).
+	 * @param in le flux en provenance du serveur
+	 * @return le flux de messages correspondant au protocole choisi par le
+	 * serveur
+	 * @throws IOException si l'entête ne peut être lu ou n'est pas valide
+	 */
+	public static MessageInput open(InputStream in) throws IOException
+	{
+		PushbackInputStream pushback =
+			new PushbackInputStream(in, BinaryCodec.MAGIC.length);
+		byte[] header = new byte[BinaryCodec.MAGIC.length];
+		int read = 0;
+		while (read < header.length)
+		{
+			int n = pushback.read(header, read, header.length - read);
+			if (n < 0)
+			{
+				break;
+			}
+			read += n;
+		}
+
+		if ((read == header.length) && Arrays.equals(header, BinaryCodec.MAGIC))
+		{
+			return new BinaryMessageInput(pushback);
+		}
+
+		pushback.unread(header, 0, read);
+		return new ObjectMessageInput(new ObjectInputStream(pushback));
+	}
+}
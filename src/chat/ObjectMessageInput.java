@@ -0,0 +1,58 @@
+package chat;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+import models.Message;
+
+/**
+ * Flux de messages sérialisés ({@link Protocol#SERIAL})
+ * @author davidroussel
+ */
+public class ObjectMessageInput implements MessageInput
+{
+	/**
+	 * Le flux objet en provenance du serveur
+	 */
+	private final ObjectInputStream in;
+
+	/**
+	 * Constructeur d'un flux de messages sérialisés
+	 * @param in le flux objet en provenance du serveur (dont l'entête a
+	 * déjà été lu)
+	 */
+	public ObjectMessageInput(ObjectInputStream in)
+	{
+		this.in = in;
+	}
+
+	@Override
+	public Message readMessage() throws IOException, ClassNotFoundException
+	{
+		try
+		{
+			return (Message) in.readObject();
+		}
+		catch (EOFException e)
+		{
+			return null;
+		}
+		catch (ClassCastException e)
+		{
+			throw new ClassNotFoundException("not a message", e);
+		}
+	}
+
+	@Override
+	public Protocol getProtocol()
+	{
+		return Protocol.SERIAL;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+}
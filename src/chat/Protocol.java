@@ -0,0 +1,120 @@
+package chat;
+
+/**
+ * Les protocoles utilisables entre un client et le serveur de chat :
+ * <ul>
+ * <li>{@link #SERIAL} : le client envoie des lignes de texte et le serveur
+ * renvoie des {@link models.Message} sérialisés (sérialisation Java)</li>
+ * <li>{@link #BINARY} : dans les deux sens des trames binaires compactes
+ * préfixées par leur longueur (voir {@link BinaryCodec})</li>
+ * </ul>
+ * Le protocole est négocié à la connexion : un client souhaitant utiliser le
+ * protocole binaire envoie la ligne {@link #request()} avant son nom, et le
+ * serveur répond par l'entête du protocole retenu. Un client n'envoyant que
+ * son nom utilise le protocole {@link #SERIAL}.
+ * Un serveur antérieur au protocole binaire prendrait la demande pour le nom
+ * du client : le protocole binaire n'est donc demandé que sur option.
+ * @author davidroussel
+ */
+public enum Protocol
+{
+	/**
+	 * Sérialisation Java des messages
+	 */
+	SERIAL,
+	/**
+	 * Trames binaires compactes
+	 */
+	BINARY;
+
+	/**
+	 * Affichage sous forme de texte des protocoles
+	 */
+	@Override
+	public String toString()
+	{
+		switch (this)
+		{
+			case SERIAL:
+				return new String("serial");
+			case BINARY:
+				return new String("binary");
+		}
+		throw new AssertionError("Protocol: unknown protocol: " + this);
+	}
+
+	/**
+	 * Ligne de demande de ce protocole, envoyée par le client avant son nom
+	 * @return la ligne de demande de ce protocole
+	 */
+	public String request()
+	{
+		return Vocabulary.protocolCmd + " " + toString();
+	}
+
+	/**
+	 * Négociation du protocole utilisé avec un client
+	 * @param requested le protocole demandé par le client
+	 * @return le protocole demandé s'il est autorisé par ce protocole
+	 * (le protocole le plus évolué accepté par le serveur), ou bien
+	 * {@link #SERIAL}
+	 */
+	public Protocol negotiate(Protocol requested)
+	{
+		if ((requested != null) && (requested.ordinal() <= ordinal()))
+		{
+			return requested;
+		}
+		return SERIAL;
+	}
+
+	/**
+	 * Obtention d'un protocole d'après son nom
+	 * @param name le nom du protocole (tel que fourni par
+	 * {@link #toString()})
+	 * @return le protocole correspondant ou bien null si aucun protocole
+	 * ne correspond à ce nom
+	 */
+	public static Protocol fromString(String name)
+	{
+		for (Protocol protocol : values())
+		{
+			if (protocol.toString().equalsIgnoreCase(name))
+			{
+				return protocol;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Test de validité d'un nom d'utilisateur : un nom commençant comme une
+	 * demande de protocole serait pris pour une demande de protocole par un
+	 * serveur (et inversement, un serveur qui ne connaît pas les demandes
+	 * de protocole prendrait la demande pour le nom du client)
+	 * @param name le nom d'utilisateur
+	 * @return true si le nom peut être utilisé, false s'il commence comme
+	 * une demande de protocole
+	 */
+	public static boolean isValidName(String name)
+	{
+		return fromRequest(name) == null;
+	}
+
+	/**
+	 * Obtention du protocole demandé par une ligne de demande
+	 * @param line la ligne reçue du client
+	 * @return le protocole demandé ou bien null si la ligne n'est pas une
+	 * demande de protocole (c'est alors le nom du client)
+	 */
+	public static Protocol fromRequest(String line)
+	{
+		String prefix = Vocabulary.protocolCmd + " ";
+		if ((line != null) && line.startsWith(prefix))
+		{
+			Protocol protocol = fromString(line.substring(prefix.length()));
+			return (protocol != null ? protocol : SERIAL);
+		}
+		return null;
+	}
+}
@@ -21,6 +21,31 @@ public interface Vocabulary
 	 */
 	public final static String kickCmd="kick";
 
+	/**
+	 * Mot clé utilisé par un client pour quitter son salon et rejoindre
+	 * (en le créant si nécessaire) un autre salon : join <room>
+	 */
+	public final static String joinCmd="join";
+
+	/**
+	 * Mot clé utilisé par un client pour quitter son salon et revenir dans le
+	 * salon par défaut
+	 */
+	public final static String leaveCmd="leave";
+
+	/**
+	 * Mot clé utilisé par un client pour envoyer un message privé à un autre
+	 * client (quel que soit son salon) : msg <username> <message>
+	 */
+	public final static String msgCmd="msg";
+
+	/**
+	 * Mot clé utilisé par un client, avant l'envoi de son nom, pour demander
+	 * l'utilisation d'un protocole : protocol <binary | serial>
+	 * @see Protocol#request()
+	 */
+	public final static String protocolCmd="protocol";
+
 	/**
 	 * Sauts de ligne du système d'exploitation (utilisé dans le texte)
 	 */
@@ -30,6 +55,6 @@ public interface Vocabulary
 	 * Un tableau contenant l'ensemble des commandes du serveur afin de pouvoir
 	 * le parcourir
 	 */
-	public final static String[] commands = {byeCmd, kickCmd, killCmd};
+	public final static String[] commands = {byeCmd, kickCmd, killCmd, joinCmd, leaveCmd, msgCmd};
 
 }
@@ -6,9 +6,14 @@ import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
+import chat.ExecutorFactory;
 import chat.Failure;
+import chat.MessageInput;
+import chat.Protocol;
 import chat.UserOutputType;
 import logger.LoggerFactory;
 
@@ -37,6 +42,12 @@ public class ChatClient implements Runnable
 	 */
 	private InputStream serverIn;
 
+	/**
+	 * Flux de messages depuis le serveur (dont l'entête détermine le
+	 * protocole effectivement utilisé)
+	 */
+	private MessageInput serverMessages;
+
 	/**
 	 * Flux de sortie vers le serveur
 	 */
@@ -89,6 +100,12 @@ public class ChatClient implements Runnable
 	 */
 	private boolean ready;
 
+	/**
+	 * Exécute le {@link #userHandler} et le {@link #serverHandler} dans des
+	 * threads virtuels plutôt que des threads de plateforme
+	 */
+	private boolean virtualThreads;
+
 	/**
 	 * Le logger utilisé pour afficher les messages d'infos|erreurs|warnings
 	 */
@@ -107,6 +124,9 @@ public class ChatClient implements Runnable
 	 * @param l'état d'exécution commun avec un autre runnable. ou bien null
 	 *            s'il n'y a pas d'autre runnable à synchroniser avec ceux
 	 *            lancés dans le ChatClient
+	 * @param virtualThreads exécute les handlers dans des threads virtuels
+	 * @param protocol le protocole demandé au serveur (le serveur peut
+	 * répondre avec {@link Protocol#SERIAL} s'il ne le supporte pas)
 	 * @param verbose niveau de debug pour les messages
 	 */
 	public ChatClient(String host,
@@ -116,10 +136,13 @@ public class ChatClient implements Runnable
 	                  OutputStream out,
 	                  UserOutputType outType,
 	                  Boolean commonRun,
+	                  boolean virtualThreads,
+	                  Protocol protocol,
 	                  Logger parentLogger)
 	{
 		userName = name;
 		ready = false;
+		this.virtualThreads = virtualThreads;
 
 		// Création du logger
 		logger = LoggerFactory.getParentLogger(getClass(),
@@ -180,7 +203,8 @@ public class ChatClient implements Runnable
 		/*
 		 * Création PrintWriter temporaire sur le serverOut
 		 * (avec autoFlush): serverOutPW
-		 * et envoi de notre nom d'utilisateur au serveur (avec un println)
+		 * et envoi de la demande de protocole (sauf pour le protocole
+		 * historique) puis de notre nom d'utilisateur au serveur (avec un println)
 		 * afin qu'il puisse créer un thread dédié à notre traitement
 		 * ajout d'un message d'info au logger pour la création du serverOutPW
 		 * et d'un warning si celui ci a des erreurs après l'envoi du nom au
@@ -189,6 +213,12 @@ public class ChatClient implements Runnable
 		if (serverOut != null)
 		{
 			serverOutPW = new PrintWriter(serverOut, true);
+			if (protocol != Protocol.SERIAL)
+			{
+				logger.info("ChatClient: requesting " + protocol
+					+ " protocol ... ");
+				serverOutPW.println(protocol.request());
+			}
 			logger.info("ChatClient: sending name to server ... ");
 
 			serverOutPW.println(userName);
@@ -224,6 +254,24 @@ public class ChatClient implements Runnable
 			System.exit(Failure.CLIENT_INPUT_STREAM.toInteger());
 		}
 
+		/*
+		 * Lecture de l'entête envoyé par le serveur qui indique le protocole
+		 * retenu
+		 */
+		serverMessages = null;
+		try
+		{
+			serverMessages = MessageInput.open(serverIn);
+			logger.info("ChatClient: server uses "
+				+ serverMessages.getProtocol() + " protocol");
+		}
+		catch (IOException e)
+		{
+			logger.severe("ChatClient: " + Failure.CLIENT_INPUT_STREAM);
+			logger.severe(e.getLocalizedMessage());
+			System.exit(Failure.CLIENT_INPUT_STREAM.toInteger());
+		}
+
 		// obtention des flux de l'utilisateur
 		userIn = in;
 		userOut = out;
@@ -241,12 +289,13 @@ public class ChatClient implements Runnable
 		// Création du user handler
 		userHandler = new UserHandler(userIn,
 		                              serverOut,
+		                              serverMessages.getProtocol(),
 		                              this.commonRun,
 		                              logger);
 
 		// création du server handler
 		serverHandler = new ServerHandler(userName,
-		                                  serverIn,
+		                                  serverMessages,
 		                                  userOut,
 		                                  outType,
 		                                  this.commonRun,
@@ -255,6 +304,61 @@ public class ChatClient implements Runnable
 		ready = true;
 	}
 
+	/**
+	 * Constructeur d'un client de chat utilisant le protocole historique
+	 * (sérialisation Java des messages), compris par tous les serveurs
+	 *
+	 * @param host l'adresse du serveur
+	 * @param port le port à utiliser pour communiquer avec le serveur
+	 * @param name le nom d'utilisateur utilisé
+	 * @param in le flux d'entrée depuis l'utilisateur
+	 * @param out le flux de sortie vers l'utilisateur
+	 * @param outType le type de données attendues dans le flux de sortie vers
+	 * le client (texte ou objets)
+	 * @param commonRun l'état d'exécution commun avec un autre runnable
+	 * @param virtualThreads exécute les handlers dans des threads virtuels
+	 * @param parentLogger logger parent
+	 */
+	public ChatClient(String host,
+	                  int port,
+	                  String name,
+	                  InputStream in,
+	                  OutputStream out,
+	                  UserOutputType outType,
+	                  Boolean commonRun,
+	                  boolean virtualThreads,
+	                  Logger parentLogger)
+	{
+		this(host, port, name, in, out, outType, commonRun, virtualThreads,
+		     Protocol.SERIAL, parentLogger);
+	}
+
+	/**
+	 * Constructeur d'un client de chat utilisant des threads de plateforme
+	 *
+	 * @param host l'adresse du serveur
+	 * @param port le port à utiliser pour communiquer avec le serveur
+	 * @param name le nom d'utilisateur utilisé
+	 * @param in le flux d'entrée depuis l'utilisateur
+	 * @param out le flux de sortie vers l'utilisateur
+	 * @param outType le type de données attendues dans le flux de sortie vers
+	 * le client (texte ou objets)
+	 * @param commonRun l'état d'exécution commun avec un autre runnable
+	 * @param parentLogger logger parent
+	 */
+	public ChatClient(String host,
+	                  int port,
+	                  String name,
+	                  InputStream in,
+	                  OutputStream out,
+	                  UserOutputType outType,
+	                  Boolean commonRun,
+	                  Logger parentLogger)
+	{
+		this(host, port, name, in, out, outType, commonRun, false,
+		     parentLogger);
+	}
+
 	/**
 	 * Accès en lecture de l'état du client
 	 *
@@ -288,31 +392,24 @@ public class ChatClient implements Runnable
 		 * peuvent continuer
 		 */
 
-		Thread[] threads = new Thread[2];
-
-		// Création du thread du UserHandler
-		threads[0] = new Thread(userHandler);
+		ExecutorService threads =
+			ExecutorFactory.newThreadPerTaskExecutor(virtualThreads,
+			                                         "ChatClient",
+			                                         logger);
 
-		// Création du thread du ServerHandler
-		threads[1] = new Thread(serverHandler);
+		// Lancement du UserHandler et du ServerHandler
+		threads.execute(userHandler);
+		threads.execute(serverHandler);
 
-		// Lancement des threads
-		for (int i = 0; i < threads.length; i++)
+		// Attente de la fin des 2 threads
+		threads.shutdown();
+		try
 		{
-			threads[i].start();
+			threads.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
 		}
-
-		// Attente de la fin des 2 threads
-		for (int i = 0; i < threads.length; i++)
+		catch (InterruptedException e)
 		{
-			try
-			{
-				threads[i].join();
-			}
-			catch (InterruptedException e)
-			{
-				logger.warning("Join thread " + i + " interrupted");
-			}
+			logger.warning("Join threads interrupted");
 		}
 
 		logger.info("ChatClient: All threads terminated");
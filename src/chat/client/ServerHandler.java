@@ -1,14 +1,13 @@
 package chat.client;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.logging.Logger;
 
 import chat.Failure;
+import chat.MessageInput;
 import chat.UserOutputType;
 import logger.LoggerFactory;
 import models.Message;
@@ -19,15 +18,17 @@ import models.Message;
  * Un client peut accepter soit
  * 	- du texte uniquement (c'est le cas du client console et du 1er client GUI)
  * 	- des messages (comme ceux envoyés par le serveur) à travers un ObjectStream
+ * Les messages du serveur sont lus à travers un {@link MessageInput} quel que
+ * soit le protocole négocié avec le serveur.
  *
  * @author davidroussel
  */
 class ServerHandler implements Runnable
 {
 	/**
-	 * Flux d'entrée objet en provenance du serveur
+	 * Flux de messages en provenance du serveur
 	 */
-	private ObjectInputStream serverInOS;
+	private MessageInput serverIn;
 
 	/**
 	 * Le type de flux à utiliser pour envoyer les message au client.
@@ -45,6 +46,22 @@ class ServerHandler implements Runnable
 	 */
 	private ObjectOutputStream userOutOS;
 
+	/**
+	 * Nombre de messages écrits sur le {@link #userOutOS} entre deux
+	 * {@link ObjectOutputStream#reset()}. Sans reset la table des références
+	 * du flux garde tous les messages déjà écrits accessibles, et la mémoire
+	 * utilisée croît avec la durée de la session. Un reset à chaque message
+	 * obligerait à ré-écrire le descripteur de la classe {@link Message} à
+	 * chaque fois.
+	 */
+	public final static int RESETINTERVAL = 256;
+
+	/**
+	 * Nombre de messages écrits sur le {@link #userOutOS} depuis le dernier
+	 * reset
+	 */
+	private int writtenSinceReset;
+
 	/**
 	 * Etat d'exécution commun du ServerHandler et du {@link UserHandler}
 	 */
@@ -58,14 +75,14 @@ class ServerHandler implements Runnable
 	/**
 	 * Constructeur d'un ServerHandler
 	 * @param name notre nom d'utilisateur sur le serveur
-	 * @param in le flux d'entrée en provenance du serveur
+	 * @param in le flux de messages en provenance du serveur
 	 * @param out le flux de sortie vers l'utilisateur
 	 * @param commonRun l'état d'exécution commun du {@link ServerHandler} et du
 	 *            {@link UserHandler}
 	 * @param parentLogger logger parent pour affichage des messages de debug
 	 */
 	public ServerHandler(String name,
-	                     InputStream in,
+	                     MessageInput in,
 	                     OutputStream out,
 	                     UserOutputType outType,
 	                     Boolean commonRun,
@@ -75,25 +92,14 @@ class ServerHandler implements Runnable
 		                                       parentLogger,
 		                                       parentLogger.getLevel());
 		/*
-		 * On vérifie que l'InputStream est non null et on crée notre serverInOS
-		 * sur cet InputStream Sinon on quitte avec la valeur
-		 * Failure.CLIENT_INPUT_STREAM
+		 * On vérifie que le flux de messages est non null. Sinon on quitte
+		 * avec la valeur Failure.CLIENT_INPUT_STREAM
 		 */
 		if (in != null)
 		{
-			logger.info("ServerHandler: creating server input reader ... ");
-			/*
-			 * Création du ObjectInputStream à partir du flux d'entrée
-			 * en provenance du serveur, si une IOException survient,
-			 * on quitte avec la valeur Failure.CLIENT_INPUT_STREAM
-			 */
-			serverInOS = null;
-			try {
-				serverInOS = new ObjectInputStream(in);
-			} catch (IOException e) {
-				logger.severe("ServerHandler: " + Failure.CLIENT_INPUT_STREAM);
-				System.exit(Failure.CLIENT_INPUT_STREAM.toInteger());
-			}
+			logger.info("ServerHandler: using " + in.getProtocol()
+				+ " server input ... ");
+			serverIn = in;
 		}
 		else
 		{
@@ -118,6 +124,7 @@ class ServerHandler implements Runnable
 			{
 				case OBJECT:
 					userOutPW = null;
+					writtenSinceReset = 0;
 					try {
 						this.userOutOS = new ObjectOutputStream(out);
 					} catch (IOException e) {
@@ -176,14 +183,14 @@ class ServerHandler implements Runnable
 		while (commonRun.booleanValue())
 		{
 			/*
-			 * lecture d'un message du serveur avec le serverInOS
+			 * lecture d'un message du serveur avec le serverIn
 			 * Si une Exception intervient
 			 * 	- Ajout d'un warning au logger
 			 * 	- on quitte la boucle while (commonRun...
 			 */
 			Message message = null;
 			try {
-				message = (Message) serverInOS.readObject();
+				message = serverIn.readMessage();
 			} catch (IOException e) {
 				logger.warning("ServerHandler: unable to read message object");
 			} catch (ClassNotFoundException e) {
@@ -205,6 +212,12 @@ class ServerHandler implements Runnable
 					case OBJECT:
 						try {
 							this.userOutOS.writeObject(message);
+							if (++writtenSinceReset >= RESETINTERVAL)
+							{
+								// libère les messages déjà écrits
+								userOutOS.reset();
+								writtenSinceReset = 0;
+							}
 						} catch (IOException e) {
 							logger.warning("ServerHandler: unable to write message object");
 							error = true;
@@ -254,7 +267,7 @@ class ServerHandler implements Runnable
 		 */
 		try
 		{
-			serverInOS.close();
+			serverIn.close();
 		}
 		catch (IOException e)
 		{
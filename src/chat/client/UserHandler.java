@@ -3,7 +3,9 @@ package chat.client;
 import java.io.*;
 import java.util.logging.Logger;
 
+import chat.BinaryCodec;
 import chat.Failure;
+import chat.Protocol;
 import chat.Vocabulary;
 import logger.LoggerFactory;
 
@@ -25,6 +27,18 @@ class UserHandler implements Runnable
 	 */
 	private PrintWriter serverOutPW;
 
+	/**
+	 * Flux de sortie vers le serveur (utilisé directement avec le protocole
+	 * {@link Protocol#BINARY})
+	 */
+	private OutputStream serverOut;
+
+	/**
+	 * Protocole négocié avec le serveur : avec {@link Protocol#BINARY}
+	 * chaque ligne est envoyée dans une trame, sinon comme une ligne de texte
+	 */
+	private Protocol protocol;
+
 	/**
 	 * Etat d'exécution commun du UserHandler et du {@link ServerHandler}
 	 */
@@ -40,13 +54,16 @@ class UserHandler implements Runnable
 	 *
 	 * @param in Le flux d'entrée de l'utilisateur pour les entrées utilisateur
 	 * @param out le flux de sortie vers le serveur
+	 * @param protocol le protocole négocié avec le serveur
 	 * @param commonRun l'état d'exécution commun du {@link UserHandler} et du
 	 *            {@link ServerHandler}
 	 * @param parentLogger le logger parent
 	 */
-	public UserHandler(InputStream in, OutputStream out, Boolean commonRun,
-			Logger parentLogger)
+	public UserHandler(InputStream in, OutputStream out, Protocol protocol,
+			Boolean commonRun, Logger parentLogger)
 	{
+		this.protocol = protocol;
+
 		logger = LoggerFactory.getParentLogger(getClass(), parentLogger,
 				parentLogger.getLevel());
 
@@ -86,6 +103,7 @@ class UserHandler implements Runnable
 			 * serveur (en mode autoflush)
 			 */
 			this.serverOutPW = new PrintWriter(out, true);
+			serverOut = out;
 		}
 		else
 		{
@@ -150,9 +168,25 @@ class UserHandler implements Runnable
 				 * d'un warning au logger et break si c'est le cas.
 				 */
 
-				this.serverOutPW.println(userInput);
-				if (serverOutPW.checkError()) {
-					logger.warning("ChatClient: serverOutPw has errors");
+				if (protocol == Protocol.BINARY)
+				{
+					try
+					{
+						serverOut.write(BinaryCodec.textFrame(userInput));
+						serverOut.flush();
+					}
+					catch (IOException e)
+					{
+						logger.warning("ChatClient: unable to send frame: "
+							+ e.getLocalizedMessage());
+					}
+				}
+				else
+				{
+					this.serverOutPW.println(userInput);
+					if (serverOutPW.checkError()) {
+						logger.warning("ChatClient: serverOutPw has errors");
+					}
 				}
 				/*
 				 * Si la commande Vocabulary.byeCmd a été tapée par
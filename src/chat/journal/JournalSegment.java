@@ -0,0 +1,467 @@
+package chat.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import models.Message;
+
+/**
+ * Segment du journal des messages : fichier de taille fixe projeté en
+ * mémoire ({@link MappedByteBuffer}) dans lequel les messages sont ajoutés
+ * les uns à la suite des autres.
+ * Le segment commence par un entête (magic, version, numéro de séquence du
+ * premier message) suivi des enregistrements :
+ * <pre>
+ * [longueur : int][crc32 : int][date : long][longueur auteur : int (-1 sans auteur)][auteur][contenu]
+ * </pre>
+ * Le reste du fichier est rempli de zéros : une longueur nulle (ou un crc
+ * invalide après un arrêt brutal) marque la fin des enregistrements.
+ * L'index des positions des enregistrements est conservé en mémoire et
+ * reconstruit à l'ouverture d'un segment existant.
+ * Un seul thread à la fois ajoute des enregistrements (sous le verrou du
+ * {@link MessageJournal}), alors que les lectures peuvent avoir lieu depuis
+ * n'importe quel thread sans verrou : elles ne voient que les
+ * enregistrements publiés ({@link #getCount()}).
+ * @author davidroussel
+ */
+class JournalSegment
+{
+	/**
+	 * Nombre magique en tête de chaque segment ("CJNL")
+	 */
+	public final static int MAGIC = 0x434A4E4C;
+
+	/**
+	 * Version du format des segments
+	 */
+	public final static int VERSION = 1;
+
+	/**
+	 * Taille de l'entête d'un segment
+	 */
+	public final static int HEADERSIZE = 16;
+
+	/**
+	 * Taille de l'entête d'un enregistrement (longueur et crc)
+	 */
+	public final static int RECORDHEADERSIZE = 8;
+
+	/**
+	 * Taille minimum du contenu d'un enregistrement (date et longueur de
+	 * l'auteur)
+	 */
+	public final static int MINPAYLOADSIZE = 12;
+
+	/**
+	 * Encodage des auteurs et du contenu des messages
+	 */
+	private final static Charset UTF8 = StandardCharsets.UTF_8;
+
+	/**
+	 * Le fichier du segment
+	 */
+	private final File file;
+
+	/**
+	 * Le canal du fichier (conservé ouvert pendant la projection)
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Le fichier projeté en mémoire
+	 */
+	private final MappedByteBuffer buffer;
+
+	/**
+	 * Numéro de séquence du premier message du segment
+	 */
+	private final long baseSequence;
+
+	/**
+	 * Positions des enregistrements dans le segment. Le tableau est
+	 * remplacé (et non modifié au delà de {@link #count}) lorsqu'il doit
+	 * être agrandi.
+	 */
+	private volatile int[] offsets;
+
+	/**
+	 * Nombre d'enregistrements publiés
+	 */
+	private volatile int count;
+
+	/**
+	 * Position de la fin des enregistrements publiés
+	 */
+	private volatile int limit;
+
+	/**
+	 * Position jusqu'à laquelle le segment a été écrit sur le disque
+	 */
+	private volatile int synced;
+
+	/**
+	 * Constructeur d'un segment à partir d'un fichier projeté
+	 * @param file le fichier du segment
+	 * @param channel le canal du fichier
+	 * @param buffer le fichier projeté en mémoire
+	 * @param baseSequence le numéro de séquence du premier message
+	 */
+	private JournalSegment(File file,
+	                       FileChannel channel,
+	                       MappedByteBuffer buffer,
+	                       long baseSequence)
+	{
+		this.file = file;
+		this.channel = channel;
+		this.buffer = buffer;
+		this.baseSequence = baseSequence;
+		offsets = new int[1024];
+		count = 0;
+		limit = HEADERSIZE;
+		synced = HEADERSIZE;
+	}
+
+	/**
+	 * Nom du fichier d'un segment
+	 * @param baseSequence le numéro de séquence du premier message du
+	 * segment
+	 * @return le nom du fichier du segment
+	 */
+	public static String fileName(long baseSequence)
+	{
+		return String.format("journal-%020d.seg", baseSequence);
+	}
+
+	/**
+	 * Création d'un nouveau segment vide
+	 * @param directory le répertoire du journal
+	 * @param baseSequence le numéro de séquence du premier message du
+	 * segment
+	 * @param size la taille du segment
+	 * @return le nouveau segment
+	 * @throws IOException si le fichier ne peut pas être créé ou projeté
+	 */
+	public static JournalSegment create(File directory, long baseSequence, int size)
+		throws IOException
+	{
+		File file = new File(directory, fileName(baseSequence));
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.setLength(size);
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer =
+				channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			buffer.putLong(8, baseSequence);
+			buffer.force();
+			return new JournalSegment(file, channel, buffer, baseSequence);
+		}
+		catch (IOException e)
+		{
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Ouverture d'un segment existant : vérification de l'entête puis
+	 * reconstruction de l'index des enregistrements jusqu'au premier
+	 * enregistrement invalide (fin des enregistrements ou enregistrement
+	 * incomplet lors d'un arrêt brutal). Les octets suivant le dernier
+	 * enregistrement valide sont remis à zéro afin que les ajouts suivants
+	 * ne soient pas suivis d'anciens enregistrements.
+	 * @param file le fichier du segment
+	 * @return le segment ouvert
+	 * @throws IOException si le fichier ne peut pas être projeté ou s'il ne
+	 * s'agit pas d'un segment de journal
+	 */
+	public static JournalSegment open(File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if ((size < HEADERSIZE) || (size > Integer.MAX_VALUE))
+			{
+				throw new IOException("invalid journal segment size " + size
+					+ " in " + file);
+			}
+			MappedByteBuffer buffer =
+				channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			if ((buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != VERSION))
+			{
+				throw new IOException("invalid journal segment header in "
+					+ file);
+			}
+			JournalSegment segment =
+				new JournalSegment(file, channel, buffer, buffer.getLong(8));
+			segment.recover();
+			return segment;
+		}
+		catch (IOException e)
+		{
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reconstruction de l'index des enregistrements et remise à zéro de la
+	 * fin du segment
+	 */
+	private void recover()
+	{
+		int capacity = buffer.capacity();
+		int position = HEADERSIZE;
+		CRC32 crc = new CRC32();
+		ByteBuffer view = buffer.duplicate();
+		while ((position + RECORDHEADERSIZE) <= capacity)
+		{
+			int length = buffer.getInt(position);
+			if ((length < MINPAYLOADSIZE)
+			    || (length > (capacity - position - RECORDHEADERSIZE)))
+			{
+				break;
+			}
+			crc.reset();
+			view.limit(position + RECORDHEADERSIZE + length);
+			view.position(position + RECORDHEADERSIZE);
+			crc.update(view);
+			if ((int) crc.getValue() != buffer.getInt(position + 4))
+			{
+				break;
+			}
+			publish(position, position + RECORDHEADERSIZE + length);
+			position += RECORDHEADERSIZE + length;
+		}
+		synced = position;
+
+		/*
+		 * Remise à zéro des pages non vides suivant le dernier
+		 * enregistrement valide
+		 */
+		boolean cleared = false;
+		for (int page = position; page < capacity; page = ((page / 4096) + 1) * 4096)
+		{
+			int end = Math.min(((page / 4096) + 1) * 4096, capacity);
+			boolean empty = true;
+			for (int i = page; empty && (i < end); i++)
+			{
+				empty = (buffer.get(i) == 0);
+			}
+			if (!empty)
+			{
+				for (int i = page; i < end; i++)
+				{
+					buffer.put(i, (byte) 0);
+				}
+				cleared = true;
+			}
+		}
+		if (cleared)
+		{
+			buffer.force();
+		}
+	}
+
+	/**
+	 * Encodage d'un message sous forme d'enregistrement
+	 * @param message le message à encoder
+	 * @return l'enregistrement (entête compris)
+	 */
+	public static byte[] encode(Message message)
+	{
+		String author = message.getAuthor();
+		byte[] authorBytes = (author != null ? author.getBytes(UTF8) : null);
+		byte[] contentBytes = message.getContent().getBytes(UTF8);
+		int length = MINPAYLOADSIZE
+			+ (authorBytes != null ? authorBytes.length : 0)
+			+ contentBytes.length;
+		ByteBuffer record = ByteBuffer.allocate(RECORDHEADERSIZE + length);
+		record.putInt(length);
+		record.putInt(0); // crc
+		record.putLong(message.getTime());
+		if (authorBytes != null)
+		{
+			record.putInt(authorBytes.length);
+			record.put(authorBytes);
+		}
+		else
+		{
+			record.putInt(-1);
+		}
+		record.put(contentBytes);
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), RECORDHEADERSIZE, length);
+		record.putInt(4, (int) crc.getValue());
+		return record.array();
+	}
+
+	/**
+	 * Ajout d'un enregistrement à la fin du segment (par un seul thread à
+	 * la fois)
+	 * @param record l'enregistrement à ajouter (produit par
+	 * {@link #encode(Message)})
+	 * @return la position de la fin de l'enregistrement ou bien -1 si
+	 * l'enregistrement ne tient pas dans la place restante
+	 */
+	public int append(byte[] record)
+	{
+		int position = limit;
+		int end = position + record.length;
+		/*
+		 * On conserve toujours au moins un entête d'enregistrement nul après
+		 * le dernier enregistrement (marque de fin)
+		 */
+		if ((end + RECORDHEADERSIZE) > buffer.capacity())
+		{
+			return -1;
+		}
+		ByteBuffer view = buffer.duplicate();
+		view.position(position);
+		view.put(record);
+		publish(position, end);
+		return end;
+	}
+
+	/**
+	 * Publication d'un enregistrement écrit : ajout de sa position à l'index
+	 * puis mise à jour du nombre d'enregistrements (après laquelle il
+	 * devient visible des lecteurs)
+	 * @param position la position de l'enregistrement
+	 * @param end la position de la fin de l'enregistrement
+	 */
+	private void publish(int position, int end)
+	{
+		int[] current = offsets;
+		int index = count;
+		if (index == current.length)
+		{
+			current = Arrays.copyOf(current, 2 * current.length);
+			offsets = current;
+		}
+		current[index] = position;
+		limit = end;
+		count = index + 1;
+	}
+
+	/**
+	 * Lecture d'un enregistrement publié (depuis n'importe quel thread)
+	 * @param index l'indice de l'enregistrement dans le segment
+	 * @return le message de l'enregistrement
+	 * @throws IndexOutOfBoundsException si l'enregistrement n'existe pas
+	 * (ou n'a pas encore été publié)
+	 */
+	public Message read(int index)
+	{
+		if ((index < 0) || (index >= count))
+		{
+			throw new IndexOutOfBoundsException("record " + index + " of "
+				+ file.getName());
+		}
+		int position = offsets[index];
+		ByteBuffer view = buffer.duplicate();
+		int length = view.getInt(position);
+		view.position(position + RECORDHEADERSIZE);
+		long date = view.getLong();
+		int authorLength = view.getInt();
+		String author = null;
+		int contentLength = length - MINPAYLOADSIZE;
+		if (authorLength >= 0)
+		{
+			byte[] authorBytes = new byte[authorLength];
+			view.get(authorBytes);
+			author = new String(authorBytes, UTF8);
+			contentLength -= authorLength;
+		}
+		byte[] contentBytes = new byte[contentLength];
+		view.get(contentBytes);
+		return new Message(date, new String(contentBytes, UTF8), author);
+	}
+
+	/**
+	 * Ecriture sur le disque des enregistrements publiés et non encore
+	 * écrits
+	 */
+	public void force()
+	{
+		int end = limit;
+		if (synced < end)
+		{
+			buffer.force();
+			synced = end;
+		}
+	}
+
+	/**
+	 * Fermeture du segment : écriture des enregistrements sur le disque et
+	 * fermeture du fichier
+	 * @throws IOException si la fermeture du fichier échoue
+	 */
+	public void close() throws IOException
+	{
+		force();
+		channel.close();
+	}
+
+	/**
+	 * Accesseur en lecture du numéro de séquence du premier message du
+	 * segment
+	 * @return le numéro de séquence du premier message du segment
+	 */
+	public long getBaseSequence()
+	{
+		return baseSequence;
+	}
+
+	/**
+	 * Accesseur en lecture du nombre d'enregistrements publiés
+	 * @return le nombre d'enregistrements publiés
+	 */
+	public int getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Accesseur en lecture de la position jusqu'à laquelle le segment a été
+	 * écrit sur le disque
+	 * @return la position jusqu'à laquelle le segment a été écrit sur le
+	 * disque
+	 */
+	public int getSynced()
+	{
+		return synced;
+	}
+
+	/**
+	 * Indique si tous les enregistrements publiés ont été écrits sur le
+	 * disque
+	 * @return true si tous les enregistrements publiés ont été écrits sur
+	 * le disque
+	 */
+	public boolean isSynced()
+	{
+		return synced >= limit;
+	}
+
+	/**
+	 * Accesseur en lecture du fichier du segment
+	 * @return le fichier du segment
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+}
@@ -0,0 +1,57 @@
+package chat.journal;
+
+import java.io.IOException;
+import java.util.List;
+
+import models.Message;
+
+/**
+ * Historique des messages diffusés par le serveur : chaque message ajouté
+ * reçoit un numéro de séquence croissant et les messages peuvent être relus
+ * (par exemple pour être rejoués à un client qui vient de se connecter)
+ * depuis n'importe quel thread sans bloquer les ajouts.
+ * Un historique peut ne conserver que les messages les plus récents : le
+ * numéro de séquence du plus ancien message encore disponible est alors
+ * fourni par {@link #getFirstSequence()}.
+ * @author davidroussel
+ */
+public interface MessageHistory
+{
+	/**
+	 * Ajout d'un message à la fin de l'historique
+	 * @param message le message à ajouter
+	 * @return le numéro de séquence du message
+	 * @throws IOException si le message ne peut pas être ajouté
+	 */
+	public long append(Message message) throws IOException;
+
+	/**
+	 * Lecture de messages de l'historique
+	 * @param from le numéro de séquence du premier message à lire (les
+	 * messages qui ne sont plus disponibles sont ignorés)
+	 * @param max le nombre maximum de messages à lire
+	 * @param messages la liste à laquelle sont ajoutés les messages lus, dans
+	 * l'ordre de l'historique et sans trou à partir du premier message
+	 * disponible dont le numéro est supérieur ou égal à from
+	 * @return le numéro de séquence du premier message lu (supérieur à from
+	 * lorsque des messages ne sont plus disponibles)
+	 */
+	public long read(long from, int max, List<Message> messages);
+
+	/**
+	 * Numéro de séquence du plus ancien message disponible
+	 * @return le numéro de séquence du plus ancien message disponible
+	 */
+	public long getFirstSequence();
+
+	/**
+	 * Numéro de séquence du prochain message ajouté
+	 * @return le numéro de séquence du prochain message ajouté
+	 */
+	public long getNextSequence();
+
+	/**
+	 * Fermeture de l'historique
+	 */
+	public void close();
+}
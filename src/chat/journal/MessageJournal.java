@@ -0,0 +1,486 @@
+package chat.journal;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import logger.LoggerFactory;
+import models.Message;
+
+/**
+ * Journal persistant des messages diffusés par le serveur : les messages
+ * sont ajoutés les uns à la suite des autres dans des segments de taille
+ * fixe projetés en mémoire ({@link JournalSegment}), chaque message
+ * recevant un numéro de séquence croissant (à partir de 0). Lorsqu'un
+ * segment est plein, un nouveau segment est créé dans le répertoire du
+ * journal. A l'ouverture, les segments existants sont relus : le journal
+ * survit donc aux redémarrages du serveur.
+ * Les ajouts sont sérialisés par un verrou qui ne protège qu'une copie en
+ * mémoire, l'écriture sur le disque étant regroupée suivant la
+ * {@link SyncPolicy} choisie. Les lectures ({@link #read(long, int)})
+ * n'utilisent aucun verrou et ne bloquent donc jamais les diffusions.
+ * @author davidroussel
+ */
+public class MessageJournal implements MessageHistory
+{
+	/**
+	 * Taille par défaut des segments (64 Mo)
+	 */
+	public final static int DEFAULTSEGMENTSIZE = 64 * 1024 * 1024;
+
+	/**
+	 * Taille minimum des segments (64 ko)
+	 */
+	public final static int MINSEGMENTSIZE = 64 * 1024;
+
+	/**
+	 * Politique d'écriture sur le disque par défaut
+	 */
+	public final static SyncPolicy DEFAULTSYNCPOLICY = SyncPolicy.INTERVAL;
+
+	/**
+	 * Intervalle par défaut (en ms) entre deux écritures sur le disque avec
+	 * la politique {@link SyncPolicy#INTERVAL}
+	 */
+	public final static long DEFAULTSYNCINTERVAL = 100;
+
+	/**
+	 * Le répertoire contenant les segments
+	 */
+	private final File directory;
+
+	/**
+	 * Taille des nouveaux segments
+	 */
+	private final int segmentSize;
+
+	/**
+	 * Politique d'écriture sur le disque
+	 */
+	private final SyncPolicy policy;
+
+	/**
+	 * Les segments du journal dans l'ordre des numéros de séquence
+	 */
+	private final CopyOnWriteArrayList<JournalSegment> segments;
+
+	/**
+	 * Le segment auquel les messages sont ajoutés (le dernier des
+	 * {@link #segments})
+	 */
+	private volatile JournalSegment current;
+
+	/**
+	 * Verrou sérialisant les ajouts
+	 */
+	private final ReentrantLock appendLock;
+
+	/**
+	 * Verrou sérialisant les écritures sur le disque
+	 */
+	private final ReentrantLock syncLock;
+
+	/**
+	 * Thread d'écriture périodique sur le disque (uniquement avec la
+	 * politique {@link SyncPolicy#INTERVAL})
+	 */
+	private final ScheduledExecutorService syncer;
+
+	/**
+	 * Etat de fermeture du journal
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Le logger
+	 */
+	private final Logger logger;
+
+	/**
+	 * Constructeur d'un journal : ouverture des segments existants du
+	 * répertoire ou bien création du premier segment
+	 * @param directory le répertoire du journal (créé si nécessaire)
+	 * @param segmentSize la taille des nouveaux segments (au moins
+	 * {@link #MINSEGMENTSIZE})
+	 * @param policy la politique d'écriture sur le disque
+	 * @param syncInterval l'intervalle (en ms) entre deux écritures sur le
+	 * disque avec la politique {@link SyncPolicy#INTERVAL}
+	 * @param parentLogger logger parent
+	 * @throws IOException si le répertoire ou les segments ne peuvent pas
+	 * être ouverts ou créés
+	 */
+	public MessageJournal(File directory,
+	                      int segmentSize,
+	                      SyncPolicy policy,
+	                      long syncInterval,
+	                      Logger parentLogger)
+		throws IOException
+	{
+		this.directory = directory;
+		this.segmentSize = Math.max(segmentSize, MINSEGMENTSIZE);
+		this.policy = policy;
+		logger = LoggerFactory.getParentLogger(getClass(),
+		                                       parentLogger,
+		                                       parentLogger.getLevel());
+		segments = new CopyOnWriteArrayList<JournalSegment>();
+		appendLock = new ReentrantLock();
+		syncLock = new ReentrantLock();
+		closed = false;
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+		{
+			throw new IOException("unable to create journal directory "
+				+ directory);
+		}
+
+		File[] files = directory.listFiles(new FilenameFilter()
+		{
+			@Override
+			public boolean accept(File dir, String name)
+			{
+				return name.startsWith("journal-") && name.endsWith(".seg");
+			}
+		});
+		if (files == null)
+		{
+			throw new IOException("unable to list journal directory "
+				+ directory);
+		}
+		Arrays.sort(files);
+		try
+		{
+			for (File file : files)
+			{
+				JournalSegment segment = JournalSegment.open(file);
+				if (!segments.isEmpty())
+				{
+					JournalSegment last = segments.get(segments.size() - 1);
+					long expected = last.getBaseSequence() + last.getCount();
+					if (segment.getBaseSequence() != expected)
+					{
+						logger.warning("MessageJournal: " + file.getName()
+							+ " starts at " + segment.getBaseSequence()
+							+ " instead of " + expected);
+					}
+				}
+				segments.add(segment);
+			}
+			if (segments.isEmpty())
+			{
+				segments.add(JournalSegment.create(directory, 0, this.segmentSize));
+			}
+		}
+		catch (IOException e)
+		{
+			for (JournalSegment segment : segments)
+			{
+				segment.close();
+			}
+			throw e;
+		}
+		current = segments.get(segments.size() - 1);
+
+		if ((policy == SyncPolicy.INTERVAL) && (syncInterval > 0))
+		{
+			syncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "JournalSync");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			syncer.scheduleWithFixedDelay(() -> sync(),
+			                              syncInterval,
+			                              syncInterval,
+			                              TimeUnit.MILLISECONDS);
+		}
+		else
+		{
+			syncer = null;
+		}
+
+		logger.info("MessageJournal: opened " + this);
+	}
+
+	/**
+	 * Constructeur d'un journal avec les paramètres par défaut
+	 * @param directory le répertoire du journal (créé si nécessaire)
+	 * @param parentLogger logger parent
+	 * @throws IOException si le répertoire ou les segments ne peuvent pas
+	 * être ouverts ou créés
+	 */
+	public MessageJournal(File directory, Logger parentLogger)
+		throws IOException
+	{
+		this(directory,
+		     DEFAULTSEGMENTSIZE,
+		     DEFAULTSYNCPOLICY,
+		     DEFAULTSYNCINTERVAL,
+		     parentLogger);
+	}
+
+	/**
+	 * Ajout d'un message à la fin du journal. Avec la politique
+	 * {@link SyncPolicy#ALWAYS} l'ajout attend que le message soit écrit sur
+	 * le disque.
+	 * @param message le message à ajouter
+	 * @return le numéro de séquence du message
+	 * @throws IOException si le journal est fermé, si le message est trop
+	 * grand pour un segment ou si un nouveau segment ne peut pas être créé
+	 */
+	@Override
+	public long append(Message message) throws IOException
+	{
+		byte[] record = JournalSegment.encode(message);
+		if ((record.length + JournalSegment.HEADERSIZE
+		     + JournalSegment.RECORDHEADERSIZE) > segmentSize)
+		{
+			throw new IOException("message too large for journal segments: "
+				+ record.length + " bytes");
+		}
+
+		JournalSegment segment;
+		int end;
+		long sequence;
+		appendLock.lock();
+		try
+		{
+			if (closed)
+			{
+				throw new IOException("journal closed");
+			}
+			segment = current;
+			end = segment.append(record);
+			if (end < 0)
+			{
+				segment = JournalSegment.create(directory,
+				                                segment.getBaseSequence()
+				                                    + segment.getCount(),
+				                                segmentSize);
+				segments.add(segment);
+				current = segment;
+				end = segment.append(record);
+			}
+			sequence = segment.getBaseSequence() + segment.getCount() - 1;
+		}
+		finally
+		{
+			appendLock.unlock();
+		}
+
+		if ((policy == SyncPolicy.ALWAYS) && (segment.getSynced() < end))
+		{
+			/*
+			 * Regroupement des écritures : pendant qu'un thread écrit le
+			 * segment sur le disque, les autres ajoutent leur message puis
+			 * attendent le verrou, et une seule écriture suffit ensuite pour
+			 * tous ceux dont le message a été ajouté entre temps.
+			 */
+			syncLock.lock();
+			try
+			{
+				segment.force();
+			}
+			finally
+			{
+				syncLock.unlock();
+			}
+		}
+		return sequence;
+	}
+
+	/**
+	 * Ecriture sur le disque des messages ajoutés qui ne l'ont pas encore
+	 * été
+	 */
+	public void sync()
+	{
+		syncLock.lock();
+		try
+		{
+			for (int i = segments.size() - 1; i >= 0; i--)
+			{
+				JournalSegment segment = segments.get(i);
+				if (segment.isSynced() && (segment != current))
+				{
+					// les segments précédents sont déjà écrits
+					break;
+				}
+				segment.force();
+			}
+		}
+		catch (RuntimeException e)
+		{
+			logger.warning("MessageJournal: sync failed: "
+				+ e.getLocalizedMessage());
+		}
+		finally
+		{
+			syncLock.unlock();
+		}
+	}
+
+	/**
+	 * Lecture de messages du journal (depuis n'importe quel thread, sans
+	 * bloquer les ajouts)
+	 * @param from le numéro de séquence du premier message à lire (les
+	 * messages antérieurs au premier message du journal sont ignorés)
+	 * @param max le nombre maximum de messages à lire
+	 * @param messages la liste à laquelle sont ajoutés les messages lus, dans
+	 * l'ordre du journal
+	 * @return le numéro de séquence du premier message lu
+	 */
+	@Override
+	public long read(long from, int max, List<Message> messages)
+	{
+		long first = Math.max(from, getFirstSequence());
+		long sequence = first;
+		int remaining = max;
+		int index = segmentIndex(sequence);
+		while ((index < segments.size()) && (remaining > 0))
+		{
+			JournalSegment segment = segments.get(index);
+			int count = segment.getCount();
+			for (int i = (int) (sequence - segment.getBaseSequence());
+			     (i < count) && (remaining > 0);
+			     i++)
+			{
+				messages.add(segment.read(i));
+				sequence++;
+				remaining--;
+			}
+			index++;
+		}
+		return first;
+	}
+
+	/**
+	 * Indice du segment contenant un numéro de séquence (recherche
+	 * dichotomique)
+	 * @param sequence le numéro de séquence
+	 * @return l'indice du dernier segment dont le premier numéro de séquence
+	 * est inférieur ou égal à sequence
+	 */
+	private int segmentIndex(long sequence)
+	{
+		int low = 0;
+		int high = segments.size() - 1;
+		while (low < high)
+		{
+			int middle = (low + high + 1) >>> 1;
+			if (segments.get(middle).getBaseSequence() <= sequence)
+			{
+				low = middle;
+			}
+			else
+			{
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Numéro de séquence du premier message du journal
+	 * @return le numéro de séquence du premier message du journal
+	 */
+	@Override
+	public long getFirstSequence()
+	{
+		return segments.get(0).getBaseSequence();
+	}
+
+	/**
+	 * Numéro de séquence du prochain message ajouté au journal (c'est à dire
+	 * le nombre de messages ajoutés depuis la création du journal)
+	 * @return le numéro de séquence du prochain message
+	 */
+	@Override
+	public long getNextSequence()
+	{
+		JournalSegment segment = current;
+		return segment.getBaseSequence() + segment.getCount();
+	}
+
+	/**
+	 * Accesseur en lecture de la politique d'écriture sur le disque
+	 * @return la politique d'écriture sur le disque
+	 */
+	public SyncPolicy getSyncPolicy()
+	{
+		return policy;
+	}
+
+	/**
+	 * Fermeture du journal : arrêt des ajouts, écriture sur le disque de
+	 * tous les messages puis fermeture des segments
+	 */
+	@Override
+	public void close()
+	{
+		appendLock.lock();
+		try
+		{
+			if (closed)
+			{
+				return;
+			}
+			closed = true;
+		}
+		finally
+		{
+			appendLock.unlock();
+		}
+
+		if (syncer != null)
+		{
+			syncer.shutdown();
+		}
+		syncLock.lock();
+		try
+		{
+			for (JournalSegment segment : segments)
+			{
+				try
+				{
+					segment.close();
+				}
+				catch (IOException e)
+				{
+					logger.warning("MessageJournal: unable to close "
+						+ segment.getFile() + ": " + e.getLocalizedMessage());
+				}
+			}
+		}
+		finally
+		{
+			syncLock.unlock();
+		}
+		logger.info("MessageJournal: closed " + this);
+	}
+
+	/**
+	 * Affichage du journal
+	 * @return une chaîne décrivant le journal (répertoire, messages et
+	 * politique d'écriture)
+	 */
+	@Override
+	public String toString()
+	{
+		return directory + " [" + getFirstSequence() + ", "
+			+ getNextSequence() + ") in " + segments.size()
+			+ " segment(s), sync " + policy;
+	}
+}
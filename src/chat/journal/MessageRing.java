@@ -0,0 +1,146 @@
+package chat.journal;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import models.Message;
+
+/**
+ * Historique en mémoire des derniers messages diffusés : tampon circulaire
+ * de taille fixe dans lequel chaque nouveau message remplace le plus ancien
+ * lorsque le tampon est plein.
+ * Les ajouts sont sérialisés par un verrou, alors que les lectures n'en
+ * prennent aucun : un message remplacé pendant une lecture est écarté du
+ * résultat (le numéro de séquence du premier message lu permet alors à
+ * l'appelant de savoir quels messages ont été sautés).
+ * @author davidroussel
+ */
+public class MessageRing implements MessageHistory
+{
+	/**
+	 * Nombre de messages conservés par défaut
+	 */
+	public final static int DEFAULTCAPACITY = 10000;
+
+	/**
+	 * Les messages conservés (le message de numéro n est à l'indice
+	 * n % capacité)
+	 */
+	private final AtomicReferenceArray<Message> messages;
+
+	/**
+	 * Nombre de messages conservés
+	 */
+	private final int capacity;
+
+	/**
+	 * Numéro de séquence du prochain message ajouté
+	 */
+	private volatile long next;
+
+	/**
+	 * Numéro de séquence suivant le message en cours d'ajout : il est mis à
+	 * jour avant que la place du message ne soit réutilisée, ce qui permet
+	 * aux lectures de détecter les messages remplacés
+	 */
+	private volatile long reserved;
+
+	/**
+	 * Verrou sérialisant les ajouts
+	 */
+	private final ReentrantLock appendLock;
+
+	/**
+	 * Constructeur d'un historique en mémoire vide
+	 * @param capacity le nombre de messages conservés
+	 */
+	public MessageRing(int capacity)
+	{
+		this.capacity = Math.max(capacity, 1);
+		messages = new AtomicReferenceArray<Message>(this.capacity);
+		next = 0;
+		reserved = 0;
+		appendLock = new ReentrantLock();
+	}
+
+	/**
+	 * Constructeur d'un historique en mémoire conservant
+	 * {@link #DEFAULTCAPACITY} messages
+	 */
+	public MessageRing()
+	{
+		this(DEFAULTCAPACITY);
+	}
+
+	@Override
+	public long append(Message message)
+	{
+		appendLock.lock();
+		try
+		{
+			long sequence = next;
+			reserved = sequence + 1;
+			messages.set((int) (sequence % capacity), message);
+			next = sequence + 1;
+			return sequence;
+		}
+		finally
+		{
+			appendLock.unlock();
+		}
+	}
+
+	@Override
+	public long read(long from, int max, List<Message> result)
+	{
+		long end = next;
+		long start = Math.max(from, end - capacity);
+		int size = (int) Math.max(0, Math.min(max, end - start));
+		int offset = result.size();
+		for (long sequence = start; sequence < (start + size); sequence++)
+		{
+			result.add(messages.get((int) (sequence % capacity)));
+		}
+		/*
+		 * Les messages dont la place a été réutilisée par les ajouts effectués
+		 * pendant la lecture sont écartés
+		 */
+		int overwritten =
+			(int) Math.min(Math.max(0, reserved - capacity - start), size);
+		if (overwritten > 0)
+		{
+			result.subList(offset, offset + overwritten).clear();
+		}
+		return start + overwritten;
+	}
+
+	@Override
+	public long getFirstSequence()
+	{
+		return Math.max(0, next - capacity);
+	}
+
+	@Override
+	public long getNextSequence()
+	{
+		return next;
+	}
+
+	@Override
+	public void close()
+	{
+		// rien à libérer
+	}
+
+	/**
+	 * Affichage de l'historique
+	 * @return une chaîne décrivant l'historique
+	 */
+	@Override
+	public String toString()
+	{
+		return "ring of " + capacity + " messages [" + getFirstSequence()
+			+ ", " + getNextSequence() + ")";
+	}
+}
@@ -0,0 +1,65 @@
+package chat.journal;
+
+/**
+ * Politiques d'écriture sur le disque des messages ajoutés au journal
+ * ({@link MessageJournal}). Les messages ajoutés sont toujours visibles des
+ * lecteurs et conservés lors d'un arrêt du serveur (même brutal) : seule la
+ * perte des derniers messages lors d'une panne du système dépend de la
+ * politique choisie.
+ * @author davidroussel
+ */
+public enum SyncPolicy
+{
+	/**
+	 * Les messages ne sont écrits sur le disque que par le système (et à la
+	 * fermeture du journal)
+	 */
+	NONE,
+	/**
+	 * Les messages ajoutés sont écrits sur le disque par lots, à intervalles
+	 * réguliers, par un thread dédié
+	 */
+	INTERVAL,
+	/**
+	 * Chaque ajout attend que le message soit écrit sur le disque : les
+	 * ajouts simultanés sont écrits par une seule et même écriture
+	 */
+	ALWAYS;
+
+	/**
+	 * Affichage sous forme de texte des politiques
+	 */
+	@Override
+	public String toString()
+	{
+		switch (this)
+		{
+			case NONE:
+				return new String("none");
+			case INTERVAL:
+				return new String("interval");
+			case ALWAYS:
+				return new String("always");
+		}
+		throw new AssertionError("SyncPolicy: unknown policy: " + this);
+	}
+
+	/**
+	 * Obtention d'une politique d'après son nom
+	 * @param name le nom de la politique (tel que fourni par
+	 * {@link #toString()})
+	 * @return la politique correspondante ou bien null si aucune politique
+	 * ne correspond à ce nom
+	 */
+	public static SyncPolicy fromString(String name)
+	{
+		for (SyncPolicy policy : values())
+		{
+			if (policy.toString().equalsIgnoreCase(name))
+			{
+				return policy;
+			}
+		}
+		return null;
+	}
+}
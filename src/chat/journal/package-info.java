@@ -0,0 +1,7 @@
+package chat.journal;
+
+/**
+ * Sous-package contenant l'historique des messages diffusés par le serveur
+ * de chat : journal persistant (segments projetés en mémoire) ou bien
+ * tampon circulaire en mémoire des derniers messages
+ */
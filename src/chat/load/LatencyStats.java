@@ -0,0 +1,212 @@
+package chat.load;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogramme des latences de bout en bout (de l'envoi d'un message par un
+ * client de charge jusqu'à sa réception par un autre client de charge).
+ * Les latences sont comptées en microsecondes dans des classes
+ * log-linéaires : chaque puissance de 2 est découpée en {@link #SUBBUCKETS}
+ * classes, soit une précision relative d'environ 6 %.
+ * L'histogramme peut être mis à jour depuis plusieurs threads. Une copie
+ * figée ({@link #snapshot()}) permet d'obtenir les latences d'un intervalle
+ * par différence avec une copie précédente ({@link #minus(LatencyStats)}).
+ * @author davidroussel
+ */
+public final class LatencyStats
+{
+	/**
+	 * Nombre de bits de précision dans chaque puissance de 2
+	 */
+	private final static int SUBBITS = 4;
+
+	/**
+	 * Nombre de classes dans chaque puissance de 2
+	 */
+	public final static int SUBBUCKETS = 1 << SUBBITS;
+
+	/**
+	 * Nombre total de classes : couvre toutes les valeurs positives d'un
+	 * long
+	 */
+	private final static int BUCKETS = (64 - SUBBITS) * SUBBUCKETS;
+
+	/**
+	 * Nombre de latences par classe
+	 */
+	private final AtomicLongArray counts;
+
+	/**
+	 * Constructeur d'un histogramme vide
+	 */
+	public LatencyStats()
+	{
+		counts = new AtomicLongArray(BUCKETS);
+	}
+
+	/**
+	 * Constructeur d'un histogramme à partir de nombres de latences par
+	 * classe
+	 * @param values le nombre de latences de chaque classe
+	 */
+	private LatencyStats(long[] values)
+	{
+		counts = new AtomicLongArray(values);
+	}
+
+	/**
+	 * Indice de la classe d'une latence
+	 * @param micros la latence en microsecondes
+	 * @return l'indice de la classe contenant cette latence
+	 */
+	private static int bucket(long micros)
+	{
+		if (micros < SUBBUCKETS)
+		{
+			return (int) Math.max(micros, 0);
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int) ((micros >>> (exponent - SUBBITS)) & (SUBBUCKETS - 1));
+		return ((exponent - SUBBITS + 1) * SUBBUCKETS) + sub;
+	}
+
+	/**
+	 * Plus petite latence d'une classe
+	 * @param bucket l'indice de la classe
+	 * @return la plus petite latence (en microsecondes) de cette classe
+	 */
+	private static long lowest(int bucket)
+	{
+		if (bucket < SUBBUCKETS)
+		{
+			return bucket;
+		}
+		int exponent = (bucket / SUBBUCKETS) + SUBBITS - 1;
+		long sub = bucket % SUBBUCKETS;
+		return (SUBBUCKETS + sub) << (exponent - SUBBITS);
+	}
+
+	/**
+	 * Plus grande latence d'une classe
+	 * @param bucket l'indice de la classe
+	 * @return la plus grande latence (en microsecondes) de cette classe
+	 */
+	private static long highest(int bucket)
+	{
+		return (bucket < (BUCKETS - 1) ? lowest(bucket + 1) - 1 : Long.MAX_VALUE);
+	}
+
+	/**
+	 * Enregistrement d'une latence
+	 * @param nanos la latence en nanosecondes
+	 */
+	public void record(long nanos)
+	{
+		counts.incrementAndGet(bucket(TimeUnit.NANOSECONDS.toMicros(nanos)));
+	}
+
+	/**
+	 * Copie figée de l'histogramme
+	 * @return une copie de l'histogramme dans son état actuel
+	 */
+	public LatencyStats snapshot()
+	{
+		long[] values = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			values[i] = counts.get(i);
+		}
+		return new LatencyStats(values);
+	}
+
+	/**
+	 * Histogramme des latences enregistrées depuis une copie antérieure
+	 * @param earlier une copie antérieure de cet histogramme
+	 * @return l'histogramme des latences enregistrées depuis cette copie
+	 */
+	public LatencyStats minus(LatencyStats earlier)
+	{
+		long[] values = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			values[i] = counts.get(i) - earlier.counts.get(i);
+		}
+		return new LatencyStats(values);
+	}
+
+	/**
+	 * Nombre de latences enregistrées
+	 * @return le nombre de latences enregistrées
+	 */
+	public long getCount()
+	{
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * Latence en dessous de laquelle se trouve une proportion des latences
+	 * enregistrées
+	 * @param percentile le pourcentage de latences (entre 0 et 100)
+	 * @return la plus grande latence (en microsecondes) de la classe
+	 * contenant ce percentile ou bien 0 si aucune latence n'a été
+	 * enregistrée
+	 */
+	public long getPercentile(double percentile)
+	{
+		long count = getCount();
+		if (count == 0)
+		{
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil((percentile / 100.0) * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts.get(i);
+			if (seen >= rank)
+			{
+				return highest(i);
+			}
+		}
+		return highest(BUCKETS - 1);
+	}
+
+	/**
+	 * Plus grande latence enregistrée
+	 * @return la plus grande latence (en microsecondes) de la classe
+	 * contenant la plus grande latence enregistrée ou bien 0 si aucune
+	 * latence n'a été enregistrée
+	 */
+	public long getMax()
+	{
+		for (int i = BUCKETS - 1; i >= 0; i--)
+		{
+			if (counts.get(i) > 0)
+			{
+				return highest(i);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Représentation sous forme de chaîne des latences
+	 * @return une chaîne décrivant les principaux percentiles (en ms)
+	 */
+	@Override
+	public String toString()
+	{
+		return String.format("p50 %.2f p90 %.2f p99 %.2f p99.9 %.2f max %.2f ms",
+		                     getPercentile(50) / 1000.0,
+		                     getPercentile(90) / 1000.0,
+		                     getPercentile(99) / 1000.0,
+		                     getPercentile(99.9) / 1000.0,
+		                     getMax() / 1000.0);
+	}
+}
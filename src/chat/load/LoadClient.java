@@ -0,0 +1,275 @@
+package chat.load;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import chat.BinaryCodec;
+import chat.MessageInput;
+import chat.Protocol;
+import chat.Vocabulary;
+import logger.LoggerFactory;
+import models.Message;
+
+/**
+ * Client de chat synthétique utilisé par le {@link LoadGenerator} : la
+ * connexion au serveur suit la même négociation qu'un
+ * {@link chat.client.ChatClient} (demande de protocole puis nom), puis le
+ * client envoie des lignes de texte contenant leur date d'envoi
+ * ({@link System#nanoTime()}) et lit les messages diffusés par le serveur
+ * afin de mesurer la latence de bout en bout des messages des clients de
+ * charge.
+ * Les envois ({@link #send()}) sont réalisés par les threads d'envoi du
+ * générateur de charge, la lecture ({@link #run()}) par un thread dédié.
+ * @author davidroussel
+ */
+public class LoadClient implements Runnable
+{
+	/**
+	 * Préfixe des messages envoyés par les clients de charge, suivi de la
+	 * date d'envoi en nanosecondes
+	 */
+	public final static String PREFIX = "#load ";
+
+	/**
+	 * Le nom du client
+	 */
+	private final String name;
+
+	/**
+	 * La socket vers le serveur
+	 */
+	private final Socket socket;
+
+	/**
+	 * Flux de sortie vers le serveur
+	 */
+	private final OutputStream serverOut;
+
+	/**
+	 * Flux de messages depuis le serveur
+	 */
+	private final MessageInput serverMessages;
+
+	/**
+	 * Le protocole retenu par le serveur
+	 */
+	private final Protocol protocol;
+
+	/**
+	 * Jeu de caractères des lignes envoyées (protocole sérialisé)
+	 */
+	private final Charset charset;
+
+	/**
+	 * Remplissage ajouté à chaque message pour atteindre la taille voulue
+	 */
+	private final String padding;
+
+	/**
+	 * Le générateur de charge auquel sont rapportés les envois et les
+	 * réceptions
+	 */
+	private final LoadGenerator generator;
+
+	/**
+	 * Le logger
+	 */
+	private final Logger logger;
+
+	/**
+	 * Etat du client : false lorsque le client est fermé
+	 */
+	private volatile boolean running;
+
+	/**
+	 * Constructeur d'un client de charge connecté au serveur
+	 * @param host l'adresse du serveur
+	 * @param port le port du serveur
+	 * @param name le nom du client
+	 * @param protocol le protocole demandé au serveur
+	 * @param size la taille (en caractères) du contenu des messages envoyés
+	 * @param generator le générateur de charge
+	 * @param parentLogger logger parent
+	 * @throws IOException si la connexion ou la négociation échoue
+	 */
+	public LoadClient(String host,
+	                  int port,
+	                  String name,
+	                  Protocol protocol,
+	                  int size,
+	                  LoadGenerator generator,
+	                  Logger parentLogger)
+	    throws IOException
+	{
+		this.name = name;
+		this.generator = generator;
+		logger = LoggerFactory.getParentLogger(getClass(),
+		                                       parentLogger,
+		                                       parentLogger.getLevel());
+		charset = Charset.defaultCharset();
+
+		// Taille du contenu : préfixe + date (20 chiffres au plus) + espace
+		int paddingSize = Math.max(0, size - (PREFIX.length() + 21));
+		char[] fill = new char[paddingSize];
+		Arrays.fill(fill, 'x');
+		padding = new String(fill);
+
+		socket = new Socket(host, port);
+		socket.setTcpNoDelay(true);
+		serverOut = socket.getOutputStream();
+		if (protocol != Protocol.SERIAL)
+		{
+			BinaryCodec.writeLine(serverOut, protocol.request(), charset);
+		}
+		BinaryCodec.writeLine(serverOut, name, charset);
+		serverMessages =
+			MessageInput.open(new BufferedInputStream(socket.getInputStream()));
+		this.protocol = serverMessages.getProtocol();
+		running = true;
+		logger.fine("LoadClient " + name + " connected using " + this.protocol
+			+ " protocol");
+	}
+
+	/**
+	 * Le nom du client
+	 * @return le nom du client
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Envoi d'un message daté au serveur. Le message porte sa date d'envoi
+	 * prévue et non la date à laquelle il est effectivement envoyé : un
+	 * envoi retardé (par le serveur ou par le générateur) compte dans la
+	 * latence mesurée au lieu de disparaître de la mesure.
+	 * @param scheduled la date d'envoi prévue (en ns, {@link System#nanoTime()})
+	 * @return le nombre d'octets envoyés ou bien 0 si le client est fermé
+	 * @throws IOException si l'envoi échoue
+	 */
+	public synchronized int send(long scheduled) throws IOException
+	{
+		if (!running)
+		{
+			return 0;
+		}
+		String content = PREFIX + scheduled + " " + padding;
+		return write(content);
+	}
+
+	/**
+	 * Envoi d'une ligne de texte au serveur selon le protocole retenu
+	 * @param content la ligne à envoyer
+	 * @return le nombre d'octets envoyés
+	 * @throws IOException si l'envoi échoue
+	 */
+	private int write(String content) throws IOException
+	{
+		byte[] bytes;
+		if (protocol == Protocol.BINARY)
+		{
+			bytes = BinaryCodec.textFrame(content);
+		}
+		else
+		{
+			bytes = (content + Vocabulary.newLine).getBytes(charset);
+		}
+		serverOut.write(bytes);
+		serverOut.flush();
+		return bytes.length;
+	}
+
+	/**
+	 * Lecture des messages diffusés par le serveur jusqu'à la fermeture du
+	 * client ou de la connexion
+	 */
+	@Override
+	public void run()
+	{
+		try
+		{
+			Message message;
+			while ((message = serverMessages.readMessage()) != null)
+			{
+				long now = System.nanoTime();
+				String content = message.getContent();
+				if (content.startsWith(PREFIX))
+				{
+					int end = content.indexOf(' ', PREFIX.length());
+					try
+					{
+						long sent =
+							Long.parseLong(content.substring(PREFIX.length(),
+							                                 end < 0 ? content.length() : end));
+						generator.received(now - sent);
+					}
+					catch (NumberFormatException e)
+					{
+						generator.received(-1);
+					}
+				}
+				else
+				{
+					generator.received(-1);
+				}
+			}
+		}
+		catch (EOFException | SocketException e)
+		{
+			// Connexion fermée
+		}
+		catch (IOException | ClassNotFoundException e)
+		{
+			if (running)
+			{
+				logger.warning("LoadClient " + name + ": read failed: "
+					+ e.getLocalizedMessage());
+			}
+		}
+
+		if (running)
+		{
+			logger.warning("LoadClient " + name + ": disconnected by server");
+			generator.disconnected(this);
+		}
+	}
+
+	/**
+	 * Déconnexion du serveur (avec envoi de {@link Vocabulary#byeCmd}) puis
+	 * fermeture de la socket
+	 */
+	public synchronized void close()
+	{
+		if (!running)
+		{
+			return;
+		}
+		running = false;
+		try
+		{
+			write(Vocabulary.byeCmd);
+		}
+		catch (IOException e)
+		{
+			logger.fine("LoadClient " + name + ": unable to say bye: "
+				+ e.getLocalizedMessage());
+		}
+		try
+		{
+			socket.close();
+		}
+		catch (IOException e)
+		{
+			logger.warning("LoadClient " + name + ": closing socket failed: "
+				+ e.getLocalizedMessage());
+		}
+	}
+}
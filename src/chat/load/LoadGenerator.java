@@ -0,0 +1,443 @@
+package chat.load;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import chat.ExecutorFactory;
+import chat.Protocol;
+import logger.LoggerFactory;
+
+/**
+ * Générateur de charge sans interface graphique pour un serveur de chat :
+ * ouvre un grand nombre de clients synthétiques ({@link LoadClient}) qui
+ * envoient des messages d'une taille donnée à un débit donné pendant une
+ * durée donnée (éventuellement longue pour un test d'endurance).
+ * A intervalles réguliers, puis à la fin du test, le générateur affiche :
+ * <ul>
+ * <li>le débit de messages envoyés et reçus</li>
+ * <li>les percentiles de la latence de bout en bout des messages
+ * ({@link LatencyStats}), mesurée depuis la date d'envoi prévue de chaque
+ * message</li>
+ * <li>le retard des envois sur leur programmation (lorsque le générateur
+ * ne parvient pas à tenir le débit demandé)</li>
+ * <li>la charge CPU et le tas de la JVM du serveur ({@link ServerMonitor})
+ * </li>
+ * </ul>
+ * Le serveur diffusant chaque message à tous les clients, le nombre de
+ * messages reçus est de l'ordre du nombre de messages envoyés multiplié par
+ * le nombre de clients.
+ * @author davidroussel
+ */
+public class LoadGenerator implements Runnable
+{
+	/**
+	 * L'adresse du serveur
+	 */
+	private final String host;
+
+	/**
+	 * Le port du serveur
+	 */
+	private final int port;
+
+	/**
+	 * Préfixe du nom des clients (suivi de leur numéro)
+	 */
+	private final String prefix;
+
+	/**
+	 * Nombre de clients à connecter
+	 */
+	private final int nbClients;
+
+	/**
+	 * Nombre de messages envoyés par seconde par chaque client (0 pour des
+	 * clients qui ne font qu'écouter)
+	 */
+	private final double rate;
+
+	/**
+	 * Taille (en caractères) du contenu des messages envoyés
+	 */
+	private final int size;
+
+	/**
+	 * Durée du test en secondes
+	 */
+	private final int duration;
+
+	/**
+	 * Intervalle entre deux rapports en secondes
+	 */
+	private final int interval;
+
+	/**
+	 * Nombre de connexions par seconde lors de la montée en charge (0 pour
+	 * connecter les clients au plus vite)
+	 */
+	private final int ramp;
+
+	/**
+	 * Protocole demandé au serveur
+	 */
+	private final Protocol protocol;
+
+	/**
+	 * Lecture des messages dans des threads virtuels
+	 */
+	private final boolean virtualThreads;
+
+	/**
+	 * Observation de la JVM du serveur
+	 */
+	private final ServerMonitor monitor;
+
+	/**
+	 * Flux d'affichage des rapports
+	 */
+	private final PrintStream report;
+
+	/**
+	 * Les clients connectés
+	 */
+	private final List<LoadClient> clients;
+
+	/**
+	 * Latences de bout en bout des messages des clients de charge
+	 */
+	private final LatencyStats latencies;
+
+	/**
+	 * Retards des envois sur leur date prévue
+	 */
+	private final LatencyStats lags;
+
+	/**
+	 * Nombre de messages envoyés
+	 */
+	private final LongAdder sent;
+
+	/**
+	 * Nombre d'octets envoyés
+	 */
+	private final LongAdder sentBytes;
+
+	/**
+	 * Nombre de messages reçus ne provenant pas des clients de charge
+	 */
+	private final LongAdder others;
+
+	/**
+	 * Nombre d'envois ou de connexions ayant échoué
+	 */
+	private final LongAdder errors;
+
+	/**
+	 * Le logger
+	 */
+	private final Logger logger;
+
+	/**
+	 * Constructeur d'un générateur de charge
+	 * @param host l'adresse du serveur
+	 * @param port le port du serveur
+	 * @param prefix le préfixe du nom des clients
+	 * @param nbClients le nombre de clients à connecter
+	 * @param rate le nombre de messages envoyés par seconde par client
+	 * @param size la taille du contenu des messages
+	 * @param duration la durée du test (en s)
+	 * @param interval l'intervalle entre deux rapports (en s)
+	 * @param ramp le nombre de connexions par seconde (0 pour connecter
+	 * les clients au plus vite)
+	 * @param protocol le protocole demandé au serveur
+	 * @param virtualThreads lecture des messages dans des threads virtuels
+	 * @param monitor l'observation de la JVM du serveur
+	 * @param report le flux d'affichage des rapports
+	 * @param parentLogger logger parent
+	 */
+	public LoadGenerator(String host,
+	                     int port,
+	                     String prefix,
+	                     int nbClients,
+	                     double rate,
+	                     int size,
+	                     int duration,
+	                     int interval,
+	                     int ramp,
+	                     Protocol protocol,
+	                     boolean virtualThreads,
+	                     ServerMonitor monitor,
+	                     PrintStream report,
+	                     Logger parentLogger)
+	{
+		this.host = host;
+		this.port = port;
+		this.prefix = prefix;
+		this.nbClients = nbClients;
+		this.rate = rate;
+		this.size = size;
+		this.duration = duration;
+		this.interval = Math.max(interval, 1);
+		this.ramp = ramp;
+		this.protocol = protocol;
+		this.virtualThreads = virtualThreads;
+		this.monitor = monitor;
+		this.report = report;
+		logger = LoggerFactory.getParentLogger(getClass(),
+		                                       parentLogger,
+		                                       parentLogger.getLevel());
+		clients = new CopyOnWriteArrayList<LoadClient>();
+		latencies = new LatencyStats();
+		lags = new LatencyStats();
+		sent = new LongAdder();
+		sentBytes = new LongAdder();
+		others = new LongAdder();
+		errors = new LongAdder();
+	}
+
+	/**
+	 * Réception d'un message par un client de charge
+	 * @param latency la latence de bout en bout du message (en ns) ou bien
+	 * une valeur négative si le message ne provient pas d'un client de
+	 * charge
+	 */
+	void received(long latency)
+	{
+		if (latency >= 0)
+		{
+			latencies.record(latency);
+		}
+		else
+		{
+			others.increment();
+		}
+	}
+
+	/**
+	 * Déconnexion d'un client par le serveur
+	 * @param client le client déconnecté
+	 */
+	void disconnected(LoadClient client)
+	{
+		clients.remove(client);
+		errors.increment();
+	}
+
+	/**
+	 * Envoi d'un message par un client
+	 * @param client le client
+	 * @param scheduled la date d'envoi prévue (en ns)
+	 */
+	private void send(LoadClient client, long scheduled)
+	{
+		lags.record(Math.max(0, System.nanoTime() - scheduled));
+		try
+		{
+			int bytes = client.send(scheduled);
+			if (bytes > 0)
+			{
+				sent.increment();
+				sentBytes.add(bytes);
+			}
+		}
+		catch (IOException e)
+		{
+			errors.increment();
+			logger.fine("LoadGenerator: " + client.getName()
+				+ " send failed: " + e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Déroulement du test : connexion des clients, envois programmés,
+	 * rapports périodiques puis déconnexion des clients
+	 */
+	@Override
+	public void run()
+	{
+		ExecutorService readers =
+			ExecutorFactory.newThreadPerTaskExecutor(virtualThreads,
+			                                         "LoadReader",
+			                                         logger);
+		int nbSenders =
+			Math.max(1, Math.min(nbClients,
+			                     Runtime.getRuntime().availableProcessors()));
+		ScheduledExecutorService senders =
+			Executors.newScheduledThreadPool(nbSenders);
+		Random random = new Random();
+		long period = (rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0);
+
+		report.println("Load: " + nbClients + " clients on " + host + ":"
+			+ port + ", " + rate + " msg/s per client, " + size
+			+ " chars per message, " + duration + " s, monitoring "
+			+ monitor.getName());
+
+		/*
+		 * Montée en charge
+		 */
+		long start = System.nanoTime();
+		for (int i = 0; i < nbClients; i++)
+		{
+			if (ramp > 0)
+			{
+				long due = start + ((i * TimeUnit.SECONDS.toNanos(1)) / ramp);
+				long wait = due - System.nanoTime();
+				if (wait > 0)
+				{
+					try
+					{
+						TimeUnit.NANOSECONDS.sleep(wait);
+					}
+					catch (InterruptedException e)
+					{
+						break;
+					}
+				}
+			}
+			final LoadClient client;
+			try
+			{
+				client = new LoadClient(host,
+				                        port,
+				                        prefix + i,
+				                        protocol,
+				                        size,
+				                        this,
+				                        logger);
+			}
+			catch (IOException e)
+			{
+				errors.increment();
+				logger.warning("LoadGenerator: unable to connect client "
+					+ prefix + i + ": " + e.getLocalizedMessage());
+				continue;
+			}
+			clients.add(client);
+			readers.execute(client);
+			if (period > 0)
+			{
+				/*
+				 * Le k-ième envoi est prévu à first + k * period, quelle que
+				 * soit la date à laquelle l'exécuteur le déclenche (un envoi
+				 * en retard est rattrapé sans décaler les suivants)
+				 */
+				long delay = (long) (random.nextDouble() * period);
+				final long first = System.nanoTime() + delay;
+				final AtomicLong ticks = new AtomicLong();
+				Runnable task = () ->
+					send(client, first + (ticks.getAndIncrement() * period));
+				senders.scheduleAtFixedRate(task,
+				                            delay,
+				                            period,
+				                            TimeUnit.NANOSECONDS);
+			}
+		}
+		report.println(String.format("Load: %d clients connected in %.1f s",
+		                             clients.size(),
+		                             (System.nanoTime() - start) / 1e9));
+
+		/*
+		 * Rapports périodiques
+		 */
+		long begin = System.nanoTime();
+		long end = begin + TimeUnit.SECONDS.toNanos(duration);
+		long last = begin;
+		long lastSent = 0;
+		LatencyStats previous = latencies.snapshot();
+		LatencyStats previousLags = lags.snapshot();
+		long next = begin;
+		boolean interrupted = false;
+		while (!interrupted && (next < end))
+		{
+			next = Math.min(next + TimeUnit.SECONDS.toNanos(interval), end);
+			try
+			{
+				long wait;
+				while ((wait = next - System.nanoTime()) > 0)
+				{
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+			}
+			catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+			long now = System.nanoTime();
+			long totalSent = sent.sum();
+			LatencyStats current = latencies.snapshot();
+			LatencyStats window = current.minus(previous);
+			LatencyStats currentLags = lags.snapshot();
+			LatencyStats windowLags = currentLags.minus(previousLags);
+			double seconds = (now - last) / 1e9;
+			report.println(String.format("t=%5.0fs %d clients, sent %.0f msg/s, received %.0f msg/s, latency %s, sender lag p99 %.2f max %.2f ms, %s",
+			                             (now - begin) / 1e9,
+			                             clients.size(),
+			                             (totalSent - lastSent) / seconds,
+			                             window.getCount() / seconds,
+			                             window,
+			                             windowLags.getPercentile(99) / 1000.0,
+			                             windowLags.getMax() / 1000.0,
+			                             monitor));
+			previous = current;
+			previousLags = currentLags;
+			lastSent = totalSent;
+			last = now;
+		}
+
+		/*
+		 * Arrêt des envois, attente des derniers messages puis déconnexion
+		 */
+		senders.shutdownNow();
+		try
+		{
+			senders.awaitTermination(1, TimeUnit.SECONDS);
+			TimeUnit.SECONDS.sleep(1);
+		}
+		catch (InterruptedException e)
+		{
+			logger.warning("LoadGenerator: interrupted while draining");
+		}
+
+		double seconds = (System.nanoTime() - begin) / 1e9;
+		LatencyStats total = latencies.snapshot();
+		report.println(String.format("Total: %d messages sent (%.0f msg/s, %d bytes), %d received (%.0f msg/s), %d other messages, %d errors",
+		                             sent.sum(),
+		                             sent.sum() / seconds,
+		                             sentBytes.sum(),
+		                             total.getCount(),
+		                             total.getCount() / seconds,
+		                             others.sum(),
+		                             errors.sum()));
+		report.println("Total latency: " + total);
+		report.println("Total sender lag: " + lags.snapshot());
+		report.println("Total " + monitor);
+
+		for (LoadClient client : clients)
+		{
+			client.close();
+		}
+		readers.shutdown();
+		try
+		{
+			if (!readers.awaitTermination(5, TimeUnit.SECONDS))
+			{
+				readers.shutdownNow();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			readers.shutdownNow();
+		}
+		monitor.close();
+	}
+}
@@ -0,0 +1,198 @@
+package chat.load;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+import logger.LoggerFactory;
+
+/**
+ * Observation de la charge CPU et de l'occupation du tas d'une JVM au
+ * travers de ses MBeans de plateforme :
+ * <ul>
+ * <li>soit la JVM d'un serveur lancé avec un agent JMX distant (par exemple
+ * {@code -Dcom.sun.management.jmxremote.port=9010
+ * -Dcom.sun.management.jmxremote.authenticate=false
+ * -Dcom.sun.management.jmxremote.ssl=false})</li>
+ * <li>soit, à défaut, la JVM courante (celle du générateur de charge)</li>
+ * </ul>
+ * @author davidroussel
+ */
+public class ServerMonitor
+{
+	/**
+	 * Nom du MBean du système d'exploitation
+	 */
+	private final static String OSBEAN = "java.lang:type=OperatingSystem";
+
+	/**
+	 * Nom du MBean de la mémoire
+	 */
+	private final static String MEMORYBEAN = "java.lang:type=Memory";
+
+	/**
+	 * Description de la JVM observée
+	 */
+	private final String name;
+
+	/**
+	 * Connexion JMX distante ou bien null pour la JVM courante
+	 */
+	private final JMXConnector connector;
+
+	/**
+	 * Connexion aux MBeans de la JVM observée
+	 */
+	private final MBeanServerConnection connection;
+
+	/**
+	 * Le logger
+	 */
+	private final Logger logger;
+
+	/**
+	 * Constructeur d'un moniteur
+	 * @param address adresse "hôte:port" de l'agent JMX du serveur ou bien
+	 * null pour observer la JVM courante
+	 * @param parentLogger logger parent
+	 * @throws IOException si la connexion à l'agent JMX échoue
+	 */
+	public ServerMonitor(String address, Logger parentLogger)
+	    throws IOException
+	{
+		logger = LoggerFactory.getParentLogger(getClass(),
+		                                       parentLogger,
+		                                       parentLogger.getLevel());
+		if (address != null)
+		{
+			JMXServiceURL url =
+				new JMXServiceURL("service:jmx:rmi:///jndi/rmi://" + address
+					+ "/jmxrmi");
+			connector = JMXConnectorFactory.connect(url);
+			connection = connector.getMBeanServerConnection();
+			name = "server " + address;
+		}
+		else
+		{
+			connector = null;
+			connection = ManagementFactory.getPlatformMBeanServer();
+			name = "generator";
+		}
+	}
+
+	/**
+	 * Description de la JVM observée
+	 * @return "server hôte:port" ou bien "generator"
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Charge CPU récente de la JVM observée
+	 * @return la charge CPU de la JVM (entre 0 et 1 pour l'ensemble des
+	 * processeurs) ou bien une valeur négative si elle n'est pas disponible
+	 */
+	public double getCpuLoad()
+	{
+		try
+		{
+			Object load = connection.getAttribute(new ObjectName(OSBEAN),
+			                                      "ProcessCpuLoad");
+			return (load instanceof Number ? ((Number) load).doubleValue() : -1.0);
+		}
+		catch (JMException | IOException e)
+		{
+			logger.warning("ServerMonitor: unable to get cpu load: "
+				+ e.getLocalizedMessage());
+			return -1.0;
+		}
+	}
+
+	/**
+	 * Occupation du tas de la JVM observée
+	 * @param item "used" pour le tas occupé ou bien "committed" pour le tas
+	 * alloué par la JVM
+	 * @return le nombre d'octets correspondant ou bien -1 s'il n'est pas
+	 * disponible
+	 */
+	private long getHeap(String item)
+	{
+		try
+		{
+			CompositeData usage =
+				(CompositeData) connection.getAttribute(new ObjectName(MEMORYBEAN),
+				                                        "HeapMemoryUsage");
+			return ((Number) usage.get(item)).longValue();
+		}
+		catch (JMException | IOException | ClassCastException e)
+		{
+			logger.warning("ServerMonitor: unable to get heap usage: "
+				+ e.getLocalizedMessage());
+			return -1;
+		}
+	}
+
+	/**
+	 * Tas occupé par la JVM observée
+	 * @return le nombre d'octets occupés dans le tas ou bien -1
+	 */
+	public long getHeapUsed()
+	{
+		return getHeap("used");
+	}
+
+	/**
+	 * Tas alloué par la JVM observée
+	 * @return le nombre d'octets alloués pour le tas ou bien -1
+	 */
+	public long getHeapCommitted()
+	{
+		return getHeap("committed");
+	}
+
+	/**
+	 * Fermeture de la connexion JMX distante
+	 */
+	public void close()
+	{
+		if (connector != null)
+		{
+			try
+			{
+				connector.close();
+			}
+			catch (IOException e)
+			{
+				logger.warning("ServerMonitor: closing jmx connection failed: "
+					+ e.getLocalizedMessage());
+			}
+		}
+	}
+
+	/**
+	 * Représentation sous forme de chaîne de l'état de la JVM observée
+	 * @return une chaîne décrivant la charge CPU et le tas de la JVM observée
+	 */
+	@Override
+	public String toString()
+	{
+		double cpu = getCpuLoad();
+		long used = getHeapUsed();
+		long committed = getHeapCommitted();
+		return String.format("%s cpu %s heap %d/%d MB",
+		                     name,
+		                     (cpu >= 0 ? String.format("%.1f%%", cpu * 100) : "n/a"),
+		                     used >> 20,
+		                     committed >> 20);
+	}
+}
@@ -0,0 +1,6 @@
+package chat.load;
+
+/**
+ * Sous-package contenant le générateur de charge (sans interface graphique)
+ * utilisé pour les tests de charge et d'endurance du serveur de chat
+ */
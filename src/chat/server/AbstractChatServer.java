@@ -0,0 +1,1202 @@
+package chat.server;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import chat.Protocol;
+import chat.Vocabulary;
+import chat.journal.MessageHistory;
+import logger.LoggerFactory;
+import models.Message;
+
+/**
+ * Classe de base des serveurs de chat. Contient l'ensemble des clients
+ * connectés ainsi que le traitement des lignes envoyées par les clients
+ * (messages ordinaires ou commandes de contrôle) afin que les différents
+ * modes d'exécution du serveur ({@link ChatServer} et {@link NioChatServer})
+ * aient exactement le même comportement vis à vis des clients.
+ *
+ * @author davidroussel
+ */
+public abstract class AbstractChatServer implements Runnable
+{
+	/**
+	 * Le port par défaut utilisé
+	 */
+	public final static int DEFAULTPORT = 1394;
+
+	/**
+	 * Temps d'attente (en ms) par défaut d'une connection d'un client. Au bout
+	 * de ce temps une {@link SocketTimeoutException} est générée et on peut
+	 * choisir de recommencer à attendre (s'il reste des clients) ou bien
+	 * arrêter le serveur (s'il n'y a plus de clients)
+	 */
+	public final static int DEFAULTTIMEOUT = 1000;
+
+	/**
+	 * Nombre maximum par défaut de messages en attente d'envoi pour chaque
+	 * client
+	 */
+	public final static int DEFAULTQUEUESIZE = 1024;
+
+	/**
+	 * Politique par défaut appliquée lorsque la file d'attente d'un client
+	 * est pleine
+	 */
+	public final static OverflowPolicy DEFAULTOVERFLOW =
+		OverflowPolicy.DROP_OLDEST;
+
+	/**
+	 * Fenêtre de regroupement des écritures par défaut (en ms) : seuls les
+	 * messages déjà en attente sont écrits ensemble, sans latence ajoutée
+	 */
+	public final static long DEFAULTFLUSHWINDOW = 0;
+
+	/**
+	 * Nombre d'octets maximum par défaut d'une écriture groupée
+	 */
+	public final static int DEFAULTFLUSHBYTES = 16384;
+
+	/**
+	 * Protocole le plus évolué accepté par défaut
+	 */
+	public final static Protocol DEFAULTPROTOCOL = Protocol.BINARY;
+
+	/**
+	 * Nom du salon par défaut : les clients y sont placés à leur connexion
+	 * et y reviennent lorsqu'ils quittent un salon
+	 */
+	public final static String DEFAULTROOM = "lobby";
+
+	/**
+	 * La liste des différents clients connectés (dans leur ordre d'arrivée).
+	 * Chaque ajout ou retrait publie atomiquement une nouvelle copie de la
+	 * liste : les diffusions (très nombreuses) parcourent un instantané de
+	 * la liste sans aucun verrou et peuvent donc avoir lieu en parallèle,
+	 * seuls les ajouts et retraits (rares) sont sérialisés par le
+	 * {@link #clientsLock}.
+	 */
+	protected final CopyOnWriteArrayList<ConnectedClient> clients;
+
+	/**
+	 * Verrou sérialisant les ajouts et retraits dans la liste des
+	 * {@link #clients} (afin de maintenir le {@link #superUser}).
+	 * Le serveur n'utilise aucun bloc synchronized (verrous explicites,
+	 * variables volatiles ou atomiques) : un thread virtuel bloqué dans un
+	 * bloc synchronized resterait épinglé sur son thread porteur.
+	 */
+	protected final ReentrantLock clientsLock;
+
+	/**
+	 * Index des clients connectés par leur nom. L'enregistrement d'un nom
+	 * est atomique ({@link ConcurrentHashMap#putIfAbsent(Object, Object)}) :
+	 * la vérification de l'unicité des noms et la recherche d'un client à
+	 * kicker se font en temps constant sans parcourir la liste des
+	 * {@link #clients} ni prendre le {@link #clientsLock}.
+	 */
+	protected final ConcurrentHashMap<String, ConnectedClient> clientsByName;
+
+	/**
+	 * Le super-utilisateur du serveur : le plus ancien des clients encore
+	 * connectés (ou bien null s'il n'y a pas de clients). Mis à jour sous le
+	 * {@link #clientsLock} à l'ajout et au retrait des clients.
+	 */
+	private volatile ConnectedClient superUser;
+
+	/**
+	 * Les salons existants indexés par leur nom. Un salon est créé lorsqu'un
+	 * premier client le rejoint et supprimé lorsque son dernier client le
+	 * quitte (sauf le {@link #lobby}). L'ajout ou le retrait d'un membre a
+	 * lieu dans {@link ConcurrentHashMap#compute} (ou computeIfPresent) et
+	 * est donc atomique vis à vis de la création et de la suppression du
+	 * salon.
+	 */
+	protected final ConcurrentHashMap<String, Room> rooms;
+
+	/**
+	 * Le salon par défaut ({@link #DEFAULTROOM}), qui existe toujours
+	 */
+	protected final Room lobby;
+
+	/**
+	 * Nombre maximum de messages en attente d'envoi pour chaque client
+	 */
+	protected int queueSize;
+
+	/**
+	 * Politique appliquée lorsque la file d'attente d'un client est pleine
+	 */
+	protected OverflowPolicy overflowPolicy;
+
+	/**
+	 * Fenêtre de regroupement (en ms) des messages écrits ensemble vers un
+	 * client
+	 */
+	protected long flushWindow;
+
+	/**
+	 * Nombre d'octets maximum d'une écriture groupée vers un client
+	 */
+	protected int flushBytes;
+
+	/**
+	 * Statistiques des écritures groupées vers l'ensemble des clients
+	 */
+	protected final BatchStats batchStats;
+
+	/**
+	 * Protocole le plus évolué accepté par le serveur : les clients
+	 * demandant un protocole plus évolué utiliseront {@link Protocol#SERIAL}
+	 */
+	protected Protocol protocol;
+
+	/**
+	 * Table des auteurs des messages (pour le protocole binaire)
+	 */
+	protected final AuthorTable authors;
+
+	/**
+	 * Historique des messages diffusés : journal persistant ou tampon en
+	 * mémoire (ou bien null si les messages ne sont pas conservés)
+	 */
+	protected MessageHistory history;
+
+	/**
+	 * Rejeu de l'historique aux clients qui se connectent (ou bien null si
+	 * l'historique n'est pas rejoué)
+	 */
+	protected HistoryReplayer replayer;
+
+	/**
+	 * Fédération avec d'autres serveurs (ou bien null si le serveur est
+	 * seul)
+	 */
+	protected Federation federation;
+
+	/**
+	 * Boucles de diffusion auxquelles sont attribués les salons (ou bien
+	 * null si chaque message est diffusé par le thread qui l'a lu)
+	 */
+	protected BroadcastShards shards;
+
+	/**
+	 * Nombre maximum de lignes par seconde envoyées par chaque client (0
+	 * pour ne pas limiter)
+	 */
+	protected double messageRate;
+
+	/**
+	 * Nombre maximum de caractères par seconde envoyés par chaque client (0
+	 * pour ne pas limiter)
+	 */
+	protected double byteRate;
+
+	/**
+	 * Budget global du serveur : nombre maximum de lignes par seconde
+	 * envoyées par l'ensemble des clients (ou bien null pour ne pas limiter)
+	 */
+	protected TokenBucket globalBucket;
+
+	/**
+	 * logger pour afficher les messages d'erreur
+	 */
+	protected Logger logger;
+
+	/**
+	 * Etat d'écoute du serveur. Cet état est vrai au départ et passe à false
+	 * lorsque le dernier client se déconnecte.
+	 */
+	protected volatile boolean listening;
+
+	/**
+	 * Termine le serveur lorsque le dernier client se délogue
+	 */
+	protected final boolean quitOnLastClient;
+
+	/**
+	 * Résultat du traitement d'une ligne envoyée par un client
+	 */
+	protected static class Outcome
+	{
+		/**
+		 * Le message à diffuser aux membres du {@link #room} (ou bien null
+		 * s'il n'y a rien à diffuser)
+		 */
+		public Message message = null;
+
+		/**
+		 * Le salon dans lequel diffuser le {@link #message}
+		 */
+		public Room room = null;
+
+		/**
+		 * Les destinataires d'un message privé : le {@link #message} n'est
+		 * envoyé qu'à ces clients et non aux membres du {@link #room} (ou
+		 * bien null pour un message ordinaire)
+		 */
+		public ConnectedClient[] recipients = null;
+
+		/**
+		 * Le message à diffuser aux membres du salon {@link #left} que le
+		 * client vient de quitter (ou bien null)
+		 */
+		public Message departure = null;
+
+		/**
+		 * Le salon que le client vient de quitter
+		 */
+		public Room left = null;
+
+		/**
+		 * Le client s'est délogué
+		 */
+		public boolean loggedOut = false;
+
+		/**
+		 * Le client a terminé le serveur
+		 */
+		public boolean killed = false;
+	}
+
+	/**
+	 * Constructeur [protégé] d'un serveur de chat
+	 * @param quitOnLastClient quitte le serveur lorsque le dernier client
+	 * se délogue
+	 * @param parentLogger logger parent pour l'affichage des messages de
+	 * debug
+	 */
+	protected AbstractChatServer(boolean quitOnLastClient, Logger parentLogger)
+	{
+		this.quitOnLastClient = quitOnLastClient;
+		logger = LoggerFactory.getParentLogger(getClass(),
+		                                       parentLogger,
+		                                       parentLogger.getLevel());
+		clients = new CopyOnWriteArrayList<ConnectedClient>();
+		clientsLock = new ReentrantLock();
+		clientsByName = new ConcurrentHashMap<String, ConnectedClient>();
+		superUser = null;
+		rooms = new ConcurrentHashMap<String, Room>();
+		lobby = new Room(DEFAULTROOM);
+		rooms.put(DEFAULTROOM, lobby);
+		queueSize = DEFAULTQUEUESIZE;
+		overflowPolicy = DEFAULTOVERFLOW;
+		flushWindow = DEFAULTFLUSHWINDOW;
+		flushBytes = DEFAULTFLUSHBYTES;
+		batchStats = new BatchStats();
+		protocol = DEFAULTPROTOCOL;
+		authors = new AuthorTable();
+		history = null;
+		replayer = null;
+		federation = null;
+		shards = null;
+		messageRate = 0;
+		byteRate = 0;
+		globalBucket = null;
+	}
+
+	/**
+	 * Mise en place de l'historique des messages diffusés (journal
+	 * persistant ou tampon en mémoire).
+	 * Doit être invoqué avant le lancement du serveur.
+	 * @param history l'historique dans lequel ajouter chaque message diffusé
+	 * (ou bien null pour ne pas conserver les messages)
+	 */
+	public void setHistory(MessageHistory history)
+	{
+		this.history = history;
+	}
+
+	/**
+	 * Mise en place de la fédération avec d'autres serveurs : les messages
+	 * des clients locaux sont relayés aux autres noeuds et les noms des
+	 * clients sont uniques dans toute la fédération.
+	 * Doit être invoqué avant le lancement du serveur.
+	 * @param federation la fédération (ou bien null si le serveur est seul)
+	 */
+	public void setFederation(Federation federation)
+	{
+		this.federation = federation;
+	}
+
+	/**
+	 * Mise en place des boucles de diffusion : chaque salon est attribué à
+	 * l'une des boucles d'après le hash de son nom, et les messages d'un
+	 * salon sont diffusés par sa boucle plutôt que par le thread qui les a
+	 * lus. Les messages privés, les avis et le rejeu de l'historique ne
+	 * passent pas par les boucles (voir {@link BroadcastShards}).
+	 * Doit être invoqué avant le lancement du serveur.
+	 * @param count nombre de boucles de diffusion (0 pour diffuser chaque
+	 * message depuis le thread qui l'a lu)
+	 */
+	public void setShards(int count)
+	{
+		if (shards != null)
+		{
+			shards.shutdown();
+		}
+		shards = (count > 0 ? new BroadcastShards(count, logger) : null);
+	}
+
+	/**
+	 * Mise en place de la limitation du débit des clients : les lignes
+	 * excédentaires d'un client sont retardées (si le thread de lecture du
+	 * client peut attendre) ou bien refusées, et le client en est notifié.
+	 * Doit être invoqué avant le lancement du serveur.
+	 * @param messages nombre maximum de lignes par seconde de chaque client
+	 * (0 pour ne pas limiter)
+	 * @param bytes nombre maximum de caractères par seconde de chaque
+	 * client (0 pour ne pas limiter)
+	 * @param global nombre maximum de lignes par seconde de l'ensemble des
+	 * clients (0 pour ne pas limiter)
+	 */
+	public void setRateLimits(double messages, double bytes, double global)
+	{
+		messageRate = Math.max(messages, 0);
+		byteRate = Math.max(bytes, 0);
+		globalBucket = (global > 0 ?
+			new TokenBucket(global, Math.max(1.0, global * RateLimiter.BURST)) :
+			null);
+	}
+
+	/**
+	 * Création du limiteur de débit d'un client
+	 * @param maxDelay l'attente maximum (en ms) d'une ligne du client (0 si
+	 * le thread de lecture ne doit jamais attendre)
+	 * @return le limiteur de débit du client ou bien null si le débit des
+	 * clients n'est pas limité
+	 */
+	protected RateLimiter newRateLimiter(long maxDelay)
+	{
+		if ((messageRate <= 0) && (byteRate <= 0) && (globalBucket == null))
+		{
+			return null;
+		}
+		return new RateLimiter(messageRate, byteRate, globalBucket, maxDelay);
+	}
+
+	/**
+	 * Admission d'une ligne envoyée par un client avant son traitement
+	 * ({@link #processInput(ConnectedClient, String)}) : la ligne est admise
+	 * immédiatement, après une attente du thread appelant, ou bien refusée.
+	 * Le client est notifié (au plus une fois par seconde) lorsque ses lignes
+	 * sont refusées. La commande bye est toujours admise.
+	 * @param client le client ayant envoyé la ligne
+	 * @param limiter le limiteur de débit du client (ou bien null)
+	 * @param clientInput la ligne envoyée par le client
+	 * @return true si la ligne doit être traitée, false si elle est refusée
+	 */
+	protected boolean admit(ConnectedClient client,
+	                        RateLimiter limiter,
+	                        String clientInput)
+	{
+		if ((limiter == null) || clientInput.equalsIgnoreCase(Vocabulary.byeCmd))
+		{
+			return true;
+		}
+
+		long wait = limiter.acquire(clientInput.length());
+		if (wait > 0)
+		{
+			try
+			{
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			return true;
+		}
+		if (wait == 0)
+		{
+			return true;
+		}
+
+		if (limiter.notice())
+		{
+			logger.info("ChatServer: " + client.getName() + " rate limited ("
+				+ limiter.getDropped() + " lines dropped)");
+			try
+			{
+				send(new Message("server > rate limit exceeded, "
+					+ "messages dropped"), client);
+			}
+			catch (IOException e)
+			{
+				logger.warning("ChatServer: unable to notify "
+					+ client.getName());
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Mise en place du rejeu de l'historique aux clients qui se connectent :
+	 * les count derniers messages et/ou les messages des minutes dernières
+	 * minutes.
+	 * Doit être invoqué avant le lancement du serveur, après
+	 * {@link #setHistory(MessageHistory)} et
+	 * {@link #setOutboundQueue(int, OverflowPolicy)}.
+	 * @param count nombre maximum de messages rejoués (0 pour ne pas limiter
+	 * le nombre de messages)
+	 * @param minutes durée (en minutes) de la période rejouée (0 pour ne pas
+	 * limiter la période)
+	 */
+	public void setReplay(int count, int minutes)
+	{
+		if (replayer != null)
+		{
+			replayer.shutdown();
+		}
+		if ((history != null) && ((count > 0) || (minutes > 0)))
+		{
+			replayer = new HistoryReplayer(this,
+			                               history,
+			                               count,
+			                               minutes,
+			                               queueSize,
+			                               authors,
+			                               logger);
+		}
+		else
+		{
+			replayer = null;
+		}
+	}
+
+	/**
+	 * Mise en place du protocole le plus évolué accepté par le serveur.
+	 * Doit être invoqué avant le lancement du serveur.
+	 * @param protocol le protocole le plus évolué accepté
+	 */
+	public void setProtocol(Protocol protocol)
+	{
+		this.protocol = protocol;
+	}
+
+	/**
+	 * Mise en place des files d'attente des messages sortants des clients.
+	 * Doit être invoqué avant le lancement du serveur.
+	 * @param queueSize nombre maximum de messages en attente d'envoi pour
+	 * chaque client
+	 * @param policy politique appliquée lorsque la file d'attente d'un
+	 * client est pleine
+	 */
+	public void setOutboundQueue(int queueSize, OverflowPolicy policy)
+	{
+		this.queueSize = queueSize;
+		overflowPolicy = policy;
+	}
+
+	/**
+	 * Mise en place du regroupement des écritures vers les clients : les
+	 * messages en attente pour un client (ou arrivant dans la fenêtre de
+	 * regroupement) sont écrits ensemble, jusqu'à un nombre d'octets
+	 * maximum, avant d'être effectivement envoyés.
+	 * Doit être invoqué avant le lancement du serveur.
+	 * @param window fenêtre de regroupement en ms (0 pour ne regrouper que
+	 * les messages déjà en attente). N'est utilisée que par les écrivains
+	 * bloquants du {@link ChatServer} : les boucles du {@link NioChatServer}
+	 * regroupent les messages en attente lorsque le canal est prêt.
+	 * @param bytes nombre d'octets maximum d'une écriture groupée
+	 */
+	public void setFlush(long window, int bytes)
+	{
+		flushWindow = window;
+		flushBytes = bytes;
+	}
+
+	/**
+	 * Accesseur en lecture des statistiques des écritures groupées
+	 * @return les statistiques des écritures groupées vers l'ensemble des
+	 * clients
+	 */
+	public BatchStats getBatchStats()
+	{
+		return batchStats;
+	}
+
+	/**
+	 * Accesseur en lecture du {@link #quitOnLastClient}
+	 * @return la valeu du {@link #quitOnLastClient}
+	 */
+	public boolean isQuitOnLastClient()
+	{
+		return quitOnLastClient;
+	}
+
+	/**
+	 * Change l'état d'écoute du serveur
+	 * @param value la nouvelle valeur
+	 */
+	public void setListening(boolean value)
+	{
+		listening = value;
+	}
+
+	/**
+	 * Accesseur en lecture de l'état d'écoute du serveur
+	 * @return l'état d'écoute du serveur
+	 */
+	public boolean isListening()
+	{
+		return listening;
+	}
+
+	/**
+	 * Ajout d'un nouveau client à l'ensemble des clients si aucun autre
+	 * client ne porte déjà son nom (sur ce serveur ou sur un autre noeud de
+	 * la {@link #federation}). L'enregistrement du nom est atomique :
+	 * deux clients de même nom se connectant simultanément ne peuvent pas
+	 * être ajoutés tous les deux.
+	 * @param client le client à ajouter
+	 * @return true si le client a été ajouté, false si un autre client porte
+	 * déjà le même nom
+	 */
+	protected boolean addClient(ConnectedClient client)
+	{
+		if (clientsByName.putIfAbsent(client.getName(), client) != null)
+		{
+			return false;
+		}
+		if ((federation != null) && federation.isRemote(client.getName()))
+		{
+			clientsByName.remove(client.getName(), client);
+			return false;
+		}
+
+		clientsLock.lock();
+		try
+		{
+			clients.add(client);
+			if (superUser == null)
+			{
+				superUser = client;
+			}
+		}
+		finally
+		{
+			clientsLock.unlock();
+		}
+		authors.acquire(client.getName());
+		joinRoom(client, DEFAULTROOM);
+		if (federation != null)
+		{
+			federation.joined(client.getName());
+		}
+		return true;
+	}
+
+	/**
+	 * Lancement du rejeu de l'historique vers un client qui vient d'être
+	 * ajouté (s'il y a un rejeu). Ne bloque pas : le rejeu est effectué par
+	 * le thread du {@link HistoryReplayer}.
+	 * @param client le client qui vient d'être ajouté
+	 */
+	protected void replayHistory(ConnectedClient client)
+	{
+		if (replayer != null)
+		{
+			replayer.replay(client);
+		}
+	}
+
+	/**
+	 * Arrêt des rejeux de l'historique en cours (à l'arrêt du serveur)
+	 */
+	protected void stopReplay()
+	{
+		if (replayer != null)
+		{
+			replayer.shutdown();
+		}
+	}
+
+	/**
+	 * Arrêt des boucles de diffusion (à l'arrêt du serveur), après la
+	 * diffusion des messages déjà déposés
+	 */
+	protected void stopShards()
+	{
+		if (shards != null)
+		{
+			shards.shutdown();
+		}
+	}
+
+	/**
+	 * Retrait d'un client de l'ensemble des clients. Si le client retiré
+	 * était le super-utilisateur, le plus ancien des clients restants le
+	 * devient. L'auteur correspondant est retiré de la table des auteurs.
+	 * Le retrait d'un client déjà retiré est sans effet.
+	 * @param client le client à retirer
+	 */
+	protected void removeClient(ConnectedClient client)
+	{
+		if (clientsByName.remove(client.getName(), client))
+		{
+			authors.release(client.getName());
+			if (federation != null)
+			{
+				federation.left(client.getName());
+			}
+		}
+		Room room = client.getRoom();
+		if (room != null)
+		{
+			leaveRoom(client, room);
+			client.setRoom(null);
+		}
+
+		clientsLock.lock();
+		try
+		{
+			clients.remove(client);
+			if (superUser == client)
+			{
+				superUser = (clients.isEmpty() ? null : clients.get(0));
+			}
+		}
+		finally
+		{
+			clientsLock.unlock();
+		}
+	}
+
+	/**
+	 * Passage d'un client dans un salon (créé s'il n'existe pas encore) :
+	 * le client est ajouté au nouveau salon avant d'être retiré de son salon
+	 * précédent (supprimé s'il devient vide), si bien qu'il est toujours
+	 * membre d'au moins un salon.
+	 * @param client le client
+	 * @param name le nom du salon à rejoindre
+	 * @return le salon rejoint
+	 */
+	protected Room joinRoom(ConnectedClient client, String name)
+	{
+		Room previous = client.getRoom();
+		if ((previous != null) && previous.getName().equals(name))
+		{
+			return previous;
+		}
+
+		Room room = rooms.compute(name, (String key, Room current) ->
+		{
+			Room joined = (current != null ? current : new Room(key));
+			joined.add(client);
+			return joined;
+		});
+		client.setRoom(room);
+
+		if (previous != null)
+		{
+			leaveRoom(client, previous);
+		}
+		return room;
+	}
+
+	/**
+	 * Retrait d'un client d'un salon, le salon étant supprimé s'il devient
+	 * vide (sauf le {@link #lobby})
+	 * @param client le client
+	 * @param room le salon à quitter
+	 */
+	private void leaveRoom(ConnectedClient client, Room room)
+	{
+		rooms.computeIfPresent(room.getName(), (String key, Room current) ->
+		{
+			current.remove(client);
+			return ((current != lobby) && current.isEmpty() ? null : current);
+		});
+	}
+
+	/**
+	 * Accesseur en lecture d'un salon
+	 * @param name le nom du salon
+	 * @return le salon portant ce nom ou bien null s'il n'existe pas
+	 */
+	public Room getRoom(String name)
+	{
+		return rooms.get(name);
+	}
+
+	/**
+	 * Nombre de salons existants (y compris le {@link #lobby})
+	 * @return le nombre de salons existants
+	 */
+	public int getRoomCount()
+	{
+		return rooms.size();
+	}
+
+	/**
+	 * Recherche parmis les clients déjà enregistrés un client portant le même
+	 * nom que l'argument
+	 *
+	 * @param clientName le nom du client à rechercher parmis les clients déjà
+	 *            enregistrés
+	 * @return le client recherché s'il existe ou bien null s'il n'existe pas
+	 */
+	protected ConnectedClient searchClientByName(String clientName)
+	{
+		return clientsByName.get(clientName);
+	}
+
+	/**
+	 * Indique si un client est le super-utilisateur du serveur (c'est à dire
+	 * le plus ancien des clients encore connectés)
+	 * @param client le client à tester
+	 * @return true si le client est le super-utilisateur, false sinon
+	 */
+	protected boolean isSuperUser(ConnectedClient client)
+	{
+		return superUser == client;
+	}
+
+	/**
+	 * Traitement d'une ligne de texte envoyée par un client : message
+	 * ordinaire à diffuser dans le salon du client ou bien commande de
+	 * contrôle (bye, kill, kick, join, leave ou msg). Une ligne n'est une commande
+	 * que si elle est composée du mot clé de la commande, éventuellement
+	 * suivi d'un espace et de ses arguments. Une commande mal formée (bye ou
+	 * leave suivis d'arguments, join, kick ou msg sans arguments) n'est pas
+	 * diffusée : seul son émetteur est notifié de l'usage de la commande.
+	 * @param client le client ayant envoyé la ligne
+	 * @param clientInput la ligne envoyée par le client
+	 * @return le résultat du traitement de la ligne
+	 */
+	protected Outcome processInput(ConnectedClient client, String clientInput)
+	{
+		Outcome outcome = new Outcome();
+
+		/*
+		 * Pas d'affichage dans la console ici : processInput est aussi
+		 * exécuté par les boucles du serveur non bloquant, qui seraient
+		 * toutes sérialisées sur System.out (voir ClientHandler)
+		 */
+
+		// on vérifie que ce client n'a pas été banni par un super utilisateur
+		if (client.isBanned())
+		{
+			logger.info(client.getName() + " is banned");
+			outcome.loggedOut = true;
+			return outcome;
+		}
+
+		// On vérifie qu'il ne s'agit pas d'un message de contrôle
+		boolean controlMessage = false;
+		String lowerInput = clientInput.toLowerCase();
+		for (String command : Vocabulary.commands)
+		{
+			if (lowerInput.equals(command)
+			    || lowerInput.startsWith(command + " "))
+			{
+				controlMessage = true;
+				break;
+			}
+		}
+
+		StringBuffer messageContent = new StringBuffer();
+		outcome.room = client.getRoom();
+
+		if (controlMessage)
+		{
+			// Le client veut nous quitter
+			if (clientInput.toLowerCase().equals(Vocabulary.byeCmd))
+			{
+				messageContent.append(client.getName() + " logged out");
+				outcome.loggedOut = true;
+			}
+			// on vérifie si un kill est demandé par le client
+			else if (clientInput.toLowerCase().startsWith(Vocabulary.killCmd))
+			{
+				// on vérifie que le client est super-utilisateur
+				// (1er de tous les clients)
+				if (isSuperUser(client))
+				{
+					outcome.killed = true;
+					setListening(false);
+					return outcome;
+				}
+			}
+			// on vérifie si un kick est demandé par le client
+			else if (clientInput.toLowerCase().startsWith(Vocabulary.kickCmd))
+			{
+				messageContent.append(Vocabulary.kickCmd);
+				// on vérifie que le client est super-utilisateur
+				// (1er de tous les clients)
+				if (isSuperUser(client))
+				{
+					/*
+					 * On recherche le nom du client à kicker
+					 * dans kick clientToKill
+					 */
+					String kickedName = clientInput.substring(
+						Vocabulary.kickCmd.length()).trim();
+					if (kickedName.isEmpty())
+					{
+						return usage(client,
+						             outcome,
+						             Vocabulary.kickCmd + " <user name>");
+					}
+					messageContent.append(" " + kickedName);
+					ConnectedClient kickedClient =
+						searchClientByName(kickedName);
+					if (kickedClient != null)
+					{
+						kickedClient.setBanned(true);
+						logger.info("ChatServer[" + client.getName()
+							+ "] client " + kickedName + " banned");
+						messageContent.append(" [request granted by server]");
+					}
+					else if ((federation != null)
+					         && federation.kick(kickedName))
+					{
+						logger.info("ChatServer[" + client.getName()
+							+ "] remote client " + kickedName + " banned");
+						messageContent.append(" [request granted by federation]");
+					}
+					else
+					{
+						messageContent.append(" [client "
+							+ kickedName + " does not exist]");
+					}
+				}
+				else
+				{
+					int cmdL = Vocabulary.kickCmd.length();
+					messageContent.append(clientInput.substring(cmdL, (clientInput.length())));
+					messageContent.append(" [request denied by server]");
+				}
+				messageContent.append(" by " + client.getName());
+			}
+			// le client veut rejoindre un autre salon
+			else if (lowerInput.startsWith(Vocabulary.joinCmd))
+			{
+				String roomName = clientInput.substring(
+					Vocabulary.joinCmd.length()).trim();
+				if (roomName.isEmpty())
+				{
+					return usage(client,
+					             outcome,
+					             Vocabulary.joinCmd + " <room name>");
+				}
+				else
+				{
+					changeRoom(client, roomName, outcome, messageContent);
+				}
+			}
+			// le client veut revenir dans le salon par défaut
+			else if (lowerInput.equals(Vocabulary.leaveCmd))
+			{
+				if (outcome.room == lobby)
+				{
+					messageContent.append(Vocabulary.leaveCmd
+						+ " [already in room " + DEFAULTROOM + "] by "
+						+ client.getName());
+				}
+				else
+				{
+					changeRoom(client, DEFAULTROOM, outcome, messageContent);
+				}
+			}
+			// le client envoie un message privé
+			else if (lowerInput.startsWith(Vocabulary.msgCmd))
+			{
+				return privateMessage(client, clientInput, outcome);
+			}
+			else
+			{
+				// commande mal formée : bye ou leave suivis d'arguments
+				return usage(client,
+				             outcome,
+				             (lowerInput.startsWith(Vocabulary.byeCmd) ?
+				              Vocabulary.byeCmd : Vocabulary.leaveCmd));
+			}
+		}
+		else
+		{
+			// Il s'agit d'un message ordinaire
+			messageContent.append(clientInput);
+		}
+
+		/*
+		 * Création du message à diffuser
+		 */
+		if (controlMessage)
+		{
+			outcome.message = new Message(messageContent.toString());
+		}
+		else
+		{
+			outcome.message = new Message(messageContent.toString(),
+			                              client.getName());
+		}
+
+		return outcome;
+	}
+
+	/**
+	 * Réponse à une commande mal formée : rien n'est diffusé et seul son
+	 * émetteur reçoit l'usage attendu de la commande
+	 * @param client le client ayant envoyé la commande
+	 * @param outcome le résultat du traitement de la commande
+	 * @param usage l'usage attendu de la commande
+	 * @return le résultat du traitement de la commande
+	 */
+	private Outcome usage(ConnectedClient client, Outcome outcome, String usage)
+	{
+		outcome.recipients = new ConnectedClient[] {client};
+		outcome.message = new Message("server > usage: " + usage);
+		return outcome;
+	}
+
+	/**
+	 * Traitement d'une commande msg <username> <message> : le destinataire
+	 * est recherché par son nom en temps constant
+	 * ({@link #searchClientByName(String)}) et le message n'est envoyé qu'à
+	 * lui ainsi qu'à son émetteur (en écho). Un destinataire connecté à un
+	 * autre noeud de la {@link #federation} reçoit le message au travers de
+	 * la liaison vers son noeud. Si le destinataire n'existe pas seul
+	 * l'émetteur est notifié. Les messages privés ne sont pas conservés
+	 * dans l'historique.
+	 * @param client le client ayant envoyé la commande
+	 * @param clientInput la commande envoyée par le client
+	 * @param outcome le résultat du traitement de la commande
+	 * @return le résultat du traitement de la commande
+	 */
+	private Outcome privateMessage(ConnectedClient client,
+	                               String clientInput,
+	                               Outcome outcome)
+	{
+		String arguments = clientInput.substring(Vocabulary.msgCmd.length()).trim();
+		int separator = arguments.indexOf(' ');
+		String recipientName =
+			(separator > 0 ? arguments.substring(0, separator) : arguments);
+		String content =
+			(separator > 0 ? arguments.substring(separator + 1).trim() : "");
+
+		if (recipientName.isEmpty() || content.isEmpty())
+		{
+			return usage(client,
+			             outcome,
+			             Vocabulary.msgCmd + " <user name> <message>");
+		}
+
+		ConnectedClient recipient = searchClientByName(recipientName);
+		Message message = new Message("[private to " + recipientName + "] "
+			+ content, client.getName());
+		if ((recipient == null) && (federation != null)
+		    && federation.sendPrivate(recipientName, message))
+		{
+			outcome.recipients = new ConnectedClient[] {client};
+			outcome.message = message;
+			return outcome;
+		}
+		if (recipient == null)
+		{
+			outcome.recipients = new ConnectedClient[] {client};
+			outcome.message = new Message(Vocabulary.msgCmd + " "
+				+ recipientName + " [client " + recipientName
+				+ " does not exist] by " + client.getName());
+			return outcome;
+		}
+
+		outcome.recipients = (recipient == client ?
+			new ConnectedClient[] {client} :
+			new ConnectedClient[] {recipient, client});
+		outcome.message = message;
+		return outcome;
+	}
+
+	/**
+	 * Passage d'un client dans un autre salon lors du traitement d'une
+	 * commande join ou leave : le départ est annoncé dans le salon quitté et
+	 * l'arrivée dans le salon rejoint
+	 * @param client le client
+	 * @param roomName le nom du salon à rejoindre
+	 * @param outcome le résultat du traitement de la commande
+	 * @param messageContent le contenu du message annonçant l'arrivée
+	 */
+	private void changeRoom(ConnectedClient client,
+	                        String roomName,
+	                        Outcome outcome,
+	                        StringBuffer messageContent)
+	{
+		Room previous = outcome.room;
+		outcome.room = joinRoom(client, roomName);
+		messageContent.append(client.getName() + " joined room "
+			+ outcome.room.getName());
+		if ((previous != null) && (previous != outcome.room))
+		{
+			outcome.left = previous;
+			outcome.departure = new Message(client.getName()
+				+ " left room " + previous.getName());
+		}
+		logger.fine("ChatServer: " + client.getName() + " joined "
+			+ outcome.room);
+	}
+
+	/**
+	 * Diffusion des messages résultant du traitement d'une ligne envoyée par
+	 * un client : annonce du départ du client dans le salon qu'il vient de
+	 * quitter puis message dans le salon du client (ou bien seulement aux
+	 * destinataires d'un message privé). Les messages diffusés dans un salon
+	 * sont aussi relayés aux autres noeuds de la {@link #federation}.
+	 * @param outcome le résultat du traitement de la ligne
+	 * @throws IOException si l'envoi d'un message à l'un des clients échoue
+	 */
+	protected void deliver(Outcome outcome) throws IOException
+	{
+		if (outcome.departure != null)
+		{
+			broadcast(outcome.departure, outcome.left);
+			if (federation != null)
+			{
+				federation.relay(outcome.departure, outcome.left);
+			}
+		}
+		if ((outcome.message != null) && (outcome.recipients != null))
+		{
+			send(outcome.message, outcome.recipients);
+		}
+		else if (outcome.message != null)
+		{
+			Room room = (outcome.room != null ? outcome.room : lobby);
+			broadcast(outcome.message, room);
+			if (federation != null)
+			{
+				federation.relay(outcome.message, room);
+			}
+		}
+	}
+
+	/**
+	 * Envoi d'un message à quelques clients seulement (message privé) : le
+	 * message est encodé une seule fois et n'est déposé que dans la file
+	 * d'attente de ces clients, sans parcourir les autres clients.
+	 * @param message le message à envoyer
+	 * @param recipients les clients destinataires
+	 * @throws IOException si l'envoi du message à l'un des clients échoue
+	 */
+	protected void send(Message message, ConnectedClient... recipients)
+		throws IOException
+	{
+		EncodedMessage encoded = EncodedMessage.encode(message, authors);
+		for (ConnectedClient c : recipients)
+		{
+			if (c.isReady())
+			{
+				c.send(encoded);
+			}
+			else
+			{
+				logger.warning("ChatServer: Client " + c.getName()
+					+ " not ready");
+			}
+		}
+	}
+
+	/**
+	 * Diffusion d'un message à tous les clients du salon par défaut
+	 * @param message le message à diffuser
+	 * @throws IOException si l'envoi du message à l'un des clients échoue
+	 * @see #broadcast(Message, Room)
+	 */
+	protected void broadcast(Message message) throws IOException
+	{
+		broadcast(message, lobby);
+	}
+
+	/**
+	 * Diffusion d'un message à tous les membres d'un salon. Avec des
+	 * {@link #shards} la diffusion est déposée dans la file de la boucle du
+	 * salon (sans attendre), sinon elle est effectuée immédiatement
+	 * ({@link #fanOut(Message, Room)}).
+	 * @param message le message à diffuser
+	 * @param room le salon dans lequel diffuser le message
+	 * @throws IOException si l'envoi du message à l'un des clients échoue
+	 * (diffusion immédiate uniquement)
+	 */
+	protected void broadcast(Message message, Room room) throws IOException
+	{
+		if (shards == null)
+		{
+			fanOut(message, room);
+			return;
+		}
+		shards.execute(room.getName(), () ->
+		{
+			try
+			{
+				fanOut(message, room);
+			}
+			catch (IOException e)
+			{
+				logger.warning("ChatServer: broadcast to " + room.getName()
+					+ " failed: " + e.getLocalizedMessage());
+			}
+		});
+	}
+
+	/**
+	 * Diffusion effective d'un message aux membres d'un salon.
+	 * Seuls les membres du salon sont parcourus : le coût de la diffusion
+	 * dépend de la taille du salon et non du nombre de clients connectés.
+	 * Le message est encodé une seule fois par protocole
+	 * ({@link EncodedMessage}) et les mêmes octets sont déposés dans la file
+	 * d'attente de chacun des clients : le coût de l'encodage ne dépend donc
+	 * pas du nombre de clients, et aucune écriture sur les sockets n'a lieu ici, si bien
+	 * qu'un client lent ne ralentit pas la diffusion vers les autres.
+	 * La diffusion parcourt un instantané des membres du salon sans prendre
+	 * de verrou : les diffusions de plusieurs clients ont lieu
+	 * en parallèle. Les messages d'un même émetteur arrivent dans l'ordre
+	 * chez chaque destinataire, mais sans {@link #shards} deux messages
+	 * d'émetteurs différents diffusés simultanément peuvent être reçus dans
+	 * un ordre différent par deux destinataires (les messages restent
+	 * datés). Avec des {@link #shards}, cet ordre commun ne vaut que pour
+	 * les messages diffusés dans le salon : un message privé ou un avis
+	 * peut être reçu avant une diffusion déposée plus tôt.
+	 * Les messages du {@link #lobby} sont d'abord ajoutés à l'
+	 * {@link #history} (s'il y en a un) : un échec de l'ajout n'empêche pas
+	 * la diffusion. Les messages des autres salons ne sont pas conservés.
+	 * @param message le message à diffuser
+	 * @param room le salon dans lequel diffuser le message
+	 * @throws IOException si l'envoi du message à l'un des clients échoue
+	 */
+	private void fanOut(Message message, Room room) throws IOException
+	{
+		if ((history != null) && (room == lobby))
+		{
+			try
+			{
+				history.append(message);
+			}
+			catch (IOException e)
+			{
+				logger.warning("ChatServer: unable to record message: "
+					+ e.getLocalizedMessage());
+			}
+		}
+
+		EncodedMessage encoded = EncodedMessage.encode(message, authors);
+
+		for (ConnectedClient c : room)
+		{
+			if (c.isReady())
+			{
+				c.send(encoded);
+			}
+			else
+			{
+				logger.warning("ChatServer: Client " + c.getName()
+					+ " not ready");
+			}
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package chat.server;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import chat.BinaryCodec;
+
+/**
+ * Table des auteurs connus du serveur : chaque auteur actif (client local
+ * ou distant connecté) reçoit du serveur un identifiant (strictement
+ * positif) utilisé par le protocole binaire. Les messages de ce protocole ne
+ * contiennent que cet identifiant, le nom de l'auteur n'étant envoyé qu'une
+ * fois à chaque client au moyen de la trame de définition de l'auteur
+ * conservée dans cette table.
+ * Un auteur entre dans la table lors de sa connexion
+ * ({@link #acquire(String)}) et en sort lors de sa déconnexion
+ * ({@link #release(String)}) : son identifiant est alors réutilisé par les
+ * auteurs suivants, si bien que les identifiants restent petits. Les
+ * messages d'un auteur inactif (rejeu de l'historique, message reçu après
+ * la déconnexion de son auteur) reçoivent un identifiant temporaire qui
+ * n'est pas conservé dans la table.
+ * Un même identifiant pouvant ainsi désigner successivement plusieurs
+ * auteurs, chaque client mémorise l'auteur (et non l'identifiant) dont il a
+ * reçu la définition ({@link KnownAuthors}) : la définition est renvoyée
+ * dès qu'un identifiant désigne un autre auteur.
+ * Cette table est indépendante de la table des symboles des auteurs
+ * ({@link models.AuthorSymbols}) utilisée par les clients.
+ * @author davidroussel
+ */
+class AuthorTable
+{
+	/**
+	 * Un auteur de la table
+	 */
+	public static class Author
+	{
+		/**
+		 * L'identifiant de l'auteur
+		 */
+		public final int id;
+
+		/**
+		 * La trame de définition de l'auteur ({@link BinaryCodec#AUTHOR})
+		 */
+		public final byte[] definition;
+
+		/**
+		 * Constructeur d'un auteur
+		 * @param id l'identifiant de l'auteur
+		 * @param name le nom de l'auteur
+		 */
+		private Author(int id, String name)
+		{
+			this.id = id;
+			definition = BinaryCodec.authorFrame(id, name);
+		}
+	}
+
+	/**
+	 * Les auteurs actifs indexés par leur nom
+	 */
+	private final ConcurrentHashMap<String, Author> authors;
+
+	/**
+	 * Identifiants libérés, réutilisés avant d'en attribuer de nouveaux
+	 */
+	private int[] freeIds;
+
+	/**
+	 * Nombre d'identifiants libérés
+	 */
+	private int nbFreeIds;
+
+	/**
+	 * Dernier identifiant attribué
+	 */
+	private int lastId;
+
+	/**
+	 * Verrou protégeant les identifiants libérés
+	 */
+	private final ReentrantLock idLock;
+
+	/**
+	 * Constructeur d'une table d'auteurs vide
+	 */
+	public AuthorTable()
+	{
+		authors = new ConcurrentHashMap<String, Author>();
+		freeIds = new int[16];
+		nbFreeIds = 0;
+		lastId = 0;
+		idLock = new ReentrantLock();
+	}
+
+	/**
+	 * Entrée d'un auteur qui vient de se connecter dans la table
+	 * @param name le nom de l'auteur (non null)
+	 * @return l'auteur correspondant à ce nom
+	 */
+	public Author acquire(String name)
+	{
+		return authors.computeIfAbsent(name, (String key) ->
+		{
+			return new Author(allocate(), key);
+		});
+	}
+
+	/**
+	 * Obtention de l'auteur correspondant à un nom : l'auteur de la table
+	 * s'il est actif, sinon un auteur temporaire dont l'identifiant est
+	 * aussitôt libéré
+	 * @param name le nom de l'auteur (non null)
+	 * @return l'auteur correspondant à ce nom
+	 */
+	public Author get(String name)
+	{
+		Author author = authors.get(name);
+		if (author != null)
+		{
+			return author;
+		}
+		int id = allocate();
+		author = new Author(id, name);
+		free(id);
+		return author;
+	}
+
+	/**
+	 * Retrait d'un auteur qui s'est déconnecté : son identifiant est libéré
+	 * @param name le nom de l'auteur
+	 */
+	public void release(String name)
+	{
+		Author author = authors.remove(name);
+		if (author != null)
+		{
+			free(author.id);
+		}
+	}
+
+	/**
+	 * Attribution d'un identifiant (un identifiant libéré s'il y en a)
+	 * @return l'identifiant attribué
+	 */
+	private int allocate()
+	{
+		idLock.lock();
+		try
+		{
+			if (nbFreeIds > 0)
+			{
+				return freeIds[--nbFreeIds];
+			}
+			return ++lastId;
+		}
+		finally
+		{
+			idLock.unlock();
+		}
+	}
+
+	/**
+	 * Libération d'un identifiant
+	 * @param id l'identifiant libéré
+	 */
+	private void free(int id)
+	{
+		idLock.lock();
+		try
+		{
+			if (nbFreeIds == freeIds.length)
+			{
+				freeIds = Arrays.copyOf(freeIds, 2 * freeIds.length);
+			}
+			freeIds[nbFreeIds++] = id;
+		}
+		finally
+		{
+			idLock.unlock();
+		}
+	}
+
+	/**
+	 * Nombre d'auteurs actifs de la table
+	 * @return le nombre d'auteurs actifs de la table
+	 */
+	public int size()
+	{
+		return authors.size();
+	}
+}
@@ -0,0 +1,191 @@
+package chat.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistiques des écritures groupées vers les clients : chaque écriture
+ * groupée (suivie d'un seul flush ou d'une seule écriture sur le canal)
+ * regroupe un ou plusieurs messages. On mémorise le nombre d'écritures, le
+ * nombre total de messages et d'octets écrits, le plus grand nombre de
+ * messages écrits en une fois ainsi qu'un histogramme du nombre de messages
+ * par écriture (par puissances de 2 : 1, 2-3, 4-7, ...).
+ * Les statistiques sont partagées par tous les écrivains d'un serveur et
+ * peuvent être mises à jour depuis plusieurs threads.
+ * @author davidroussel
+ */
+public final class BatchStats
+{
+	/**
+	 * Nombre de classes de l'histogramme : la dernière classe regroupe les
+	 * écritures d'au moins 2^(BUCKETS - 1) messages
+	 */
+	public final static int BUCKETS = 8;
+
+	/**
+	 * Nombre d'écritures groupées
+	 */
+	private final LongAdder batches;
+
+	/**
+	 * Nombre total de messages écrits
+	 */
+	private final LongAdder messages;
+
+	/**
+	 * Nombre total d'octets écrits
+	 */
+	private final LongAdder bytes;
+
+	/**
+	 * Plus grand nombre de messages écrits en une fois
+	 */
+	private final AtomicLong maxMessages;
+
+	/**
+	 * Histogramme du nombre de messages par écriture
+	 */
+	private final AtomicLongArray histogram;
+
+	/**
+	 * Constructeur de statistiques vides
+	 */
+	public BatchStats()
+	{
+		batches = new LongAdder();
+		messages = new LongAdder();
+		bytes = new LongAdder();
+		maxMessages = new AtomicLong(0);
+		histogram = new AtomicLongArray(BUCKETS);
+	}
+
+	/**
+	 * Enregistrement d'une écriture groupée
+	 * @param count le nombre de messages écrits
+	 * @param size le nombre d'octets écrits
+	 */
+	public void record(int count, long size)
+	{
+		batches.increment();
+		messages.add(count);
+		bytes.add(size);
+		long max;
+		while (count > (max = maxMessages.get()))
+		{
+			if (maxMessages.compareAndSet(max, count))
+			{
+				break;
+			}
+		}
+		int bucket = 31 - Integer.numberOfLeadingZeros(Math.max(count, 1));
+		histogram.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+	}
+
+	/**
+	 * Nombre d'écritures groupées
+	 * @return le nombre d'écritures groupées
+	 */
+	public long getBatches()
+	{
+		return batches.sum();
+	}
+
+	/**
+	 * Nombre total de messages écrits
+	 * @return le nombre total de messages écrits
+	 */
+	public long getMessages()
+	{
+		return messages.sum();
+	}
+
+	/**
+	 * Nombre total d'octets écrits
+	 * @return le nombre total d'octets écrits
+	 */
+	public long getBytes()
+	{
+		return bytes.sum();
+	}
+
+	/**
+	 * Plus grand nombre de messages écrits en une fois
+	 * @return le plus grand nombre de messages écrits en une fois
+	 */
+	public long getMaxMessages()
+	{
+		return maxMessages.get();
+	}
+
+	/**
+	 * Nombre moyen de messages par écriture
+	 * @return le nombre moyen de messages par écriture (ou bien 0 s'il n'y
+	 * a pas encore eu d'écriture)
+	 */
+	public double getAverageMessages()
+	{
+		long count = getBatches();
+		return (count > 0 ? (double) getMessages() / count : 0.0);
+	}
+
+	/**
+	 * Nombre moyen d'octets par écriture
+	 * @return le nombre moyen d'octets par écriture (ou bien 0 s'il n'y a
+	 * pas encore eu d'écriture)
+	 */
+	public double getAverageBytes()
+	{
+		long count = getBatches();
+		return (count > 0 ? (double) getBytes() / count : 0.0);
+	}
+
+	/**
+	 * Nombre d'écritures d'une classe de l'histogramme
+	 * @param bucket l'indice de la classe : les écritures de 2^bucket à
+	 * 2^(bucket + 1) - 1 messages
+	 * @return le nombre d'écritures de cette classe
+	 */
+	public long getHistogram(int bucket)
+	{
+		return histogram.get(bucket);
+	}
+
+	/**
+	 * Représentation sous forme de chaîne des statistiques
+	 * @return une chaîne décrivant les écritures groupées
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(getBatches() + " flushes, ");
+		sb.append(String.format("%.2f messages / %.0f bytes per flush, ",
+		                        getAverageMessages(),
+		                        getAverageBytes()));
+		sb.append("max " + getMaxMessages() + " messages [");
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			int low = 1 << i;
+			if (i > 0)
+			{
+				sb.append(' ');
+			}
+			if (i == (BUCKETS - 1))
+			{
+				sb.append(low + "+");
+			}
+			else if (low == ((low << 1) - 1))
+			{
+				sb.append(low);
+			}
+			else
+			{
+				sb.append(low + "-" + ((low << 1) - 1));
+			}
+			sb.append(":" + histogram.get(i));
+		}
+		sb.append(']');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,215 @@
+package chat.server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import logger.LoggerFactory;
+
+/**
+ * Boucles de diffusion (shards) : K threads dédiés chacun à un sous
+ * ensemble des salons, chaque salon étant attribué à une boucle d'après le
+ * hash de son nom. Le thread qui lit un message ne fait que déposer la
+ * diffusion dans la file de la boucle du salon destinataire
+ * ({@link #execute(String, Runnable)}) : l'encodage et le dépôt dans les
+ * files d'attente des membres du salon sont effectués par cette boucle.
+ * <ul>
+ * <li>Les salons de boucles différentes sont diffusés en parallèle : le
+ * débit croît avec le nombre de boucles (et de coeurs) tant que les
+ * messages sont répartis sur plusieurs salons.</li>
+ * <li>Toutes les diffusions d'un même salon sont effectuées par un seul
+ * thread, dans l'ordre de leur dépôt : tous les membres d'un salon
+ * reçoivent ses messages dans le même ordre, et l'historique du salon par
+ * défaut n'est alimenté que par sa boucle.</li>
+ * <li>Les files des boucles n'utilisent aucun verrou (dépôt par plusieurs
+ * threads, retrait par le seul thread de la boucle), une boucle sans
+ * diffusion à effectuer étant suspendue jusqu'au dépôt suivant.</li>
+ * </ul>
+ * Seule la diffusion des messages d'un salon à ses membres passe par les
+ * boucles : l'appartenance aux salons, les files d'attente des clients et
+ * l'historique restent partagés entre tous les threads, et les messages
+ * privés, les avis adressés à un seul client ainsi que le rejeu de
+ * l'historique à un nouveau client sont envoyés directement par le thread
+ * qui les traite. L'ordre garanti ne concerne donc que les messages diffusés
+ * dans un même salon, pas leur ordre relatif aux autres envois.
+ * Les files des boucles ne sont pas bornées : ce sont les files d'attente
+ * des clients qui limitent la mémoire utilisée par un client lent.
+ * @author davidroussel
+ */
+class BroadcastShards
+{
+	/**
+	 * Une boucle de diffusion
+	 */
+	private class Shard implements Runnable
+	{
+		/**
+		 * Les diffusions en attente
+		 */
+		private final ConcurrentLinkedQueue<Runnable> tasks;
+
+		/**
+		 * La boucle est (ou va être) suspendue faute de diffusions
+		 */
+		private final AtomicBoolean parked;
+
+		/**
+		 * Le thread de la boucle
+		 */
+		private final Thread thread;
+
+		/**
+		 * Constructeur d'une boucle
+		 * @param index l'indice de la boucle
+		 */
+		public Shard(int index)
+		{
+			tasks = new ConcurrentLinkedQueue<Runnable>();
+			parked = new AtomicBoolean(false);
+			thread = new Thread(this, "BroadcastShard-" + index);
+			thread.setDaemon(true);
+		}
+
+		/**
+		 * Dépôt d'une diffusion et réveil de la boucle si elle est suspendue
+		 * @param task la diffusion
+		 */
+		public void submit(Runnable task)
+		{
+			tasks.offer(task);
+			if (parked.get())
+			{
+				LockSupport.unpark(thread);
+			}
+		}
+
+		/**
+		 * Boucle d'exécution des diffusions jusqu'à l'arrêt des boucles
+		 * (les diffusions déjà déposées sont effectuées avant l'arrêt)
+		 */
+		@Override
+		public void run()
+		{
+			while (true)
+			{
+				Runnable task = tasks.poll();
+				if (task == null)
+				{
+					if (!running)
+					{
+						return;
+					}
+					parked.set(true);
+					// une diffusion a pu être déposée avant que parked soit vu
+					if (tasks.isEmpty() && running)
+					{
+						LockSupport.park(this);
+					}
+					parked.set(false);
+					continue;
+				}
+				try
+				{
+					task.run();
+				}
+				catch (RuntimeException e)
+				{
+					logger.severe(thread.getName() + ": broadcast failed: " + e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Les boucles de diffusion
+	 */
+	private final Shard[] shards;
+
+	/**
+	 * Etat de fonctionnement des boucles
+	 */
+	private volatile boolean running;
+
+	/**
+	 * Le logger
+	 */
+	private final Logger logger;
+
+	/**
+	 * Constructeur et lancement des boucles de diffusion
+	 * @param count le nombre de boucles (au moins 1)
+	 * @param parentLogger logger parent
+	 */
+	public BroadcastShards(int count, Logger parentLogger)
+	{
+		logger = LoggerFactory.getParentLogger(getClass(),
+		                                       parentLogger,
+		                                       parentLogger.getLevel());
+		shards = new Shard[Math.max(count, 1)];
+		running = true;
+		for (int i = 0; i < shards.length; i++)
+		{
+			shards[i] = new Shard(i);
+			shards[i].thread.start();
+		}
+	}
+
+	/**
+	 * Nombre de boucles de diffusion
+	 * @return le nombre de boucles
+	 */
+	public int size()
+	{
+		return shards.length;
+	}
+
+	/**
+	 * Dépôt d'une diffusion dans la file de la boucle d'un salon
+	 * @param key le nom du salon (détermine la boucle)
+	 * @param task la diffusion
+	 */
+	public void execute(String key, Runnable task)
+	{
+		shards[Math.floorMod(key.hashCode(), shards.length)].submit(task);
+	}
+
+	/**
+	 * Attente de la fin de toutes les diffusions déjà déposées
+	 * @throws InterruptedException si l'attente est interrompue
+	 */
+	public void await() throws InterruptedException
+	{
+		CountDownLatch done = new CountDownLatch(shards.length);
+		for (Shard shard : shards)
+		{
+			shard.submit(() -> done.countDown());
+		}
+		done.await();
+	}
+
+	/**
+	 * Arrêt des boucles après l'exécution des diffusions déjà déposées
+	 */
+	public void shutdown()
+	{
+		running = false;
+		for (Shard shard : shards)
+		{
+			LockSupport.unpark(shard.thread);
+		}
+		for (Shard shard : shards)
+		{
+			try
+			{
+				shard.thread.join();
+			}
+			catch (InterruptedException e)
+			{
+				logger.warning("BroadcastShards: join interrupted");
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,698 @@
+package chat.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import chat.BinaryCodec;
+import chat.Protocol;
+import chat.Vocabulary;
+import logger.LoggerFactory;
+
+/**
+ * Client traité par le {@link NioChatServer}. Contrairement à un
+ * {@link InputOutputClient} celui ci ne dispose pas de flux bloquants mais
+ * d'une {@link SocketChannel} non bloquante :
+ * <ul>
+ * <li>les octets lus sur le canal sont accumulés jusqu'à obtenir des lignes
+ * complètes (comme le ferait un {@link java.io.BufferedReader}) ou bien des
+ * trames complètes si le client utilise le protocole
+ * {@link Protocol#BINARY}. La demande de protocole éventuelle du client
+ * est traitée ici, avant la réception de son nom.</li>
+ * <li>les messages envoyés au client (déjà sérialisés) sont placés dans une
+ * file d'attente bornée ({@link OutboundQueue}) qui sera vidée sur le canal
+ * par la boucle d'entrées/sorties propriétaire du client lorsque celui ci
+ * est prêt à recevoir des données. Tous les tampons en attente (jusqu'à un
+ * nombre d'octets maximum) sont écrits ensemble par une seule écriture
+ * groupée ({@link SocketChannel#write(ByteBuffer[], int, int)}).</li>
+ * </ul>
+ * Les octets émis sur le canal sont donc exactement les mêmes que ceux
+ * qu'émettrait un {@link InputOutputClient}.
+ * @author davidroussel
+ */
+class ChannelClient implements ConnectedClient
+{
+	/**
+	 * Taille du tampon de lecture du canal
+	 */
+	private final static int READBUFFERSIZE = 4096;
+
+	/**
+	 * Nombre maximum de tampons écrits par une seule écriture groupée
+	 */
+	private final static int MAXBATCH = 64;
+
+	/**
+	 * Le canal du client
+	 */
+	private final SocketChannel channel;
+
+	/**
+	 * Le nom du client (null tant que le client n'a pas envoyé son nom)
+	 */
+	private String name;
+
+	/**
+	 * Tampon de lecture du canal
+	 */
+	private final ByteBuffer readBuffer;
+
+	/**
+	 * Octets de la ligne (ou de la trame) en cours de lecture
+	 */
+	private final ByteArrayOutputStream lineBytes;
+
+	/**
+	 * Protocole le plus évolué accepté par le serveur
+	 */
+	private final Protocol serverProtocol;
+
+	/**
+	 * Protocole négocié avec le client
+	 */
+	private Protocol protocol;
+
+	/**
+	 * Le nom du client a été reçu : les données suivantes sont des trames
+	 * si le protocole est {@link Protocol#BINARY}
+	 */
+	private boolean named;
+
+	/**
+	 * Une ligne a déjà été reçue du client : seule la première ligne peut
+	 * être une demande de protocole
+	 */
+	private boolean greeted;
+
+	/**
+	 * Longueur de la trame en cours de lecture (ou bien -1 si la longueur
+	 * est en cours de lecture)
+	 */
+	private int frameLength;
+
+	/**
+	 * Valeur partielle du varint de longueur en cours de lecture
+	 */
+	private int varintValue;
+
+	/**
+	 * Décalage du prochain octet du varint de longueur en cours de lecture
+	 */
+	private int varintShift;
+
+	/**
+	 * Auteurs dont la définition a déjà été envoyée au client (protocole
+	 * {@link Protocol#BINARY})
+	 */
+	private final KnownAuthors knownAuthors;
+
+	/**
+	 * Jeu de caractères utilisé pour décoder les lignes (le même que celui
+	 * utilisé par l'{@link java.io.InputStreamReader} d'un {@link InputClient})
+	 */
+	private final Charset charset;
+
+	/**
+	 * File d'attente des tampons de contrôle (entête de flux objet ou lignes
+	 * de texte) à écrire sur le canal avant les messages
+	 */
+	private final Queue<ByteBuffer> control;
+
+	/**
+	 * File d'attente bornée des messages à écrire sur le canal
+	 */
+	private final OutboundQueue outbound;
+
+	/**
+	 * Tampons du groupe en cours d'écriture sur le canal : de
+	 * {@link #batchStart} (inclus) à {@link #batchEnd} (exclu)
+	 */
+	private final ByteBuffer[] batch;
+
+	/**
+	 * Indice du premier tampon non entièrement écrit du groupe
+	 */
+	private int batchStart;
+
+	/**
+	 * Indice suivant le dernier tampon du groupe
+	 */
+	private int batchEnd;
+
+	/**
+	 * Nombre d'octets à partir duquel on cesse d'ajouter des tampons au
+	 * groupe en cours
+	 */
+	private final int flushBytes;
+
+	/**
+	 * Statistiques des écritures groupées
+	 */
+	private final BatchStats stats;
+
+	/**
+	 * La boucle d'entrées/sorties à prévenir lorsque des données sont à
+	 * écrire
+	 */
+	private final WriteListener writeListener;
+
+	/**
+	 * Indique qu'une demande d'écriture a déjà été transmise au
+	 * {@link #writeListener} et n'a pas encore été traitée
+	 */
+	private final AtomicBoolean writeRequested;
+
+	/**
+	 * Le client est prêt à recevoir des messages
+	 */
+	private volatile boolean ready;
+
+	/**
+	 * Le client a été accepté par le serveur (son nom n'était pas déjà
+	 * utilisé)
+	 */
+	private boolean accepted;
+
+	/**
+	 * Etat de bannissement du client
+	 */
+	private volatile boolean banned;
+
+	/**
+	 * Le salon dont le client est membre
+	 */
+	private volatile Room room;
+
+	/**
+	 * Le limiteur de débit des lignes du client (ou bien null)
+	 */
+	private RateLimiter limiter;
+
+	/**
+	 * Le canal doit être fermé dès que les données en attente sont écrites
+	 */
+	private volatile boolean closing;
+
+	/**
+	 * logger pour afficher les messages de debug
+	 */
+	private Logger logger;
+
+	/**
+	 * Interface de la boucle d'entrées/sorties à prévenir lorsque des données
+	 * sont à écrire sur le canal d'un client
+	 */
+	public interface WriteListener
+	{
+		/**
+		 * Demande d'écriture des données en attente d'un client
+		 * @param client le client ayant des données en attente
+		 */
+		public void writeRequested(ChannelClient client);
+	}
+
+	/**
+	 * Constructeur d'un client non bloquant
+	 * @param channel le canal (non bloquant) du client
+	 * @param writeListener la boucle d'entrées/sorties à prévenir lorsque des
+	 * données sont à écrire sur le canal
+	 * @param serverProtocol protocole le plus évolué accepté par le serveur
+	 * @param queueSize nombre maximum de messages en attente d'envoi
+	 * @param policy politique appliquée lorsque la file d'attente est pleine
+	 * @param flushBytes nombre d'octets maximum d'une écriture groupée
+	 * @param stats statistiques des écritures groupées à mettre à jour
+	 * @param parentLogger logger parent pour l'affichage des messages de debug
+	 */
+	public ChannelClient(SocketChannel channel,
+	                     WriteListener writeListener,
+	                     Protocol serverProtocol,
+	                     int queueSize,
+	                     OverflowPolicy policy,
+	                     int flushBytes,
+	                     BatchStats stats,
+	                     Logger parentLogger)
+	{
+		this.channel = channel;
+		this.writeListener = writeListener;
+		writeRequested = new AtomicBoolean(false);
+		name = null;
+		readBuffer = ByteBuffer.allocate(READBUFFERSIZE);
+		lineBytes = new ByteArrayOutputStream();
+		this.serverProtocol = serverProtocol;
+		protocol = Protocol.SERIAL;
+		named = false;
+		greeted = false;
+		frameLength = -1;
+		varintValue = 0;
+		varintShift = 0;
+		knownAuthors = new KnownAuthors();
+		charset = Charset.defaultCharset();
+		control = new ConcurrentLinkedQueue<ByteBuffer>();
+		outbound = new OutboundQueue(queueSize, policy);
+		batch = new ByteBuffer[MAXBATCH];
+		batchStart = 0;
+		batchEnd = 0;
+		this.flushBytes = flushBytes;
+		this.stats = stats;
+		ready = false;
+		accepted = false;
+		banned = false;
+		closing = false;
+		logger = LoggerFactory.getParentLogger(getClass(),
+		                                       parentLogger,
+		                                       parentLogger.getLevel());
+	}
+
+	/**
+	 * Accesseur en lecture du canal du client
+	 * @return le canal du client
+	 */
+	public SocketChannel getChannel()
+	{
+		return channel;
+	}
+
+	/**
+	 * Accesseur en lecture du nom du client
+	 * @return le nom du client ou bien null si celui ci n'a pas encore été
+	 * reçu
+	 */
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Accesseur en lecture du protocole négocié avec le client
+	 * @return le protocole négocié avec le client
+	 */
+	public Protocol getProtocol()
+	{
+		return protocol;
+	}
+
+	/**
+	 * Mise en place du nom reçu du client (avant son enregistrement dans
+	 * l'ensemble des clients)
+	 * @param name le nom du client
+	 */
+	public void setName(String name)
+	{
+		this.name = name;
+	}
+
+	/**
+	 * Acceptation du client par le serveur sous son nom : l'entête du flux
+	 * (selon le protocole négocié) sera le premier envoi au client
+	 */
+	public void accept()
+	{
+		enqueue(EncodedMessage.header(protocol));
+		accepted = true;
+		ready = true;
+		requestWrite();
+	}
+
+	/**
+	 * Annulation de {@link #accept()} lorsque le nom du client est refusé :
+	 * l'entête du flux n'est pas envoyé et le client n'est plus prêt. Le
+	 * client n'ayant pas été publié, aucun message ne lui a été destiné.
+	 */
+	public void refuse()
+	{
+		ready = false;
+		accepted = false;
+		control.clear();
+	}
+
+	/**
+	 * Indique si le client a été accepté par le serveur
+	 * @return true si le client a été accepté
+	 */
+	public boolean isAccepted()
+	{
+		return accepted;
+	}
+
+	/**
+	 * Lecture des données disponibles sur le canal et découpage en lignes.
+	 * Les lignes sont terminées par "\n" ou "\r\n" ou bien, une fois le
+	 * nom reçu avec le protocole {@link Protocol#BINARY}, contenues dans des
+	 * trames. La ligne de demande de protocole n'est pas renvoyée : la
+	 * première ligne renvoyée est le nom du client.
+	 * @return la liste des lignes complètes lues (éventuellement vide) ou
+	 * bien null si le client a fermé la connexion
+	 * @throws IOException si la lecture sur le canal échoue ou qu'une trame
+	 * est invalide
+	 */
+	public Queue<String> readLines() throws IOException
+	{
+		Queue<String> lines = new LinkedList<String>();
+		int nbRead = channel.read(readBuffer);
+		if (nbRead < 0)
+		{
+			return null;
+		}
+
+		readBuffer.flip();
+		while (readBuffer.hasRemaining())
+		{
+			if (named && (protocol == Protocol.BINARY))
+			{
+				readFrame(lines);
+				continue;
+			}
+
+			byte b = readBuffer.get();
+			if (b == '\n')
+			{
+				byte[] bytes = lineBytes.toByteArray();
+				int length = bytes.length;
+				if ((length > 0) && (bytes[length - 1] == '\r'))
+				{
+					length--;
+				}
+				String line = new String(bytes, 0, length, charset);
+				lineBytes.reset();
+				if (!named)
+				{
+					Protocol requested = Protocol.fromRequest(line);
+					if (!greeted && (requested != null))
+					{
+						greeted = true;
+						protocol = serverProtocol.negotiate(requested);
+						continue;
+					}
+					named = true;
+				}
+				lines.add(line);
+			}
+			else
+			{
+				if (lineBytes.size() >= BinaryCodec.MAXFRAMESIZE)
+				{
+					throw new IOException("line too long");
+				}
+				lineBytes.write(b);
+			}
+		}
+		readBuffer.clear();
+
+		return lines;
+	}
+
+	/**
+	 * Lecture (éventuellement partielle) d'une trame à partir du tampon de
+	 * lecture
+	 * @param lines la liste des lignes à laquelle ajouter la ligne contenue
+	 * dans la trame si celle ci est complète
+	 * @throws IOException si la trame est invalide
+	 */
+	private void readFrame(Queue<String> lines) throws IOException
+	{
+		if (frameLength < 0)
+		{
+			// lecture de la longueur de la trame
+			byte b = readBuffer.get();
+			varintValue |= (b & 0x7F) << varintShift;
+			varintShift += 7;
+			if ((b & 0x80) != 0)
+			{
+				if (varintShift >= 32)
+				{
+					throw new IOException("invalid frame length");
+				}
+				return;
+			}
+			frameLength = varintValue;
+			varintValue = 0;
+			varintShift = 0;
+			if ((frameLength < 0) || (frameLength > BinaryCodec.MAXFRAMESIZE))
+			{
+				throw new IOException("invalid frame length " + frameLength);
+			}
+		}
+		else
+		{
+			// lecture du contenu de la trame
+			int count = Math.min(readBuffer.remaining(),
+			                     frameLength - lineBytes.size());
+			lineBytes.write(readBuffer.array(),
+			                readBuffer.arrayOffset() + readBuffer.position(),
+			                count);
+			readBuffer.position(readBuffer.position() + count);
+		}
+
+		if ((frameLength >= 0) && (lineBytes.size() == frameLength))
+		{
+			lines.add(new String(lineBytes.toByteArray(), BinaryCodec.UTF8));
+			lineBytes.reset();
+			frameLength = -1;
+		}
+	}
+
+	/**
+	 * Envoi d'un message au client : le message encodé est placé dans la
+	 * file d'attente (les octets sont partagés avec les autres clients).
+	 * Si la file déborde avec la politique {@link OverflowPolicy#DISCONNECT}
+	 * le client doit être fermé ({@link #isOverflowed()}).
+	 * @param message le message encodé à envoyer
+	 */
+	@Override
+	public void send(EncodedMessage message)
+	{
+		if (!outbound.offer(message) && outbound.isOverflowed())
+		{
+			logger.warning("ChannelClient[" + name
+				+ "]: outbound queue overflow, disconnecting client");
+			setClosing();
+		}
+		requestWrite();
+	}
+
+	/**
+	 * Envoi d'une ligne de texte au client (avant qu'il ne soit accepté)
+	 * @param line la ligne à envoyer
+	 */
+	public void sendText(String line)
+	{
+		enqueue((line + Vocabulary.newLine).getBytes(charset));
+		requestWrite();
+	}
+
+	/**
+	 * Demande d'écriture des données en attente auprès de la boucle
+	 * d'entrées/sorties (une seule demande à la fois)
+	 */
+	private void requestWrite()
+	{
+		if (writeRequested.compareAndSet(false, true))
+		{
+			writeListener.writeRequested(this);
+		}
+	}
+
+	/**
+	 * Ajout d'un tampon à la file d'attente des tampons de contrôle
+	 * @param bytes les octets à ajouter
+	 */
+	private void enqueue(byte[] bytes)
+	{
+		control.add(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Ecriture sur le canal des données en attente, par groupes de tampons
+	 * écrits en une seule fois.
+	 * @return true si toutes les données en attente ont été écrites, false
+	 * si le canal n'accepte plus de données pour l'instant
+	 * @throws IOException si l'écriture sur le canal échoue
+	 */
+	public boolean writePending() throws IOException
+	{
+		writeRequested.set(false);
+		while ((batchStart < batchEnd) || fillBatch())
+		{
+			channel.write(batch, batchStart, batchEnd - batchStart);
+			while ((batchStart < batchEnd) && !batch[batchStart].hasRemaining())
+			{
+				batch[batchStart++] = null;
+			}
+			if (batchStart < batchEnd)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Constitution d'un nouveau groupe de tampons à écrire à partir des
+	 * tampons en attente, jusqu'à {@link #flushBytes} octets ou
+	 * {@link #MAXBATCH} tampons
+	 * @return true si le groupe contient au moins un tampon
+	 * @throws IOException si un message ne peut être encodé
+	 */
+	private boolean fillBatch() throws IOException
+	{
+		batchStart = 0;
+		batchEnd = 0;
+		long size = 0;
+		ByteBuffer buffer;
+		while ((batchEnd < MAXBATCH)
+		       && (size < flushBytes)
+		       && ((buffer = nextBuffer()) != null))
+		{
+			batch[batchEnd++] = buffer;
+			size += buffer.remaining();
+		}
+		if (batchEnd > 0)
+		{
+			stats.record(batchEnd, size);
+		}
+		return batchEnd > 0;
+	}
+
+	/**
+	 * Prochain tampon à écrire : les tampons de contrôle d'abord, puis les
+	 * messages (précédés de la définition de leur auteur si le client ne le
+	 * connaît pas encore)
+	 * @return le prochain tampon à écrire ou bien null s'il n'y en a pas
+	 * @throws IOException si un message ne peut être encodé
+	 */
+	private ByteBuffer nextBuffer() throws IOException
+	{
+		ByteBuffer buffer = control.poll();
+		if (buffer == null)
+		{
+			EncodedMessage message = outbound.poll();
+			if (message != null)
+			{
+				boolean withAuthor = knownAuthors.learn(message.getAuthor());
+				buffer = message.asBuffer(protocol, withAuthor);
+			}
+		}
+		return buffer;
+	}
+
+	/**
+	 * Indique s'il reste des données à écrire sur le canal
+	 * @return true s'il reste des données à écrire
+	 */
+	public boolean hasPending()
+	{
+		return (batchStart < batchEnd) || !control.isEmpty() || !outbound.isEmpty();
+	}
+
+	/**
+	 * Indique si la file d'attente des messages a débordé avec la politique
+	 * {@link OverflowPolicy#DISCONNECT}, auquel cas le client doit être fermé
+	 * sans attendre l'écriture des données en attente
+	 * @return true si le client doit être déconnecté
+	 */
+	public boolean isOverflowed()
+	{
+		return outbound.isOverflowed();
+	}
+
+	/**
+	 * Demande de fermeture du client dès que les données en attente auront
+	 * été écrites
+	 */
+	public void setClosing()
+	{
+		ready = false;
+		closing = true;
+	}
+
+	/**
+	 * Indique si la fermeture du client a été demandée
+	 * @return true si le client doit être fermé
+	 */
+	public boolean isClosing()
+	{
+		return closing;
+	}
+
+	@Override
+	public boolean isReady()
+	{
+		return ready;
+	}
+
+	@Override
+	public boolean isBanned()
+	{
+		return banned;
+	}
+
+	@Override
+	public void setBanned(boolean banned)
+	{
+		this.banned = banned;
+	}
+
+	@Override
+	public int getPending()
+	{
+		return outbound.size();
+	}
+
+	/**
+	 * Accesseur en lecture du limiteur de débit du client
+	 * @return le limiteur de débit des lignes du client (ou bien null)
+	 */
+	public RateLimiter getRateLimiter()
+	{
+		return limiter;
+	}
+
+	/**
+	 * Accesseur en écriture du limiteur de débit du client
+	 * @param limiter le limiteur de débit des lignes du client
+	 */
+	public void setRateLimiter(RateLimiter limiter)
+	{
+		this.limiter = limiter;
+	}
+
+	@Override
+	public Room getRoom()
+	{
+		return room;
+	}
+
+	@Override
+	public void setRoom(Room room)
+	{
+		this.room = room;
+	}
+
+	/**
+	 * Nettoyage du client : fermeture du canal
+	 */
+	@Override
+	public void cleanup()
+	{
+		ready = false;
+		outbound.close();
+		logger.info("ChannelClient::cleanup: closing client channel ... ");
+		try
+		{
+			channel.close();
+		}
+		catch (IOException e)
+		{
+			logger.severe("ChannelClient::cleanup: unable to close client channel");
+			logger.severe(e.getLocalizedMessage());
+		}
+	}
+}
@@ -1,17 +1,22 @@
 package chat.server;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
+import chat.BinaryCodec;
+import chat.ExecutorFactory;
 import chat.Failure;
-import logger.LoggerFactory;
+import chat.Protocol;
+import chat.Vocabulary;
 
 /**
  * Classe du serveur de chat Chaque message de chaque client doit être renvoyé à
@@ -19,44 +24,13 @@ import logger.LoggerFactory;
  *
  * @author davidroussel
  */
-public class ChatServer implements Runnable
+public class ChatServer extends AbstractChatServer
 {
 	/**
 	 * La socket serveur
 	 */
 	private ServerSocket serverSocket;
 
-	/**
-	 * Le port par défaut utilisé
-	 */
-	public final static int DEFAULTPORT = 1394;
-
-	/**
-	 * Temps d'attente (en ms) par défaut d'une connection d'un client. Au bout
-	 * de ce temps une {@link SocketTimeoutException} est générée et on peut
-	 * choisir de recommencer à attendre (s'il reste des clients) ou bien
-	 * arrêter le serveur (s'il n'y a plus de clients)
-	 */
-	public final static int DEFAULTTIMEOUT = 1000;
-
-	/**
-	 * La liste des différents clients. Un client est constitué :
-	 * <ul>
-	 * <li>d'une {@link Socket}</li>
-	 * <li>d'un nom : {@link String}</li>
-	 * <li>d'un flux d'entrée : {@link BufferedReader}</li>
-	 * <li>d'un flux de sortie {@link PrintWriter}</li>
-	 * </ul>
-	 * Cette liste devra être accédée de manière synchrone par les différents
-	 * threads traitant les différents clients.
-	 *
-	 * @uml.property name="clients"
-	 * @uml.associationEnd multiplicity="(0 -1)" ordering="true"
-	 *                     aggregation="composite"
-	 *                     inverse="chatServer:chat.server.InputOutputClient"
-	 */
-	private Vector<InputOutputClient> clients;
-
 	/**
 	 * Liste des handlers de chaque client
 	 * @uml.property name="handlers"
@@ -67,20 +41,10 @@ public class ChatServer implements Runnable
 	private Vector<ClientHandler> handlers;
 
 	/**
-	 * logger pour afficher les messages d'erreur
+	 * Exécute chaque {@link ClientHandler} dans son propre thread : thread de
+	 * plateforme ou bien thread virtuel
 	 */
-	private Logger logger;
-
-	/**
-	 * Etat d'écoute du serveur. Cet état est vrai au départ et passe à false
-	 * lorsque le dernier client se déconnecte.
-	 */
-	private boolean listening;
-
-	/**
-	 * Termine le serveur lorsque le dernier client se délogue
-	 */
-	private final boolean quitOnLastClient;
+	private final boolean virtualThreads;
 
 	/**
 	 * Constructeur valué d'un serveur de chat. Celui ci initialise la
@@ -91,6 +55,8 @@ public class ChatServer implements Runnable
 	 * @param timeout temps d'attente de connection d'un client
 	 * @param quitOnLastClient quitte le serveur lorsque le dernier client
 	 * se délogue
+	 * @param virtualThreads exécute les {@link ClientHandler} dans des
+	 * threads virtuels plutôt que des threads de plateforme
 	 * @param parentLogger logger parent pour l'affichage des messages de
 	 * debug
 	 * @throws IOException Si une erreur intervient lors de la création de la
@@ -99,16 +65,16 @@ public class ChatServer implements Runnable
 	public ChatServer(int port,
 	                  int timeout,
 	                  boolean quitOnLastClient,
+	                  boolean virtualThreads,
 	                  Logger parentLogger)
 	    throws IOException
 	{
-		this.quitOnLastClient = quitOnLastClient;
-		logger = LoggerFactory.getParentLogger(getClass(),
-		                                       parentLogger,
-		                                       parentLogger.getLevel());
+		super(quitOnLastClient, parentLogger);
+		this.virtualThreads = virtualThreads;
 
 		logger.info("ChatServer::ChatServer(port = " + port + ", timeout = "
 		    + timeout + ", quit = " + (quitOnLastClient ? "true" : "false")
+		    + ", virtual threads = " + (virtualThreads ? "true" : "false")
 		    + ")");
 
 		serverSocket = new ServerSocket(port);
@@ -117,10 +83,31 @@ public class ChatServer implements Runnable
 			serverSocket.setSoTimeout(timeout);
 		}
 
-		clients = new Vector<InputOutputClient>();
 		handlers = new Vector<ClientHandler>();
 	}
 
+	/**
+	 * Constructeur valué d'un serveur de chat utilisant des threads de
+	 * plateforme. Celui ci initialise la {@link ServerSocket},
+	 *
+	 * @param port le port sur lequel on écoute les requètes
+	 * @param timeout temps d'attente de connection d'un client
+	 * @param quitOnLastClient quitte le serveur lorsque le dernier client
+	 * se délogue
+	 * @param parentLogger logger parent pour l'affichage des messages de
+	 * debug
+	 * @throws IOException Si une erreur intervient lors de la création de la
+	 *             {@link ServerSocket}
+	 */
+	public ChatServer(int port,
+	                  int timeout,
+	                  boolean quitOnLastClient,
+	                  Logger parentLogger)
+	    throws IOException
+	{
+		this(port, timeout, quitOnLastClient, false, parentLogger);
+	}
+
 	/**
 	 * Constructeur valué d'un serveur de chat. Celui ci initialise la
 	 * {@link ServerSocket},
@@ -152,27 +139,11 @@ public class ChatServer implements Runnable
 		this(DEFAULTPORT, parentLogger);
 	}
 
-	/**
-	 * Accesseur en lecture du {@link #quitOnLastClient}
-	 * @return la valeu du {@link #quitOnLastClient}
-	 */
-	public boolean isQuitOnLastClient()
-	{
-		return quitOnLastClient;
-	}
-
-	/**
-	 * Change l'état d'écoute du serveur
-	 * @param value la nouvelle valeur
-	 */
-	public synchronized void setListening(boolean value)
-	{
-		listening = value;
-	}
-
 	/**
 	 * Exécution du serveur de chat : - On attend la connection d'un client -
-	 * Lorsque celle ci se produit le client est traité dans un nouveau thread -
+	 * Lorsque celle ci se produit le client est traité dans un nouveau thread
+	 * (de plateforme ou virtuel) et les messages qui lui sont destinés sont
+	 * écrits par son {@link ClientWriter} dans un autre thread -
 	 * Lorsqu'un client envoie un message au serveur, celui ci le rediffuse à
 	 * l'ensemble des autres clients
 	 *
@@ -181,10 +152,13 @@ public class ChatServer implements Runnable
 	@Override
 	public void run()
 	{
-		Vector<Thread> handlerThreads = new Vector<Thread>();
+		ExecutorService handlerThreads =
+			ExecutorFactory.newThreadPerTaskExecutor(virtualThreads,
+			                                         "ClientHandler",
+			                                         logger);
 		listening = true;
 
-		while (listening)
+		while (isListening())
 		{
 			Socket clientSocket = null;
 			String clientName = null;
@@ -214,12 +188,12 @@ public class ChatServer implements Runnable
 			if (clientSocket != null)
 			{
 				// récupération du nom du client
-				BufferedReader reader = null;
+				InputStream reader = null;
+				Protocol clientProtocol = Protocol.SERIAL;
 				logger.info("ChatServer: Creatingc client input stream to get client's name ... ");
 				try
 				{
-					reader = new BufferedReader(new InputStreamReader(
-							clientSocket.getInputStream()));
+					reader = clientSocket.getInputStream();
 				}
 				catch (IOException e1)
 				{
@@ -232,9 +206,22 @@ public class ChatServer implements Runnable
 					logger.info("ChatServer: reading client's name: ");
 					try
 					{
-						// Lecture du nom du client
-						clientName = reader.readLine();
-						logger.info("ChatServer: client name " + clientName);
+						/*
+						 * Lecture du nom du client, éventuellement précédé
+						 * d'une demande de protocole. Les lignes sont lues
+						 * sans tampon afin de ne pas consommer les trames
+						 * qui suivent.
+						 */
+						Charset charset = Charset.defaultCharset();
+						clientName = BinaryCodec.readLine(reader, charset);
+						Protocol requested = Protocol.fromRequest(clientName);
+						if (requested != null)
+						{
+							clientProtocol = protocol.negotiate(requested);
+							clientName = BinaryCodec.readLine(reader, charset);
+						}
+						logger.info("ChatServer: client name " + clientName
+							+ " using protocol " + clientProtocol);
 					}
 					catch (IOException e)
 					{
@@ -249,32 +236,66 @@ public class ChatServer implements Runnable
 					 */
 				}
 
-				// Avant d'enregister cette connection dans l'ensemble des
-				// clients il faut vérifier qu'aucun client ne porte le même
-				// nom
-				if (searchClientByName(clientName) == null)
+				if (clientName == null)
 				{
-					// Création d'un nouveau client
-					InputOutputClient newClient =
-							new InputOutputClient(clientSocket,
-							                      clientName,
-							                      logger);
-
-					// Ajout du nouveau client à la liste des clients.
-					synchronized (clients)
+					logger.warning("ChatServer: client closed before sending its name");
+					try
+					{
+						clientSocket.close();
+					}
+					catch (IOException e)
 					{
-						clients.add(newClient);
+						logger.severe(e.getLocalizedMessage());
 					}
+					continue;
+				}
+
+				// Un nom commençant comme une demande de protocole est refusé
+				if (!Protocol.isValidName(clientName))
+				{
+					logger.warning("ChatServer: invalid client name " + clientName);
+					try
+					{
+						PrintWriter out = new PrintWriter(
+								clientSocket.getOutputStream(), true);
+						out.println("server > Sorry user names can not start with \""
+								+ Vocabulary.protocolCmd + " \"");
+						out.println("Hit ^D to close your client and try another name");
+						out.close();
+					}
+					catch (IOException e)
+					{
+						logger.severe("ChatServer: " + Failure.CLIENT_OUTPUT_STREAM);
+						logger.severe(e.getLocalizedMessage());
+					}
+					continue;
+				}
 
+				// Création d'un nouveau client (rien n'est encore écrit vers
+				// le client : l'entête du flux sera écrit par son écrivain)
+				InputOutputClient newClient =
+						new InputOutputClient(clientSocket,
+						                      clientName,
+						                      clientProtocol,
+						                      queueSize,
+						                      overflowPolicy,
+						                      flushWindow,
+						                      flushBytes,
+						                      batchStats,
+						                      logger);
+
+				// Ajout du nouveau client à l'ensemble des clients, à
+				// condition qu'aucun client ne porte déjà le même nom
+				if (addClient(newClient))
+				{
 					// Création et lancement d'un handler pour ce client
 					ClientHandler handler = new ClientHandler(this,
 					                                          newClient,
-					                                          clients,
 					                                          logger);
 					handlers.add(handler);
-					Thread handlerThread = new Thread(handler);
-					handlerThread.start();
-					handlerThreads.add(handlerThread);
+					handlerThreads.execute(handler);
+					handlerThreads.execute(newClient.getWriter());
+					replayHistory(newClient);
 				}
 				else // un client avec ce nom existe déjà
 				{
@@ -287,6 +308,7 @@ public class ChatServer implements Runnable
 								+ clientName);
 						out.println("Hit ^D to close your client and try another name");
 						out.close();
+						newClient.disconnect();
 					}
 					catch (IOException e)
 					{
@@ -304,23 +326,28 @@ public class ChatServer implements Runnable
 		} // while listening
 
 		// attente de la fin de tous les threads de ClientHandler
-		for (Thread t : handlerThreads)
+		handlerThreads.shutdown();
+		try
 		{
-			try
+			while (!handlerThreads.awaitTermination(DEFAULTTIMEOUT,
+			                                        TimeUnit.MILLISECONDS))
 			{
-				t.join();
-			}
-			catch (InterruptedException e)
-			{
-				logger.severe("ChatServer::run: Client handlers join interrupted");
-				logger.severe(e.getLocalizedMessage());
+				logger.info("ChatServer::run: waiting for client handlers ...");
 			}
 		}
+		catch (InterruptedException e)
+		{
+			logger.severe("ChatServer::run: Client handlers join interrupted");
+			logger.severe(e.getLocalizedMessage());
+		}
 
 		logger.info("ChatServer::run: all client handlers terminated");
+		logger.info("ChatServer::run: " + batchStats);
+
+		stopReplay();
+		stopShards();
 
 
-		handlerThreads.clear();
 		handlers.clear();
 		clients.clear();
 
@@ -342,7 +369,7 @@ public class ChatServer implements Runnable
 	 * Méthode invoquée par les {@link ClientHandler} à la fin de leur exécution
 	 * pour éventuellement arrêter le serveur lorsqu'il n'y a plus de clients
 	 */
-	protected synchronized void cleanup()
+	protected void cleanup()
 	{
 		// s'il ne reste plus de threads on arrête la boucle
 		int nbThreads = ClientHandler.getNbThreads();
@@ -360,33 +387,4 @@ public class ChatServer implements Runnable
 					" threads remaining ...");
 		}
 	}
-
-	/**
-	 * Recherche parmis les clients déjà enregistrés un client portant le même
-	 * nom que l'argument
-	 *
-	 * @param clientName le nom du client à rechercher parmis les clients déjà
-	 *            enregistrés
-	 * @return le client recherché s'il existe ou bien null s'il n'existe pas
-	 */
-	protected InputOutputClient searchClientByName(String clientName)
-	{
-		/*
-		 * La consultation de la liste des clients à la recherche d'un nom doit
-		 * être atomique afin qu'aucun autre thread ne puisse modifier cette
-		 * liste pendant qu'on la consulte : d'où le "synchronized"
-		 */
-		synchronized (clients)
-		{
-			for (InputOutputClient c : clients)
-			{
-				if (c.getName().equals(clientName))
-				{
-					return c;
-				}
-			}
-		}
-
-		return null;
-	}
 }
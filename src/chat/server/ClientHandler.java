@@ -3,13 +3,10 @@ package chat.server;
 import java.io.IOException;
 import java.io.InvalidClassException;
 import java.io.NotSerializableException;
-import java.io.ObjectOutputStream;
-import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
-import chat.Vocabulary;
 import logger.LoggerFactory;
-import models.Message;
 
 /**
  * Classe utilisée pour traiter chacune des connections des clients dans un
@@ -33,17 +30,7 @@ public class ClientHandler implements Runnable
 	 * @uml.property name="mainClient"
 	 * @uml.associationEnd aggregation="shared"
 	 */
-	private InputClient mainClient;
-
-	/**
-	 * Les autres clients reliés au serveur.
-	 *
-	 * @uml.property name="allClients"
-	 * @uml.associationEnd multiplicity="(1 -1)" ordering="true"
-	 *                     aggregation="shared"
-	 *                     inverse="clientHandler:chat.server.InputOutputClient"
-	 */
-	private Vector<InputOutputClient> allClients;
+	private InputOutputClient mainClient;
 
 	/**
 	 * Compteur d'instances du nombre de threads créés pour traiter les
@@ -51,7 +38,7 @@ public class ClientHandler implements Runnable
 	 *
 	 * @uml.property name="nbThreads"
 	 */
-	private static int nbThreads = 0;
+	private static final AtomicInteger nbThreads = new AtomicInteger(0);
 
 	/**
 	 * Logger pour l'affichage des messages de debug
@@ -63,18 +50,16 @@ public class ClientHandler implements Runnable
 	 *
 	 * @param parent le {@link ChatServer} qui a lancé ce Runnable
 	 * @param mainClient le client principal qu'il faut écouter
-	 * @param allClients les autres clients à qui il faut redistribuer ce
-	 *            qu'envoie le client principal
+	 * @param parentLogger logger parent pour l'affichage des messages de
+	 * debug
 	 */
 	public ClientHandler(ChatServer parent,
-	                     InputClient mainClient,
-	                     Vector<InputOutputClient> allClients,
+	                     InputOutputClient mainClient,
 	                     Logger parentLogger)
 	{
 		this.parent = parent;
 		this.mainClient = mainClient;
-		this.allClients = allClients;
-		nbThreads++;
+		nbThreads.incrementAndGet();
 		logger = LoggerFactory.getParentLogger(getClass(),
 		                                       parentLogger,
 		                                       parentLogger.getLevel());
@@ -88,13 +73,15 @@ public class ClientHandler implements Runnable
 	 */
 	public static int getNbThreads()
 	{
-		return nbThreads;
+		return nbThreads.get();
 	}
 
 	/**
 	 * Exécution d'un handler de client. Consiste à lire une ligne du client
 	 * jusqu'à ce que l'on reçoive la commande bye, ou qu'une IOException
-	 * intervienne si le flux est coupé
+	 * intervienne si le flux est coupé. Le débit des lignes est limité
+	 * avant leur traitement : les lignes excédentaires sont retardées (ce
+	 * qui ralentit la lecture du client) ou bien refusées.
 	 *
 	 * @see java.lang.Runnable#run()
 	 */
@@ -104,7 +91,7 @@ public class ClientHandler implements Runnable
 		boolean loggedOut = false;
 		boolean killed = false;
 		String clientInput = null;
-
+		RateLimiter limiter = parent.newRateLimiter(RateLimiter.MAXDELAY);
 
 		try
 		{
@@ -113,163 +100,25 @@ public class ClientHandler implements Runnable
 			 * bloquant)
 			 */
 			while (!loggedOut && !killed &&
-			       ((clientInput = mainClient.getIn().readLine()) != null))
+			       ((clientInput = mainClient.readLine()) != null))
 			{
 				// Affiche ce qui est reçu par le serveur dans la console
 				System.out.println(mainClient.getName() + " > " + clientInput);
 
-				// on vérifie que ce client n'a pas été banni par un super utilisateur
-				if (mainClient.isBanned())
-				{
-					logger.info(mainClient.getName() + " is banned");
-					loggedOut = true;
-					break;
-				}
-
-				// On vérifie qu'il ne s'agit pas d'un message de contrôle (kick ou bye)
-				boolean controlMessage = false;
-				for (String command : Vocabulary.commands)
-				{
-					if (clientInput.toLowerCase().startsWith(command))
-					{
-						controlMessage = true;
-						break;
-					}
-				}
-
-				StringBuffer messageContent = new StringBuffer();
-
-				if (controlMessage)
-				{
-					// Le client veut nous quitter
-					if (clientInput.toLowerCase().equals(Vocabulary.byeCmd))
-					{
-						messageContent.append(mainClient.getName() +
-						                      " logged out");
-						loggedOut = true;
-					}
-					// on vérifie si un kill est demandé par le client
-					else if (clientInput.toLowerCase().startsWith(Vocabulary.killCmd))
-					{
-						// on vérifie que le client est super-utilisateur
-						// (1er de tous les clients)
-						if (allClients.get(0) == mainClient)
-						{
-							killed = true;
-							parent.setListening(false);
-							break;
-						}
-					}
-					// on vérifie si un kick est demandé par le client
-					else if (clientInput.toLowerCase().startsWith(Vocabulary.kickCmd))
-					{
-						messageContent.append(Vocabulary.kickCmd);
-						// On bloque l'accès à allClients tant que l'on traite
-						// la commande du mainClient
-						synchronized (allClients)
-						{
-							// on vérifie que le client est super-utilisateur
-							// (1er de tous les clients)
-							if (allClients.get(0) == mainClient)
-							{
-								// on recherche le nom du client à kicker
-								String kickedName = null;
-								try
-								{
-									/*
-									 * On recherche le nom du client à kicker
-									 * dans kick clientToKill
-									 */
-									kickedName = clientInput.substring(
-										Vocabulary.kickCmd.length() + 1);
-								}
-								catch (IndexOutOfBoundsException iob)
-								{
-									logger.warning("ClientHandler: Error retreiving client name to kick");
-								}
-								if (kickedName != null)
-								{
-									messageContent.append(" " + kickedName);
-									InputOutputClient kickedClient =
-										parent.searchClientByName(kickedName);
-									if (kickedClient != null)
-									{
-										kickedClient.setBanned(true);
-										logger.info("Clienthandler["
-											+ mainClient.getName() + "] client "
-											+ kickedName + " banned");
-										messageContent.append(" [request granted by server]");
-									}
-									else
-									{
-										messageContent.append(" [client "
-											+ kickedName + " does not exist]");
-									}
-								}
-								else
-								{
-									messageContent.append(" [no client name to kick]");
-								}
-							}
-							else
-							{
-								int cmdL = Vocabulary.kickCmd.length();
-								messageContent.append(clientInput.substring(cmdL, (clientInput.length())));
-								messageContent.append(" [request denied by server]");
-							}
-							messageContent.append(" by " + mainClient.getName());
-						}
-					}
-				}
-				else
+				if (!parent.admit(mainClient, limiter, clientInput))
 				{
-					// Il s'agit d'un message ordinaire
-					messageContent.append(clientInput);
+					continue;
 				}
 
-				/*
-				 * Création du message à diffuser
-				 */
-				Message message = null;
-				if (controlMessage)
-				{
-					message = new Message(messageContent.toString());
-				}
-				else
-				{
-					message = new Message(messageContent.toString(),
-					                      mainClient.getName());
-				}
+				AbstractChatServer.Outcome outcome =
+					parent.processInput(mainClient, clientInput);
+				loggedOut = outcome.loggedOut;
+				killed = outcome.killed;
 
 				/*
-				 * Diffusion du message à tous les clients.
-				 * allClients est un Vector qui est atomique donc a
-				 * priori on a pas besoin du "synchronized (allClients)",
-				 * Néanmoins ce synchronized permet de bloquer l'accès à
-				 * l'ensemble des autres clients quand on diffuse le message de
-				 * notre mainClient à tous les clients. Sans quoi on pourrait
-				 * diffuser le message à un client, puis se faire interrompre
-				 * par un autre client, puis diffuser le message à un autre
-				 * client, etc. A vérifier ...
+				 * Diffusion du message aux clients du salon.
 				 */
-				synchronized (allClients)
-				{
-					for (InputOutputClient c : allClients)
-					{
-						if (c.isReady())
-						{
-							// récupération du flux de sortie et envoi du message
-							ObjectOutputStream out = c.getOut();
-							out.writeObject(message);
-						}
-						else
-						{
-							logger.warning("ClientHandler["
-									+ mainClient.getName() + "]Client "
-									+ c.getName() + " not ready");
-						}
-					}
-				}
+				parent.deliver(outcome);
 			}
 		}
 		catch (InvalidClassException ice)
@@ -291,21 +140,15 @@ public class ClientHandler implements Runnable
 					+ "]: received or write failed, Closing client " + this);
 		}
 
-		// remove current client from allClients (should be atomic)
-		synchronized (allClients)
-		{
-			allClients.remove(mainClient);
-		}
+		// remove current client from all clients (should be atomic)
+		parent.removeClient(mainClient);
 		// cleanup current client
 		mainClient.cleanup();
-		synchronized (parent)
-		{
-			// décrémentation du nombre de threads des clients
-			nbThreads--;
-			// Nettoyage du ChatServer parent (qui pourra evt s'arrêter s'il n'y a
-			// plus de clients)
-			parent.cleanup();
-		}
+		// décrémentation du nombre de threads des clients
+		nbThreads.decrementAndGet();
+		// Nettoyage du ChatServer parent (qui pourra evt s'arrêter s'il n'y a
+		// plus de clients)
+		parent.cleanup();
 	}
 
 }
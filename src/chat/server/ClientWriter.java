@@ -0,0 +1,177 @@
+package chat.server;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import logger.LoggerFactory;
+
+/**
+ * Ecrivain d'un {@link InputOutputClient} : vide la file d'attente des
+ * messages sortants ({@link OutboundQueue}) du client sur sa connexion.
+ * Chaque client dispose de son propre écrivain exécuté dans son propre
+ * thread (de plateforme ou virtuel) à côté de son {@link ClientHandler} :
+ * une écriture bloquée vers un client qui ne lit plus ne bloque que cet
+ * écrivain.
+ * Les messages sont écrits par groupes : tous les messages déjà en attente
+ * (ou arrivant dans la fenêtre de regroupement qui suit le premier message
+ * du groupe) sont écrits ensemble, jusqu'à un nombre d'octets maximum,
+ * avant un unique flush. Sous forte charge un flush (et donc un segment
+ * TCP) transporte ainsi plusieurs messages. La taille des groupes obtenus
+ * est enregistrée dans les {@link BatchStats} du serveur.
+ * @author davidroussel
+ */
+public class ClientWriter implements Runnable
+{
+	/**
+	 * Le client vers lequel on écrit
+	 */
+	private final InputOutputClient client;
+
+	/**
+	 * La file d'attente des messages à écrire
+	 */
+	private final OutboundQueue outbound;
+
+	/**
+	 * Signalé lorsque l'écrivain a terminé
+	 */
+	private final CountDownLatch terminated;
+
+	/**
+	 * Fenêtre de regroupement (en ms) : temps pendant lequel on attend
+	 * d'autres messages après le premier message d'un groupe (0 pour
+	 * n'écrire ensemble que les messages déjà en attente)
+	 */
+	private final long flushWindow;
+
+	/**
+	 * Nombre d'octets à partir duquel un groupe est écrit sans attendre
+	 * d'autres messages
+	 */
+	private final int flushBytes;
+
+	/**
+	 * Statistiques des écritures groupées
+	 */
+	private final BatchStats stats;
+
+	/**
+	 * Logger pour l'affichage des messages de debug
+	 */
+	private Logger logger;
+
+	/**
+	 * Constructeur d'un écrivain de client
+	 * @param client le client vers lequel écrire
+	 * @param outbound la file d'attente des messages à écrire
+	 * @param flushWindow fenêtre de regroupement des messages (en ms)
+	 * @param flushBytes nombre d'octets maximum d'un groupe de messages
+	 * @param stats statistiques des écritures groupées à mettre à jour
+	 * @param parentLogger logger parent pour l'affichage des messages de
+	 * debug
+	 */
+	ClientWriter(InputOutputClient client,
+	             OutboundQueue outbound,
+	             long flushWindow,
+	             int flushBytes,
+	             BatchStats stats,
+	             Logger parentLogger)
+	{
+		this.client = client;
+		this.outbound = outbound;
+		this.flushWindow = flushWindow;
+		this.flushBytes = flushBytes;
+		this.stats = stats;
+		terminated = new CountDownLatch(1);
+		logger = LoggerFactory.getParentLogger(getClass(),
+		                                       parentLogger,
+		                                       parentLogger.getLevel());
+	}
+
+	/**
+	 * Exécution de l'écrivain : écriture de l'entête du flux puis des
+	 * messages de la file (par groupes) jusqu'à ce que celle ci soit fermée
+	 * et vide ou bien qu'une écriture échoue.
+	 */
+	@Override
+	public void run()
+	{
+		try
+		{
+			client.writeHeader();
+			EncodedMessage message;
+			while ((message = outbound.take()) != null)
+			{
+				long deadline = System.nanoTime()
+					+ TimeUnit.MILLISECONDS.toNanos(flushWindow);
+				int count = 0;
+				long size = 0;
+				do
+				{
+					size += client.write(message);
+					count++;
+				}
+				while ((size < flushBytes)
+				       && ((message = nextMessage(deadline)) != null));
+				client.flush();
+				stats.record(count, size);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			logger.warning("ClientWriter[" + client.getName()
+				+ "]: interrupted");
+		}
+		catch (IOException e)
+		{
+			logger.severe("ClientWriter[" + client.getName()
+				+ "]: write failed, Closing client");
+			outbound.close();
+			client.disconnect();
+		}
+		finally
+		{
+			terminated.countDown();
+		}
+	}
+
+	/**
+	 * Message suivant d'un groupe : un message déjà en attente ou bien
+	 * arrivant avant la fin de la fenêtre de regroupement
+	 * @param deadline fin de la fenêtre de regroupement (en ns, voir
+	 * {@link System#nanoTime()})
+	 * @return le message suivant ou bien null si le groupe est terminé
+	 * @throws InterruptedException si l'attente est interrompue
+	 */
+	private EncodedMessage nextMessage(long deadline)
+	    throws InterruptedException
+	{
+		EncodedMessage message = outbound.poll();
+		if ((message == null) && (flushWindow > 0))
+		{
+			message = outbound.poll(deadline - System.nanoTime(),
+			                        TimeUnit.NANOSECONDS);
+		}
+		return message;
+	}
+
+	/**
+	 * Attente de la fin de l'écrivain
+	 * @param timeout temps d'attente maximum en ms
+	 * @return true si l'écrivain est terminé, false si le temps d'attente
+	 * est écoulé
+	 */
+	public boolean awaitTermination(long timeout)
+	{
+		try
+		{
+			return terminated.await(timeout, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			return false;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package chat.server;
+
+import java.io.IOException;
+
+/**
+ * Interface commune aux clients connectés au serveur de chat, quel que soit
+ * le mode d'exécution du serveur (un thread par client avec
+ * {@link InputOutputClient} ou bien boucle d'évènements non bloquante avec
+ * {@link ChannelClient}).
+ * Permet au serveur de rechercher, bannir et diffuser des messages aux
+ * clients sans connaître la manière dont ils sont connectés.
+ * @author davidroussel
+ */
+public interface ConnectedClient
+{
+	/**
+	 * Accesseur en lecture du nom du client
+	 * @return le nom du client
+	 */
+	public String getName();
+
+	/**
+	 * Indique si le client est prêt à recevoir des messages
+	 * @return true si le client est prêt, false sinon
+	 */
+	public boolean isReady();
+
+	/**
+	 * Accesseur en lecture de l'état de banissement
+	 * @return l'état de banissement
+	 */
+	public boolean isBanned();
+
+	/**
+	 * Accesseur en écriture de l'état de banissement
+	 * @param banned l'état de banissement à mettre en place
+	 */
+	public void setBanned(boolean banned);
+
+	/**
+	 * Accesseur en lecture du salon du client
+	 * @return le salon dont le client est membre (ou bien null si le client
+	 * n'a pas été ajouté au serveur)
+	 */
+	public Room getRoom();
+
+	/**
+	 * Accesseur en écriture du salon du client (par le serveur uniquement)
+	 * @param room le salon dont le client est désormais membre
+	 */
+	public void setRoom(Room room);
+
+	/**
+	 * Envoi d'un message (déjà encodé) au client
+	 * @param message le message encodé à envoyer
+	 * @throws IOException si l'envoi du message échoue
+	 */
+	public void send(EncodedMessage message) throws IOException;
+
+	/**
+	 * Nombre de messages en attente d'envoi au client (permet de ne pas
+	 * saturer la file d'attente d'un client lors d'envois en masse)
+	 * @return le nombre de messages en attente d'envoi
+	 */
+	public int getPending();
+
+	/**
+	 * Nettoyage du client : fermeture des flux et de la connexion
+	 */
+	public void cleanup();
+}
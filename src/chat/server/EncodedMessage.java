@@ -0,0 +1,277 @@
+package chat.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+import chat.BinaryCodec;
+import chat.Protocol;
+import models.Message;
+
+/**
+ * Message encodé une seule fois en vue de sa diffusion à l'ensemble des
+ * clients, pour chacun des protocoles ({@link Protocol}) utilisés par les
+ * clients. Les octets produits sont identiques pour tous les clients d'un
+ * même protocole et ne dépendent d'aucun état propre à un flux de sortie :
+ * <ul>
+ * <li>{@link Protocol#SERIAL} : un {@code TC_RESET} qui demande à
+ * l'{@link java.io.ObjectInputStream} du client de vider sa table de
+ * références suivi du message sérialisé (descripteurs de classe compris).
+ * Un client recevant d'abord l'entête {@link #STREAM_HEADER} puis une suite
+ * de messages encodés les lit donc avec un simple
+ * {@link java.io.ObjectInputStream#readObject()}, exactement comme s'ils
+ * avaient été écrits par un {@link ObjectOutputStream}. Cet encodage n'est
+ * réalisé que si au moins un client utilise ce protocole.</li>
+ * <li>{@link Protocol#BINARY} : une trame {@link BinaryCodec#MESSAGE}
+ * contenant l'identifiant de l'auteur. La trame de définition de l'auteur
+ * est fournie à part : elle ne doit être écrite qu'une fois par client
+ * avant le premier message de cet auteur.</li>
+ * </ul>
+ * Une instance peut être partagée par tous les threads qui l'écrivent vers
+ * leurs clients.
+ * @author davidroussel
+ */
+public final class EncodedMessage
+{
+	/**
+	 * Entête d'un flux objet, à envoyer une fois à chaque client utilisant
+	 * le protocole {@link Protocol#SERIAL} avant le premier message encodé
+	 */
+	public final static byte[] STREAM_HEADER = streamHeader();
+
+	/**
+	 * Le message d'origine
+	 */
+	private final Message message;
+
+	/**
+	 * L'auteur du message (ou bien null s'il n'a pas d'auteur)
+	 */
+	private final AuthorTable.Author author;
+
+	/**
+	 * La trame de définition de l'auteur du message (ou bien null s'il n'a
+	 * pas d'auteur)
+	 */
+	private final byte[] authorDefinition;
+
+	/**
+	 * Les octets du message encodé pour le protocole binaire
+	 */
+	private final byte[] binaryBytes;
+
+	/**
+	 * Les octets du message sérialisé (encodé à la première demande)
+	 */
+	private volatile byte[] serialBytes;
+
+	/**
+	 * Verrou garantissant que le message n'est sérialisé qu'une seule fois,
+	 * même lorsque plusieurs écrivains le demandent simultanément
+	 */
+	private final ReentrantLock serialLock;
+
+	/**
+	 * Constructeur privé d'un message encodé
+	 * @param message le message d'origine
+	 * @param author l'auteur du message ou bien null
+	 */
+	private EncodedMessage(Message message, AuthorTable.Author author)
+	{
+		this.message = message;
+		this.author = author;
+		authorDefinition = (author != null ? author.definition : null);
+		binaryBytes = BinaryCodec.messageFrame(message.getTime(),
+		                                       (author != null ? author.id : 0),
+		                                       message.getContent());
+		serialBytes = null;
+		serialLock = new ReentrantLock();
+	}
+
+	/**
+	 * Encodage d'un message
+	 * @param message le message à encoder
+	 * @param authors la table des auteurs du serveur (peut être null si le
+	 * message n'a pas d'auteur)
+	 * @return le message encodé
+	 */
+	public static EncodedMessage encode(Message message, AuthorTable authors)
+	{
+		AuthorTable.Author author = null;
+		if (message.hasAuthor())
+		{
+			author = authors.get(message.getAuthor());
+		}
+		return new EncodedMessage(message, author);
+	}
+
+	/**
+	 * Obtention de l'entête d'un flux objet
+	 * @return les octets écrits par un {@link ObjectOutputStream} à sa
+	 * création
+	 */
+	private static byte[] streamHeader()
+	{
+		ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+		try
+		{
+			ObjectOutputStream objectOut = new ObjectOutputStream(bytesOut);
+			objectOut.flush();
+		}
+		catch (IOException e)
+		{
+			// impossible sur un ByteArrayOutputStream
+			throw new AssertionError(e);
+		}
+		return bytesOut.toByteArray();
+	}
+
+	/**
+	 * Entête à envoyer à un client avant le premier message encodé
+	 * @param protocol le protocole utilisé par le client
+	 * @return l'entête du flux correspondant au protocole
+	 */
+	public static byte[] header(Protocol protocol)
+	{
+		return (protocol == Protocol.BINARY ? BinaryCodec.MAGIC : STREAM_HEADER);
+	}
+
+	/**
+	 * Accesseur en lecture du message d'origine
+	 * @return le message d'origine
+	 */
+	public Message getMessage()
+	{
+		return message;
+	}
+
+	/**
+	 * Accesseur en lecture de l'auteur du message
+	 * @return l'auteur du message (dont la définition doit être envoyée au
+	 * client s'il ne le connaît pas encore) ou bien null s'il n'a pas
+	 * d'auteur
+	 */
+	AuthorTable.Author getAuthor()
+	{
+		return author;
+	}
+
+	/**
+	 * Octets du message encodé pour un protocole
+	 * @param protocol le protocole utilisé
+	 * @return les octets du message encodé
+	 * @throws IOException si le message ne peut être sérialisé
+	 */
+	private byte[] bytes(Protocol protocol) throws IOException
+	{
+		if (protocol == Protocol.BINARY)
+		{
+			return binaryBytes;
+		}
+		byte[] bytes = serialBytes;
+		if (bytes != null)
+		{
+			return bytes;
+		}
+		serialLock.lock();
+		try
+		{
+			bytes = serialBytes;
+			if (bytes == null)
+			{
+				ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+				ObjectOutputStream objectOut = new ObjectOutputStream(bytesOut);
+				objectOut.reset();
+				objectOut.writeObject(message);
+				objectOut.flush();
+				byte[] allBytes = bytesOut.toByteArray();
+				bytes = Arrays.copyOfRange(allBytes,
+				                           STREAM_HEADER.length,
+				                           allBytes.length);
+				serialBytes = bytes;
+			}
+			return bytes;
+		}
+		finally
+		{
+			serialLock.unlock();
+		}
+	}
+
+	/**
+	 * Indique si la définition de l'auteur doit précéder le message pour un
+	 * client
+	 * @param protocol le protocole utilisé par le client
+	 * @param withAuthor le client ne connaît pas encore l'auteur du message
+	 * @return true si la trame de définition de l'auteur doit être écrite
+	 */
+	private boolean needsDefinition(Protocol protocol, boolean withAuthor)
+	{
+		return withAuthor
+			&& (protocol == Protocol.BINARY)
+			&& (authorDefinition != null);
+	}
+
+	/**
+	 * Taille du message encodé
+	 * @param protocol le protocole utilisé
+	 * @return le nombre d'octets du message encodé
+	 * @throws IOException si le message ne peut être sérialisé
+	 */
+	public int size(Protocol protocol) throws IOException
+	{
+		return bytes(protocol).length;
+	}
+
+	/**
+	 * Ecriture du message encodé dans un flux de sortie
+	 * @param out le flux de sortie
+	 * @param protocol le protocole utilisé par le client
+	 * @param withAuthor le client ne connaît pas encore l'auteur du message :
+	 * sa définition est écrite avant le message (protocole binaire)
+	 * @return le nombre d'octets écrits
+	 * @throws IOException si l'écriture échoue
+	 */
+	public int writeTo(OutputStream out, Protocol protocol, boolean withAuthor)
+	    throws IOException
+	{
+		int size = 0;
+		if (needsDefinition(protocol, withAuthor))
+		{
+			out.write(authorDefinition);
+			size += authorDefinition.length;
+		}
+		byte[] bytes = bytes(protocol);
+		out.write(bytes);
+		return size + bytes.length;
+	}
+
+	/**
+	 * Tampon en lecture seule sur les octets du message encodé. Chaque appel
+	 * fournit un nouveau tampon (avec sa propre position) partageant les
+	 * mêmes octets (sauf si la définition de l'auteur doit précéder le
+	 * message).
+	 * @param protocol le protocole utilisé par le client
+	 * @param withAuthor le client ne connaît pas encore l'auteur du message :
+	 * sa définition est placée avant le message (protocole binaire)
+	 * @return un nouveau tampon en lecture seule sur le message encodé
+	 * @throws IOException si le message ne peut être sérialisé
+	 */
+	public ByteBuffer asBuffer(Protocol protocol, boolean withAuthor)
+	    throws IOException
+	{
+		byte[] bytes = bytes(protocol);
+		if (needsDefinition(protocol, withAuthor))
+		{
+			ByteBuffer buffer =
+				ByteBuffer.allocate(authorDefinition.length + bytes.length);
+			buffer.put(authorDefinition).put(bytes).flip();
+			return buffer.asReadOnlyBuffer();
+		}
+		return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+	}
+}
@@ -0,0 +1,554 @@
+package chat.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import logger.LoggerFactory;
+import models.Message;
+
+/**
+ * Fédération de plusieurs serveurs de chat (les noeuds) : chaque noeud
+ * accepte les liaisons des autres noeuds sur un port dédié et établit les
+ * liaisons ({@link PeerLink}) vers les noeuds qui lui ont été indiqués
+ * (en les rétablissant s'ils s'arrêtent). Chaque paire de noeuds doit être
+ * reliée directement (maillage complet) : une seule des deux extrémités
+ * doit indiquer l'autre, une seconde liaison entre deux mêmes noeuds
+ * étant refusée.
+ * <ul>
+ * <li>Les messages des clients locaux sont relayés une seule fois par
+ * noeud (et non une fois par client distant), chaque noeud les diffusant à
+ * ses propres clients du même salon. Les messages reçus d'un noeud ne sont
+ * jamais relayés.</li>
+ * <li>Chaque noeud annonce l'arrivée et le départ de ses clients : les
+ * noeuds maintiennent ainsi la liste des clients distants (roster), ce
+ * qui permet de refuser un nom déjà utilisé sur un autre noeud, d'envoyer
+ * un message privé ou de bannir un client distant. Lorsque deux noeuds
+ * acceptent simultanément le même nom, le client du noeud dont le nom est
+ * le plus petit est conservé et l'autre est banni.</li>
+ * </ul>
+ * @author davidroussel
+ */
+public class Federation
+{
+	/**
+	 * Délai (en ms) avant de tenter de rétablir une liaison vers un noeud
+	 */
+	public final static long RECONNECTDELAY = 1000;
+
+	/**
+	 * Le serveur local
+	 */
+	private final AbstractChatServer server;
+
+	/**
+	 * Le nom du noeud local (unique dans la fédération)
+	 */
+	private final String node;
+
+	/**
+	 * La socket acceptant les liaisons des autres noeuds (ou bien null si le
+	 * noeud n'accepte pas de liaisons)
+	 */
+	private final ServerSocket peerSocket;
+
+	/**
+	 * Les noeuds vers lesquels établir une liaison
+	 */
+	private final List<InetSocketAddress> peers;
+
+	/**
+	 * Les liaisons établies indexées par le nom du noeud distant
+	 */
+	private final ConcurrentHashMap<String, PeerLink> links;
+
+	/**
+	 * Les clients distants indexés par leur nom, associés à la liaison vers
+	 * leur noeud
+	 */
+	private final ConcurrentHashMap<String, PeerLink> roster;
+
+	/**
+	 * Verrou sérialisant les annonces d'arrivée et de départ des clients
+	 * locaux avec l'envoi de la liste des clients locaux à un nouveau noeud,
+	 * afin qu'un noeud ne reçoive jamais l'arrivée d'un client après son
+	 * départ
+	 */
+	private final ReentrantLock announceLock;
+
+	/**
+	 * Etat de fonctionnement de la fédération
+	 */
+	private volatile boolean running;
+
+	/**
+	 * Le logger
+	 */
+	private final Logger logger;
+
+	/**
+	 * Constructeur d'une fédération (ouvre la socket acceptant les
+	 * liaisons, mais n'établit aucune liaison avant {@link #start()})
+	 * @param server le serveur local
+	 * @param node le nom du noeud local
+	 * @param port le port acceptant les liaisons des autres noeuds (ou bien
+	 * 0 pour ne pas accepter de liaisons)
+	 * @param peers les adresses des noeuds vers lesquels établir une liaison
+	 * @param parentLogger logger parent
+	 * @throws IOException si la socket acceptant les liaisons ne peut être
+	 * créée
+	 */
+	public Federation(AbstractChatServer server,
+	                  String node,
+	                  int port,
+	                  List<InetSocketAddress> peers,
+	                  Logger parentLogger)
+		throws IOException
+	{
+		this.server = server;
+		this.node = node;
+		this.peers = peers;
+		logger = LoggerFactory.getParentLogger(getClass(),
+		                                       parentLogger,
+		                                       parentLogger.getLevel());
+		links = new ConcurrentHashMap<String, PeerLink>();
+		roster = new ConcurrentHashMap<String, PeerLink>();
+		announceLock = new ReentrantLock();
+		running = false;
+		peerSocket = (port > 0 ? new ServerSocket(port) : null);
+	}
+
+	/**
+	 * Accesseur en lecture du nom du noeud local
+	 * @return le nom du noeud local
+	 */
+	public String getNode()
+	{
+		return node;
+	}
+
+	/**
+	 * Lancement de la fédération : acceptation des liaisons des autres
+	 * noeuds et établissement des liaisons vers les noeuds indiqués
+	 */
+	public void start()
+	{
+		running = true;
+		if (peerSocket != null)
+		{
+			daemon(() -> accept(), "PeerAcceptor");
+		}
+		for (InetSocketAddress peer : peers)
+		{
+			daemon(() -> connect(peer), "PeerConnector[" + peer + "]");
+		}
+		logger.info("Federation: node " + node + " started");
+	}
+
+	/**
+	 * Arrêt de la fédération : fermeture de toutes les liaisons
+	 */
+	public void close()
+	{
+		running = false;
+		if (peerSocket != null)
+		{
+			try
+			{
+				peerSocket.close();
+			}
+			catch (IOException e)
+			{
+				logger.warning("Federation: unable to close peer socket");
+			}
+		}
+		for (PeerLink link : links.values())
+		{
+			link.close();
+		}
+	}
+
+	/**
+	 * Lancement d'un thread démon
+	 * @param task la tâche du thread
+	 * @param name le nom du thread
+	 */
+	private static void daemon(Runnable task, String name)
+	{
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Boucle d'acceptation des liaisons des autres noeuds
+	 */
+	private void accept()
+	{
+		while (running)
+		{
+			try
+			{
+				Socket socket = peerSocket.accept();
+				daemon(() -> serve(socket), "PeerLink[" + socket.getRemoteSocketAddress() + "]");
+			}
+			catch (IOException e)
+			{
+				if (running)
+				{
+					logger.warning("Federation: peer accept failed: "
+						+ e.getLocalizedMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Etablissement (et rétablissement) d'une liaison vers un noeud tant que
+	 * la fédération fonctionne
+	 * @param peer l'adresse du noeud
+	 */
+	private void connect(InetSocketAddress peer)
+	{
+		while (running)
+		{
+			try
+			{
+				serve(new Socket(peer.getHostString(), peer.getPort()));
+			}
+			catch (IOException e)
+			{
+				logger.fine("Federation: unable to connect to " + peer + ": "
+					+ e.getLocalizedMessage());
+			}
+			try
+			{
+				Thread.sleep(RECONNECTDELAY);
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Traitement d'une liaison jusqu'à sa fermeture : échange des
+	 * présentations, enregistrement de la liaison, envoi de la liste des
+	 * clients locaux puis lecture des trames du noeud distant
+	 * @param socket la socket connectée au noeud distant
+	 */
+	private void serve(Socket socket)
+	{
+		PeerLink link = null;
+		try
+		{
+			link = new PeerLink(this, socket, logger);
+			link.handshake(node);
+		}
+		catch (IOException e)
+		{
+			logger.warning("Federation: peer handshake failed: "
+				+ e.getLocalizedMessage());
+			if (link != null)
+			{
+				link.close();
+			}
+			else
+			{
+				try
+				{
+					socket.close();
+				}
+				catch (IOException ce)
+				{
+					// rien
+				}
+			}
+			return;
+		}
+
+		final PeerLink established = link;
+		String peerNode = link.getNode();
+		if (peerNode.equals(node) || (links.putIfAbsent(peerNode, link) != null))
+		{
+			logger.warning("Federation: duplicate link to node " + peerNode
+				+ " refused");
+			link.close();
+			return;
+		}
+		link.start();
+
+		announceLock.lock();
+		try
+		{
+			for (String name : server.clientsByName.keySet())
+			{
+				link.send(PeerLink.frame(PeerLink.JOIN, name));
+			}
+		}
+		finally
+		{
+			announceLock.unlock();
+		}
+		logger.info("Federation: " + link + " established");
+
+		link.run();
+
+		links.remove(peerNode, link);
+		/*
+		 * Les clients du noeud sont oubliés : sa reconnexion annoncera à
+		 * nouveau ses clients
+		 */
+		for (String name : roster.keySet())
+		{
+			if (roster.remove(name, established))
+			{
+				server.authors.release(name);
+			}
+		}
+		logger.info("Federation: link to node " + peerNode + " lost");
+	}
+
+	/**
+	 * Envoi d'une trame à tous les noeuds
+	 * @param frame la trame encodée
+	 */
+	private void sendAll(byte[] frame)
+	{
+		for (PeerLink link : links.values())
+		{
+			link.send(frame);
+		}
+	}
+
+	/**
+	 * Indique si un nom est utilisé par un client d'un autre noeud
+	 * @param name le nom
+	 * @return true si un client distant porte ce nom
+	 */
+	public boolean isRemote(String name)
+	{
+		return roster.containsKey(name);
+	}
+
+	/**
+	 * Nombre de clients distants connus
+	 * @return le nombre de clients des autres noeuds
+	 */
+	public int getRemoteCount()
+	{
+		return roster.size();
+	}
+
+	/**
+	 * Annonce de l'arrivée d'un client local aux autres noeuds
+	 * @param name le nom du client
+	 */
+	public void joined(String name)
+	{
+		announceLock.lock();
+		try
+		{
+			sendAll(PeerLink.frame(PeerLink.JOIN, name));
+		}
+		finally
+		{
+			announceLock.unlock();
+		}
+	}
+
+	/**
+	 * Annonce du départ d'un client local aux autres noeuds
+	 * @param name le nom du client
+	 */
+	public void left(String name)
+	{
+		announceLock.lock();
+		try
+		{
+			sendAll(PeerLink.frame(PeerLink.QUIT, name));
+		}
+		finally
+		{
+			announceLock.unlock();
+		}
+	}
+
+	/**
+	 * Relai d'un message diffusé dans un salon local à tous les autres
+	 * noeuds (une trame par noeud)
+	 * @param message le message
+	 * @param room le salon du message
+	 */
+	public void relay(Message message, Room room)
+	{
+		if (!links.isEmpty())
+		{
+			sendAll(PeerLink.frame(PeerLink.MESSAGE, room.getName(), message));
+		}
+	}
+
+	/**
+	 * Envoi d'un message privé à un client distant
+	 * @param name le nom du client destinataire
+	 * @param message le message
+	 * @return true si le client est connecté à un autre noeud, false sinon
+	 */
+	public boolean sendPrivate(String name, Message message)
+	{
+		PeerLink link = roster.get(name);
+		if (link == null)
+		{
+			return false;
+		}
+		link.send(PeerLink.frame(PeerLink.PRIVATE, name, message));
+		return true;
+	}
+
+	/**
+	 * Bannissement d'un client distant
+	 * @param name le nom du client à bannir
+	 * @return true si le client est connecté à un autre noeud, false sinon
+	 */
+	public boolean kick(String name)
+	{
+		PeerLink link = roster.get(name);
+		if (link == null)
+		{
+			return false;
+		}
+		link.send(PeerLink.frame(PeerLink.KICK, name));
+		return true;
+	}
+
+	/**
+	 * Arrivée d'un client sur un autre noeud. Si le nom est déjà utilisé
+	 * (localement ou sur un troisième noeud), le client du noeud dont le nom
+	 * est le plus petit est conservé : tous les noeuds font ainsi le même
+	 * choix.
+	 * @param link la liaison vers le noeud du client
+	 * @param name le nom du client
+	 */
+	void remoteJoined(PeerLink link, String name)
+	{
+		String peerNode = link.getNode();
+		ConnectedClient local = server.searchClientByName(name);
+		if (local != null)
+		{
+			if (node.compareTo(peerNode) < 0)
+			{
+				// le client local est conservé (le noeud distant bannit le sien)
+				return;
+			}
+			logger.warning("Federation: name " + name + " already used on node "
+				+ peerNode + ", banning local client");
+			try
+			{
+				server.send(new Message("server > name " + name
+					+ " already used on node " + peerNode), local);
+			}
+			catch (IOException e)
+			{
+				logger.warning("Federation: unable to notify " + name);
+			}
+			local.setBanned(true);
+			server.removeClient(local);
+		}
+		roster.merge(name, link, (PeerLink current, PeerLink candidate) ->
+			(candidate.getNode().compareTo(current.getNode()) < 0 ?
+				candidate : current));
+		server.authors.acquire(name);
+	}
+
+	/**
+	 * Départ d'un client d'un autre noeud
+	 * @param link la liaison vers le noeud du client
+	 * @param name le nom du client
+	 */
+	void remoteLeft(PeerLink link, String name)
+	{
+		if (roster.remove(name, link))
+		{
+			server.authors.release(name);
+		}
+	}
+
+	/**
+	 * Diffusion d'un message reçu d'un autre noeud aux clients locaux du
+	 * même salon (s'il existe localement)
+	 * @param roomName le nom du salon
+	 * @param message le message
+	 */
+	void remoteMessage(String roomName, Message message)
+	{
+		Room room = server.getRoom(roomName);
+		if (room == null)
+		{
+			return;
+		}
+		try
+		{
+			server.broadcast(message, room);
+		}
+		catch (IOException e)
+		{
+			logger.warning("Federation: unable to broadcast remote message: "
+				+ e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Envoi d'un message privé reçu d'un autre noeud à son destinataire
+	 * local
+	 * @param name le nom du destinataire
+	 * @param message le message
+	 */
+	void remotePrivate(String name, Message message)
+	{
+		ConnectedClient recipient = server.searchClientByName(name);
+		if (recipient == null)
+		{
+			return;
+		}
+		try
+		{
+			server.send(message, recipient);
+		}
+		catch (IOException e)
+		{
+			logger.warning("Federation: unable to send private message to "
+				+ name + ": " + e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Bannissement d'un client local demandé par un autre noeud
+	 * @param name le nom du client à bannir
+	 */
+	void remoteKick(String name)
+	{
+		ConnectedClient kicked = server.searchClientByName(name);
+		if (kicked != null)
+		{
+			kicked.setBanned(true);
+			logger.info("Federation: client " + name + " banned by remote node");
+		}
+	}
+
+	/**
+	 * Affichage de la fédération
+	 * @return une chaîne décrivant la fédération
+	 */
+	@Override
+	public String toString()
+	{
+		return "node " + node + " (" + links.size() + " links, "
+			+ roster.size() + " remote clients)";
+	}
+}
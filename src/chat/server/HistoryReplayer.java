@@ -0,0 +1,319 @@
+package chat.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import chat.journal.MessageHistory;
+import logger.LoggerFactory;
+import models.Message;
+
+/**
+ * Rejeu de l'historique des messages ({@link MessageHistory}) aux clients
+ * qui viennent de se connecter : les N derniers messages ou bien les
+ * messages des T dernières minutes.
+ * Le rejeu n'est jamais effectué par le thread qui accepte le client (ni
+ * par les boucles d'entrées/sorties) : chaque rejeu est découpé en petits
+ * lots déposés dans la file d'attente du client par un unique thread de
+ * rejeu partagé entre tous les clients. Un nouveau lot n'est déposé que
+ * lorsque la file d'attente du client est suffisamment vide : les messages
+ * en direct (diffusés entre temps) ne sont donc jamais évincés par le
+ * rejeu et s'intercalent entre les lots, et plusieurs rejeux simultanés
+ * progressent à tour de rôle.
+ * Le rejeu s'arrête au dernier message diffusé avant l'ajout du client
+ * (les messages suivants étant reçus en direct). Un message diffusé
+ * pendant l'ajout même du client peut toutefois être reçu deux fois.
+ * @author davidroussel
+ */
+class HistoryReplayer
+{
+	/**
+	 * Nombre maximum de messages d'un lot du rejeu
+	 */
+	public final static int CHUNKSIZE = 64;
+
+	/**
+	 * Délai (en ms) avant de réessayer de déposer un lot lorsque la file
+	 * d'attente du client est trop remplie
+	 */
+	public final static long RETRYDELAY = 10;
+
+	/**
+	 * Le serveur dont les clients reçoivent le rejeu
+	 */
+	private final AbstractChatServer server;
+
+	/**
+	 * L'historique des messages à rejouer
+	 */
+	private final MessageHistory history;
+
+	/**
+	 * Nombre maximum de messages rejoués (ou bien 0 pour ne pas limiter le
+	 * nombre de messages)
+	 */
+	private final int count;
+
+	/**
+	 * Durée (en ms) de la période rejouée (ou bien 0 pour ne pas limiter la
+	 * période)
+	 */
+	private final long period;
+
+	/**
+	 * Table des auteurs utilisée pour encoder les messages rejoués
+	 */
+	private final AuthorTable authors;
+
+	/**
+	 * Nombre de messages en attente dans la file d'un client au delà duquel
+	 * aucun nouveau lot n'est déposé
+	 */
+	private final int threshold;
+
+	/**
+	 * Nombre de messages d'un lot
+	 */
+	private final int chunk;
+
+	/**
+	 * Le thread de rejeu partagé par tous les clients
+	 */
+	private final ScheduledExecutorService executor;
+
+	/**
+	 * Le logger
+	 */
+	private final Logger logger;
+
+	/**
+	 * Rejeu en cours vers un client : chaque exécution dépose un lot de
+	 * messages puis se replanifie jusqu'à la fin du rejeu
+	 */
+	private class Replay implements Runnable
+	{
+		/**
+		 * Le client recevant le rejeu
+		 */
+		private final ConnectedClient client;
+
+		/**
+		 * Numéro de séquence du prochain message à rejouer
+		 */
+		private long next;
+
+		/**
+		 * Numéro de séquence de fin du rejeu (exclu)
+		 */
+		private final long end;
+
+		/**
+		 * Constructeur d'un rejeu
+		 * @param client le client recevant le rejeu
+		 * @param from le numéro de séquence du premier message à rejouer
+		 * @param end le numéro de séquence de fin du rejeu (exclu)
+		 */
+		public Replay(ConnectedClient client, long from, long end)
+		{
+			this.client = client;
+			next = from;
+			this.end = end;
+		}
+
+		/**
+		 * Dépôt d'un lot de messages dans la file d'attente du client
+		 */
+		@Override
+		public void run()
+		{
+			// le client s'est déconnecté (ou a été remplacé) : fin du rejeu
+			if (server.searchClientByName(client.getName()) != client)
+			{
+				return;
+			}
+
+			// la file du client est trop remplie : on réessaiera plus tard
+			if (client.getPending() >= threshold)
+			{
+				schedule(this, RETRYDELAY);
+				return;
+			}
+
+			List<Message> messages = new ArrayList<Message>(chunk);
+			long first =
+				history.read(next, (int) Math.min(chunk, end - next), messages);
+			// les messages qui ne sont plus dans l'historique sont sautés
+			if (first > next)
+			{
+				logger.warning("HistoryReplayer: " + (first - next)
+					+ " messages left the history before being replayed to "
+					+ client.getName());
+			}
+			try
+			{
+				for (Message message : messages)
+				{
+					client.send(EncodedMessage.encode(message, authors));
+				}
+			}
+			catch (IOException e)
+			{
+				logger.warning("HistoryReplayer: unable to replay history to "
+					+ client.getName() + ": " + e.getLocalizedMessage());
+				return;
+			}
+			/*
+			 * Le lot suivant reprend juste après le dernier message envoyé :
+			 * chaque message est envoyé exactement une fois
+			 */
+			long previous = next;
+			next = first + messages.size();
+
+			if ((next > previous) && (next < end))
+			{
+				// les autres rejeux en attente passent avant le lot suivant
+				schedule(this, 0);
+			}
+			else
+			{
+				logger.fine("HistoryReplayer: history replayed to "
+					+ client.getName());
+			}
+		}
+	}
+
+	/**
+	 * Constructeur d'un rejeu d'historique
+	 * @param server le serveur dont les clients reçoivent le rejeu
+	 * @param history l'historique des messages à rejouer
+	 * @param count nombre maximum de messages rejoués (0 pour ne pas limiter
+	 * le nombre de messages)
+	 * @param minutes durée (en minutes) de la période rejouée (0 pour ne pas
+	 * limiter la période)
+	 * @param queueSize nombre maximum de messages en attente d'envoi pour
+	 * chaque client
+	 * @param authors table des auteurs utilisée pour encoder les messages
+	 * @param parentLogger logger parent
+	 */
+	public HistoryReplayer(AbstractChatServer server,
+	                       MessageHistory history,
+	                       int count,
+	                       int minutes,
+	                       int queueSize,
+	                       AuthorTable authors,
+	                       Logger parentLogger)
+	{
+		this.server = server;
+		this.history = history;
+		this.count = Math.max(count, 0);
+		period = TimeUnit.MINUTES.toMillis(Math.max(minutes, 0));
+		this.authors = authors;
+		threshold = Math.max(1, queueSize / 2);
+		chunk = Math.min(CHUNKSIZE, threshold);
+		logger = LoggerFactory.getParentLogger(getClass(),
+		                                       parentLogger,
+		                                       parentLogger.getLevel());
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "HistoryReplay");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Lancement du rejeu de l'historique vers un client qui vient d'être
+	 * ajouté aux clients du serveur (ne bloque pas)
+	 * @param client le client recevant le rejeu
+	 */
+	public void replay(ConnectedClient client)
+	{
+		long end = history.getNextSequence();
+		long from = history.getFirstSequence();
+		if (count > 0)
+		{
+			from = Math.max(from, end - count);
+		}
+		if (period > 0)
+		{
+			from = Math.max(from, search(from, end,
+			                             System.currentTimeMillis() - period));
+		}
+		if (from < end)
+		{
+			logger.fine("HistoryReplayer: replaying " + (end - from)
+				+ " messages to " + client.getName());
+			schedule(new Replay(client, from, end), 0);
+		}
+	}
+
+	/**
+	 * Recherche dichotomique du premier message de l'historique daté d'au
+	 * moins time (les messages étant ajoutés dans l'ordre de leur date)
+	 * @param from le numéro de séquence du premier message de la recherche
+	 * @param end le numéro de séquence de fin de la recherche (exclu)
+	 * @param time la date (en ms depuis l'epoch) recherchée
+	 * @return le numéro de séquence du premier message daté d'au moins time
+	 * ou bien end s'il n'y en a pas
+	 */
+	private long search(long from, long end, long time)
+	{
+		long low = from;
+		long high = end;
+		while (low < high)
+		{
+			long middle = (low + high) >>> 1;
+			List<Message> messages = new ArrayList<Message>(1);
+			long first = history.read(middle, 1, messages);
+			if (messages.isEmpty())
+			{
+				// message sorti de l'historique pendant la recherche
+				low = Math.max(middle + 1, history.getFirstSequence());
+			}
+			else if (messages.get(0).getTime() < time)
+			{
+				low = first + 1;
+			}
+			else
+			{
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Planification d'un lot d'un rejeu
+	 * @param replay le rejeu
+	 * @param delay le délai (en ms) avant le dépôt du lot
+	 */
+	private void schedule(Replay replay, long delay)
+	{
+		try
+		{
+			executor.schedule(replay, delay, TimeUnit.MILLISECONDS);
+		}
+		catch (RejectedExecutionException e)
+		{
+			// le serveur s'arrête : les rejeux en cours sont abandonnés
+		}
+	}
+
+	/**
+	 * Arrêt de tous les rejeux en cours
+	 */
+	public void shutdown()
+	{
+		executor.shutdownNow();
+	}
+}
@@ -1,11 +1,15 @@
 package chat.server;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.Socket;
 import java.util.logging.Logger;
 
+import chat.BinaryCodec;
+import chat.Protocol;
 import logger.LoggerFactory;
 
 /**
@@ -14,9 +18,13 @@ import logger.LoggerFactory;
  * <ul>
  * <li>{@link #clientSocket} : {@link Socket} du client</li>
  * <li>{@link #name} : nom du client</li>
+ * <li>{@link #protocol} : le protocole négocié avec le client</li>
  * <li>{@link #inBR} : {@link BufferedReader} créé à partir d'un
  * {@link InputStreamReader} sur l'{@link InputStream} de la {@link Socket}
- * et permettant de lire le texte en provenance du client</li>
+ * et permettant de lire le texte en provenance du client (protocole
+ * {@link Protocol#SERIAL}), ou bien {@link #inStream} permettant de lire
+ * les trames de texte en provenance du client (protocole
+ * {@link Protocol#BINARY})</li>
  * <li>{@link #ready} indique que l'{@link BufferedReader} a été créé et que
  * l'on est prêt à lire les lignes en provenance du client</li>
  * <li>{@link #banned} indique le statut de bannissement</li>
@@ -44,22 +52,35 @@ public class InputClient
 	 */
 	protected BufferedReader inBR;
 
+	/**
+	 * Le flux d'entrée binaire du client (protocole {@link Protocol#BINARY})
+	 */
+	protected InputStream inStream;
+
+	/**
+	 * Le protocole négocié avec le client
+	 */
+	protected Protocol protocol;
+
 	/**
 	 * Un Main client est "ready" lorsque sa clientSocket est non nulle et que
-	 * l'on a réussi à obtenir son input stream
+	 * l'on a réussi à obtenir son input stream (lu sans verrou par les
+	 * threads de diffusion)
 	 *
 	 * @uml.property name="ready"
 	 */
-	protected boolean ready;
+	protected volatile boolean ready;
 
 	/**
 	 * Etat de bannissement du client. Idée : le premier utilisateur du serveur
 	 * est considéré comme le super-user (un MainClient). En conséquence il a
-	 * le privilège de pouvoir kicker les autres clients.
+	 * le privilège de pouvoir kicker les autres clients. Un client peut être
+	 * banni depuis un autre thread que celui qui le lit (kick local ou
+	 * distant).
 	 *
 	 * @uml.property name="banned"
 	 */
-	protected boolean banned;
+	protected volatile boolean banned;
 
 	/**
 	 * logger pour afficher les messages de debug
@@ -70,13 +91,19 @@ public class InputClient
 	 * Constructeur d'un MainClient
 	 * @param socket the client's socket
 	 * @param name the client's name
+	 * @param protocol le protocole négocié avec le client
 	 * @param parentLogger logger parent pour l'affichage des messages de debug
 	 */
-	public InputClient(Socket socket, String name, Logger parentLogger)
+	public InputClient(Socket socket,
+	                   String name,
+	                   Protocol protocol,
+	                   Logger parentLogger)
 	{
 		clientSocket = socket;
 		this.name = name;
+		this.protocol = protocol;
 		inBR = null;
+		inStream = null;
 		ready = false;
 
 		logger = LoggerFactory.getParentLogger(getClass(),
@@ -88,8 +115,15 @@ public class InputClient
 			logger.info("InputClient: Creating Input Stream ... ");
 			try
 			{
-				inBR = new BufferedReader(new InputStreamReader(
-						socket.getInputStream()));
+				if (protocol == Protocol.BINARY)
+				{
+					inStream = new BufferedInputStream(socket.getInputStream());
+				}
+				else
+				{
+					inBR = new BufferedReader(new InputStreamReader(
+							socket.getInputStream()));
+				}
 				ready = true;
 			}
 			catch (IOException e)
@@ -111,16 +145,54 @@ public class InputClient
 		return name;
 	}
 
+	/**
+	 * Constructeur d'un MainClient utilisant le protocole
+	 * {@link Protocol#SERIAL}
+	 * @param socket the client's socket
+	 * @param name the client's name
+	 * @param parentLogger logger parent pour l'affichage des messages de debug
+	 */
+	public InputClient(Socket socket, String name, Logger parentLogger)
+	{
+		this(socket, name, Protocol.SERIAL, parentLogger);
+	}
+
 	/**
 	 * Accesseur en lecture du flux d'entrée du client
 	 *
-	 * @return the input {@link BufferedReader}
+	 * @return the input {@link BufferedReader} (ou bien null si le client
+	 * utilise le protocole {@link Protocol#BINARY})
 	 */
 	public BufferedReader getIn()
 	{
 		return inBR;
 	}
 
+	/**
+	 * Accesseur en lecture du protocole négocié avec le client
+	 * @return le protocole négocié avec le client
+	 */
+	public Protocol getProtocol()
+	{
+		return protocol;
+	}
+
+	/**
+	 * Lecture d'une ligne de texte (message ou commande) en provenance du
+	 * client quel que soit le protocole utilisé (appel bloquant)
+	 * @return la ligne lue ou bien null si le client a fermé la connexion
+	 * @throws IOException si la lecture échoue
+	 */
+	public String readLine() throws IOException
+	{
+		if (protocol == Protocol.BINARY)
+		{
+			byte[] frame = BinaryCodec.readFrame(inStream);
+			return (frame != null ? new String(frame, BinaryCodec.UTF8) : null);
+		}
+		return inBR.readLine();
+	}
+
 	/**
 	 * Accesseur en lecture de l'état du client
 	 *
@@ -164,7 +236,14 @@ public class InputClient
 		logger.info("MainClient::cleanup: closing input stream ... ");
 		try
 		{
-			inBR.close();
+			if (inBR != null)
+			{
+				inBR.close();
+			}
+			else if (inStream != null)
+			{
+				inStream.close();
+			}
 		}
 		catch (IOException e)
 		{
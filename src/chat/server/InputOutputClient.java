@@ -1,10 +1,12 @@
 package chat.server;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.util.logging.Logger;
 
 import chat.Failure;
+import chat.Protocol;
 
 
 /**
@@ -13,31 +15,81 @@ import chat.Failure;
  * Un client "normal" ajoute aussi le flux de sortie sur lequel on écrit les
  * messages vers le client
  * <ul>
- * 	<li>out : {@link ObjectOutputStream}</li>
+ * 	<li>out : {@link OutputStream} (avec tampon) sur lequel sont écrits
+ * 	l'entête du flux puis les messages déjà encodés ({@link EncodedMessage})
+ * 	selon le protocole du client. Le tampon n'est vidé qu'à la fin de
+ * 	chaque groupe de messages</li>
+ * 	<li>outbound : {@link OutboundQueue} file d'attente bornée des messages
+ * 	à envoyer, vidée sur le flux de sortie par le {@link ClientWriter} du
+ * 	client</li>
  * </ul>
  * @author davidroussel
  *
  */
-public class InputOutputClient extends InputClient
+public class InputOutputClient extends InputClient implements ConnectedClient
 {
 	/**
 	 * Le flux de sortie vers le client (celui sur lequel on écrit au client)
 	 */
-	private ObjectOutputStream outOS;
+	private OutputStream outStream;
+
+	/**
+	 * La file d'attente des messages à envoyer au client
+	 */
+	private final OutboundQueue outbound;
+
+	/**
+	 * L'écrivain chargé de vider la file d'attente {@link #outbound} sur le
+	 * flux de sortie
+	 */
+	private final ClientWriter writer;
+
+	/**
+	 * Auteurs dont la définition a déjà été envoyée au client (protocole
+	 * {@link Protocol#BINARY})
+	 */
+	private final KnownAuthors knownAuthors;
+
+	/**
+	 * Le salon dont le client est membre
+	 */
+	private volatile Room room;
 
 	/**
 	 * Constructeur d'un client
 	 * @param socket la socket du client
 	 * @param name le nom du client
-	 * @param verbose niveau de debug pour les messages
+	 * @param protocol le protocole négocié avec le client
+	 * @param queueSize nombre maximum de messages en attente d'envoi
+	 * @param policy politique appliquée lorsque la file d'attente est pleine
+	 * @param flushWindow fenêtre de regroupement des messages (en ms)
+	 * @param flushBytes nombre d'octets maximum d'un groupe de messages
+	 * (et taille du tampon de sortie)
+	 * @param stats statistiques des écritures groupées à mettre à jour
 	 * @param parentLogger logger parent pour l'affichage des messages
 	 */
-	public InputOutputClient(Socket socket, String name, Logger parentLogger)
+	public InputOutputClient(Socket socket,
+	                         String name,
+	                         Protocol protocol,
+	                         int queueSize,
+	                         OverflowPolicy policy,
+	                         long flushWindow,
+	                         int flushBytes,
+	                         BatchStats stats,
+	                         Logger parentLogger)
 	{
-		super(socket, name, parentLogger);
+		super(socket, name, protocol, parentLogger);
+		knownAuthors = new KnownAuthors();
+		outbound = new OutboundQueue(queueSize, policy);
+		writer = new ClientWriter(this,
+		                          outbound,
+		                          flushWindow,
+		                          flushBytes,
+		                          stats,
+		                          logger);
 		if (ready)
 		{
-			outOS = null;
+			outStream = null;
 			ready = false;
 
 			if (clientSocket != null)
@@ -45,7 +97,8 @@ public class InputOutputClient extends InputClient
 				logger.info("Client: Creating Output Stream ... ");
 				try
 				{
-					outOS = new ObjectOutputStream(clientSocket.getOutputStream());
+					outStream = new BufferedOutputStream(
+						clientSocket.getOutputStream(), flushBytes);
 					ready = true;
 				}
 				catch (IOException e)
@@ -62,25 +115,156 @@ public class InputOutputClient extends InputClient
 		}
 	}
 
+	/**
+	 * Constructeur d'un client utilisant le protocole {@link Protocol#SERIAL}
+	 * avec la taille de file d'attente, la politique de débordement et le
+	 * regroupement des écritures par défaut
+	 * @param socket la socket du client
+	 * @param name le nom du client
+	 * @param parentLogger logger parent pour l'affichage des messages
+	 */
+	public InputOutputClient(Socket socket, String name, Logger parentLogger)
+	{
+		this(socket,
+		     name,
+		     Protocol.SERIAL,
+		     AbstractChatServer.DEFAULTQUEUESIZE,
+		     AbstractChatServer.DEFAULTOVERFLOW,
+		     AbstractChatServer.DEFAULTFLUSHWINDOW,
+		     AbstractChatServer.DEFAULTFLUSHBYTES,
+		     new BatchStats(),
+		     parentLogger);
+	}
+
 	/**
 	 * Accesseur en lecture du flux de sortie d'un client
 	 * @return the out
 	 */
-	public ObjectOutputStream getOut()
+	public OutputStream getOut()
+	{
+		return outStream;
+	}
+
+	@Override
+	public Room getRoom()
+	{
+		return room;
+	}
+
+	@Override
+	public void setRoom(Room room)
+	{
+		this.room = room;
+	}
+
+	/**
+	 * Accesseur en lecture de l'écrivain du client (à exécuter dans son
+	 * propre thread)
+	 * @return l'écrivain du client
+	 */
+	public ClientWriter getWriter()
+	{
+		return writer;
+	}
+
+	/**
+	 * Envoi d'un message au client : le message est seulement déposé dans la
+	 * file d'attente du client (sans jamais bloquer), il sera écrit par le
+	 * {@link ClientWriter} du client. Si la file déborde avec la politique
+	 * {@link OverflowPolicy#DISCONNECT} le client est déconnecté.
+	 * @param message le message encodé à envoyer
+	 */
+	@Override
+	public void send(EncodedMessage message)
+	{
+		if (!outbound.offer(message) && outbound.isOverflowed())
+		{
+			logger.warning("Client[" + name
+				+ "]: outbound queue overflow, disconnecting client");
+			disconnect();
+		}
+	}
+
+	@Override
+	public int getPending()
+	{
+		return outbound.size();
+	}
+
+	/**
+	 * Ecriture de l'entête du flux selon le protocole du client (par le
+	 * {@link ClientWriter}, avant le premier message)
+	 * @throws IOException si l'écriture de l'entête échoue
+	 */
+	void writeHeader() throws IOException
+	{
+		outStream.write(EncodedMessage.header(protocol));
+		outStream.flush();
+	}
+
+	/**
+	 * Ecriture d'un message sur le flux de sortie (par le
+	 * {@link ClientWriter}). Les octets du message encodé sont partagés
+	 * avec les autres clients. La définition de l'auteur du message
+	 * précède le message si le client ne le connaît pas encore.
+	 * Le message n'est effectivement envoyé qu'au prochain {@link #flush()}
+	 * (ou lorsque le tampon de sortie est plein).
+	 * @param message le message encodé à écrire
+	 * @return le nombre d'octets écrits
+	 * @throws IOException si l'écriture du message échoue
+	 */
+	int write(EncodedMessage message) throws IOException
 	{
-		return outOS;
+		boolean withAuthor = knownAuthors.learn(message.getAuthor());
+		return message.writeTo(outStream, protocol, withAuthor);
 	}
 
 	/**
-	 * Nettoyage d'un client : fermeture du flux de sortie et super.cleanup()
+	 * Envoi effectif des messages écrits depuis le dernier flush (par le
+	 * {@link ClientWriter}, à la fin de chaque groupe de messages)
+	 * @throws IOException si l'écriture échoue
+	 */
+	void flush() throws IOException
+	{
+		outStream.flush();
+	}
+
+	/**
+	 * Déconnexion forcée du client : la fermeture de la socket débloque
+	 * le {@link ClientHandler} (et l'écrivain) du client qui se
+	 * termineront alors normalement
+	 */
+	void disconnect()
+	{
+		ready = false;
+		try
+		{
+			clientSocket.close();
+		}
+		catch (IOException e)
+		{
+			logger.severe("Client: unable to close client socket");
+			logger.severe(e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Nettoyage d'un client : fermeture de la file d'attente, attente
+	 * (bornée) de l'écriture des derniers messages, fermeture du flux de
+	 * sortie et super.cleanup()
 	 */
 	@Override
 	public void cleanup()
 	{
+		outbound.close();
+		if (!writer.awaitTermination(AbstractChatServer.DEFAULTTIMEOUT))
+		{
+			logger.warning("Client::cleanup: pending messages not written");
+		}
 		logger.info("Client::cleanup: closing output stream ... ");
 		try
 		{
-			outOS.close();
+			outStream.close();
 		}
 		catch (IOException e)
 		{
@@ -0,0 +1,53 @@
+package chat.server;
+
+import java.util.Arrays;
+
+/**
+ * Auteurs dont la définition a déjà été envoyée à un client (protocole
+ * {@link chat.Protocol#BINARY}), indexés par leur identifiant. Les
+ * identifiants de la table des auteurs ({@link AuthorTable}) étant
+ * réutilisés, c'est l'auteur lui même qui est mémorisé : la définition est
+ * renvoyée lorsqu'un identifiant désigne un autre auteur que celui connu du
+ * client. Utilisé uniquement par le thread qui écrit vers le client.
+ * @author davidroussel
+ */
+final class KnownAuthors
+{
+	/**
+	 * Les auteurs connus du client indexés par leur identifiant
+	 */
+	private AuthorTable.Author[] authors;
+
+	/**
+	 * Constructeur d'un ensemble d'auteurs connus vide
+	 */
+	public KnownAuthors()
+	{
+		authors = new AuthorTable.Author[16];
+	}
+
+	/**
+	 * Prise en compte de l'auteur d'un message envoyé au client
+	 * @param author l'auteur du message (ou null)
+	 * @return true si la définition de l'auteur doit précéder le message
+	 * (le client ne connaît pas encore cet auteur sous cet identifiant)
+	 */
+	public boolean learn(AuthorTable.Author author)
+	{
+		if (author == null)
+		{
+			return false;
+		}
+		int id = author.id;
+		if (id >= authors.length)
+		{
+			authors = Arrays.copyOf(authors, Math.max(id + 1, 2 * authors.length));
+		}
+		if (authors[id] == author)
+		{
+			return false;
+		}
+		authors[id] = author;
+		return true;
+	}
+}
@@ -0,0 +1,534 @@
+package chat.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import chat.Failure;
+import chat.Protocol;
+import chat.Vocabulary;
+
+/**
+ * Serveur de chat non bloquant. Au lieu de lancer un thread par client comme
+ * le {@link ChatServer}, les connexions des clients sont réparties sur un
+ * petit nombre fixe de boucles d'entrées/sorties ({@link IOLoop}) reposant
+ * chacune sur un {@link Selector}. Chaque boucle se charge de la lecture des
+ * lignes de ses clients, de la réception de leur nom et de l'écriture des
+ * messages diffusés vers ses clients.
+ * Le comportement vis à vis des clients (protocole) est strictement le même
+ * que celui du {@link ChatServer}.
+ *
+ * @author davidroussel
+ */
+public class NioChatServer extends AbstractChatServer
+{
+	/**
+	 * Le canal serveur
+	 */
+	private ServerSocketChannel serverChannel;
+
+	/**
+	 * Le sélecteur utilisé pour attendre les connexions des clients
+	 */
+	private Selector acceptSelector;
+
+	/**
+	 * Temps d'attente (en ms) d'une connexion d'un client
+	 */
+	private final int timeout;
+
+	/**
+	 * Les boucles d'entrées/sorties
+	 */
+	private final IOLoop[] loops;
+
+	/**
+	 * Nombre de clients acceptés (ayant fourni un nom valide) et encore
+	 * connectés
+	 */
+	private final AtomicInteger nbClients;
+
+	/**
+	 * Nombre de boucles d'entrées/sorties par défaut
+	 */
+	public final static int DEFAULTIOTHREADS =
+		Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+	/**
+	 * Constructeur valué d'un serveur de chat non bloquant. Celui ci
+	 * initialise le {@link ServerSocketChannel}.
+	 *
+	 * @param port le port sur lequel on écoute les requètes
+	 * @param timeout temps d'attente de connection d'un client
+	 * @param quitOnLastClient quitte le serveur lorsque le dernier client
+	 * se délogue
+	 * @param ioThreads nombre de boucles d'entrées/sorties
+	 * @param parentLogger logger parent pour l'affichage des messages de
+	 * debug
+	 * @throws IOException Si une erreur intervient lors de la création du
+	 *             {@link ServerSocketChannel}
+	 */
+	public NioChatServer(int port,
+	                     int timeout,
+	                     boolean quitOnLastClient,
+	                     int ioThreads,
+	                     Logger parentLogger)
+	    throws IOException
+	{
+		super(quitOnLastClient, parentLogger);
+
+		logger.info("NioChatServer::NioChatServer(port = " + port
+		    + ", timeout = " + timeout + ", quit = "
+		    + (quitOnLastClient ? "true" : "false") + ", io threads = "
+		    + ioThreads + ")");
+
+		this.timeout = timeout;
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		acceptSelector = Selector.open();
+		serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+
+		loops = new IOLoop[Math.max(1, ioThreads)];
+		for (int i = 0; i < loops.length; i++)
+		{
+			loops[i] = new IOLoop(i);
+		}
+		nbClients = new AtomicInteger(0);
+	}
+
+	/**
+	 * Exécution du serveur de chat : les boucles d'entrées/sorties sont
+	 * lancées, puis on attend les connexions des clients que l'on répartit
+	 * à tour de rôle sur les différentes boucles.
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run()
+	{
+		setListening(true);
+
+		Thread[] loopThreads = new Thread[loops.length];
+		for (int i = 0; i < loops.length; i++)
+		{
+			loopThreads[i] = new Thread(loops[i], "NioChatServer-io-" + i);
+			loopThreads[i].start();
+		}
+
+		int nextLoop = 0;
+		while (isListening())
+		{
+			try
+			{
+				// on attends ici une connection d'un nouveau client
+				if (acceptSelector.select(timeout) == 0)
+				{
+					// on re-attends
+					logger.info("Socket timeout, rewaiting ...");
+					continue;
+				}
+
+				acceptSelector.selectedKeys().clear();
+				SocketChannel clientChannel;
+				while ((clientChannel = serverChannel.accept()) != null)
+				{
+					logger.fine("NioChatServer: client connection accepted");
+					clientChannel.configureBlocking(false);
+					loops[nextLoop].register(clientChannel);
+					nextLoop = (nextLoop + 1) % loops.length;
+				}
+			}
+			catch (IOException e)
+			{
+				logger.severe(Failure.SERVER_CONNECTION.toString()
+				    + ": " + e.getLocalizedMessage());
+				System.exit(Failure.SERVER_CONNECTION.toInteger());
+			}
+		} // while listening
+
+		// attente de la fin de toutes les boucles d'entrées/sorties
+		for (Thread t : loopThreads)
+		{
+			try
+			{
+				t.join();
+			}
+			catch (InterruptedException e)
+			{
+				logger.severe("NioChatServer::run: IO loops join interrupted");
+				logger.severe(e.getLocalizedMessage());
+			}
+		}
+
+		logger.info("NioChatServer::run: all io loops terminated");
+		logger.info("NioChatServer::run: " + batchStats);
+
+		stopReplay();
+		stopShards();
+
+		clients.clear();
+
+		// Fermeture du canal du serveur
+		logger.info("NioChatServer::run: Closing server channel ... ");
+		try
+		{
+			acceptSelector.close();
+			serverChannel.close();
+		}
+		catch (IOException e)
+		{
+			logger.severe("Close server channel Failed !");
+			logger.severe(e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Méthode invoquée à la déconnexion d'un client accepté pour
+	 * éventuellement arrêter le serveur lorsqu'il n'y a plus de clients
+	 */
+	protected void cleanup()
+	{
+		int remaining = nbClients.decrementAndGet();
+		if (remaining <= 0)
+		{
+			if (quitOnLastClient)
+			{
+				setListening(false);
+				logger.info("NioChatServer::run: no more clients.");
+			}
+		}
+		else
+		{
+			logger.info("NioChatServer::run: still " + remaining +
+					" clients remaining ...");
+		}
+	}
+
+	/**
+	 * Boucle d'entrées/sorties non bloquante traitant un sous ensemble des
+	 * clients
+	 */
+	private class IOLoop implements Runnable, ChannelClient.WriteListener
+	{
+		/**
+		 * Le sélecteur de cette boucle
+		 */
+		private final Selector selector;
+
+		/**
+		 * Canaux nouvellement acceptés à enregistrer dans le
+		 * {@link #selector}
+		 */
+		private final Queue<SocketChannel> registrations;
+
+		/**
+		 * Clients ayant des données en attente d'écriture
+		 */
+		private final Queue<ChannelClient> writeRequests;
+
+		/**
+		 * Numéro de la boucle
+		 */
+		private final int index;
+
+		/**
+		 * Constructeur d'une boucle d'entrées/sorties
+		 * @param index numéro de la boucle
+		 * @throws IOException si le sélecteur ne peut pas être créé
+		 */
+		public IOLoop(int index) throws IOException
+		{
+			this.index = index;
+			selector = Selector.open();
+			registrations = new ConcurrentLinkedQueue<SocketChannel>();
+			writeRequests = new ConcurrentLinkedQueue<ChannelClient>();
+		}
+
+		/**
+		 * Prise en charge d'un nouveau canal par cette boucle (appelé depuis
+		 * le thread d'acceptation)
+		 * @param channel le canal à prendre en charge
+		 */
+		public void register(SocketChannel channel)
+		{
+			registrations.add(channel);
+			selector.wakeup();
+		}
+
+		/**
+		 * Demande d'écriture des données en attente d'un client (peut être
+		 * appelé depuis n'importe quel thread)
+		 * @param client le client ayant des données en attente
+		 */
+		@Override
+		public void writeRequested(ChannelClient client)
+		{
+			writeRequests.add(client);
+			selector.wakeup();
+		}
+
+		/**
+		 * Exécution de la boucle tant que le serveur écoute ou qu'il reste
+		 * des clients à traiter
+		 */
+		@Override
+		public void run()
+		{
+			while (isListening() || !selector.keys().isEmpty())
+			{
+				try
+				{
+					selector.select(timeout);
+				}
+				catch (IOException e)
+				{
+					logger.severe("IOLoop[" + index + "]: select failed "
+						+ e.getLocalizedMessage());
+					break;
+				}
+
+				// enregistrement des nouveaux clients
+				SocketChannel channel;
+				while ((channel = registrations.poll()) != null)
+				{
+					ChannelClient client = new ChannelClient(channel,
+					                                         this,
+					                                         protocol,
+					                                         queueSize,
+					                                         overflowPolicy,
+					                                         flushBytes,
+					                                         batchStats,
+					                                         logger);
+					try
+					{
+						channel.register(selector, SelectionKey.OP_READ, client);
+					}
+					catch (ClosedChannelException e)
+					{
+						logger.warning("IOLoop[" + index + "]: client closed");
+					}
+				}
+
+				// écriture des données en attente
+				ChannelClient pendingClient;
+				while ((pendingClient = writeRequests.poll()) != null)
+				{
+					SelectionKey key = pendingClient.getChannel().keyFor(selector);
+					if ((key != null) && key.isValid())
+					{
+						write(key, pendingClient);
+					}
+				}
+
+				// lectures et écritures
+				for (Iterator<SelectionKey> it =
+					selector.selectedKeys().iterator(); it.hasNext();)
+				{
+					SelectionKey key = it.next();
+					it.remove();
+					ChannelClient client = (ChannelClient) key.attachment();
+					if (key.isValid() && key.isWritable())
+					{
+						write(key, client);
+					}
+					if (key.isValid() && key.isReadable())
+					{
+						read(key, client);
+					}
+				}
+			}
+
+			try
+			{
+				selector.close();
+			}
+			catch (IOException e)
+			{
+				logger.warning("IOLoop[" + index + "]: close failed");
+			}
+		}
+
+		/**
+		 * Ecriture des données en attente d'un client
+		 * @param key la clé de sélection du client
+		 * @param client le client
+		 */
+		private void write(SelectionKey key, ChannelClient client)
+		{
+			if (client.isOverflowed())
+			{
+				close(key, client);
+				return;
+			}
+			try
+			{
+				if (client.writePending())
+				{
+					key.interestOps(SelectionKey.OP_READ);
+					if (client.isClosing())
+					{
+						close(key, client);
+					}
+				}
+				else
+				{
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				}
+			}
+			catch (IOException e)
+			{
+				logger.severe("IOLoop[" + client.getName()
+					+ "]: write failed, Closing client");
+				close(key, client);
+			}
+		}
+
+		/**
+		 * Lecture des lignes disponibles d'un client et traitement de ces
+		 * lignes : réception du nom du client, puis messages ordinaires ou
+		 * commandes de contrôle
+		 * @param key la clé de sélection du client
+		 * @param client le client
+		 */
+		private void read(SelectionKey key, ChannelClient client)
+		{
+			Queue<String> lines;
+			try
+			{
+				lines = client.readLines();
+			}
+			catch (IOException e)
+			{
+				lines = null;
+			}
+
+			if (lines == null)
+			{
+				logger.severe("IOLoop[" + client.getName()
+					+ "]: received failed, Closing client");
+				close(key, client);
+				return;
+			}
+
+			String clientInput;
+			while (!client.isClosing() && ((clientInput = lines.poll()) != null))
+			{
+				if (client.getName() == null)
+				{
+					handshake(client, clientInput);
+					continue;
+				}
+
+				// la boucle ne doit jamais attendre : les lignes excédentaires
+				// sont refusées
+				if (!admit(client, client.getRateLimiter(), clientInput))
+				{
+					continue;
+				}
+
+				Outcome outcome = processInput(client, clientInput);
+
+				/*
+				 * Diffusion du message aux clients du salon.
+				 */
+				if ((outcome.message != null) || (outcome.departure != null))
+				{
+					try
+					{
+						deliver(outcome);
+					}
+					catch (IOException e)
+					{
+						logger.severe("IOLoop[" + client.getName()
+							+ "]: write failed, Closing client");
+						outcome.loggedOut = true;
+					}
+				}
+
+				if (outcome.loggedOut || outcome.killed)
+				{
+					removeClient(client);
+					client.setClosing();
+					if (!client.hasPending())
+					{
+						close(key, client);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Réception du nom d'un client : si aucun autre client ne porte ce
+		 * nom, le client est ajouté à l'ensemble des clients (de manière
+		 * atomique vis à vis des autres boucles), sinon on notifie au client
+		 * qu'il est refusé.
+		 * @param client le client
+		 * @param clientName le nom reçu
+		 */
+		private void handshake(ChannelClient client, String clientName)
+		{
+			logger.info("NioChatServer: client name " + clientName
+				+ " using protocol " + client.getProtocol());
+			client.setName(clientName);
+			if (!Protocol.isValidName(clientName))
+			{
+				// un nom commençant comme une demande de protocole est refusé
+				client.sendText("server > Sorry user names can not start with \""
+					+ Vocabulary.protocolCmd + " \"");
+				client.sendText("Hit ^D to close your client and try another name");
+				client.setClosing();
+				return;
+			}
+			// le client doit être prêt (entête en tête de ses envois) avant
+			// d'être publié : un message diffusé par une autre boucle dès
+			// addClient ne doit pas être perdu ni précéder l'entête
+			client.setRateLimiter(newRateLimiter(0));
+			client.accept();
+			if (addClient(client))
+			{
+				nbClients.incrementAndGet();
+				replayHistory(client);
+			}
+			else // un client avec ce nom existe déjà
+			{
+				// on notifie au client qu'il est refusé (sans entête)
+				client.refuse();
+				client.sendText("server > Sorry another client already use the name "
+					+ clientName);
+				client.sendText("Hit ^D to close your client and try another name");
+				client.setClosing();
+			}
+		}
+
+		/**
+		 * Fermeture d'un client
+		 * @param key la clé de sélection du client
+		 * @param client le client à fermer
+		 */
+		private void close(SelectionKey key, ChannelClient client)
+		{
+			if (!key.isValid())
+			{
+				return;
+			}
+			key.cancel();
+			client.cleanup();
+			// seuls les clients acceptés sont comptabilisés
+			if (client.isAccepted())
+			{
+				removeClient(client);
+				cleanup();
+			}
+		}
+	}
+}
@@ -0,0 +1,337 @@
+package chat.server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import models.Message;
+
+/**
+ * File d'attente bornée des messages à envoyer à un client.
+ * Les threads diffusant des messages ne font que déposer les messages
+ * encodés dans cette file ({@link #offer(EncodedMessage)}, jamais bloquant)
+ * et c'est l'écrivain propre au client ({@link ClientWriter} ou bien la
+ * boucle d'entrées/sorties du {@link NioChatServer}) qui la vide sur la
+ * connexion du client. Un client lent ou bloqué ne ralentit donc que
+ * lui-même.
+ * Lorsque la file est pleine la {@link OverflowPolicy} de la file est
+ * appliquée.
+ * @author davidroussel
+ */
+class OutboundQueue
+{
+	/**
+	 * Nombre maximum de messages en attente
+	 */
+	private final int capacity;
+
+	/**
+	 * Politique appliquée lorsque la file est pleine
+	 */
+	private final OverflowPolicy policy;
+
+	/**
+	 * Les messages en attente
+	 */
+	private final ArrayDeque<EncodedMessage> messages;
+
+	/**
+	 * Verrou protégeant l'accès aux {@link #messages}
+	 */
+	private final ReentrantLock lock;
+
+	/**
+	 * Condition signalée lorsqu'un message est déposé ou que la file est
+	 * fermée
+	 */
+	private final Condition notEmpty;
+
+	/**
+	 * La file n'accepte plus de messages
+	 */
+	private boolean closed;
+
+	/**
+	 * La file a débordé avec la politique {@link OverflowPolicy#DISCONNECT}
+	 */
+	private boolean overflowed;
+
+	/**
+	 * Nombre de messages abandonnés ou sautés depuis la création de la file
+	 */
+	private long dropped;
+
+	/**
+	 * Le dernier avis de messages sautés déposé dans la file (ou bien null)
+	 */
+	private EncodedMessage notice;
+
+	/**
+	 * Le nombre de messages sautés indiqué par le dernier {@link #notice}
+	 */
+	private int noticeCount;
+
+	/**
+	 * Constructeur d'une file d'attente bornée
+	 * @param capacity nombre maximum de messages en attente
+	 * @param policy politique appliquée lorsque la file est pleine
+	 */
+	public OutboundQueue(int capacity, OverflowPolicy policy)
+	{
+		this.capacity = Math.max(1, capacity);
+		this.policy = policy;
+		messages = new ArrayDeque<EncodedMessage>(Math.min(this.capacity, 64));
+		lock = new ReentrantLock();
+		notEmpty = lock.newCondition();
+		closed = false;
+		overflowed = false;
+		dropped = 0;
+		notice = null;
+		noticeCount = 0;
+	}
+
+	/**
+	 * Dépôt d'un message dans la file (jamais bloquant).
+	 * @param message le message encodé à déposer
+	 * @return true si le message a été déposé, false si la file est fermée
+	 * ou vient d'être fermée par débordement ({@link #isOverflowed()})
+	 */
+	public boolean offer(EncodedMessage message)
+	{
+		lock.lock();
+		try
+		{
+			if (closed)
+			{
+				return false;
+			}
+
+			if (messages.size() >= capacity)
+			{
+				switch (policy)
+				{
+					case DISCONNECT:
+						dropped += messages.size();
+						messages.clear();
+						overflowed = true;
+						closed = true;
+						notEmpty.signalAll();
+						return false;
+					case COALESCE:
+						int skipped = messages.size();
+						dropped += skipped;
+						// un précédent avis encore en attente est fusionné
+						if ((notice != null) && (messages.peek() == notice))
+						{
+							skipped += noticeCount - 1;
+							dropped--;
+						}
+						messages.clear();
+						notice = coalesceNotice(skipped);
+						noticeCount = skipped;
+						messages.add(notice);
+						break;
+					case DROP_OLDEST:
+					default:
+						messages.poll();
+						dropped++;
+						break;
+				}
+			}
+
+			messages.add(message);
+			notEmpty.signal();
+			return true;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Création de l'avis remplaçant les messages sautés
+	 * @param skipped le nombre de messages sautés
+	 * @return l'avis encodé
+	 */
+	private static EncodedMessage coalesceNotice(int skipped)
+	{
+		return EncodedMessage.encode(new Message(skipped
+			+ " messages skipped [client too slow]"), null);
+	}
+
+	/**
+	 * Retrait du plus ancien message de la file, en attendant qu'un message
+	 * soit disponible. Lorsque la file est fermée les messages restants sont
+	 * encore fournis avant de renvoyer null.
+	 * @return le plus ancien message ou bien null si la file est fermée et
+	 * vide
+	 * @throws InterruptedException si l'attente est interrompue
+	 */
+	public EncodedMessage take() throws InterruptedException
+	{
+		lock.lock();
+		try
+		{
+			while (messages.isEmpty() && !closed)
+			{
+				notEmpty.await();
+			}
+			return messages.poll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Retrait du plus ancien message de la file sans attente
+	 * @return le plus ancien message ou bien null si la file est vide
+	 */
+	public EncodedMessage poll()
+	{
+		lock.lock();
+		try
+		{
+			return messages.poll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Retrait du plus ancien message de la file, en attendant au plus le
+	 * temps indiqué qu'un message soit disponible
+	 * @param timeout le temps d'attente maximum
+	 * @param unit l'unité du temps d'attente
+	 * @return le plus ancien message ou bien null si aucun message n'est
+	 * arrivé à temps ou que la file est fermée et vide
+	 * @throws InterruptedException si l'attente est interrompue
+	 */
+	public EncodedMessage poll(long timeout, TimeUnit unit)
+	    throws InterruptedException
+	{
+		long nanos = unit.toNanos(timeout);
+		lock.lock();
+		try
+		{
+			while (messages.isEmpty() && !closed && (nanos > 0))
+			{
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			return messages.poll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Nombre de messages en attente
+	 * @return le nombre de messages en attente
+	 */
+	public int size()
+	{
+		lock.lock();
+		try
+		{
+			return messages.size();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Indique si la file est vide
+	 * @return true si aucun message n'est en attente
+	 */
+	public boolean isEmpty()
+	{
+		lock.lock();
+		try
+		{
+			return messages.isEmpty();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Fermeture de la file : plus aucun message n'est accepté, les messages
+	 * déjà en attente peuvent encore être retirés
+	 */
+	public void close()
+	{
+		lock.lock();
+		try
+		{
+			closed = true;
+			notEmpty.signalAll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Indique si la file est fermée
+	 * @return true si la file n'accepte plus de messages
+	 */
+	public boolean isClosed()
+	{
+		lock.lock();
+		try
+		{
+			return closed;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Indique si la file a été fermée suite à un débordement avec la
+	 * politique {@link OverflowPolicy#DISCONNECT}
+	 * @return true si le client doit être déconnecté
+	 */
+	public boolean isOverflowed()
+	{
+		lock.lock();
+		try
+		{
+			return overflowed;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Nombre de messages abandonnés ou sautés depuis la création de la file
+	 * @return le nombre de messages abandonnés
+	 */
+	public long getDropped()
+	{
+		lock.lock();
+		try
+		{
+			return dropped;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+}
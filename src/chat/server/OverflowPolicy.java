@@ -0,0 +1,60 @@
+package chat.server;
+
+/**
+ * Politiques appliquées lorsque la file d'attente des messages sortants
+ * ({@link OutboundQueue}) d'un client est pleine, c'est à dire lorsque ce
+ * client ne lit pas les messages aussi vite qu'ils lui sont diffusés.
+ */
+public enum OverflowPolicy
+{
+	/**
+	 * Le plus ancien message en attente est abandonné au profit du nouveau
+	 */
+	DROP_OLDEST,
+	/**
+	 * Le client est déconnecté
+	 */
+	DISCONNECT,
+	/**
+	 * Les messages en attente sont remplacés par un unique avis indiquant
+	 * combien de messages ont été sautés, suivi du nouveau message
+	 */
+	COALESCE;
+
+	/**
+	 * Affichage sous forme de texte des politiques
+	 */
+	@Override
+	public String toString()
+	{
+		switch (this)
+		{
+			case DROP_OLDEST:
+				return new String("drop");
+			case DISCONNECT:
+				return new String("disconnect");
+			case COALESCE:
+				return new String("coalesce");
+		}
+		throw new AssertionError("OverflowPolicy: unknown policy: " + this);
+	}
+
+	/**
+	 * Obtention d'une politique d'après son nom
+	 * @param name le nom de la politique (tel que fourni par
+	 * {@link #toString()})
+	 * @return la politique correspondante ou bien null si aucune politique
+	 * ne correspond à ce nom
+	 */
+	public static OverflowPolicy fromString(String name)
+	{
+		for (OverflowPolicy policy : values())
+		{
+			if (policy.toString().equalsIgnoreCase(name))
+			{
+				return policy;
+			}
+		}
+		return null;
+	}
+}
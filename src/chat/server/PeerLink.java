@@ -0,0 +1,489 @@
+package chat.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import chat.BinaryCodec;
+import logger.LoggerFactory;
+import models.Message;
+
+/**
+ * Liaison entre deux serveurs de chat d'une {@link Federation} : chaque
+ * liaison relie le serveur local à un autre noeud au travers d'une socket
+ * sur laquelle circulent des trames
+ * <ul>
+ * <li>{@link #HELLO} : nom du noeud (échangé à l'établissement de la
+ * liaison)</li>
+ * <li>{@link #JOIN} / {@link #QUIT} : arrivée / départ d'un client du
+ * noeud</li>
+ * <li>{@link #MESSAGE} : message diffusé dans un salon du noeud</li>
+ * <li>{@link #PRIVATE} : message privé à un client du noeud destinataire</li>
+ * <li>{@link #KICK} : bannissement d'un client du noeud destinataire</li>
+ * </ul>
+ * Les trames à envoyer sont encodées par le thread qui les produit puis
+ * déposées dans une file d'attente vidée par le thread d'écriture de la
+ * liaison : les diffusions ne sont jamais bloquées par un noeud lent.
+ * Seules les trames de messages ({@link #MESSAGE} et {@link #PRIVATE})
+ * peuvent être abandonnées lorsqu'un noeud lent en laisse trop s'accumuler
+ * ({@link #QUEUESIZE}) : les trames de contrôle ({@link #JOIN},
+ * {@link #QUIT} et {@link #KICK}) sont toujours transmises, dans l'ordre,
+ * afin que les rosters des noeuds ne divergent jamais. Si un noeud en laisse
+ * s'accumuler un trop grand nombre ({@link #MAXCONTROL}), la liaison est
+ * fermée : sa reconnexion resynchronise alors les rosters.
+ * Les trames reçues sont lues par le thread qui a établi la liaison
+ * ({@link #run()}) et transmises à la {@link Federation}.
+ * @author davidroussel
+ */
+class PeerLink implements Runnable
+{
+	/**
+	 * Trame de présentation : nom du noeud
+	 */
+	public final static byte HELLO = 1;
+
+	/**
+	 * Trame d'arrivée d'un client : nom du client
+	 */
+	public final static byte JOIN = 2;
+
+	/**
+	 * Trame de départ d'un client : nom du client
+	 */
+	public final static byte QUIT = 3;
+
+	/**
+	 * Trame de message : salon, date, auteur (éventuellement absent) et
+	 * contenu
+	 */
+	public final static byte MESSAGE = 4;
+
+	/**
+	 * Trame de message privé : destinataire, date, auteur et contenu
+	 */
+	public final static byte PRIVATE = 5;
+
+	/**
+	 * Trame de bannissement : nom du client à bannir
+	 */
+	public final static byte KICK = 6;
+
+	/**
+	 * Nombre maximum de trames de messages en attente d'envoi vers le noeud
+	 */
+	public final static int QUEUESIZE = 65536;
+
+	/**
+	 * Nombre maximum de trames de contrôle en attente d'envoi vers le noeud
+	 * avant la fermeture de la liaison
+	 */
+	public final static int MAXCONTROL = 1024 * 1024;
+
+	/**
+	 * La fédération à laquelle appartient la liaison
+	 */
+	private final Federation federation;
+
+	/**
+	 * La socket de la liaison
+	 */
+	private final Socket socket;
+
+	/**
+	 * Le flux de lecture des trames
+	 */
+	private final DataInputStream in;
+
+	/**
+	 * Le flux d'écriture des trames
+	 */
+	private final DataOutputStream out;
+
+	/**
+	 * Les trames en attente d'envoi (dans l'ordre de leur dépôt)
+	 */
+	private final LinkedBlockingQueue<byte[]> outbound;
+
+	/**
+	 * Nombre de trames de messages en attente d'envoi
+	 */
+	private final AtomicInteger pendingMessages;
+
+	/**
+	 * Le nom du noeud distant (connu après l'échange des {@link #HELLO})
+	 */
+	private volatile String node;
+
+	/**
+	 * Le thread d'écriture des trames
+	 */
+	private Thread writer;
+
+	/**
+	 * Etat de fermeture de la liaison
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Le logger
+	 */
+	private final Logger logger;
+
+	/**
+	 * Constructeur d'une liaison sur une socket déjà connectée
+	 * @param federation la fédération à laquelle appartient la liaison
+	 * @param socket la socket connectée au noeud distant
+	 * @param parentLogger logger parent
+	 * @throws IOException si les flux de la socket ne peuvent être obtenus
+	 */
+	public PeerLink(Federation federation, Socket socket, Logger parentLogger)
+		throws IOException
+	{
+		this.federation = federation;
+		this.socket = socket;
+		logger = LoggerFactory.getParentLogger(getClass(),
+		                                       parentLogger,
+		                                       parentLogger.getLevel());
+		socket.setTcpNoDelay(true);
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		outbound = new LinkedBlockingQueue<byte[]>();
+		pendingMessages = new AtomicInteger(0);
+		node = null;
+		writer = null;
+		closed = false;
+	}
+
+	/**
+	 * Accesseur en lecture du nom du noeud distant
+	 * @return le nom du noeud distant (ou bien null avant la présentation)
+	 */
+	public String getNode()
+	{
+		return node;
+	}
+
+	/**
+	 * Etablissement de la liaison : envoi de la présentation du noeud local
+	 * puis lecture de la présentation du noeud distant (les deux côtés de
+	 * la liaison se présentent simultanément)
+	 * @param localNode le nom du noeud local
+	 * @throws IOException si l'échange des présentations échoue
+	 */
+	public void handshake(String localNode) throws IOException
+	{
+		out.write(frame(HELLO, localNode));
+		out.flush();
+		byte type = in.readByte();
+		if (type != HELLO)
+		{
+			throw new IOException("PeerLink: unexpected frame " + type
+				+ " instead of hello");
+		}
+		node = readString(in);
+		if (node == null)
+		{
+			throw new IOException("PeerLink: no node name");
+		}
+	}
+
+	/**
+	 * Lancement du thread d'écriture des trames (après l'établissement de
+	 * la liaison)
+	 */
+	public void start()
+	{
+		writer = new Thread(() -> write(), "PeerWriter[" + node + "]");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Dépôt d'une trame dans la file d'attente de la liaison (sans jamais
+	 * bloquer). Une trame de message est abandonnée si
+	 * {@link #QUEUESIZE} trames de messages sont déjà en attente. Une trame
+	 * de contrôle n'est jamais abandonnée, mais la liaison est fermée si
+	 * {@link #MAXCONTROL} trames sont déjà en attente.
+	 * @param frame la trame encodée
+	 */
+	public void send(byte[] frame)
+	{
+		if (closed)
+		{
+			return;
+		}
+		if (isMessage(frame))
+		{
+			if (pendingMessages.incrementAndGet() > QUEUESIZE)
+			{
+				pendingMessages.decrementAndGet();
+				logger.warning("PeerLink[" + node + "]: queue full, message dropped");
+				return;
+			}
+		}
+		else if ((outbound.size() - pendingMessages.get()) >= MAXCONTROL)
+		{
+			logger.severe("PeerLink[" + node + "]: too many pending control "
+				+ "frames, closing link");
+			close();
+			return;
+		}
+		outbound.add(frame);
+	}
+
+	/**
+	 * Indique si une trame est une trame de message (qui peut être
+	 * abandonnée) plutôt qu'une trame de contrôle
+	 * @param frame la trame encodée
+	 * @return true si la trame est une trame {@link #MESSAGE} ou
+	 * {@link #PRIVATE}
+	 */
+	private static boolean isMessage(byte[] frame)
+	{
+		return (frame[0] == MESSAGE) || (frame[0] == PRIVATE);
+	}
+
+	/**
+	 * Boucle d'écriture des trames en attente : les trames déjà en attente
+	 * sont écrites ensemble avant de vider le tampon
+	 */
+	private void write()
+	{
+		try
+		{
+			while (!closed)
+			{
+				byte[] frame = outbound.take();
+				do
+				{
+					if (isMessage(frame))
+					{
+						pendingMessages.decrementAndGet();
+					}
+					out.write(frame);
+				}
+				while ((frame = outbound.poll()) != null);
+				out.flush();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			// fermeture de la liaison
+		}
+		catch (IOException e)
+		{
+			if (!closed)
+			{
+				logger.warning("PeerLink[" + node + "]: write failed: "
+					+ e.getLocalizedMessage());
+			}
+			close();
+		}
+	}
+
+	/**
+	 * Boucle de lecture des trames en provenance du noeud distant jusqu'à la
+	 * fermeture de la liaison
+	 */
+	@Override
+	public void run()
+	{
+		try
+		{
+			while (!closed)
+			{
+				byte type = in.readByte();
+				switch (type)
+				{
+					case JOIN:
+						federation.remoteJoined(this, readString(in));
+						break;
+					case QUIT:
+						federation.remoteLeft(this, readString(in));
+						break;
+					case MESSAGE:
+					{
+						String room = readString(in);
+						federation.remoteMessage(room, readMessage(in));
+						break;
+					}
+					case PRIVATE:
+					{
+						String recipient = readString(in);
+						federation.remotePrivate(recipient, readMessage(in));
+						break;
+					}
+					case KICK:
+						federation.remoteKick(readString(in));
+						break;
+					default:
+						throw new IOException("PeerLink: unknown frame " + type);
+				}
+			}
+		}
+		catch (EOFException e)
+		{
+			logger.info("PeerLink[" + node + "]: closed by peer");
+		}
+		catch (IOException e)
+		{
+			if (!closed)
+			{
+				logger.warning("PeerLink[" + node + "]: read failed: "
+					+ e.getLocalizedMessage());
+			}
+		}
+		close();
+	}
+
+	/**
+	 * Fermeture de la liaison : arrêt du thread d'écriture et fermeture de
+	 * la socket
+	 */
+	public void close()
+	{
+		if (closed)
+		{
+			return;
+		}
+		closed = true;
+		if (writer != null)
+		{
+			writer.interrupt();
+		}
+		try
+		{
+			socket.close();
+		}
+		catch (IOException e)
+		{
+			logger.warning("PeerLink[" + node + "]: unable to close socket");
+		}
+	}
+
+	/**
+	 * Encodage d'une trame contenant un nom ({@link #HELLO}, {@link #JOIN},
+	 * {@link #QUIT} ou {@link #KICK})
+	 * @param type le type de la trame
+	 * @param name le nom
+	 * @return la trame encodée
+	 */
+	public static byte[] frame(byte type, String name)
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(bytes);
+		try
+		{
+			data.writeByte(type);
+			writeString(data, name);
+		}
+		catch (IOException e)
+		{
+			throw new AssertionError("PeerLink: in-memory write failed", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Encodage d'une trame contenant un message ({@link #MESSAGE} ou
+	 * {@link #PRIVATE})
+	 * @param type le type de la trame
+	 * @param target le salon ou bien le destinataire du message
+	 * @param message le message
+	 * @return la trame encodée
+	 */
+	public static byte[] frame(byte type, String target, Message message)
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(bytes);
+		try
+		{
+			data.writeByte(type);
+			writeString(data, target);
+			data.writeLong(message.getTime());
+			writeString(data, message.getAuthor());
+			writeString(data, message.getContent());
+		}
+		catch (IOException e)
+		{
+			throw new AssertionError("PeerLink: in-memory write failed", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Lecture d'un message (date, auteur et contenu)
+	 * @param in le flux de lecture
+	 * @return le message lu
+	 * @throws IOException si la lecture échoue
+	 */
+	private static Message readMessage(DataInputStream in) throws IOException
+	{
+		long date = in.readLong();
+		String author = readString(in);
+		String content = readString(in);
+		return new Message(date, content, author);
+	}
+
+	/**
+	 * Ecriture d'une chaîne (éventuellement null) : longueur puis octets
+	 * UTF-8
+	 * @param out le flux d'écriture
+	 * @param text la chaîne à écrire
+	 * @throws IOException si l'écriture échoue
+	 */
+	private static void writeString(DataOutputStream out, String text)
+		throws IOException
+	{
+		if (text == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = text.getBytes(BinaryCodec.UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Lecture d'une chaîne (éventuellement null) écrite par
+	 * {@link #writeString(DataOutputStream, String)}
+	 * @param in le flux de lecture
+	 * @return la chaîne lue
+	 * @throws IOException si la lecture échoue ou si la chaîne est trop
+	 * longue
+	 */
+	private static String readString(DataInputStream in) throws IOException
+	{
+		int length = in.readInt();
+		if (length < 0)
+		{
+			return null;
+		}
+		if (length > BinaryCodec.MAXFRAMESIZE)
+		{
+			throw new IOException("PeerLink: string too long: " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, BinaryCodec.UTF8);
+	}
+
+	/**
+	 * Affichage de la liaison
+	 * @return une chaîne décrivant la liaison
+	 */
+	@Override
+	public String toString()
+	{
+		return "link to " + node + " " + socket.getRemoteSocketAddress();
+	}
+}
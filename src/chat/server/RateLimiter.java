@@ -0,0 +1,170 @@
+package chat.server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limitation du débit des lignes envoyées par un client : nombre de lignes
+ * et nombre de caractères par seconde ({@link TokenBucket} propres au
+ * client), ainsi que budget global du serveur (seau partagé par tous les
+ * clients) protégeant le temps CPU consacré aux diffusions.
+ * Une ligne n'est admise que si tous les seaux le permettent : elle est
+ * admise immédiatement, après une attente (au plus {@link #maxDelay}) ou
+ * bien refusée, auquel cas aucun jeton n'est consommé.
+ * Une ligne plus longue que la rafale du seau des caractères est admise dès
+ * que ce seau est plein : l'excédent est consommé à crédit et retarde (ou
+ * fait refuser) les lignes suivantes jusqu'à son remboursement.
+ * Chaque limiteur n'est utilisé que par le thread qui lit les lignes de
+ * son client et aucune vérification n'alloue de mémoire.
+ * @author davidroussel
+ */
+class RateLimiter
+{
+	/**
+	 * Attente maximum (en ms) d'une ligne lorsque le thread de lecture peut
+	 * être suspendu (serveur {@link ChatServer})
+	 */
+	public final static long MAXDELAY = 1000;
+
+	/**
+	 * Intervalle minimum (en ms) entre deux notifications de limitation à
+	 * un même client
+	 */
+	public final static long NOTICEINTERVAL = 1000;
+
+	/**
+	 * Durée (en s) de la rafale autorisée : chaque seau peut accumuler les
+	 * jetons d'une seconde
+	 */
+	public final static double BURST = 1.0;
+
+	/**
+	 * Seau du nombre de lignes par seconde du client (ou bien null)
+	 */
+	private final TokenBucket messages;
+
+	/**
+	 * Seau du nombre de caractères par seconde du client (ou bien null)
+	 */
+	private final TokenBucket bytes;
+
+	/**
+	 * Seau du nombre de lignes par seconde de l'ensemble du serveur (ou bien
+	 * null)
+	 */
+	private final TokenBucket global;
+
+	/**
+	 * Attente maximum (en ns) d'une ligne
+	 */
+	private final long maxDelay;
+
+	/**
+	 * Date (en ns) de la dernière notification de limitation
+	 */
+	private long lastNotice;
+
+	/**
+	 * Nombre de lignes refusées depuis la création du limiteur
+	 */
+	private long dropped;
+
+	/**
+	 * Constructeur d'un limiteur
+	 * @param messageRate nombre de lignes par seconde (0 pour ne pas
+	 * limiter)
+	 * @param byteRate nombre de caractères par seconde (0 pour ne pas
+	 * limiter)
+	 * @param global le seau global du serveur (ou bien null)
+	 * @param maxDelay l'attente maximum (en ms) d'une ligne (0 si le thread
+	 * de lecture ne doit jamais attendre : les lignes excédentaires sont
+	 * alors refusées)
+	 */
+	public RateLimiter(double messageRate,
+	                   double byteRate,
+	                   TokenBucket global,
+	                   long maxDelay)
+	{
+		messages = (messageRate > 0 ?
+			new TokenBucket(messageRate, Math.max(1.0, messageRate * BURST)) :
+			null);
+		bytes = (byteRate > 0 ?
+			new TokenBucket(byteRate, Math.max(1.0, byteRate * BURST)) :
+			null);
+		this.global = global;
+		this.maxDelay = TimeUnit.MILLISECONDS.toNanos(maxDelay);
+		lastNotice = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(NOTICEINTERVAL);
+		dropped = 0;
+	}
+
+	/**
+	 * Admission d'une ligne
+	 * @param length le nombre de caractères de la ligne
+	 * @return le temps d'attente (en ns) avant de traiter la ligne (0 pour
+	 * un traitement immédiat), ou bien -1 si la ligne est refusée
+	 */
+	public long acquire(int length)
+	{
+		long wait = 0;
+		if (messages != null)
+		{
+			wait = Math.max(wait, messages.delay(1));
+		}
+		if (bytes != null)
+		{
+			wait = Math.max(wait, bytes.delay(length));
+		}
+		if (wait > maxDelay)
+		{
+			dropped++;
+			return -1;
+		}
+		if (global != null)
+		{
+			long globalWait = global.reserve(1, maxDelay);
+			if (globalWait < 0)
+			{
+				dropped++;
+				return -1;
+			}
+			wait = Math.max(wait, globalWait);
+		}
+		/*
+		 * Les seaux du client ne sont utilisés que par ce thread : les
+		 * réservations réussissent nécessairement
+		 */
+		if (messages != null)
+		{
+			messages.reserve(1, Long.MAX_VALUE);
+		}
+		if (bytes != null)
+		{
+			bytes.reserve(length, Long.MAX_VALUE);
+		}
+		return wait;
+	}
+
+	/**
+	 * Indique si le client doit être notifié d'une limitation (au plus une
+	 * notification par {@link #NOTICEINTERVAL})
+	 * @return true si le client doit être notifié
+	 */
+	public boolean notice()
+	{
+		long now = System.nanoTime();
+		if ((now - lastNotice) < TimeUnit.MILLISECONDS.toNanos(NOTICEINTERVAL))
+		{
+			return false;
+		}
+		lastNotice = now;
+		return true;
+	}
+
+	/**
+	 * Nombre de lignes refusées depuis la création du limiteur
+	 * @return le nombre de lignes refusées
+	 */
+	public long getDropped()
+	{
+		return dropped;
+	}
+}
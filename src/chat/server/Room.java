@@ -0,0 +1,120 @@
+package chat.server;
+
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Salon de discussion du serveur : ensemble des clients qui reçoivent les
+ * messages envoyés dans ce salon. Chaque client connecté est membre d'un
+ * et d'un seul salon (le salon par défaut
+ * {@link AbstractChatServer#DEFAULTROOM} à la connexion) : la diffusion
+ * d'un message ne parcourt que les membres du salon de son émetteur et son
+ * coût dépend donc de la taille du salon et non du nombre total de clients
+ * connectés.
+ * Comme pour la liste des clients du serveur, chaque ajout ou retrait
+ * publie une nouvelle copie des membres : les diffusions parcourent un
+ * instantané des membres sans aucun verrou. Les ajouts et retraits sont
+ * effectués par le serveur de manière atomique vis à vis de la création et
+ * de la suppression (lorsqu'il devient vide) du salon.
+ * @author davidroussel
+ */
+public final class Room implements Iterable<ConnectedClient>
+{
+	/**
+	 * Le nom du salon
+	 */
+	private final String name;
+
+	/**
+	 * Les membres du salon
+	 */
+	private final CopyOnWriteArraySet<ConnectedClient> members;
+
+	/**
+	 * Constructeur d'un salon vide
+	 * @param name le nom du salon
+	 */
+	Room(String name)
+	{
+		this.name = name;
+		members = new CopyOnWriteArraySet<ConnectedClient>();
+	}
+
+	/**
+	 * Accesseur en lecture du nom du salon
+	 * @return le nom du salon
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Ajout d'un membre au salon
+	 * @param client le client à ajouter
+	 * @return true si le client n'était pas déjà membre du salon
+	 */
+	boolean add(ConnectedClient client)
+	{
+		return members.add(client);
+	}
+
+	/**
+	 * Retrait d'un membre du salon
+	 * @param client le client à retirer
+	 * @return true si le client était membre du salon
+	 */
+	boolean remove(ConnectedClient client)
+	{
+		return members.remove(client);
+	}
+
+	/**
+	 * Indique si un client est membre du salon
+	 * @param client le client à tester
+	 * @return true si le client est membre du salon
+	 */
+	public boolean contains(ConnectedClient client)
+	{
+		return members.contains(client);
+	}
+
+	/**
+	 * Indique si le salon est vide
+	 * @return true si le salon n'a aucun membre
+	 */
+	public boolean isEmpty()
+	{
+		return members.isEmpty();
+	}
+
+	/**
+	 * Nombre de membres du salon
+	 * @return le nombre de membres du salon
+	 */
+	public int size()
+	{
+		return members.size();
+	}
+
+	/**
+	 * Itérateur sur un instantané des membres du salon (sans verrou, ne
+	 * supporte pas le retrait)
+	 * @return un itérateur sur les membres du salon
+	 */
+	@Override
+	public Iterator<ConnectedClient> iterator()
+	{
+		return members.iterator();
+	}
+
+	/**
+	 * Affichage du salon
+	 * @return une chaîne décrivant le salon
+	 */
+	@Override
+	public String toString()
+	{
+		return "room " + name + " (" + members.size() + " members)";
+	}
+}
@@ -0,0 +1,57 @@
+package chat.server;
+
+/**
+ * Les différents modes d'exécution du serveur de chat
+ */
+public enum ServerMode
+{
+	/**
+	 * Un thread par client ({@link ChatServer})
+	 */
+	THREAD,
+	/**
+	 * Un thread virtuel par client ({@link ChatServer})
+	 */
+	VIRTUAL,
+	/**
+	 * Boucles d'évènements non bloquantes ({@link NioChatServer})
+	 */
+	NIO;
+
+	/**
+	 * Affichage sous forme de texte des modes d'exécution
+	 */
+	@Override
+	public String toString()
+	{
+		switch (this)
+		{
+			case THREAD:
+				return new String("thread");
+			case VIRTUAL:
+				return new String("virtual");
+			case NIO:
+				return new String("nio");
+		}
+		throw new AssertionError("ServerMode: unknown mode: " + this);
+	}
+
+	/**
+	 * Obtention d'un mode d'exécution d'après son nom
+	 * @param name le nom du mode d'exécution (tel que fourni par
+	 * {@link #toString()})
+	 * @return le mode d'exécution correspondant ou bien null si aucun mode
+	 * ne correspond à ce nom
+	 */
+	public static ServerMode fromString(String name)
+	{
+		for (ServerMode mode : values())
+		{
+			if (mode.toString().equalsIgnoreCase(name))
+			{
+				return mode;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,139 @@
+package chat.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Seau à jetons : les jetons s'accumulent à un débit constant jusqu'à une
+ * capacité maximum (la rafale autorisée) et chaque consommation en retire.
+ * Une consommation excédant les jetons disponibles peut être réservée à
+ * crédit (le solde devient négatif) : l'appelant doit alors attendre le
+ * temps nécessaire au remboursement avant de poursuivre, ce qui limite le
+ * débit moyen sans jamais le dépasser.
+ * L'état du seau n'est constitué que de types primitifs : aucune
+ * consommation n'alloue de mémoire. Le seau est thread safe, son verrou
+ * n'étant réellement disputé que pour le seau global du serveur.
+ * @author davidroussel
+ */
+class TokenBucket
+{
+	/**
+	 * Nombre de nanosecondes dans une seconde
+	 */
+	private final static double NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Débit de remplissage (en jetons par nanoseconde)
+	 */
+	private final double rate;
+
+	/**
+	 * Nombre maximum de jetons accumulés
+	 */
+	private final double capacity;
+
+	/**
+	 * Nombre de jetons disponibles (négatif lorsque des consommations ont
+	 * été réservées à crédit)
+	 */
+	private double tokens;
+
+	/**
+	 * Date (en ns) du dernier remplissage
+	 */
+	private long last;
+
+	/**
+	 * Verrou protégeant l'état du seau
+	 */
+	private final ReentrantLock lock;
+
+	/**
+	 * Constructeur d'un seau plein
+	 * @param rate le débit de remplissage (en jetons par seconde)
+	 * @param capacity le nombre maximum de jetons accumulés
+	 */
+	public TokenBucket(double rate, double capacity)
+	{
+		this.rate = rate / NANOS;
+		this.capacity = capacity;
+		tokens = capacity;
+		last = System.nanoTime();
+		lock = new ReentrantLock();
+	}
+
+	/**
+	 * Remplissage du seau d'après le temps écoulé depuis le dernier
+	 * remplissage (verrou tenu)
+	 * @param now la date courante (en ns)
+	 */
+	private void refill(long now)
+	{
+		tokens = Math.min(capacity, tokens + ((now - last) * rate));
+		last = now;
+	}
+
+	/**
+	 * Temps d'attente nécessaire avant de pouvoir consommer des jetons
+	 * (verrou tenu). Une consommation supérieure à la capacité du seau
+	 * n'exige qu'un seau plein : l'excédent est pris à crédit et remboursé
+	 * par les consommations suivantes, sans quoi elle ne serait jamais
+	 * possible.
+	 * @param count le nombre de jetons
+	 * @return le temps d'attente (en ns), 0 si les jetons sont disponibles
+	 */
+	private long waitFor(double count)
+	{
+		double needed = Math.min(count, capacity);
+		return (tokens >= needed ? 0 : (long) Math.ceil((needed - tokens) / rate));
+	}
+
+	/**
+	 * Temps d'attente nécessaire avant de pouvoir consommer des jetons (sans
+	 * les consommer)
+	 * @param count le nombre de jetons
+	 * @return le temps d'attente (en ns), 0 si les jetons sont disponibles
+	 */
+	public long delay(double count)
+	{
+		lock.lock();
+		try
+		{
+			refill(System.nanoTime());
+			return waitFor(count);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Consommation de jetons, éventuellement à crédit si l'attente
+	 * nécessaire ne dépasse pas maxDelay
+	 * @param count le nombre de jetons
+	 * @param maxDelay l'attente maximum acceptée (en ns)
+	 * @return le temps d'attente (en ns) avant de poursuivre (0 si les jetons
+	 * étaient disponibles), ou bien -1 si l'attente dépasserait maxDelay
+	 * (aucun jeton n'est alors consommé)
+	 */
+	public long reserve(double count, long maxDelay)
+	{
+		lock.lock();
+		try
+		{
+			refill(System.nanoTime());
+			long wait = waitFor(count);
+			if (wait > maxDelay)
+			{
+				return -1;
+			}
+			tokens -= count;
+			return wait;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,287 @@
+package examples;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import chat.server.AbstractChatServer;
+import chat.server.ChatServer;
+import chat.server.Federation;
+import logger.LoggerFactory;
+import models.Message;
+
+/**
+ * Test d'une fédération de trois serveurs de chat (a, b et c) lancés dans
+ * la même JVM et reliés en maillage complet sur l'interface locale :
+ * <ul>
+ * <li>un client connecté à un noeud est connu des deux autres</li>
+ * <li>un nom déjà utilisé sur un autre noeud est refusé</li>
+ * <li>un message est relayé aux clients des autres noeuds</li>
+ * <li>lorsque deux noeuds acceptent simultanément le même nom, un seul
+ * client est conservé et tous les noeuds font le même choix</li>
+ * <li>lorsqu'un noeud disparaît, ses clients sont oubliés par les autres
+ * noeuds et leurs noms redeviennent disponibles</li>
+ * </ul>
+ * Lancement : java examples.TestFederation
+ * @author davidroussel
+ */
+public class TestFederation
+{
+	/**
+	 * Délai maximum (en ms) d'attente d'une condition
+	 */
+	private final static long TIMEOUT = 5000;
+
+	/**
+	 * Nombre de vérifications ayant échoué
+	 */
+	private static int failures = 0;
+
+	/**
+	 * Obtention d'un port libre
+	 * @return un port libre
+	 * @throws IOException si aucun port n'est disponible
+	 */
+	private static int freePort() throws IOException
+	{
+		ServerSocket probe = new ServerSocket(0);
+		int port = probe.getLocalPort();
+		probe.close();
+		return port;
+	}
+
+	/**
+	 * Attente d'une condition pendant au plus {@link #TIMEOUT} ms
+	 * @param condition la condition attendue
+	 * @return true si la condition est vérifiée avant la fin du délai
+	 */
+	private static boolean await(BooleanSupplier condition)
+	{
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (!condition.getAsBoolean())
+		{
+			if (System.currentTimeMillis() > deadline)
+			{
+				return false;
+			}
+			try
+			{
+				Thread.sleep(20);
+			}
+			catch (InterruptedException e)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Vérification d'une condition
+	 * @param description la description de la vérification
+	 * @param result le résultat de la vérification
+	 */
+	private static void check(String description, boolean result)
+	{
+		System.out.println((result ? "ok     " : "FAILED ") + description);
+		if (!result)
+		{
+			failures++;
+		}
+	}
+
+	/**
+	 * Connexion d'un client (protocole historique) à un noeud
+	 * @param port le port du noeud
+	 * @param name le nom du client
+	 * @return la socket du client
+	 * @throws IOException si la connexion échoue
+	 */
+	private static Socket connect(int port, String name) throws IOException
+	{
+		Socket socket = new Socket("localhost", port);
+		socket.setSoTimeout((int) TIMEOUT);
+		new PrintWriter(socket.getOutputStream(), true).println(name);
+		return socket;
+	}
+
+	/**
+	 * Lecture de tout ce que le serveur envoie à un client jusqu'à la
+	 * fermeture de la connexion
+	 * @param socket la socket du client
+	 * @return le texte reçu
+	 */
+	private static String readAll(Socket socket)
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try
+		{
+			InputStream in = socket.getInputStream();
+			int b;
+			while ((b = in.read()) >= 0)
+			{
+				bytes.write(b);
+			}
+		}
+		catch (IOException e)
+		{
+			// fin du flux
+		}
+		return bytes.toString();
+	}
+
+	/**
+	 * Attente d'un message de contenu donné reçu par un client
+	 * @param in le flux objet du client
+	 * @param content le contenu attendu
+	 * @return true si le message a été reçu
+	 */
+	private static boolean receive(ObjectInputStream in, String content)
+	{
+		try
+		{
+			while (true)
+			{
+				Message message = (Message) in.readObject();
+				if (message.getContent().equals(content))
+				{
+					return true;
+				}
+			}
+		}
+		catch (SocketTimeoutException e)
+		{
+			return false;
+		}
+		catch (IOException | ClassNotFoundException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Programme principal
+	 * @param args non utilisés
+	 * @throws IOException si la création des serveurs ou des clients échoue
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		Logger logger = LoggerFactory.getConsoleLogger(TestFederation.class,
+		                                               Level.SEVERE);
+		String[] nodes = {"a", "b", "c"};
+		int[] ports = new int[nodes.length];
+		int[] peerPorts = new int[nodes.length];
+		Federation[] federations = new Federation[nodes.length];
+		for (int i = 0; i < nodes.length; i++)
+		{
+			ports[i] = freePort();
+			peerPorts[i] = freePort();
+		}
+
+		// maillage complet : chaque noeud établit les liaisons vers les
+		// noeuds précédents
+		for (int i = 0; i < nodes.length; i++)
+		{
+			ChatServer server = new ChatServer(ports[i],
+			                                   AbstractChatServer.DEFAULTTIMEOUT,
+			                                   false,
+			                                   logger);
+			List<InetSocketAddress> peers = new ArrayList<InetSocketAddress>();
+			for (int j = 0; j < i; j++)
+			{
+				peers.add(new InetSocketAddress("localhost", peerPorts[j]));
+			}
+			federations[i] = new Federation(server,
+			                                nodes[i],
+			                                peerPorts[i],
+			                                peers,
+			                                logger);
+			server.setFederation(federations[i]);
+			federations[i].start();
+			Thread thread = new Thread(server, "server-" + nodes[i]);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		final Federation a = federations[0];
+		final Federation b = federations[1];
+		final Federation c = federations[2];
+
+		// Un client d'un noeud est connu des autres noeuds (les liaisons
+		// sont établies en tâche de fond)
+		Socket alice = connect(ports[0], "alice");
+		check("alice on a is known by b and c",
+		      await(() -> b.isRemote("alice") && c.isRemote("alice")));
+
+		// Un nom utilisé sur un autre noeud est refusé
+		Socket otherAlice = connect(ports[1], "alice");
+		check("a second alice on b is refused",
+		      readAll(otherAlice).contains("Sorry another client"));
+		otherAlice.close();
+
+		// Un message est relayé aux clients des autres noeuds
+		Socket bob = connect(ports[2], "bob");
+		ObjectInputStream bobIn =
+			new ObjectInputStream(new BufferedInputStream(bob.getInputStream()));
+		check("bob on c is known by a and b",
+		      await(() -> a.isRemote("bob") && b.isRemote("bob")));
+		new PrintWriter(alice.getOutputStream(), true).println("hello bob");
+		check("a message from alice on a reaches bob on c",
+		      receive(bobIn, "hello bob"));
+
+		// Deux noeuds acceptent simultanément le même nom : un seul client
+		// est conservé (il n'est distant que pour les deux autres noeuds)
+		Socket carolB = connect(ports[1], "carol");
+		Socket carolC = connect(ports[2], "carol");
+		check("simultaneous carols on b and c end with a single carol",
+		      await(() ->
+		      {
+			      int remote = 0;
+			      for (Federation federation : federations)
+			      {
+				      remote += (federation.isRemote("carol") ? 1 : 0);
+			      }
+			      return a.isRemote("carol") && (remote == 2);
+		      }));
+		carolB.close();
+		carolC.close();
+		check("carol leaves every roster once disconnected",
+		      await(() -> !a.isRemote("carol") && !b.isRemote("carol")
+		          && !c.isRemote("carol")));
+
+		// Perte d'un noeud : ses clients sont oubliés par les autres noeuds
+		c.close();
+		check("bob is forgotten by a and b once c is lost",
+		      await(() -> !a.isRemote("bob") && !b.isRemote("bob")));
+		Socket newBob = connect(ports[0], "bob");
+		check("the name bob is available again on a",
+		      await(() -> b.isRemote("bob")));
+		check("alice is still known by b after the loss of c",
+		      b.isRemote("alice"));
+
+		newBob.close();
+		bob.close();
+		alice.close();
+		a.close();
+		b.close();
+
+		if (failures > 0)
+		{
+			System.out.println("FAILED: " + failures + " check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("OK: federation checks passed");
+		System.exit(0);
+	}
+}
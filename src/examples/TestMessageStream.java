@@ -7,6 +7,7 @@ import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 import models.Message;
+import models.MessageComparators;
 import models.Message.MessageOrder;
 
 /**
@@ -58,19 +59,22 @@ public class TestMessageStream
 		System.out.println("Flux entier des messages triés par date : ");
 		messages.stream().sorted().forEach(messagePrinter);
 
-		Message.removeOrder(MessageOrder.DATE);
-		Message.addOrder(MessageOrder.AUTHOR);
-
 		System.out.println("Flux entier des messages triés par auteur : ");
-		messages.stream().sorted().forEach(messagePrinter);
+		messages.stream()
+			.sorted(MessageComparators.of(MessageOrder.AUTHOR))
+			.forEach(messagePrinter);
 
-		Message.addOrder(MessageOrder.CONTENT);
 		System.out.println("Flux entier des messages triés par auteur et par contenu: ");
-		messages.stream().sorted().forEach(messagePrinter);
+		messages.stream()
+			.sorted(MessageComparators.of(MessageOrder.AUTHOR, MessageOrder.CONTENT))
+			.forEach(messagePrinter);
 
-		Message.addOrder(MessageOrder.DATE);
 		System.out.println("Flux entier des messages triés par auteur et par contenu et par date: ");
-		messages.stream().sorted().forEach(messagePrinter);
+		messages.stream()
+			.sorted(MessageComparators.of(MessageOrder.AUTHOR,
+			                              MessageOrder.CONTENT,
+			                              MessageOrder.DATE))
+			.forEach(messagePrinter);
 
 		Predicate<Message> zebulonFilter = (Message m) ->
 		{
@@ -89,14 +93,16 @@ public class TestMessageStream
 
 		// Flux filtré (pour Zébulon) des messages triés
 		System.out.println("Flux filtré (Zébulon) des messages triés par auteur et par contenu : ");
-		messages.stream().sorted().filter(zebulonFilter).forEach(messagePrinter);
-		Message.removeOrder(MessageOrder.CONTENT);
-		Message.removeOrder(MessageOrder.AUTHOR);
-		Message.clearOrders();
-		Message.addOrder(MessageOrder.DATE);
+		messages.stream()
+			.sorted(MessageComparators.of(MessageOrder.AUTHOR, MessageOrder.CONTENT))
+			.filter(zebulonFilter)
+			.forEach(messagePrinter);
 
 		System.out.println("Flux filtré (Zébulon) des messages re-triés par date: ");
-		messages.stream().filter(zebulonFilter).sorted().forEach(messagePrinter);
+		messages.stream()
+			.filter(zebulonFilter)
+			.sorted(MessageComparators.of(MessageOrder.DATE))
+			.forEach(messagePrinter);
 	}
 
 }
@@ -0,0 +1,174 @@
+package examples;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import chat.Protocol;
+import chat.UserOutputType;
+import chat.client.ChatClient;
+import chat.server.AbstractChatServer;
+import chat.server.ChatServer;
+import logger.LoggerFactory;
+import models.Message;
+
+/**
+ * Test de la mémoire utilisée par les flux objets lors d'une longue session :
+ * un serveur et un client (dont la sortie est un flux objet, comme pour le
+ * {@link widgets.ClientFrame2}) sont lancés dans la même JVM, puis on fait
+ * transiter un grand nombre de messages (1 million par défaut) par le
+ * serveur et le client. La mémoire utilisée est mesurée régulièrement et ne
+ * doit pas croître avec le nombre de messages échangés : aucun flux objet ne
+ * doit garder les messages déjà transmis accessibles. Le client utilise le
+ * protocole {@link Protocol#SERIAL} : ce sont bien les flux objets (et non
+ * les trames binaires) qui sont testés.
+ * Lancement : java -Xmx128m examples.TestStreamMemory [nombre de messages]
+ * @author davidroussel
+ */
+public class TestStreamMemory
+{
+	/**
+	 * Nombre maximum de messages envoyés et pas encore reçus (afin de ne pas
+	 * déborder des files d'attente du serveur)
+	 */
+	private final static int WINDOW = 256;
+
+	/**
+	 * Croissance maximum tolérée de la mémoire utilisée (en octets) entre la
+	 * première et la dernière mesure
+	 */
+	private final static long MAXGROWTH = 16 * 1024 * 1024;
+
+	/**
+	 * Nombre de mesures de la mémoire utilisée
+	 */
+	private final static int NBMEASURES = 10;
+
+	/**
+	 * Mesure de la mémoire utilisée après un passage du ramasse miettes
+	 * @return la mémoire utilisée en octets
+	 */
+	private static long usedHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Programme principal
+	 * @param args nombre de messages à échanger [1000000 par défaut]
+	 * @throws IOException si la création du serveur ou des flux échoue
+	 * @throws ClassNotFoundException si un message reçu ne peut être décodé
+	 * @throws InterruptedException si l'attente des threads est interrompue
+	 */
+	public static void main(String[] args)
+	    throws IOException, ClassNotFoundException, InterruptedException
+	{
+		final int nbMessages =
+			(args.length > 0 ? Integer.parseInt(args[0]) : 1000000);
+		Logger logger = LoggerFactory.getConsoleLogger(TestStreamMemory.class,
+		                                               Level.WARNING);
+
+		// Serveur sur un port libre
+		int port;
+		ServerSocket probe = new ServerSocket(0);
+		port = probe.getLocalPort();
+		probe.close();
+		ChatServer server = new ChatServer(port,
+		                                   AbstractChatServer.DEFAULTTIMEOUT,
+		                                   true,
+		                                   logger);
+		Thread serverThread = new Thread(server, "server");
+		serverThread.start();
+
+		// Client dont l'entrée et la sortie sont des pipes
+		final PipedOutputStream userInput = new PipedOutputStream();
+		PipedInputStream clientIn = new PipedInputStream(userInput);
+		PipedInputStream userOutput = new PipedInputStream();
+		PipedOutputStream clientOut = new PipedOutputStream(userOutput);
+		ChatClient client = new ChatClient("localhost",
+		                                   port,
+		                                   "memory",
+		                                   clientIn,
+		                                   clientOut,
+		                                   UserOutputType.OBJECT,
+		                                   null,
+		                                   false,
+		                                   Protocol.SERIAL,
+		                                   logger);
+		Thread clientThread = new Thread(client, "client");
+		clientThread.start();
+
+		// Envoi des messages
+		final Semaphore window = new Semaphore(WINDOW);
+		Thread sender = new Thread(() ->
+		{
+			PrintWriter userOut = new PrintWriter(userInput, true);
+			for (int i = 0; i < nbMessages; i++)
+			{
+				window.acquireUninterruptibly();
+				userOut.println("message " + i);
+			}
+			window.acquireUninterruptibly(WINDOW);
+			userOut.println("bye");
+		}, "sender");
+		sender.start();
+
+		// Réception des messages et mesures de la mémoire utilisée
+		ObjectInputStream in = new ObjectInputStream(userOutput);
+		int step = Math.max(1, nbMessages / NBMEASURES);
+		long first = -1;
+		long last = 0;
+		long start = System.currentTimeMillis();
+		for (int received = 1; received <= nbMessages; received++)
+		{
+			Message message = (Message) in.readObject();
+			window.release();
+			if ((received % step) == 0)
+			{
+				last = usedHeap();
+				if (first < 0)
+				{
+					first = last;
+				}
+				System.out.println(received + " messages ("
+					+ message.getContent() + ") : "
+					+ (last / 1024) + " kB used");
+			}
+		}
+		long elapsed = System.currentTimeMillis() - start;
+
+		// Lecture des derniers messages jusqu'à la fermeture du client
+		try
+		{
+			while (true)
+			{
+				in.readObject();
+			}
+		}
+		catch (IOException e)
+		{
+			// fin du flux
+		}
+		sender.join();
+		clientThread.join();
+		serverThread.join();
+
+		long growth = last - first;
+		System.out.println(nbMessages + " messages in " + elapsed
+			+ " ms, heap growth " + (growth / 1024) + " kB");
+		if (growth > MAXGROWTH)
+		{
+			System.out.println("FAILED: heap grows with the number of messages");
+			System.exit(1);
+		}
+		System.out.println("OK: heap stays bounded");
+	}
+}
@@ -0,0 +1,228 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Index des messages par auteur : pour chaque auteur, la liste de ses
+ * messages triés suivant le comparateur de l'index (celui de la vue des
+ * messages), maintenue au fur et à mesure de l'arrivée des messages.
+ * La sélection des messages d'un ensemble d'auteurs
+ * ({@link #select(Collection)}) fusionne les listes de ces auteurs (fusion
+ * à k voies) sans parcourir les messages des autres auteurs.
+ * L'index n'est pas thread safe : il doit être utilisé depuis un seul thread
+ * (l'EDT dans une fenêtre de client).
+ * @author davidroussel
+ */
+public class AuthorIndex
+{
+	/**
+	 * Messages triés de chaque auteur (les messages sans auteur sont
+	 * associés à la clé null)
+	 */
+	private final Map<String, List<Message>> messagesByAuthor;
+
+	/**
+	 * Le comparateur suivant lequel les messages de chaque auteur sont triés
+	 */
+	private Comparator<Message> comparator;
+
+	/**
+	 * Constructeur d'un index vide triant les messages suivant le comparateur
+	 * par défaut ({@link MessageComparators#DEFAULT})
+	 */
+	public AuthorIndex()
+	{
+		messagesByAuthor = new HashMap<String, List<Message>>();
+		comparator = MessageComparators.DEFAULT;
+	}
+
+	/**
+	 * Ajout d'un message à la liste triée de son auteur : après tous les
+	 * messages inférieurs ou égaux de cet auteur
+	 * @param message le message à ajouter
+	 */
+	public void add(Message message)
+	{
+		List<Message> messages = messagesByAuthor.get(message.getAuthor());
+		if (messages == null)
+		{
+			messages = new ArrayList<Message>();
+			messagesByAuthor.put(message.getAuthor(), messages);
+		}
+		int low = 0;
+		int high = messages.size();
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (comparator.compare(messages.get(middle), message) <= 0)
+			{
+				low = middle + 1;
+			}
+			else
+			{
+				high = middle;
+			}
+		}
+		messages.add(low, message);
+	}
+
+	/**
+	 * Reconstruction de l'index (par exemple après un changement de l'ordre
+	 * des messages)
+	 * @param sorted l'ensemble des messages, triés suivant comparator
+	 * @param comparator le comparateur suivant lequel les messages sont triés
+	 */
+	public void rebuild(List<Message> sorted, Comparator<Message> comparator)
+	{
+		this.comparator = comparator;
+		messagesByAuthor.clear();
+		for (Message message : sorted)
+		{
+			List<Message> messages = messagesByAuthor.get(message.getAuthor());
+			if (messages == null)
+			{
+				messages = new ArrayList<Message>();
+				messagesByAuthor.put(message.getAuthor(), messages);
+			}
+			messages.add(message);
+		}
+	}
+
+	/**
+	 * Effacement de l'index
+	 */
+	public void clear()
+	{
+		messagesByAuthor.clear();
+	}
+
+	/**
+	 * Messages d'un auteur
+	 * @param author l'auteur
+	 * @return la liste (non modifiable) des messages triés de cet auteur
+	 */
+	public List<Message> get(String author)
+	{
+		List<Message> messages = messagesByAuthor.get(author);
+		if (messages == null)
+		{
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(messages);
+	}
+
+	/**
+	 * Position de lecture dans la liste des messages d'un auteur lors d'une
+	 * fusion
+	 */
+	private class Cursor implements Comparable<Cursor>
+	{
+		/**
+		 * Les messages triés de l'auteur
+		 */
+		private final List<Message> messages;
+
+		/**
+		 * Rang de l'auteur dans la sélection (départage les messages égaux)
+		 */
+		private final int rank;
+
+		/**
+		 * Index du prochain message
+		 */
+		private int index;
+
+		/**
+		 * Constructeur d'une position au début des messages d'un auteur
+		 * @param messages les messages triés de l'auteur
+		 * @param rank le rang de l'auteur dans la sélection
+		 */
+		public Cursor(List<Message> messages, int rank)
+		{
+			this.messages = messages;
+			this.rank = rank;
+			index = 0;
+		}
+
+		/**
+		 * Le prochain message
+		 * @return le prochain message de l'auteur
+		 */
+		public Message current()
+		{
+			return messages.get(index);
+		}
+
+		/**
+		 * Passage au message suivant
+		 * @return true s'il reste des messages
+		 */
+		public boolean next()
+		{
+			return ++index < messages.size();
+		}
+
+		@Override
+		public int compareTo(Cursor other)
+		{
+			int compare = comparator.compare(current(), other.current());
+			return (compare != 0 ? compare : Integer.compare(rank, other.rank));
+		}
+	}
+
+	/**
+	 * Sélection des messages d'un ensemble d'auteurs par fusion des listes
+	 * triées de ces auteurs
+	 * @param authors les auteurs sélectionnés
+	 * @return une nouvelle liste contenant les messages des auteurs
+	 * sélectionnés, triés suivant le comparateur de l'index
+	 */
+	public List<Message> select(Collection<String> authors)
+	{
+		List<List<Message>> selected = new ArrayList<List<Message>>();
+		Set<String> seen = new HashSet<String>();
+		int total = 0;
+		for (String author : authors)
+		{
+			List<Message> messages = messagesByAuthor.get(author);
+			if ((messages != null) && !messages.isEmpty() && seen.add(author))
+			{
+				selected.add(messages);
+				total += messages.size();
+			}
+		}
+
+		List<Message> result = new ArrayList<Message>(total);
+		if (selected.size() == 1)
+		{
+			result.addAll(selected.get(0));
+			return result;
+		}
+
+		PriorityQueue<Cursor> cursors =
+			new PriorityQueue<Cursor>(Math.max(selected.size(), 1));
+		for (int i = 0; i < selected.size(); i++)
+		{
+			cursors.add(new Cursor(selected.get(i), i));
+		}
+		while (!cursors.isEmpty())
+		{
+			Cursor cursor = cursors.poll();
+			result.add(cursor.current());
+			if (cursor.next())
+			{
+				cursors.add(cursor);
+			}
+		}
+		return result;
+	}
+}
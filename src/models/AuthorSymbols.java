@@ -0,0 +1,261 @@
+package models;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Table des symboles des auteurs : chaque nom d'auteur reçoit un petit
+ * identifiant entier (strictement positif, l'identifiant {@link #NONE}
+ * désignant l'absence d'auteur), unique pour toute la durée de vie de la
+ * JVM. Les caches des fenêtres (couleurs, liste des utilisateurs) et les
+ * comparateurs de messages ne manipulent que cet identifiant, et les
+ * messages reçus par un client partagent le nom conservé par la table :
+ * chaque nom n'est présent qu'une seule fois en mémoire quel que soit le
+ * nombre de messages de l'auteur.
+ * La table maintient aussi le rang de chaque auteur dans l'ordre
+ * alphabétique des noms, ce qui permet de comparer deux auteurs en
+ * comparant deux entiers ({@link #compare(int, int)}). Les rangs ne sont
+ * pas recalculés à chaque ajout : ils le sont lors d'une comparaison,
+ * lorsque le nombre d'auteurs sans rang devient important, les auteurs sans
+ * rang étant en attendant comparés d'après leur nom.
+ * Les identifiants ne sont jamais libérés : la table croît avec le nombre
+ * d'auteurs distincts rencontrés (et non avec le nombre de messages). Elle
+ * n'est donc utilisée que par les clients, le serveur attribuant ses
+ * propres identifiants aux auteurs connectés.
+ * La table est thread safe : les lectures sont sans verrou, seuls l'ajout
+ * d'un nouvel auteur et le calcul des rangs sont sérialisés par un verrou.
+ * @author davidroussel
+ */
+public final class AuthorSymbols
+{
+	/**
+	 * Identifiant désignant l'absence d'auteur
+	 */
+	public final static int NONE = 0;
+
+	/**
+	 * La table partagée par toute la JVM
+	 */
+	private final static AuthorSymbols instance = new AuthorSymbols();
+
+	/**
+	 * Identifiants des auteurs indexés par leur nom
+	 */
+	private final ConcurrentHashMap<String, Integer> ids;
+
+	/**
+	 * Noms des auteurs indexés par leur identifiant (null pour
+	 * {@link #NONE}). Seules les {@link #count} premières cases sont
+	 * utilisées : le tableau est remplacé par un tableau deux fois plus
+	 * grand lorsqu'il est plein.
+	 */
+	private volatile String[] names;
+
+	/**
+	 * Nombre d'identifiants attribués (y compris {@link #NONE}), publié
+	 * après le nom du dernier auteur ajouté
+	 */
+	private volatile int count;
+
+	/**
+	 * Rangs des auteurs dans l'ordre alphabétique, indexés par leur
+	 * identifiant (0 pour {@link #NONE} : l'absence d'auteur précède tous
+	 * les auteurs). Seuls les auteurs dont l'identifiant est inférieur à la
+	 * taille du tableau ont un rang. Le tableau est remplacé (et non
+	 * modifié) à chaque calcul des rangs.
+	 */
+	private volatile int[] ranks;
+
+	/**
+	 * Verrou sérialisant les ajouts et le calcul des rangs
+	 */
+	private final ReentrantLock lock;
+
+	/**
+	 * Constructeur privé de la table partagée
+	 */
+	private AuthorSymbols()
+	{
+		ids = new ConcurrentHashMap<String, Integer>();
+		names = new String[16];
+		count = 1;
+		ranks = new int[] {0};
+		lock = new ReentrantLock();
+	}
+
+	/**
+	 * Accès à la table partagée
+	 * @return la table des symboles des auteurs
+	 */
+	public static AuthorSymbols getInstance()
+	{
+		return instance;
+	}
+
+	/**
+	 * Identifiant d'un auteur, attribué lors de la première utilisation de
+	 * son nom
+	 * @param name le nom de l'auteur (ou null)
+	 * @return l'identifiant de l'auteur ou bien {@link #NONE} si name est
+	 * null
+	 */
+	public int idOf(String name)
+	{
+		if (name == null)
+		{
+			return NONE;
+		}
+		Integer id = ids.get(name);
+		if (id != null)
+		{
+			return id.intValue();
+		}
+		return add(name);
+	}
+
+	/**
+	 * Identifiant d'un auteur déjà connu (sans ajout)
+	 * @param name le nom de l'auteur
+	 * @return l'identifiant de l'auteur ou bien {@link #NONE} si name est
+	 * null ou inconnu
+	 */
+	public int find(String name)
+	{
+		if (name == null)
+		{
+			return NONE;
+		}
+		Integer id = ids.get(name);
+		return (id != null ? id.intValue() : NONE);
+	}
+
+	/**
+	 * Ajout d'un auteur : le nom est publié avant l'identifiant afin que
+	 * tout identifiant obtenu ait un nom. Le rang du nouvel auteur n'est
+	 * calculé que plus tard (voir {@link #compare(int, int)}).
+	 * @param name le nom de l'auteur
+	 * @return l'identifiant de l'auteur
+	 */
+	private int add(String name)
+	{
+		lock.lock();
+		try
+		{
+			Integer id = ids.get(name);
+			if (id != null)
+			{
+				return id.intValue();
+			}
+
+			int newId = count;
+			String[] current = names;
+			if (newId == current.length)
+			{
+				current = Arrays.copyOf(current, 2 * current.length);
+			}
+			current[newId] = name;
+			names = current;
+			count = newId + 1;
+			ids.put(name, Integer.valueOf(newId));
+			return newId;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Nom d'un auteur
+	 * @param id l'identifiant de l'auteur
+	 * @return le nom de l'auteur ou bien null pour {@link #NONE}
+	 * @throws IllegalArgumentException si l'identifiant est inconnu
+	 */
+	public String nameOf(int id)
+	{
+		if ((id < 0) || (id >= count))
+		{
+			throw new IllegalArgumentException("AuthorSymbols: unknown id " + id);
+		}
+		return names[id];
+	}
+
+	/**
+	 * Comparaison de deux auteurs suivant l'ordre alphabétique de leur nom,
+	 * l'absence d'auteur précédant tous les auteurs
+	 * @param id1 l'identifiant du premier auteur
+	 * @param id2 l'identifiant du second auteur
+	 * @return un entier négatif, nul ou positif si le premier auteur précède,
+	 * est égal ou suit le second
+	 */
+	public int compare(int id1, int id2)
+	{
+		if (id1 == id2)
+		{
+			return 0;
+		}
+		int[] current = ranks;
+		if ((id1 >= current.length) || (id2 >= current.length))
+		{
+			current = rank(current);
+			if ((id1 >= current.length) || (id2 >= current.length))
+			{
+				// au moins un des auteurs n'a pas encore de rang
+				String name1 = nameOf(id1);
+				String name2 = nameOf(id2);
+				if ((name1 == null) || (name2 == null))
+				{
+					return (name1 == null ? -1 : 1);
+				}
+				return name1.compareTo(name2);
+			}
+		}
+		return Integer.compare(current[id1], current[id2]);
+	}
+
+	/**
+	 * Calcul des rangs de tous les auteurs, uniquement si le nombre
+	 * d'auteurs sans rang dépasse le quart du nombre d'auteurs ayant un
+	 * rang (le coût des calculs successifs reste ainsi proportionnel au
+	 * nombre d'ajouts). Une comparaison n'attend jamais la fin d'un calcul
+	 * effectué par un autre thread.
+	 * @param current les rangs courants
+	 * @return les rangs (éventuellement recalculés)
+	 */
+	private int[] rank(int[] current)
+	{
+		int size = count;
+		if (((size - current.length) <= (current.length / 4))
+		    || !lock.tryLock())
+		{
+			return current;
+		}
+		try
+		{
+			size = count;
+			String[] sorted = Arrays.copyOfRange(names, 1, size);
+			Arrays.sort(sorted);
+			int[] newRanks = new int[size];
+			for (int rank = 0; rank < sorted.length; rank++)
+			{
+				newRanks[ids.get(sorted[rank]).intValue()] = rank + 1;
+			}
+			ranks = newRanks;
+			return newRanks;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Nombre d'identifiants attribués (y compris {@link #NONE})
+	 * @return le nombre d'identifiants attribués
+	 */
+	public int size()
+	{
+		return count;
+	}
+}
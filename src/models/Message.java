@@ -1,8 +1,16 @@
 package models;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.Vector;
@@ -17,11 +25,36 @@ import java.util.Vector;
  * </ul>
  * Les message peuvent être comparés entre eux pour obtenir l'ordre des messages
  * avec la méthode compareTo(Message m). Les critère d'ordre des messages
- * peuvent être customizés.
+ * peuvent être customizés. Les vues ayant leurs propres critères d'ordre
+ * utiliseront plutôt les comparateurs de {@link MessageComparators}.
+ * Les messages sont immuables : leur représentation textuelle n'est
+ * construite qu'une seule fois.
  * @author davidroussel
  */
 public class Message implements Serializable, Comparable<Message>
 {
+	/**
+	 * Numéro de version de la forme sérialisée des messages (celui des
+	 * premières versions de cette classe, avec lesquelles la forme
+	 * sérialisée reste compatible)
+	 */
+	private static final long serialVersionUID = 7454580897122671278L;
+
+	/**
+	 * Forme sérialisée des messages : celle des premières versions de cette
+	 * classe (date de type {@link Date}, contenu et auteur), indépendante de
+	 * la représentation interne de la date
+	 * @serialField date Date la date d'arrivée du message
+	 * @serialField content String le contenu du message
+	 * @serialField author String l'auteur du message (ou null)
+	 */
+	private static final ObjectStreamField[] serialPersistentFields =
+	{
+		new ObjectStreamField("date", Date.class),
+		new ObjectStreamField("content", String.class),
+		new ObjectStreamField("author", String.class)
+	};
+
 	/**
 	 * Les différents ordres de comparaison possibles pour un message
 	 */
@@ -69,9 +102,17 @@ public class Message implements Serializable, Comparable<Message>
 	protected static Vector<MessageOrder> orders = new Vector<MessageOrder>();
 
 	/**
-	 * La date d'arrivée du message
+	 * Comparateur composé des critères de tri de {@link #orders}, reconstruit
+	 * à chaque modification de ceux-ci et utilisé par
+	 * {@link #compareTo(Message)}
 	 */
-	private Date date;
+	private static volatile Comparator<Message> comparator =
+		MessageComparators.DEFAULT;
+
+	/**
+	 * La date d'arrivée du message (en ms depuis le 1er janvier 1970 UTC)
+	 */
+	private long date;
 
 	/**
 	 * Le contenu du message
@@ -79,30 +120,134 @@ public class Message implements Serializable, Comparable<Message>
 	private String content;
 
 	/**
-	 * L'auteur du message (optionnel).
-	 * Un message du serveur peut éventuellement ne pas avoir d'auteur
+	 * L'auteur du message : l'auteur est optionnel, un message du serveur
+	 * peut éventuellement ne pas avoir d'auteur (null)
 	 */
 	private String author;
 
 	/**
-	 * Formatteur pour l'affichage de la date des messages
+	 * L'identifiant de l'auteur du message dans la table des symboles des
+	 * auteurs ({@link AuthorSymbols}), attribué lors de sa première
+	 * utilisation ({@link #UNKNOWNID} jusque là) : les messages créés par le
+	 * serveur n'utilisent donc pas la table des symboles
+	 */
+	private transient volatile int authorId;
+
+	/**
+	 * Identifiant d'auteur non encore attribué
 	 */
+	private static final int UNKNOWNID = -1;
+
+	/**
+	 * Représentation textuelle du message (construite lors de sa première
+	 * utilisation)
+	 */
+	private transient String text;
+
+	/**
+	 * Formatteur (thread safe) pour l'affichage de la date des messages
+	 */
+	protected static final DateTimeFormatter dateFormatter =
+		DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss")
+			.withZone(ZoneId.systemDefault());
+
+	/**
+	 * Formatteur pour l'affichage de la date des messages (même motif que
+	 * {@link #dateFormatter}).
+	 * @deprecated n'est plus utilisé par les messages et n'est pas thread
+	 * safe : utiliser {@link #dateFormatter}
+	 */
+	@Deprecated
 	protected static SimpleDateFormat dateFormat =
 	    new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
 
+	/**
+	 * Dernière date formattée (à la seconde près) : les messages arrivant
+	 * dans la même seconde partagent la même chaîne
+	 */
+	private static volatile FormattedDate lastFormattedDate = null;
+
+	/**
+	 * Date formattée à la seconde près (immuable afin d'être partagée entre
+	 * threads)
+	 */
+	private static final class FormattedDate
+	{
+		/**
+		 * La date en secondes depuis le 1er janvier 1970 UTC
+		 */
+		private final long second;
+
+		/**
+		 * La date formattée
+		 */
+		private final String text;
+
+		/**
+		 * Constructeur d'une date formattée
+		 * @param second la date en secondes
+		 * @param text la date formattée
+		 */
+		private FormattedDate(long second, String text)
+		{
+			this.second = second;
+			this.text = text;
+		}
+	}
+
 	/**
 	 * Constructeur valué d'un message
-	 * @param date la date d'arrivée du message
+	 * @param date la date d'arrivée du message (en ms depuis le 1er janvier
+	 * 1970 UTC)
 	 * @param content le contenu du message
 	 * @param author l'auteur du message
 	 */
-	public Message(Date date, String content, String author)
+	public Message(long date, String content, String author)
 	{
-		// date ne doit pas être null
-		this.date = (date != null ? date : Calendar.getInstance().getTime());
+		this.date = date;
 		// content ne doit pas être null
 		this.content = (content != null ? content : new String());
 		this.author = author;
+		authorId = (author != null ? UNKNOWNID : AuthorSymbols.NONE);
+	}
+
+	/**
+	 * Constructeur valué d'un message
+	 * @param date la date d'arrivée du message (en ms depuis le 1er janvier
+	 * 1970 UTC)
+	 * @param content le contenu du message
+	 * @param authorId l'identifiant de l'auteur du message dans la table des
+	 * symboles des auteurs ({@link AuthorSymbols#NONE} pour un message sans
+	 * auteur)
+	 * @throws IllegalArgumentException si l'identifiant de l'auteur est
+	 * inconnu
+	 */
+	public Message(long date, String content, int authorId)
+	{
+		if ((authorId < 0) || (authorId >= AuthorSymbols.getInstance().size()))
+		{
+			throw new IllegalArgumentException("Message: unknown author id "
+				+ authorId);
+		}
+		this.date = date;
+		// content ne doit pas être null
+		this.content = (content != null ? content : new String());
+		author = AuthorSymbols.getInstance().nameOf(authorId);
+		this.authorId = authorId;
+	}
+
+	/**
+	 * Constructeur valué d'un message
+	 * @param date la date d'arrivée du message
+	 * @param content le contenu du message
+	 * @param author l'auteur du message
+	 */
+	public Message(Date date, String content, String author)
+	{
+		// date ne doit pas être null
+		this((date != null ? date.getTime() : System.currentTimeMillis()),
+		     content,
+		     author);
 	}
 
 	/**
@@ -118,11 +263,10 @@ public class Message implements Serializable, Comparable<Message>
 	/**
 	 * Constructeur valué d'un message.
 	 * La date d'arrivée est implicitement initialisée à "maintenant" en
-	 * utilisant le calendrier
+	 * utilisant l'horloge système
 	 * @param content le contenu du message
 	 * @param author l'auteur du message
-	 * @see Calendar#getInstance()
-	 * @see Calendar#getTime()
+	 * @see System#currentTimeMillis()
 	 */
 	public Message(String content, String author)
 	{
@@ -132,10 +276,9 @@ public class Message implements Serializable, Comparable<Message>
 	/**
 	 * Constructeur valué d'un message.
 	 * La date d'arrivée est implicitement initialisée à "maintenant" en
-	 * utilisant le calendrier
+	 * utilisant l'horloge système
 	 * @param content le contenu du message
-	 * @see Calendar#getInstance()
-	 * @see Calendar#getTime()
+	 * @see System#currentTimeMillis()
 	 */
 	public Message(String content)
 	{
@@ -144,9 +287,18 @@ public class Message implements Serializable, Comparable<Message>
 
 	/**
 	 * Accesseur en lecture de la date du message
-	 * @return la date du message
+	 * @return une copie de la date du message
 	 */
 	public Date getDate()
+	{
+		return new Date(date);
+	}
+
+	/**
+	 * Accesseur en lecture de la date du message
+	 * @return la date du message en ms depuis le 1er janvier 1970 UTC
+	 */
+	public long getTime()
 	{
 		return date;
 	}
@@ -157,7 +309,27 @@ public class Message implements Serializable, Comparable<Message>
 	 */
 	public String getFormattedDate()
 	{
-		return dateFormat.format(date);
+		return formatDate(date);
+	}
+
+	/**
+	 * Formattage d'une date avec le {@link #dateFormatter} : la dernière date
+	 * formattée est conservée afin de ne pas reformatter les dates d'une
+	 * même seconde
+	 * @param date la date en ms depuis le 1er janvier 1970 UTC
+	 * @return la chaîne formattée de la date
+	 */
+	public static String formatDate(long date)
+	{
+		long second = Math.floorDiv(date, 1000L);
+		FormattedDate formatted = lastFormattedDate;
+		if ((formatted == null) || (formatted.second != second))
+		{
+			formatted = new FormattedDate(second,
+			                              dateFormatter.format(Instant.ofEpochMilli(date)));
+			lastFormattedDate = formatted;
+		}
+		return formatted.text;
 	}
 
 	/**
@@ -179,6 +351,23 @@ public class Message implements Serializable, Comparable<Message>
 		return author;
 	}
 
+	/**
+	 * Accesseur en lecture de l'identifiant de l'auteur du message
+	 * @return l'identifiant de l'auteur du message dans la table des
+	 * symboles des auteurs ou bien {@link AuthorSymbols#NONE} s'il s'agit
+	 * d'un message direct du serveur
+	 */
+	public int getAuthorId()
+	{
+		int id = authorId;
+		if (id == UNKNOWNID)
+		{
+			id = AuthorSymbols.getInstance().idOf(author);
+			authorId = id;
+		}
+		return id;
+	}
+
 	/**
 	 * Indique si un message à un auteur (ce qui n'est le cas que pour les
 	 * messages envoyés par les utilisateurs au serveur, les messages de
@@ -192,8 +381,19 @@ public class Message implements Serializable, Comparable<Message>
 
 	/**
 	 * Accesseur en lecture du formatteur de date des messages
-	 * @return le formateur de date des messages
+	 * @return le formateur (thread safe) de date des messages
+	 */
+	public static DateTimeFormatter getDateFormatter()
+	{
+		return dateFormatter;
+	}
+
+	/**
+	 * Accesseur en lecture de l'ancien formatteur de date des messages
+	 * @return le formateur (non thread safe) de date des messages
+	 * @deprecated utiliser {@link #getDateFormatter()}
 	 */
+	@Deprecated
 	public static SimpleDateFormat getDateFormat()
 	{
 		return dateFormat;
@@ -207,12 +407,9 @@ public class Message implements Serializable, Comparable<Message>
 	public int hashCode()
 	{
 		final int prime = 31;
-		int hash = date.hashCode();
+		int hash = Long.hashCode(date);
 		hash = (prime * hash) + content.hashCode();
-		if (author != null)
-		{
-			hash = (prime * hash) + author.hashCode();
-		}
+		hash = (prime * hash) + (author != null ? author.hashCode() : 0);
 		return hash;
 	}
 
@@ -240,18 +437,12 @@ public class Message implements Serializable, Comparable<Message>
 		{
 			Message m = (Message) obj;
 
-			if (date.equals(m.date))
+			if (date == m.date)
 			{
 				if (content.equals(m.content))
 				{
-					if (author != null)
-					{
-						return author.equals(m.author);
-					}
-					else
-					{
-						return m.author == null;
-					}
+					return (author != null ? author.equals(m.author)
+					                       : m.author == null);
 				}
 			}
 		}
@@ -267,18 +458,71 @@ public class Message implements Serializable, Comparable<Message>
 	@Override
 	public String toString()
 	{
-		StringBuffer sb = new StringBuffer("[");
-
-		sb.append(dateFormat.format(date));
-		sb.append("] ");
-		if (author != null)
+		String result = text;
+		if (result == null)
 		{
-			sb.append(author);
-			sb.append(" > ");
+			String formattedDate = formatDate(date);
+			StringBuilder sb =
+				new StringBuilder(formattedDate.length() + content.length()
+				                  + (author != null ? author.length() + 6 : 3));
+
+			sb.append('[');
+			sb.append(formattedDate);
+			sb.append("] ");
+			if (author != null)
+			{
+				sb.append(author);
+				sb.append(" > ");
+			}
+			sb.append(content);
+
+			result = sb.toString();
+			text = result;
 		}
-		sb.append(content);
+		return result;
+	}
 
-		return sb.toString();
+	/**
+	 * Ecriture de la forme sérialisée d'un message (celle des premières
+	 * versions de cette classe)
+	 * @param out le flux de sortie
+	 * @throws IOException si l'écriture échoue
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("date", new Date(date));
+		fields.put("content", content);
+		fields.put("author", author);
+		out.writeFields();
+	}
+
+	/**
+	 * Lecture de la forme sérialisée d'un message
+	 * @param in le flux d'entrée
+	 * @throws IOException si la lecture échoue ou si le message lu est
+	 * invalide
+	 * @throws ClassNotFoundException si la classe d'un champ est inconnue
+	 */
+	private void readObject(ObjectInputStream in)
+		throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream.GetField fields = in.readFields();
+		Date readDate = (Date) fields.get("date", null);
+		String readContent = (String) fields.get("content", null);
+		if ((readDate == null) || (readContent == null))
+		{
+			throw new InvalidObjectException("Message: missing date or content");
+		}
+		date = readDate.getTime();
+		content = readContent;
+		/*
+		 * Les messages reçus par un client partagent le nom de leur auteur
+		 * conservé par la table des symboles
+		 */
+		authorId =
+			AuthorSymbols.getInstance().idOf((String) fields.get("author", null));
+		author = AuthorSymbols.getInstance().nameOf(authorId);
 	}
 
 	/**
@@ -317,70 +561,18 @@ public class Message implements Serializable, Comparable<Message>
 	@Override
 	public int compareTo(Message m)
 	{
-		int compare = 0;
-		if (orders.isEmpty())
-		{
-			// l'ordre par défaut est la date du message
-			compare = date.compareTo(m.date);
-		}
-		else
-		{
-			for (Iterator<MessageOrder> it = orders.iterator(); it.hasNext();)
-			{
-				MessageOrder criterium = it.next();
-				switch (criterium)
-				{
-					case AUTHOR:
-						if (author != null)
-						{
-							if(m.author != null)
-							{
-								compare = author.compareTo(m.author);
-							}
-							else
-							{
-								/*
-								 * Un message avec auteur sera considéré comme
-								 * supérieur à un message sans auteur
-								 */
-								compare = 1;
-							}
-						}
-						else // author == null
-						{
-							if (m.author != null)
-							{
-								/*
-								 * un message sans auteur sera considéré comme
-								 * inférieur à un message avec auteur
-								 */
-								compare = -1;
-							}
-							else
-							{
-								compare = 0;
-							}
-						}
-						break;
-					case DATE:
-						compare = date.compareTo(m.date);
-						break;
-					case CONTENT:
-						compare = content.compareTo(m.content);
-					default:
-						break;
-				}
-				// Si le critère courant permet de différentier les messages
-				// on renvoie sa valeur tout de suite.
-				if (compare != 0)
-				{
-					break;
-				}
-			}
-			// On a terminé la boucle sans avoir renvoyé une valeur != 0,
-			// tous les critères de comparaison ont été 0 (valeurs égales)
-		}
-		return compare;
+		return comparator.compare(this, m);
+	}
+
+	/**
+	 * Accesseur en lecture du comparateur correspondant aux critères de tri
+	 * courants
+	 * @return le comparateur (immuable) correspondant aux critères de tri
+	 * courants
+	 */
+	public static Comparator<Message> getComparator()
+	{
+		return comparator;
 	}
 
 	/**
@@ -393,9 +585,14 @@ public class Message implements Serializable, Comparable<Message>
 	{
 		if (o != null)
 		{
-			if (!orders.contains(o))
+			synchronized (orders)
 			{
-				return orders.add(o);
+				if (!orders.contains(o))
+				{
+					orders.add(o);
+					comparator = MessageComparators.of(orders);
+					return true;
+				}
 			}
 		}
 		return false;
@@ -411,7 +608,14 @@ public class Message implements Serializable, Comparable<Message>
 	{
 		if (o != null)
 		{
-			return orders.remove(o);
+			synchronized (orders)
+			{
+				if (orders.remove(o))
+				{
+					comparator = MessageComparators.of(orders);
+					return true;
+				}
+			}
 		}
 		return false;
 	}
@@ -421,6 +625,10 @@ public class Message implements Serializable, Comparable<Message>
 	 */
 	public static void clearOrders()
 	{
-		orders.clear();
+		synchronized (orders)
+		{
+			orders.clear();
+			comparator = MessageComparators.DEFAULT;
+		}
 	}
 }
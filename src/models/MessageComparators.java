@@ -0,0 +1,144 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import models.Message.MessageOrder;
+
+/**
+ * Fabrique de comparateurs de messages : pour chaque combinaison de critères
+ * d'ordre ({@link MessageOrder}), un comparateur immuable composé des
+ * comparateurs de chacun des critères est construit une seule fois puis
+ * partagé.
+ * Contrairement à l'ordre naturel des messages
+ * ({@link Message#compareTo(Message)}) qui dépend des critères globaux de
+ * {@link Message}, ces comparateurs peuvent être utilisés par chaque vue
+ * (avec ses propres critères) ainsi que dans des tris de flux
+ * ({@link java.util.stream.Stream#sorted(Comparator)}), depuis n'importe
+ * quel thread et sans verrou.
+ * @author davidroussel
+ */
+public final class MessageComparators
+{
+	/**
+	 * Comparaison suivant l'ordre alphabétique de l'auteur : un message sans
+	 * auteur est inférieur à un message avec auteur. Les auteurs sont
+	 * comparés par leur rang dans la table des symboles des auteurs
+	 * ({@link AuthorSymbols#compare(int, int)}) sans comparer leurs noms.
+	 */
+	public final static Comparator<Message> BY_AUTHOR =
+		(Message m1, Message m2) ->
+			AuthorSymbols.getInstance().compare(m1.getAuthorId(), m2.getAuthorId());
+
+	/**
+	 * Comparaison suivant la date du message
+	 */
+	public final static Comparator<Message> BY_DATE =
+		Comparator.comparingLong(Message::getTime);
+
+	/**
+	 * Comparaison suivant l'ordre alphabétique du contenu du message
+	 */
+	public final static Comparator<Message> BY_CONTENT =
+		Comparator.comparing(Message::getContent);
+
+	/**
+	 * Comparateur par défaut (en l'absence de critères) : suivant la date
+	 * du message
+	 */
+	public final static Comparator<Message> DEFAULT = BY_DATE;
+
+	/**
+	 * Comparateurs déjà construits pour chaque liste de critères (au plus
+	 * 16 combinaisons)
+	 */
+	private final static ConcurrentMap<List<MessageOrder>, Comparator<Message>> comparators =
+		new ConcurrentHashMap<List<MessageOrder>, Comparator<Message>>();
+
+	/**
+	 * Constructeur privé : classe utilitaire
+	 */
+	private MessageComparators()
+	{
+	}
+
+	/**
+	 * Comparateur d'un critère d'ordre
+	 * @param order le critère d'ordre
+	 * @return le comparateur correspondant à ce critère
+	 */
+	public static Comparator<Message> of(MessageOrder order)
+	{
+		switch (order)
+		{
+			case AUTHOR:
+				return BY_AUTHOR;
+			case DATE:
+				return BY_DATE;
+			case CONTENT:
+				return BY_CONTENT;
+		}
+		throw new AssertionError("MessageComparators: unknown order: " + order);
+	}
+
+	/**
+	 * Comparateur composé d'une suite de critères d'ordre
+	 * @param orders les critères d'ordre
+	 * @return le comparateur composé de ces critères
+	 * @see #of(Collection)
+	 */
+	public static Comparator<Message> of(MessageOrder... orders)
+	{
+		return of(Arrays.asList(orders));
+	}
+
+	/**
+	 * Comparateur composé d'une suite de critères d'ordre : les messages
+	 * sont comparés suivant le premier critère, puis suivant le critère
+	 * suivant en cas d'égalité, etc. Seule la première occurence de chaque
+	 * critère est prise en compte et l'absence de critères correspond au
+	 * comparateur par défaut ({@link #DEFAULT}).
+	 * Le même comparateur est renvoyé pour les mêmes critères.
+	 * @param orders les critères d'ordre
+	 * @return le comparateur composé de ces critères
+	 */
+	public static Comparator<Message> of(Collection<MessageOrder> orders)
+	{
+		List<MessageOrder> key = new ArrayList<MessageOrder>(orders.size());
+		for (MessageOrder order : orders)
+		{
+			if ((order != null) && !key.contains(order))
+			{
+				key.add(order);
+			}
+		}
+		if (key.isEmpty())
+		{
+			return DEFAULT;
+		}
+
+		Comparator<Message> comparator = comparators.get(key);
+		if (comparator == null)
+		{
+			comparator = of(key.get(0));
+			for (MessageOrder order : key.subList(1, key.size()))
+			{
+				comparator = comparator.thenComparing(of(order));
+			}
+			Comparator<Message> previous =
+				comparators.putIfAbsent(Collections.unmodifiableList(key),
+				                        comparator);
+			if (previous != null)
+			{
+				comparator = previous;
+			}
+		}
+		return comparator;
+	}
+}
@@ -0,0 +1,105 @@
+package models;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.swing.AbstractListModel;
+
+/**
+ * ListModel virtuel des messages à afficher : le modèle ne copie pas les
+ * messages mais donne accès à une liste de messages existante (par exemple
+ * les messages triés d'une fenêtre de client ou bien une sélection de
+ * ceux-ci). Associé à une {@link javax.swing.JList} dont les cellules ont
+ * une taille fixe, seules les lignes visibles sont mises en page et
+ * dessinées, quel que soit le nombre de messages.
+ * Le propriétaire de la liste de messages doit signaler chacune de ses
+ * modifications ({@link #messageInserted(int)}, {@link #messagesChanged()})
+ * et ne la modifier que dans l'EDT.
+ * @see {@link javax.swing.AbstractListModel}
+ * @author davidroussel
+ */
+public class MessageListModel extends AbstractListModel<Message>
+{
+	/**
+	 * Les messages affichés
+	 */
+	private List<Message> messages;
+
+	/**
+	 * Nombre de messages signalés aux observateurs du modèle (la liste des
+	 * messages peut avoir été modifiée avant que la modification ne soit
+	 * signalée)
+	 */
+	private int size;
+
+	/**
+	 * Constructeur d'un modèle vide
+	 */
+	public MessageListModel()
+	{
+		messages = Collections.emptyList();
+		size = 0;
+	}
+
+	/**
+	 * Mise en place des messages affichés
+	 * @param messages la liste des messages à afficher (non copiée)
+	 */
+	public void setMessages(List<Message> messages)
+	{
+		this.messages = messages;
+		if (size > 0)
+		{
+			int oldSize = size;
+			size = 0;
+			fireIntervalRemoved(this, 0, oldSize - 1);
+		}
+		size = messages.size();
+		if (size > 0)
+		{
+			fireIntervalAdded(this, 0, size - 1);
+		}
+	}
+
+	/**
+	 * Signale l'insertion d'un message dans la liste des messages affichés
+	 * @param index l'index du message inséré
+	 */
+	public void messageInserted(int index)
+	{
+		size++;
+		fireIntervalAdded(this, index, index);
+	}
+
+	/**
+	 * Signale une modification quelconque (tri, effacement, ...) de la liste
+	 * des messages affichés
+	 */
+	public void messagesChanged()
+	{
+		setMessages(messages);
+	}
+
+	/**
+	 * Nombre de messages affichés
+	 * @return le nombre de messages affichés
+	 * @see javax.swing.ListModel#getSize()
+	 */
+	@Override
+	public int getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * Accès au message d'index index
+	 * @param index l'index du message
+	 * @return le message d'index index
+	 * @see javax.swing.ListModel#getElementAt(int)
+	 */
+	@Override
+	public Message getElementAt(int index)
+	{
+		return messages.get(index);
+	}
+}
@@ -9,6 +9,12 @@ package models;
  * <li>{@link models.NameSetListModel} une classe représentant des noms
  * d'utilisateurs uniques et toujours triés dans une liste d'utilisateurs (par
  * exemple une {@link javax.swing.JList})</li>
+ * <li>{@link models.MessageListModel} une classe donnant accès à une liste
+ * de messages existante dans une {@link javax.swing.JList} (sans copie des
+ * messages)</li>
+ * <li>{@link models.AuthorIndex} un index des messages triés de chaque
+ * auteur permettant de sélectionner les messages d'un ensemble d'auteurs par
+ * fusion</li>
  * <li> {@link models.AuthorListFilter} une classe permettant de filtrer
  * un flux de messages en vérifiant si un message particulier contient un
  * auteur qui fait partie de la liste des auteurs référencés dans ce filtre</li>
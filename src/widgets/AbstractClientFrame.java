@@ -7,9 +7,8 @@ import java.io.IOException;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.io.PrintWriter;
-import java.util.Map;
+import java.util.ArrayList;
 import java.util.Random;
-import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,6 +18,7 @@ import javax.swing.text.Style;
 import javax.swing.text.StyledDocument;
 
 import logger.LoggerFactory;
+import models.AuthorSymbols;
 
 public abstract class AbstractClientFrame extends JFrame implements Runnable
 {
@@ -66,11 +66,13 @@ public abstract class AbstractClientFrame extends JFrame implements Runnable
 	protected Color defaultColor;
 
 	/**
-	 * Map associant une couleur à un nom afin que l'on n'ai pas à générer
-	 * une couleur à chaque fois que l'on a besoin d'une couleur pour un nom.
-	 * Cette map est mise à jour dans {@link #getColorFromName(String)}
+	 * Couleurs associées aux noms, indexées par l'identifiant du nom dans la
+	 * table des symboles des auteurs ({@link AuthorSymbols}) afin que l'on
+	 * n'ai pas à générer une couleur à chaque fois que l'on a besoin d'une
+	 * couleur pour un nom.
+	 * Ce cache est mis à jour dans {@link #getColorFromId(int)}
 	 */
-	protected Map<String, Color> colorMap;
+	protected ArrayList<Color> colorMap;
 
 	/**
 	 * Constructeur [protégé] de la fenêtre de chat abstraite
@@ -139,7 +141,7 @@ public abstract class AbstractClientFrame extends JFrame implements Runnable
 		document = null;
 		documentStyle = null;
 		defaultColor = Color.BLACK;
-		colorMap = new TreeMap<String, Color>();
+		colorMap = new ArrayList<Color>();
 	}
 
 	/**
@@ -185,21 +187,46 @@ public abstract class AbstractClientFrame extends JFrame implements Runnable
 		{
 			if (name.length() > 0)
 			{
-				if (!colorMap.containsKey(name))
-				{
-					Random rand = new Random(name.hashCode());
-					colorMap.put(name, new Color(rand.nextInt()).darker());
-					// colorMap.put(name, name.hashCode()).darker();
-					logger.info("Adding \"" + name + "\" to colorMap");
-				}
-
-				return colorMap.get(name);
+				return getColorFromId(AuthorSymbols.getInstance().idOf(name));
 			}
 		}
 
 		return null;
 	}
 
+	/**
+	 * Couleur d'un nom d'après son identifiant dans la table des symboles
+	 * des auteurs (voir {@link #getColorFromName(String)})
+	 * @param id l'identifiant du nom
+	 * @return la couleur associée au nom ou bien null s'il n'y a pas de nom
+	 * ({@link AuthorSymbols#NONE}) ou si le nom est vide
+	 */
+	protected Color getColorFromId(int id)
+	{
+		if (id == AuthorSymbols.NONE)
+		{
+			return null;
+		}
+		while (colorMap.size() <= id)
+		{
+			colorMap.add(null);
+		}
+		Color color = colorMap.get(id);
+		if (color == null)
+		{
+			String name = AuthorSymbols.getInstance().nameOf(id);
+			if (name.length() > 0)
+			{
+				Random rand = new Random(name.hashCode());
+				color = new Color(rand.nextInt()).darker();
+				// colorMap.put(name, name.hashCode()).darker();
+				colorMap.set(id, color);
+				logger.info("Adding \"" + name + "\" to colorMap");
+			}
+		}
+		return color;
+	}
+
 	/**
 	 * Accesseur en lecture de l' {@link #inPipe} pour y connecter un
 	 * {@link PipedOutputStream}
@@ -12,6 +12,8 @@ import java.awt.event.WindowEvent;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.List;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 import javax.swing.AbstractAction;
@@ -78,6 +80,12 @@ public class ClientFrame extends AbstractClientFrame
 	 */
 	protected final JFrame thisRef;
 
+	/**
+	 * Transfert des messages lus dans le {@link #inPipe} vers l'EDT où ils
+	 * sont ajoutés au {@link #document} par lots
+	 */
+	private final EventQueueBatcher<String> receivedMessages;
+
 	/**
 	 * Constructeur de la fenêtre
 	 * @param name le nom de l'utilisateur
@@ -94,6 +102,14 @@ public class ClientFrame extends AbstractClientFrame
 	{
 		super(name, host, commonRun, parentLogger);
 		thisRef = this;
+		receivedMessages = new EventQueueBatcher<String>(new Consumer<List<String>>()
+		{
+			@Override
+			public void accept(List<String> messages)
+			{
+				writeMessages(messages);
+			}
+		});
 
 		// --------------------------------------------------------------------
 		// Flux d'IO
@@ -242,6 +258,27 @@ public class ClientFrame extends AbstractClientFrame
 
 	}
 
+	/**
+	 * Ajout d'un lot de messages à la fin du document (dans l'EDT)
+	 * @param messages les messages à ajouter
+	 * @see #writeMessage(String)
+	 */
+	protected void writeMessages(List<String> messages)
+	{
+		for (String message : messages)
+		{
+			try
+			{
+				writeMessage(message);
+			}
+			catch (BadLocationException e)
+			{
+				logger.warning("ClientFrame: write at bad location: "
+				    + e.getLocalizedMessage());
+			}
+		}
+	}
+
 	/**
 	 * Recherche du nom d'utilisateur dans un message de type
 	 * "utilisateur > message".
@@ -538,16 +575,8 @@ public class ClientFrame extends AbstractClientFrame
 			if (messageIn != null)
 			{
 				// Ajouter le message à la fin du document avec la couleur
-				// voulue
-				try
-				{
-					writeMessage(messageIn);
-				}
-				catch (BadLocationException e)
-				{
-					logger.warning("ClientFrame: write at bad location: "
-					    + e.getLocalizedMessage());
-				}
+				// voulue (par lots dans l'EDT)
+				receivedMessages.submit(messageIn);
 			}
 			else // messageIn == null
 			{
@@ -8,8 +8,10 @@ import java.security.MessageDigestSpi;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
 import java.util.Vector;
-import java.util.function.Consumer;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -19,11 +21,16 @@ import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultCaret;
+import javax.swing.text.Position;
 import javax.swing.text.StyleConstants;
 
 import chat.Vocabulary;
 import examples.widgets.ListExampleFrame;
+import models.AuthorIndex;
+import models.AuthorSymbols;
 import models.Message;
+import models.MessageComparators;
+import models.MessageListModel;
 import models.NameSetListModel;
 
 /**
@@ -43,8 +50,12 @@ public class ClientFrame2 extends AbstractClientFrame
     private final KickSelectedAction kickSelectionAction;
     private final FilterSelectionAction filterSelectionAction;
 
-    // VIVE LES LAMBDAS ! o/
-    private Consumer<Message> msgPrinter = (Message msg) -> displayMessage(msg);
+    /**
+     * Motif des messages (sans auteur) annonçant la déconnexion d'un
+     * utilisateur
+     */
+    private final static Pattern disconnectPattern =
+        Pattern.compile("(.*) logged out$");
 
     /**
      * Liste des éléments à afficher dans la JList.
@@ -68,8 +79,81 @@ public class ClientFrame2 extends AbstractClientFrame
 	 */
 	private ObjectInputStream inOS;
 
+	/**
+	 * Comparateur (immuable) correspondant aux critères d'ordre des messages
+	 * choisis dans cette fenêtre
+	 * @see MessageComparators
+	 */
+	private Comparator<Message> comparator = MessageComparators.DEFAULT;
+
+	/**
+	 * Les messages reçus, triés suivant le comparateur
+	 * ({@link #renderedComparator}) avec lequel le {@link #document} a été
+	 * construit. Les messages égaux restent dans leur ordre d'arrivée.
+	 */
 	protected Vector<Message> messageStore = new Vector<>();
 
+	/**
+	 * Position du début de chacun des messages de {@link #messageStore}
+	 * dans le {@link #document} (lorsque celui-ci contient tous les messages)
+	 */
+	private Vector<Position> messagePositions = new Vector<>();
+
+	/**
+	 * Index des messages de {@link #messageStore} par auteur (dans le même
+	 * ordre) utilisé pour filtrer les messages des utilisateurs sélectionnés
+	 */
+	private final AuthorIndex authorIndex = new AuthorIndex();
+
+	/**
+	 * Comparateur avec lequel le {@link #document} a été entièrement
+	 * construit ou bien null si le document ne contient pas (ou plus) tous
+	 * les messages dans cet ordre (après un effacement ou un filtrage) : il
+	 * sera alors reconstruit au prochain message reçu.
+	 */
+	private Comparator<Message> renderedComparator = null;
+
+	/**
+	 * Transfert des messages lus dans le {@link #inPipe} vers l'EDT où ils
+	 * sont ajoutés au {@link #document} par lots
+	 */
+	private final EventQueueBatcher<Message> receivedMessages;
+
+	/**
+	 * Zone de défilement contenant la vue des messages (le {@link #textPane}
+	 * ou bien la {@link #messageList})
+	 */
+	private final JScrollPane messagesScrollPane;
+
+	/**
+	 * Vue texte des messages (affichant le {@link #document})
+	 */
+	private final JTextPane textPane;
+
+	/**
+	 * Vue liste des messages : seules les lignes visibles sont mises en page
+	 * et dessinées (cellules de taille fixe), sans construire de document
+	 */
+	private final JList<Message> messageList;
+
+	/**
+	 * Modèle de la {@link #messageList} (donnant accès au
+	 * {@link #messageStore} ou à une sélection de messages)
+	 */
+	private final MessageListModel messageListModel;
+
+	/**
+	 * Affichage des messages dans la {@link #messageList} plutôt que dans le
+	 * {@link #document}
+	 */
+	private boolean listView = false;
+
+	/**
+	 * Action à réaliser pour basculer entre la vue texte et la vue liste des
+	 * messages
+	 */
+	private final ListViewAction listViewAction;
+
 	/**
 	 * Le label indiquant sur quel serveur on est connecté
 	 */
@@ -105,7 +189,18 @@ public class ClientFrame2 extends AbstractClientFrame
 	 */
 	protected final JFrame thisRef;
 	NameSetListModel userList = new NameSetListModel();
-	ArrayList<String> userStore = new ArrayList<>();
+	/**
+	 * Identifiants ({@link AuthorSymbols}) des utilisateurs connus, triés
+	 * dans l'ordre alphabétique de leur nom (comme dans {@link #usersList})
+	 */
+	ArrayList<Integer> userStore = new ArrayList<>();
+
+	/**
+	 * Ordre alphabétique des identifiants des utilisateurs
+	 */
+	private static final Comparator<Integer> userOrder =
+		(Integer id1, Integer id2) ->
+			AuthorSymbols.getInstance().compare(id1.intValue(), id2.intValue());
     private static String newline = System.getProperty("line.separator");
 
     /**
@@ -124,6 +219,8 @@ public class ClientFrame2 extends AbstractClientFrame
 	{
 		super(name, host, commonRun, parentLogger);
 		thisRef = this;
+		receivedMessages =
+			new EventQueueBatcher<Message>((List<Message> batch) -> messagesReceived(batch));
 
 		// --------------------------------------------------------------------
 		// Flux d'IO
@@ -147,6 +244,7 @@ public class ClientFrame2 extends AbstractClientFrame
         sortContentAction = new SortAction(SortType.CONTENT);
         sortAuthorAction = new SortAction(SortType.AUTHOR);
         sortDateAction = new SortAction(SortType.DATE);
+        listViewAction = new ListViewAction();
 
 		/*
 		 * Ajout d'un listener pour fermer correctement l'application lorsque
@@ -275,16 +373,28 @@ public class ClientFrame2 extends AbstractClientFrame
 		JButton sendButton = new JButton(sendAction);
 		sendPanel.add(sendButton, BorderLayout.EAST);
 
-		JScrollPane scrollPane = new JScrollPane();
-		getContentPane().add(scrollPane, BorderLayout.CENTER);
+		messagesScrollPane = new JScrollPane();
+		getContentPane().add(messagesScrollPane, BorderLayout.CENTER);
 
-		JTextPane textPane = new JTextPane();
+		textPane = new JTextPane();
 		textPane.setEditable(false);
 		// autoscroll textPane to bottom
 		DefaultCaret caret = (DefaultCaret) textPane.getCaret();
 		caret.setUpdatePolicy(DefaultCaret.ALWAYS_UPDATE);
 
-		scrollPane.setViewportView(textPane);
+		messagesScrollPane.setViewportView(textPane);
+
+		messageListModel = new MessageListModel();
+		messageList = new JList<Message>(messageListModel);
+		messageList.setCellRenderer(new MessageRenderer());
+		/*
+		 * Cellules de taille fixe (d'après un message type) : la JList n'a
+		 * pas à mesurer tous les messages pour se mettre en page
+		 */
+		char[] prototype = new char[100];
+		Arrays.fill(prototype, 'm');
+		messageList.setPrototypeCellValue(new Message(new Date(0),
+		                                              new String(prototype)));
 
 		JMenuBar menuBar = new JMenuBar();
 		setJMenuBar(menuBar);
@@ -307,6 +417,9 @@ public class ClientFrame2 extends AbstractClientFrame
         JMenuItem filterMenuitem = new JMenuItem(filterSelectionAction);
         messagesMenu.add(filterMenuitem);
 
+        JCheckBoxMenuItem listViewMenuItem = new JCheckBoxMenuItem(listViewAction);
+        messagesMenu.add(listViewMenuItem);
+
         // ------------------------- USERS MENU --------------------------------
 
         JMenu usersMenu = new JMenu("Users");
@@ -344,6 +457,7 @@ public class ClientFrame2 extends AbstractClientFrame
 
         JPopupMenu rightPopup = new JPopupMenu();
         addPopup(textPane, rightPopup);
+        addPopup(messageList, rightPopup);
         rightPopup.add(sortMenu);
 
 
@@ -433,6 +547,9 @@ public class ClientFrame2 extends AbstractClientFrame
 			{
 				document.remove(0, document.getLength());
 				messageStore.clear();
+				messagePositions.clear();
+				authorIndex.clear();
+				messageListModel.setMessages(messageStore);
 			}
 			catch (BadLocationException ex)
 			{
@@ -583,23 +700,63 @@ public class ClientFrame2 extends AbstractClientFrame
             } catch (BadLocationException e1) {
                 e1.printStackTrace();
             }
+            // Le document ne contient plus tous les messages
+            renderedComparator = null;
 
             ArrayList<String> selUserList = new ArrayList<>();
 
-            if (!selectedUsers.isEmpty()) {
+            if ((selectedUsers != null) && !selectedUsers.isEmpty()) {
                 for (int i : selectedUsers) {
                     selUserList.add(usersList.getElementAt(i));
                 }
             }
 
-            for (Message m : messageStore) {
-                if (selUserList.contains(m.getAuthor())) {
-                    displayMessage(m);
+            // Fusion des messages (déjà triés) des utilisateurs sélectionnés
+            List<Message> selection = authorIndex.select(selUserList);
+            if (listView) {
+                messageListModel.setMessages(selection);
+            } else {
+                for (Message m : selection) {
+                    renderMessage(m, document.getLength());
                 }
             }
         }
     }
 
+    /**
+     * Action permettant de basculer entre la vue texte (document) et la vue
+     * liste (virtuelle) des messages. La vue qui n'est pas affichée n'est
+     * pas maintenue (le document est vidé en vue liste) : elle est
+     * reconstruite lorsqu'elle est de nouveau affichée.
+     */
+    private class ListViewAction extends AbstractAction
+    {
+        /**
+         * Constructeur d'une ListViewAction : met en place le nom et la
+         * description de l'action
+         */
+        public ListViewAction()
+        {
+            putValue(NAME, "List view");
+            putValue(SHORT_DESCRIPTION,
+                     "Show messages in a list (faster on large histories)");
+            putValue(SELECTED_KEY, Boolean.FALSE);
+        }
+
+        /**
+         * Opérations réalisées lorsque la vue des messages est changée
+         * @param e évènement à l'origine de l'action
+         * @see java.awt.event.ActionListener#actionPerformed(java.awt.event.ActionEvent)
+         */
+        @Override
+        public void actionPerformed(ActionEvent e)
+        {
+            listView = Boolean.TRUE.equals(getValue(SELECTED_KEY));
+            messagesScrollPane.setViewportView(listView ? messageList : textPane);
+            rebuildView();
+        }
+    }
+
     private class ClearSelectionAction extends AbstractAction
     {
         public ClearSelectionAction()
@@ -645,7 +802,8 @@ public class ClientFrame2 extends AbstractClientFrame
         {
             if (!selectedUsers.isEmpty()) {
                 for (int i : selectedUsers) {
-                    String currentUser = userStore.get(i);
+                    String currentUser =
+                        AuthorSymbols.getInstance().nameOf(userStore.get(i));
                     outPW.println("Kick " + currentUser);
                 }
             }
@@ -675,33 +833,19 @@ public class ClientFrame2 extends AbstractClientFrame
 
         @Override
         public void actionPerformed(ActionEvent e) {
-	        this.removeOrderTypes();
             switch (this.sortType) {
                 case DATE:
-                    Message.addOrder(Message.MessageOrder.DATE);
+                    comparator = MessageComparators.of(Message.MessageOrder.DATE);
                     break;
                 case AUTHOR:
-                    Message.addOrder(Message.MessageOrder.AUTHOR);
+                    comparator = MessageComparators.of(Message.MessageOrder.AUTHOR);
                     break;
                 case CONTENT:
-                    Message.addOrder(Message.MessageOrder.CONTENT);
+                    comparator = MessageComparators.of(Message.MessageOrder.CONTENT);
                     break;
             }
-            try {
-                document.remove(0, document.getLength());
-            } catch (BadLocationException e1) {
-                e1.printStackTrace();
-            }
-
-            Collections.sort(messageStore);
-            messageStore.stream().forEach(msgPrinter);
-
-        }
+            rebuildView();
 
-        private void removeOrderTypes() {
-            Message.removeOrder(Message.MessageOrder.DATE);
-            Message.removeOrder(Message.MessageOrder.AUTHOR);
-            Message.removeOrder(Message.MessageOrder.CONTENT);
         }
     }
 
@@ -766,13 +910,8 @@ public class ClientFrame2 extends AbstractClientFrame
 
 			if (messageIn != null)
 			{
-				messageStore.add(messageIn);
-                try {
-                    document.remove(0, document.getLength());
-                    messageStore.stream().sorted().forEach(msgPrinter);
-                } catch (BadLocationException e) {
-                    e.printStackTrace();
-                }
+				// Ajout du message au document (par lots dans l'EDT)
+				receivedMessages.submit(messageIn);
 			}
 			else // messageIn == null
 			{
@@ -794,6 +933,157 @@ public class ClientFrame2 extends AbstractClientFrame
 		cleanup();
 	}
 
+	/**
+	 * Traitement d'un message reçu (dans l'EDT)
+	 * @param messageIn le message reçu
+	 * @see #messagesReceived(List)
+	 */
+	protected void messageReceived(Message messageIn)
+	{
+		messagesReceived(Collections.singletonList(messageIn));
+	}
+
+	/**
+	 * Traitement d'un lot de messages reçus (dans l'EDT) : mise à jour de
+	 * la liste des utilisateurs puis insertion de chaque message à sa place
+	 * dans les messages triés et dans le {@link #document}. Le document
+	 * n'est entièrement reconstruit que si les critères d'ordre des messages
+	 * ont changé depuis sa dernière construction (ou s'il a été filtré), ou
+	 * bien si le lot contient plus de messages que le document.
+	 * @param messages les messages reçus
+	 */
+	protected void messagesReceived(List<Message> messages)
+	{
+		for (Message message : messages)
+		{
+			updateUsers(message);
+		}
+
+		// Défilement de la vue liste si le dernier message était visible
+		boolean atEnd = listView &&
+			(messageList.getLastVisibleIndex() >= (messageListModel.getSize() - 1));
+
+		if ((comparator != renderedComparator)
+		    || (messages.size() > messageStore.size()))
+		{
+			messageStore.addAll(messages);
+			rebuildView();
+		}
+		else
+		{
+			for (Message message : messages)
+			{
+				insertMessage(message);
+			}
+		}
+
+		if (atEnd && (messageListModel.getSize() > 0))
+		{
+			messageList.ensureIndexIsVisible(messageListModel.getSize() - 1);
+		}
+	}
+
+	/**
+	 * Insertion d'un message à sa place dans les messages triés et dans le
+	 * {@link #document} (qui contient déjà tous les autres messages)
+	 * @param messageIn le message à insérer
+	 */
+	private void insertMessage(Message messageIn)
+	{
+		int index = insertionIndex(messageIn);
+		authorIndex.add(messageIn);
+		if (listView)
+		{
+			messageStore.add(index, messageIn);
+			messageListModel.messageInserted(index);
+			return;
+		}
+		int offset = (index < messagePositions.size() ?
+		              messagePositions.get(index).getOffset() :
+		              document.getLength());
+		messageStore.add(index, messageIn);
+		int length = renderMessage(messageIn, offset);
+		try
+		{
+			messagePositions.add(index, document.createPosition(offset));
+			if ((offset == 0) && (messagePositions.size() > 1))
+			{
+				/*
+				 * Les positions en début de document ne suivent pas les
+				 * insertions : celle du message suivant est recréée
+				 */
+				messagePositions.set(1, document.createPosition(length));
+			}
+		}
+		catch (BadLocationException e)
+		{
+			logger.warning("ClientFrame2: bad message position " + offset);
+			renderedComparator = null;
+		}
+	}
+
+	/**
+	 * Indice d'insertion d'un message dans les messages triés
+	 * {@link #messageStore} : après tous les messages inférieurs ou égaux
+	 * (recherche dichotomique)
+	 * @param message le message à insérer
+	 * @return l'indice auquel insérer le message
+	 */
+	private int insertionIndex(Message message)
+	{
+		int low = 0;
+		int high = messageStore.size();
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (comparator.compare(messageStore.get(middle), message) <= 0)
+			{
+				low = middle + 1;
+			}
+			else
+			{
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Reconstruction complète de la vue des messages : tri des messages
+	 * suivant le {@link #comparator} de la fenêtre puis affichage de tous les
+	 * messages dans le {@link #document} ou bien dans la
+	 * {@link #messageList} (le document est alors vidé)
+	 */
+	private void rebuildView()
+	{
+		messageStore.sort(comparator);
+		authorIndex.rebuild(messageStore, comparator);
+		messagePositions.clear();
+		try
+		{
+			document.remove(0, document.getLength());
+			if (listView)
+			{
+				messageListModel.setMessages(messageStore);
+				renderedComparator = comparator;
+				return;
+			}
+			for (Message message : messageStore)
+			{
+				int offset = document.getLength();
+				renderMessage(message, offset);
+				messagePositions.add(document.createPosition(offset));
+			}
+			renderedComparator = comparator;
+		}
+		catch (BadLocationException e)
+		{
+			logger.warning("ClientFrame2: rebuild failed: "
+				+ e.getLocalizedMessage());
+			renderedComparator = null;
+		}
+	}
+
 	/**
 	 * Fermeture de la fenètre et des flux à la fin de l'exécution
 	 */
@@ -814,33 +1104,114 @@ public class ClientFrame2 extends AbstractClientFrame
 		super.cleanup();
 	}
 
-	private void displayMessage(Message msg) {
-		String author = msg.getAuthor();
-		if (author != null) {
-            StyleConstants.setForeground(documentStyle, getColorFromName(msg.getAuthor()));
-            if ((author.length() > 0) && !userStore.contains(author)) {
-                userStore.add(author);
-                Collections.sort(userStore);
-            }
-		} else {
-            Pattern disconnectPattern = Pattern.compile("(.*) logged out$");
-            Matcher disconnectMatcher = disconnectPattern.matcher(msg.getContent());
-            if (disconnectMatcher.matches()) {
-                userStore.remove(disconnectMatcher.group(1));
-            }
+	/**
+	 * Mise à jour de la liste des utilisateurs d'après un message reçu :
+	 * ajout de l'auteur du message s'il n'est pas encore connu ou retrait
+	 * d'un utilisateur qui s'est déconnecté
+	 * @param msg le message reçu
+	 */
+	private void updateUsers(Message msg)
+	{
+		if (msg.hasAuthor())
+		{
+			String author = msg.getAuthor();
+			if (author.length() > 0)
+			{
+				Integer authorId = Integer.valueOf(msg.getAuthorId());
+				int index = Collections.binarySearch(userStore, authorId, userOrder);
+				if (index < 0)
+				{
+					index = -(index + 1);
+					userStore.add(index, authorId);
+					usersList.add(index, author);
+				}
+			}
 		}
+		else
+		{
+			Matcher disconnectMatcher = disconnectPattern.matcher(msg.getContent());
+			if (disconnectMatcher.matches())
+			{
+				int id = AuthorSymbols.getInstance().find(disconnectMatcher.group(1));
+				int index = (id != AuthorSymbols.NONE ?
+				             userStore.indexOf(Integer.valueOf(id)) : -1);
+				if (index >= 0)
+				{
+					userStore.remove(index);
+					usersList.remove(index);
+				}
+			}
+		}
+	}
 
-		// Refresh user list interface
-        usersList.clear();
-        for (String s : userStore)
-            usersList.addElement(s);
+	/**
+	 * Affichage d'un message dans le {@link #document} (dans la couleur de
+	 * son auteur)
+	 * @param msg le message à afficher
+	 * @param offset la position à laquelle insérer le message
+	 * @return le nombre de caractères insérés
+	 */
+	private int renderMessage(Message msg, int offset)
+	{
+		if (msg.hasAuthor())
+		{
+			StyleConstants.setForeground(documentStyle,
+			                             getColorFromId(msg.getAuthorId()));
+		}
 
-		try {
-			document.insertString(document.getLength(), msg.toString() + Vocabulary.newLine, documentStyle);
-		} catch (BadLocationException e) {
+		String line = msg.toString() + Vocabulary.newLine;
+		try
+		{
+			document.insertString(offset, line, documentStyle);
+		}
+		catch (BadLocationException e)
+		{
 			e.printStackTrace();
 		}
 		StyleConstants.setForeground(documentStyle, defaultColor);
+		return line.length();
+	}
+
+	/**
+	 * Renderer des messages de la {@link #messageList} : chaque message est
+	 * affiché dans la couleur de son auteur
+	 * (voir {@link AbstractClientFrame#getColorFromId(int)})
+	 */
+	public class MessageRenderer extends JLabel
+			implements ListCellRenderer<Message>
+	{
+		/**
+		 * Customized rendering for a message with the color of its author
+		 * @see
+		 * javax.swing.ListCellRenderer#getListCellRendererComponent(javax.swing
+		 * .JList, java.lang.Object, int, boolean, boolean)
+		 */
+		@Override
+		public Component getListCellRendererComponent(
+				JList<? extends Message> list, Message value, int index,
+				boolean isSelected, boolean cellHasFocus)
+		{
+			Color color = list.getForeground();
+			Color authorColor = getColorFromId(value.getAuthorId());
+			if (authorColor != null)
+			{
+				color = authorColor;
+			}
+			setText(value.toString());
+			if (isSelected)
+			{
+				setBackground(list.getSelectionBackground());
+			}
+			else
+			{
+				setBackground(list.getBackground());
+			}
+			setForeground(color);
+			setEnabled(list.isEnabled());
+			setFont(list.getFont());
+			setOpaque(true);
+			return this;
+		}
 	}
 
 	/**
@@ -0,0 +1,188 @@
+package widgets;
+
+import java.awt.EventQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Etage de transfert des éléments lus par un thread de lecture (par exemple
+ * les messages reçus du serveur) vers le thread de gestion des évènements
+ * de Swing (EDT) : les éléments soumis ({@link #submit(Object)}) sont
+ * accumulés puis appliqués aux modèles Swing (document, liste, ...) par
+ * lots, dans l'EDT, au moyen d'un seul {@link EventQueue#invokeLater(Runnable)}
+ * en attente à la fois.
+ * Chaque tour de l'EDT applique au plus {@link #maxBatch} éléments : lors
+ * d'un afflux de messages, les éléments restants sont appliqués aux tours
+ * suivants, ce qui laisse l'EDT traiter les autres évènements (affichage,
+ * saisie) entre deux lots.
+ * Le nombre d'éléments en attente est borné ({@link #DEFAULTCAPACITY} par
+ * défaut) : lorsque l'EDT ne suit pas, {@link #submit(Object)} bloque le
+ * thread de lecture jusqu'à l'application du lot suivant, ce qui ralentit
+ * la lecture (et reporte l'excès sur la file d'attente du client dans le
+ * serveur) au lieu d'accumuler les éléments en mémoire.
+ * @param <E> le type des éléments transférés
+ * @author davidroussel
+ */
+public class EventQueueBatcher<E>
+{
+	/**
+	 * Nombre maximum d'éléments appliqués par défaut à chaque tour de l'EDT
+	 */
+	public final static int DEFAULTMAXBATCH = 128;
+
+	/**
+	 * Nombre maximum d'éléments en attente d'application par défaut
+	 */
+	public final static int DEFAULTCAPACITY = 32 * DEFAULTMAXBATCH;
+
+	/**
+	 * Les éléments en attente d'application (file bornée)
+	 */
+	private final BlockingQueue<E> pending;
+
+	/**
+	 * Indique si un lot est déjà programmé dans l'EDT
+	 */
+	private final AtomicBoolean scheduled;
+
+	/**
+	 * Application d'un lot d'éléments aux modèles Swing (dans l'EDT)
+	 */
+	private final Consumer<List<E>> applier;
+
+	/**
+	 * Nombre maximum d'éléments appliqués à chaque tour de l'EDT
+	 */
+	private final int maxBatch;
+
+	/**
+	 * Tâche exécutée dans l'EDT pour appliquer un lot
+	 */
+	private final Runnable flushTask;
+
+	/**
+	 * Constructeur d'un étage de transfert
+	 * @param applier application d'un lot d'éléments (dans l'EDT)
+	 * @param maxBatch nombre maximum d'éléments appliqués à chaque tour de
+	 * l'EDT
+	 * @param capacity nombre maximum d'éléments en attente d'application
+	 * (au moins maxBatch)
+	 */
+	public EventQueueBatcher(Consumer<List<E>> applier,
+	                         int maxBatch,
+	                         int capacity)
+	{
+		this.applier = applier;
+		this.maxBatch = Math.max(maxBatch, 1);
+		pending = new LinkedBlockingQueue<E>(Math.max(capacity, this.maxBatch));
+		scheduled = new AtomicBoolean(false);
+		flushTask = () -> flush();
+	}
+
+	/**
+	 * Constructeur d'un étage de transfert gardant au plus
+	 * {@link #DEFAULTCAPACITY} éléments en attente
+	 * @param applier application d'un lot d'éléments (dans l'EDT)
+	 * @param maxBatch nombre maximum d'éléments appliqués à chaque tour de
+	 * l'EDT
+	 */
+	public EventQueueBatcher(Consumer<List<E>> applier, int maxBatch)
+	{
+		this(applier, maxBatch, DEFAULTCAPACITY);
+	}
+
+	/**
+	 * Constructeur d'un étage de transfert appliquant au plus
+	 * {@link #DEFAULTMAXBATCH} éléments par tour de l'EDT
+	 * @param applier application d'un lot d'éléments (dans l'EDT)
+	 */
+	public EventQueueBatcher(Consumer<List<E>> applier)
+	{
+		this(applier, DEFAULTMAXBATCH);
+	}
+
+	/**
+	 * Soumission d'un élément : l'élément sera appliqué lors du prochain
+	 * lot. Si la file d'attente est pleine, le thread appelant est bloqué
+	 * jusqu'à ce que l'EDT y fasse de la place. Depuis l'EDT (qui ne peut
+	 * s'attendre lui-même) un lot est appliqué immédiatement pour libérer
+	 * de la place.
+	 * Si le thread appelant est interrompu pendant l'attente, l'élément est
+	 * abandonné et le thread reste marqué comme interrompu.
+	 * @param element l'élément à appliquer
+	 */
+	public void submit(E element)
+	{
+		if (EventQueue.isDispatchThread())
+		{
+			while (!pending.offer(element))
+			{
+				flush();
+			}
+		}
+		else
+		{
+			try
+			{
+				if (!pending.offer(element))
+				{
+					// le lot qui libérera de la place doit être programmé
+					schedule();
+					pending.put(element);
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		schedule();
+	}
+
+	/**
+	 * Programmation d'un lot dans l'EDT s'il n'y en a pas déjà un en
+	 * attente
+	 */
+	private void schedule()
+	{
+		if (scheduled.compareAndSet(false, true))
+		{
+			EventQueue.invokeLater(flushTask);
+		}
+	}
+
+	/**
+	 * Application d'un lot d'éléments en attente (dans l'EDT), puis
+	 * programmation du lot suivant s'il reste des éléments en attente
+	 */
+	private void flush()
+	{
+		List<E> batch = new ArrayList<E>(Math.min(maxBatch, DEFAULTMAXBATCH));
+		E element;
+		while ((batch.size() < maxBatch) && ((element = pending.poll()) != null))
+		{
+			batch.add(element);
+		}
+
+		try
+		{
+			if (!batch.isEmpty())
+			{
+				applier.accept(batch);
+			}
+		}
+		finally
+		{
+			scheduled.set(false);
+			if (!pending.isEmpty())
+			{
+				schedule();
+			}
+		}
+	}
+}